@@ -0,0 +1,20 @@
+LOCAL_PATH:= $(call my-dir)
+include $(CLEAR_VARS)
+
+# Runs on the host JVM, so it only builds the app sources that have no
+# framework dependencies.
+calendar_src := ../src/com/android/calendar
+LOCAL_SRC_FILES := $(call all-java-files-under, src) \
+        $(calendar_src)/ColumnLayout.java \
+        $(calendar_src)/DNABuilder.java \
+        $(calendar_src)/DNAStrand.java \
+        $(calendar_src)/LinkFinder.java \
+        $(calendar_src)/agenda/AgendaRows.java
+
+LOCAL_MODULE := CalendarBenchmarks
+
+LOCAL_MODULE_TAGS := optional
+
+LOCAL_JAR_MANIFEST := manifest.txt
+
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Runs {@link Benchmark}s the way JMH does in its throughput mode: a number
+ * of timed warmup iterations that are thrown away, then a number of timed
+ * measurement iterations, each calling the operation as many times as fits.
+ * Reports the mean throughput with its spread across iterations and the
+ * bytes allocated per operation.
+ *
+ * Allocation is read from the per-thread counter that HotSpot exposes
+ * through com.sun.management.ThreadMXBean; on VMs without it the column
+ * shows "n/a".
+ */
+public class BenchmarkRunner {
+    private final int mWarmupIterations;
+    private final int mIterations;
+    private final long mIterationNanos;
+    private final PrintStream mOut;
+    private final ThreadMXBean mThreads = ManagementFactory.getThreadMXBean();
+    private final boolean mCanMeasureAllocation;
+
+    // Everything the operations return is folded in here so that the JIT
+    // can't drop the work as dead code.
+    private int mSink;
+    public volatile int sink;
+
+    public BenchmarkRunner(int warmupIterations, int iterations, long iterationMillis,
+            PrintStream out) {
+        mWarmupIterations = warmupIterations;
+        mIterations = iterations;
+        mIterationNanos = iterationMillis * 1000000L;
+        mOut = out;
+        mCanMeasureAllocation = getAllocatedBytes() >= 0;
+    }
+
+    public void printHeader() {
+        mOut.println(String.format(Locale.US, "%-48s %14s %10s %14s", "Benchmark", "ops/s",
+                "error", "B/op"));
+    }
+
+    /**
+     * Runs the benchmark and prints one line with its results.
+     */
+    public void run(Benchmark benchmark) {
+        for (int i = 0; i < mWarmupIterations; i++) {
+            runIteration(benchmark, null);
+        }
+
+        double[] throughput = new double[mIterations];
+        long totalOps = 0;
+        long totalBytes = 0;
+        long[] result = new long[2];
+        for (int i = 0; i < mIterations; i++) {
+            long nanos = runIteration(benchmark, result);
+            throughput[i] = result[0] * 1e9 / nanos;
+            totalOps += result[0];
+            totalBytes += result[1];
+        }
+        sink = mSink;
+
+        double mean = 0;
+        for (double t : throughput) {
+            mean += t;
+        }
+        mean /= mIterations;
+        double variance = 0;
+        for (double t : throughput) {
+            variance += (t - mean) * (t - mean);
+        }
+        double error = mIterations > 1 ? Math.sqrt(variance / (mIterations - 1)) : 0;
+
+        String bytesPerOp = mCanMeasureAllocation
+                ? String.format(Locale.US, "%14.1f", (double) totalBytes / totalOps)
+                : String.format(Locale.US, "%14s", "n/a");
+        mOut.println(String.format(Locale.US, "%-48s %14.1f %10.1f %s", benchmark.getName(),
+                mean, error, bytesPerOp));
+    }
+
+    /**
+     * Calls the operation until the iteration time is up.
+     *
+     * @param result if not null, receives the number of operations and the
+     *        bytes allocated
+     * @return how long the iteration took in nanoseconds
+     */
+    private long runIteration(Benchmark benchmark, long[] result) {
+        long ops = 0;
+        long bytesBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        long deadline = start + mIterationNanos;
+        long now;
+        do {
+            // Check the clock every few calls so that timing doesn't
+            // dominate fast operations.
+            for (int i = 0; i < 16; i++) {
+                consume(benchmark.run());
+            }
+            ops += 16;
+            now = System.nanoTime();
+        } while (now < deadline);
+        long bytesAfter = getAllocatedBytes();
+        if (result != null) {
+            result[0] = ops;
+            result[1] = bytesAfter - bytesBefore;
+        }
+        return now - start;
+    }
+
+    private void consume(Object value) {
+        mSink += System.identityHashCode(value);
+    }
+
+    private long getAllocatedBytes() {
+        if (mThreads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mThreads;
+            if (threads.isThreadAllocatedMemorySupported()
+                    && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import com.android.calendar.SyntheticEvents.Instance;
+import com.android.calendar.SyntheticEvents.Profile;
+import com.android.calendar.agenda.AgendaRowsBenchmark;
+
+import java.util.ArrayList;
+
+/**
+ * Benchmarks for the pure computation behind the day, month and agenda
+ * views and event details, run on a desktop JVM against synthetic
+ * calendars. Each path is measured for every {@link Profile}.
+ *
+ * <ul>
+ * <li>computePositions: the column layout Event.computePositions does for a
+ * week of events</li>
+ * <li>createDNAStrands: the dna for a week in the month view</li>
+ * <li>findNanpPhoneNumbers: phone numbers in the locations of a week</li>
+ * <li>extendedLinkify: the coordinate and phone number pass Utils.extendedLinkify
+ * makes after Linkify, for the locations of a week</li>
+ * <li>calculateDays: the agenda rows for four weeks</li>
+ * </ul>
+ *
+ * Build with "make CalendarBenchmarks" and run with:
+ * "java -jar out/host/linux-x86/framework/CalendarBenchmarks.jar [-wi 5] [-i 5] [-t 1000] [filter]"
+ * where -wi and -i are the number of warmup and measurement iterations, -t
+ * is how long each iteration lasts in milliseconds, and only benchmarks
+ * whose name contains filter are run.
+ */
+public class CalendarBenchmarks {
+    private static final int DAYS_IN_WEEK = 7;
+    private static final int AGENDA_DAYS = 28;
+    private static final long SEED = 42;
+
+    // Same as the minimum event height DayView passes to computePositions
+    private static final long MIN_DURATION_MILLIS = 15 * SyntheticEvents.MINUTE_MILLIS;
+
+    // The dna is drawn for a week in a 100 pixel tall row
+    private static final int DNA_TOP = 0;
+    private static final int DNA_BOTTOM = 100;
+    private static final int DNA_MIN_PIXELS = 4;
+
+    public static void main(String[] args) {
+        int warmupIterations = 5;
+        int iterations = 5;
+        long iterationMillis = 1000;
+        String filter = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("-wi".equals(args[i])) {
+                warmupIterations = Integer.parseInt(args[++i]);
+            } else if ("-i".equals(args[i])) {
+                iterations = Integer.parseInt(args[++i]);
+            } else if ("-t".equals(args[i])) {
+                iterationMillis = Long.parseLong(args[++i]);
+            } else {
+                filter = args[i];
+            }
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(warmupIterations, iterations,
+                iterationMillis, System.out);
+        runner.printHeader();
+        for (Benchmark benchmark : createBenchmarks()) {
+            if (filter == null || benchmark.getName().contains(filter)) {
+                runner.run(benchmark);
+            }
+        }
+    }
+
+    private static ArrayList<Benchmark> createBenchmarks() {
+        ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        for (Profile profile : Profile.values()) {
+            String suffix = "/" + profile.name().toLowerCase();
+            ArrayList<Instance> week = firstDays(
+                    SyntheticEvents.generate(profile, DAYS_IN_WEEK, SEED), DAYS_IN_WEEK);
+            ArrayList<Instance> month = SyntheticEvents.generate(profile, AGENDA_DAYS, SEED);
+
+            benchmarks.add(new ComputePositions("computePositions" + suffix, week));
+            benchmarks.add(new CreateDNAStrands("createDNAStrands" + suffix, week));
+            benchmarks.add(new FindNanpPhoneNumbers("findNanpPhoneNumbers" + suffix, week));
+            benchmarks.add(new ExtendedLinkify("extendedLinkify" + suffix, week));
+            benchmarks.add(new AgendaRowsBenchmark("calculateDays" + suffix, month,
+                    SyntheticEvents.FIRST_JULIAN_DAY,
+                    SyntheticEvents.FIRST_JULIAN_DAY + AGENDA_DAYS - 1));
+        }
+        return benchmarks;
+    }
+
+    /**
+     * Returns the instances that start in the first numDays days, which is
+     * what a query for those days would return apart from instances that
+     * started earlier.
+     */
+    private static ArrayList<Instance> firstDays(ArrayList<Instance> instances, int numDays) {
+        ArrayList<Instance> result = new ArrayList<Instance>();
+        for (Instance instance : instances) {
+            if (instance.startDay < SyntheticEvents.FIRST_JULIAN_DAY + numDays) {
+                result.add(instance);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lays out the timed and then the allday events through the same
+     * ColumnLayout.computePositions as Event.computePositions.
+     */
+    private static class ComputePositions extends Benchmark {
+        private final long[] mStartMillis;
+        private final long[] mEndMillis;
+        private final int[] mStartDay;
+        private final int[] mEndDay;
+        private final boolean[] mDrawAsAllday;
+
+        ComputePositions(String name, ArrayList<Instance> instances) {
+            super(name);
+            int size = instances.size();
+            mStartMillis = new long[size];
+            mEndMillis = new long[size];
+            mStartDay = new int[size];
+            mEndDay = new int[size];
+            mDrawAsAllday = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                Instance instance = instances.get(i);
+                mStartMillis[i] = instance.begin;
+                mEndMillis[i] = instance.end;
+                mStartDay[i] = instance.startDay;
+                mEndDay[i] = instance.endDay;
+                mDrawAsAllday[i] = instance.drawAsAllday();
+            }
+        }
+
+        @Override
+        public Object run() {
+            int size = mStartMillis.length;
+            int[] columns = new int[size];
+            int[] maxColumns = new int[size];
+            ColumnLayout.computePositions(size, mStartMillis, mEndMillis, mStartDay, mEndDay,
+                    mDrawAsAllday, MIN_DURATION_MILLIS, columns, maxColumns);
+            return columns;
+        }
+    }
+
+    private static class CreateDNAStrands extends Benchmark {
+        private final ArrayList<Instance> mInstances;
+        private final int[] mDayXs = new int[DAYS_IN_WEEK];
+
+        CreateDNAStrands(String name, ArrayList<Instance> instances) {
+            super(name);
+            mInstances = instances;
+            for (int i = 0; i < DAYS_IN_WEEK; i++) {
+                mDayXs[i] = 20 + i * 100;
+            }
+        }
+
+        @Override
+        public Object run() {
+            DNABuilder builder = new DNABuilder(SyntheticEvents.FIRST_JULIAN_DAY, DNA_TOP,
+                    DNA_BOTTOM, DNA_MIN_PIXELS, mDayXs);
+            int size = mInstances.size();
+            for (int i = 0; i < size; i++) {
+                Instance instance = mInstances.get(i);
+                builder.add(instance.startDay, instance.startMinute, instance.endDay,
+                        instance.endMinute, instance.color, instance.drawAsAllday());
+            }
+            return builder.build();
+        }
+    }
+
+    private static class FindNanpPhoneNumbers extends Benchmark {
+        private final String[] mTexts;
+
+        FindNanpPhoneNumbers(String name, ArrayList<Instance> instances) {
+            super(name);
+            mTexts = getLocations(instances);
+        }
+
+        @Override
+        public Object run() {
+            int found = 0;
+            for (String text : mTexts) {
+                found += LinkFinder.findNanpPhoneNumbers(text).length;
+            }
+            return found;
+        }
+    }
+
+    private static class ExtendedLinkify extends Benchmark {
+        private static final int[] NO_LINKS = new int[0];
+        private final String[] mTexts;
+
+        ExtendedLinkify(String name, ArrayList<Instance> instances) {
+            super(name);
+            mTexts = getLocations(instances);
+        }
+
+        @Override
+        public Object run() {
+            int found = 0;
+            for (String text : mTexts) {
+                found += LinkFinder.findCoordinatesAndPhoneNumbers(text, NO_LINKS).size();
+            }
+            return found;
+        }
+    }
+
+    private static String[] getLocations(ArrayList<Instance> instances) {
+        String[] locations = new String[instances.size()];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = instances.get(i).location;
+        }
+        return locations;
+    }
+}
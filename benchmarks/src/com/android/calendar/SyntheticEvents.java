@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Generates repeatable sets of instances, shaped like the results of an
+ * Instances query, for the benchmarks. Times are in UTC so that julian days
+ * and minutes can be computed without a time zone.
+ */
+public class SyntheticEvents {
+    public static final long MINUTE_MILLIS = 60 * 1000L;
+    public static final long DAY_MILLIS = 24 * 60 * MINUTE_MILLIS;
+    // Same as Time.EPOCH_JULIAN_DAY
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+    // Monday, January 6 2014
+    public static final int FIRST_JULIAN_DAY = 2456664;
+
+    // The sessions of each CONFERENCE day
+    public static final int CONFERENCE_SESSIONS = 520;
+
+    private static final int[] COLORS = new int[] {
+            0xFF9FC6E7, 0xFFF83A22, 0xFF16A765, 0xFFFAD165, 0xFF9A9CFF, 0xFFB99AFF
+    };
+
+    private static final String[] TEXTS = new String[] {
+            "Weekly sync",
+            "Room 4, call in at (650) 555-1212 or +1 650 555 1213 ext 42",
+            "1600 Amphitheatre Parkway, Mountain View, CA 94043",
+            "Meet at 37.422081, -122.084576 by the fountain",
+            "Details at http://www.example.com/meeting/20140106/1234567",
+            "Bring the slides. Dial 555.1212 for the bridge, code 123456#",
+            "N 37° 25' 19.49\",  W 122° 5' 4.47\" then walk north",
+            "Lunch",
+    };
+
+    /**
+     * The shapes of calendar the generators can produce.
+     */
+    public enum Profile {
+        /** A busy work calendar, dozens of overlapping events every day */
+        DENSE,
+        /** A personal calendar with an event every few days */
+        SPARSE,
+        /** A handful of daily and weekly series expanded into instances */
+        MANY_RECURRING,
+        /** Trips and conferences that last from two days to two weeks */
+        LONG_MULTI_DAY,
+        /** A shared conference calendar, every day hundreds of sessions overlap */
+        CONFERENCE,
+    }
+
+    /**
+     * One instance, with the columns the calendar reads from a query.
+     */
+    public static class Instance {
+        public long eventId;
+        public long instanceId;
+        public long begin;
+        public long end;
+        public int startDay;
+        public int endDay;
+        public int startMinute;
+        public int endMinute;
+        public boolean allDay;
+        public int color;
+        public String title;
+        public String location;
+
+        /**
+         * Same as {@link Event#drawAsAllday()}.
+         */
+        public boolean drawAsAllday() {
+            return allDay || end - begin >= DAY_MILLIS;
+        }
+    }
+
+    public static long getMillis(int julianDay, int minute) {
+        return (julianDay - EPOCH_JULIAN_DAY) * DAY_MILLIS + minute * MINUTE_MILLIS;
+    }
+
+    /**
+     * Generates the instances of numDays days starting at
+     * {@link #FIRST_JULIAN_DAY}, sorted by begin like an Instances query.
+     */
+    public static ArrayList<Instance> generate(Profile profile, int numDays, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Instance> instances = new ArrayList<Instance>();
+        Builder builder = new Builder(random, instances);
+        switch (profile) {
+            case DENSE:
+                for (int day = 0; day < numDays; day++) {
+                    // Work hours, on quarter hours
+                    for (int i = 0; i < 40; i++) {
+                        int start = 8 * 60 + random.nextInt(40) * 15;
+                        builder.addTimed(day, start, day, start + (1 + random.nextInt(8)) * 15);
+                    }
+                    if (random.nextInt(3) == 0) {
+                        builder.addAllDay(day, 1);
+                    }
+                }
+                break;
+            case SPARSE:
+                for (int day = 0; day < numDays; day++) {
+                    if (random.nextInt(3) == 0) {
+                        int start = (7 + random.nextInt(14)) * 60;
+                        builder.addTimed(day, start, day, start + 60);
+                    }
+                }
+                break;
+            case MANY_RECURRING:
+                for (int series = 0; series < 12; series++) {
+                    long eventId = builder.nextEventId++;
+                    int start = (8 + random.nextInt(10)) * 60 + random.nextInt(4) * 15;
+                    int length = (1 + random.nextInt(4)) * 15;
+                    // Every day, every weekday or every week
+                    int kind = series % 3;
+                    for (int day = series % 7; day < numDays; day++) {
+                        boolean weekday = (day % 7) < 5;
+                        if ((kind == 0) || (kind == 1 && weekday) || (kind == 2 && day % 7 == 0)) {
+                            builder.addInstance(eventId, day, start, day, start + length, false);
+                        }
+                    }
+                }
+                break;
+            case LONG_MULTI_DAY:
+                for (int day = 0; day < numDays; day++) {
+                    if (random.nextInt(2) == 0) {
+                        int length = 2 + random.nextInt(13);
+                        if (random.nextBoolean()) {
+                            builder.addAllDay(day, length);
+                        } else {
+                            // A timed event that crosses midnight several times
+                            builder.addTimed(day, (8 + random.nextInt(12)) * 60, day + length - 1,
+                                    (8 + random.nextInt(12)) * 60);
+                        }
+                    }
+                    int start = (9 + random.nextInt(8)) * 60;
+                    builder.addTimed(day, start, day, start + 60);
+                }
+                break;
+            case CONFERENCE:
+                for (int day = 0; day < numDays; day++) {
+                    // Tracks that start in the morning and run most of the
+                    // day, so they all overlap in the afternoon
+                    for (int i = 0; i < CONFERENCE_SESSIONS; i++) {
+                        int start = 8 * 60 + random.nextInt(8) * 15;
+                        builder.addTimed(day, start, day, start + (32 + random.nextInt(8)) * 15);
+                    }
+                }
+                break;
+        }
+        Collections.sort(instances, new Comparator<Instance>() {
+            @Override
+            public int compare(Instance lhs, Instance rhs) {
+                if (lhs.begin != rhs.begin) {
+                    return lhs.begin < rhs.begin ? -1 : 1;
+                }
+                return lhs.end < rhs.end ? -1 : (lhs.end == rhs.end ? 0 : 1);
+            }
+        });
+        return instances;
+    }
+
+    private static class Builder {
+        final Random random;
+        final ArrayList<Instance> instances;
+        long nextEventId = 1;
+        long nextInstanceId = 1;
+
+        Builder(Random random, ArrayList<Instance> instances) {
+            this.random = random;
+            this.instances = instances;
+        }
+
+        void addTimed(int startDay, int startMinute, int endDay, int endMinute) {
+            addInstance(nextEventId++, startDay, startMinute, endDay, endMinute, false);
+        }
+
+        void addAllDay(int startDay, int numDays) {
+            addInstance(nextEventId++, startDay, 0, startDay + numDays, 0, true);
+        }
+
+        void addInstance(long eventId, int startDay, int startMinute, int endDay, int endMinute,
+                boolean allDay) {
+            // Carry minutes past midnight over to the next day
+            endDay += endMinute / (24 * 60);
+            endMinute %= 24 * 60;
+
+            Instance instance = new Instance();
+            instance.eventId = eventId;
+            instance.instanceId = nextInstanceId++;
+            instance.allDay = allDay;
+            instance.begin = getMillis(FIRST_JULIAN_DAY + startDay, startMinute);
+            instance.end = getMillis(FIRST_JULIAN_DAY + endDay, endMinute);
+            instance.startDay = FIRST_JULIAN_DAY + startDay;
+            instance.startMinute = startMinute;
+            if (allDay || (endMinute == 0 && endDay > startDay)) {
+                // Ends at midnight, so the last day is the one before
+                instance.endDay = FIRST_JULIAN_DAY + endDay - 1;
+                instance.endMinute = 24 * 60;
+            } else {
+                instance.endDay = FIRST_JULIAN_DAY + endDay;
+                instance.endMinute = endMinute;
+            }
+            instance.color = COLORS[(int) (eventId % COLORS.length)];
+            instance.title = TEXTS[random.nextInt(TEXTS.length)];
+            instance.location = TEXTS[random.nextInt(TEXTS.length)];
+            instances.add(instance);
+        }
+    }
+}
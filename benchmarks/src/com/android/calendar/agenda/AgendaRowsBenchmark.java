@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import com.android.calendar.Benchmark;
+import com.android.calendar.SyntheticEvents;
+import com.android.calendar.SyntheticEvents.Instance;
+
+import java.util.ArrayList;
+
+/**
+ * Measures {@link AgendaRows#calculateDays}, the work
+ * AgendaByDayAdapter.calculateDays does for every agenda query once the
+ * cursor and Time are out of the way.
+ */
+public class AgendaRowsBenchmark extends Benchmark {
+    // Pacific standard time, so that allday instances need converting
+    private static final long OFFSET_MILLIS = -8 * 60 * SyntheticEvents.MINUTE_MILLIS;
+
+    private final int mStartDay;
+    private final int mEndDay;
+    private final ArrayInstanceSource mSource;
+    private final AgendaRows.DayClock mClock = new FixedOffsetDayClock(OFFSET_MILLIS);
+
+    public AgendaRowsBenchmark(String name, ArrayList<Instance> instances, int startDay,
+            int endDay) {
+        super(name);
+        mStartDay = startDay;
+        mEndDay = endDay;
+        mSource = new ArrayInstanceSource(instances);
+    }
+
+    @Override
+    public Object run() {
+        mSource.reset();
+        return AgendaRows.calculateDays(mSource, mStartDay, mEndDay, mClock);
+    }
+
+    /**
+     * Stands in for the agenda cursor.
+     */
+    private static class ArrayInstanceSource implements AgendaRows.InstanceSource {
+        private final ArrayList<Instance> mInstances;
+        private int mPosition = -1;
+        private Instance mCurrent;
+
+        ArrayInstanceSource(ArrayList<Instance> instances) {
+            mInstances = instances;
+        }
+
+        void reset() {
+            mPosition = -1;
+            mCurrent = null;
+        }
+
+        @Override
+        public boolean moveToNext() {
+            if (mPosition + 1 >= mInstances.size()) {
+                return false;
+            }
+            mCurrent = mInstances.get(++mPosition);
+            return true;
+        }
+
+        @Override
+        public int getStartDay() {
+            return mCurrent.startDay;
+        }
+
+        @Override
+        public int getEndDay() {
+            return mCurrent.endDay;
+        }
+
+        @Override
+        public long getEventId() {
+            return mCurrent.eventId;
+        }
+
+        @Override
+        public long getBegin() {
+            return mCurrent.begin;
+        }
+
+        @Override
+        public long getEnd() {
+            return mCurrent.end;
+        }
+
+        @Override
+        public long getInstanceId() {
+            return mCurrent.instanceId;
+        }
+
+        @Override
+        public boolean isAllDay() {
+            return mCurrent.allDay;
+        }
+    }
+
+    /**
+     * Stands in for Time in a time zone without daylight saving time.
+     */
+    private static class FixedOffsetDayClock implements AgendaRows.DayClock {
+        private final long mOffsetMillis;
+
+        FixedOffsetDayClock(long offsetMillis) {
+            mOffsetMillis = offsetMillis;
+        }
+
+        @Override
+        public long convertAlldayUtcToLocal(long utcTime) {
+            return utcTime - mOffsetMillis;
+        }
+
+        @Override
+        public long getStartOfDay(int julianDay) {
+            return (julianDay - SyntheticEvents.EPOCH_JULIAN_DAY) * SyntheticEvents.DAY_MILLIS
+                    - mOffsetMillis;
+        }
+
+        @Override
+        public long getNextMidnight(long time) {
+            long local = time + mOffsetMillis;
+            long day = local >= 0 ? local / SyntheticEvents.DAY_MILLIS
+                    : (local + 1) / SyntheticEvents.DAY_MILLIS - 1;
+            return (day + 1) * SyntheticEvents.DAY_MILLIS - mOffsetMillis;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.content.Context;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A small binary file in app storage that is always replaced as a whole, for
+ * the caches that are kept between runs. Writes go through {@link AtomicFile},
+ * so a write that fails or is interrupted leaves the previous contents.
+ *
+ * Reading and writing do disk I/O, don't do either on the UI thread.
+ */
+public class AtomicDataFile {
+    private static final String TAG = "AtomicDataFile";
+
+    /**
+     * Reads the contents of the file.
+     */
+    public interface Reader {
+        /**
+         * Throws an IOException if the contents aren't valid.
+         */
+        void read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Writes the new contents of the file.
+     */
+    public interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final AtomicFile mFile;
+
+    public AtomicDataFile(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * A file named name in the files directory of the app.
+     */
+    public AtomicDataFile(Context context, String name) {
+        this(new File(context.getFilesDir(), name));
+    }
+
+    public File getFile() {
+        return mFile.getBaseFile();
+    }
+
+    /**
+     * Returns the file, to read or map it directly, or null if nothing was
+     * saved. The previous contents are restored first if a write was
+     * interrupted.
+     */
+    public File getReadableFile() {
+        FileInputStream in;
+        try {
+            in = mFile.openRead();
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        return getFile();
+    }
+
+    /**
+     * Reads the file with reader.
+     *
+     * @return false if nothing was saved or the file couldn't be read, in
+     *         which case the reader may have read part of it
+     */
+    public boolean read(Reader reader) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            reader.read(in);
+            return true;
+        } catch (FileNotFoundException e) {
+            // Nothing saved yet
+            return false;
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read " + getFile(), e);
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of the file with what writer writes.
+     *
+     * @return false if the file couldn't be written, it then keeps the
+     *         previous contents
+     */
+    public boolean write(Writer writer) {
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            writer.write(out);
+            out.flush();
+            mFile.finishWrite(fos);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't write " + getFile(), e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the file, so nothing is saved.
+     */
+    public void delete() {
+        mFile.delete();
+    }
+}
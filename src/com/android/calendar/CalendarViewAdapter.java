@@ -122,7 +122,6 @@ public class CalendarViewAdapter extends BaseAdapter {
 
     @Override
     protected void finalize() throws Throwable {
-        LunarUtils.clearInfo();
         if (mLunarLoader != null && mLunarLoaderListener != null) {
             mLunarLoader.unregisterListener(mLunarLoaderListener);
         }
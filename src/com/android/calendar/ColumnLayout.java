@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+/**
+ * Assigns overlapping intervals to columns by sweeping over them in order of
+ * their start. Each interval gets the lowest column that is free when it
+ * starts, and every interval in a group of transitively overlapping
+ * intervals is told how many columns that group needs.
+ *
+ * Two binary heaps keep this at O(n log n) for any number of overlaps: one
+ * holds the active intervals ordered by end, so that those which ended can
+ * be retired without scanning, and the other holds the columns they freed.
+ *
+ * An interval [start, end) is active until an interval starting at or after
+ * its end is placed. Intervals that start at the same time are placed in
+ * the order they were given.
+ */
+/* package */ class ColumnLayout {
+    private long[] mStarts;
+    private long[] mEnds;
+    private int[] mOrder;
+    private int[] mScratch;
+    private int[] mActive;    // heap of interval indices, ordered by end
+    private int[] mFree;      // heap of free columns
+    private int[] mGroup;     // the intervals in the current group
+    private int mSize;
+
+    public ColumnLayout() {
+        this(16);
+    }
+
+    public ColumnLayout(int capacity) {
+        ensureCapacity(Math.max(capacity, 1));
+    }
+
+    /**
+     * Removes all intervals, keeping the allocated storage for reuse.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Adds the interval [start, end) and returns its index.
+     */
+    public int add(long start, long end) {
+        if (mSize == mStarts.length) {
+            ensureCapacity(mSize * 2);
+        }
+        mStarts[mSize] = start;
+        mEnds[mSize] = end;
+        return mSize++;
+    }
+
+    /**
+     * Computes the column of every interval and the number of columns in
+     * its group, indexed like the intervals were added.
+     */
+    public void layout(int[] columns, int[] maxColumns) {
+        final int size = mSize;
+        final long[] starts = mStarts;
+        final long[] ends = mEnds;
+        final int[] order = mOrder;
+        final int[] active = mActive;
+        final int[] free = mFree;
+        final int[] group = mGroup;
+
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        sortByStart(order, mScratch, 0, size);
+
+        int numActive = 0;
+        int numFree = 0;
+        int numGroup = 0;
+        int nextColumn = 0;
+        int maxCols = 0;
+        for (int k = 0; k < size; k++) {
+            final int i = order[k];
+            final long start = starts[i];
+
+            // Retire the intervals that ended, freeing their columns
+            while (numActive > 0 && ends[active[0]] <= start) {
+                final int done = active[0];
+                numActive = popMin(active, numActive, ends);
+                free[numFree] = columns[done];
+                numFree = siftUp(free, numFree);
+            }
+
+            // Nothing overlaps this interval, so it starts a new group
+            if (numActive == 0) {
+                for (int g = 0; g < numGroup; g++) {
+                    maxColumns[group[g]] = maxCols;
+                }
+                numGroup = 0;
+                numFree = 0;
+                nextColumn = 0;
+                maxCols = 0;
+            }
+
+            // Every column below nextColumn that isn't free is in use, so the
+            // smallest free column, if any, is the lowest one available.
+            int col;
+            if (numFree > 0) {
+                col = free[0];
+                numFree = popMin(free, numFree);
+            } else {
+                col = nextColumn++;
+            }
+            columns[i] = col;
+            active[numActive] = i;
+            numActive = siftUp(active, numActive, ends);
+            group[numGroup++] = i;
+            if (maxCols < numActive) {
+                maxCols = numActive;
+            }
+        }
+        for (int g = 0; g < numGroup; g++) {
+            maxColumns[group[g]] = maxCols;
+        }
+    }
+
+    /**
+     * Lays out the events of a day view as Event.computePositions does, the
+     * timed events and then the all-day ones in separate groups, for events
+     * given as parallel arrays indexed by row. Works on plain values so it
+     * can be measured away from the framework.
+     *
+     * @param size the number of rows
+     * @param drawAsAllday whether each row is drawn with the all-day events
+     * @param minimumDurationMillis the shortest a timed event is treated as
+     *        lasting, so that the rectangles of short events don't overlap
+     *        once drawn
+     * @param columns receives the column of each row
+     * @param maxColumns receives the number of columns in the group of
+     *        each row
+     */
+    public static void computePositions(int size, long[] startMillis, long[] endMillis,
+            int[] startDay, int[] endDay, boolean[] drawAsAllday, long minimumDurationMillis,
+            int[] columns, int[] maxColumns) {
+        if (minimumDurationMillis < 0) {
+            minimumDurationMillis = 0;
+        }
+
+        final ColumnLayout layout = new ColumnLayout(size);
+        final int[] rows = new int[size];
+        final int[] placedColumns = new int[size];
+        final int[] placedMaxColumns = new int[size];
+        for (int pass = 0; pass < 2; pass++) {
+            final boolean doAlldayEvents = pass == 1;
+            layout.clear();
+            for (int row = 0; row < size; row++) {
+                if (drawAsAllday[row] != doAlldayEvents) {
+                    continue;
+                }
+                int i;
+                if (doAlldayEvents) {
+                    // An all-day event is active through the whole of its end day
+                    i = layout.add(startDay[row], endDay[row] + 1L);
+                } else {
+                    final long duration = Math.max(endMillis[row] - startMillis[row],
+                            minimumDurationMillis);
+                    i = layout.add(startMillis[row], startMillis[row] + duration);
+                }
+                rows[i] = row;
+            }
+
+            final int placed = layout.size();
+            layout.layout(placedColumns, placedMaxColumns);
+            for (int i = 0; i < placed; i++) {
+                columns[rows[i]] = placedColumns[i];
+                maxColumns[rows[i]] = placedMaxColumns[i];
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        mStarts = copyOf(mStarts, capacity);
+        mEnds = copyOf(mEnds, capacity);
+        mOrder = new int[capacity];
+        mScratch = new int[capacity];
+        mActive = new int[capacity];
+        mFree = new int[capacity];
+        mGroup = new int[capacity];
+    }
+
+    private static long[] copyOf(long[] array, int capacity) {
+        long[] copy = new long[capacity];
+        if (array != null) {
+            System.arraycopy(array, 0, copy, 0, Math.min(array.length, capacity));
+        }
+        return copy;
+    }
+
+    /**
+     * Stable merge sort of order[from, to) by start, so that intervals with
+     * the same start keep the order they were added in.
+     */
+    private void sortByStart(int[] order, int[] scratch, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        final long[] starts = mStarts;
+        if (to - from <= 8) {
+            // Insertion sort for short runs
+            for (int i = from + 1; i < to; i++) {
+                int value = order[i];
+                int j = i - 1;
+                while (j >= from && starts[order[j]] > starts[value]) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = value;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sortByStart(order, scratch, from, mid);
+        sortByStart(order, scratch, mid, to);
+        if (starts[order[mid - 1]] <= starts[order[mid]]) {
+            // Already in order
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid && starts[scratch[left]] <= starts[scratch[right]])) {
+                order[i] = scratch[left++];
+            } else {
+                order[i] = scratch[right++];
+            }
+        }
+    }
+
+    // Heap of interval indices ordered by keys[index]
+
+    private static int siftUp(int[] heap, int size, long[] keys) {
+        int child = size;
+        int value = heap[child];
+        while (child > 0) {
+            int parent = (child - 1) >>> 1;
+            if (keys[heap[parent]] <= keys[value]) {
+                break;
+            }
+            heap[child] = heap[parent];
+            child = parent;
+        }
+        heap[child] = value;
+        return size + 1;
+    }
+
+    private static int popMin(int[] heap, int size, long[] keys) {
+        size--;
+        int value = heap[size];
+        int parent = 0;
+        int half = size >>> 1;
+        while (parent < half) {
+            int child = 2 * parent + 1;
+            if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) {
+                child++;
+            }
+            if (keys[value] <= keys[heap[child]]) {
+                break;
+            }
+            heap[parent] = heap[child];
+            parent = child;
+        }
+        heap[parent] = value;
+        return size;
+    }
+
+    // Heap of plain ints
+
+    private static int siftUp(int[] heap, int size) {
+        int child = size;
+        int value = heap[child];
+        while (child > 0) {
+            int parent = (child - 1) >>> 1;
+            if (heap[parent] <= value) {
+                break;
+            }
+            heap[child] = heap[parent];
+            child = parent;
+        }
+        heap[child] = value;
+        return size + 1;
+    }
+
+    private static int popMin(int[] heap, int size) {
+        size--;
+        int value = heap[size];
+        int parent = 0;
+        int half = size >>> 1;
+        while (parent < half) {
+            int child = 2 * parent + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (value <= heap[child]) {
+                break;
+            }
+            heap[parent] = heap[child];
+            parent = child;
+        }
+        heap[parent] = value;
+        return size;
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Accumulates the segments and strands for one week of dna, one event at a
+ * time, and converts them to points to draw. Events must be added in start
+ * time order. See {@link Utils#createDNAStrands} for how the points are laid
+ * out.
+ *
+ * This class only works on plain values so that it can be run and measured
+ * away from the framework; Utils loads the parameters from resources.
+ */
+/* package */ class DNABuilder {
+    static final int DAY_IN_MINUTES = 60 * 24;
+    static final int WEEK_IN_MINUTES = DAY_IN_MINUTES * 7;
+
+    // The work day is being counted as 6am to 8pm unless set otherwise
+    private static int CONFLICT_COLOR = 0xFF000000;
+    private static int WORK_DAY_START_MINUTES = 6 * 60;
+    private static int WORK_DAY_END_MINUTES = 20 * 60;
+
+    // A segment is a single continuous length of time occupied by a single
+    // color. Segments should never span multiple days.
+    private static class DNASegment {
+        int startMinute; // in minutes since the start of the week
+        int endMinute;
+        int color; // Calendar color or black for conflicts
+        int day; // quick reference to the day this segment is on
+    }
+
+    private final LinkedList<DNASegment> segments = new LinkedList<DNASegment>();
+    private final HashMap<Integer, DNAStrand> strands = new HashMap<Integer, DNAStrand>();
+    private final int conflictColor;
+    private final int workDayStartMinutes;
+    private final int workDayEndMinutes;
+    private final int workDayMinutes;
+    private final int workDayEndLength;
+    private final int firstJulianDay;
+    private final int lastJulianDay;
+    private final int numDays;
+    private final int minMinutes;
+    private final int minOtherMinutes;
+    private final int top;
+    private final int bottom;
+    private final int[] dayXs;
+
+    /**
+     * Sets the color used for conflicts and the bounds of the work day, in
+     * minutes since midnight. Applies to builders created afterwards.
+     */
+    static void setParameters(int conflictColor, int workDayStartMinutes,
+            int workDayEndMinutes) {
+        CONFLICT_COLOR = conflictColor;
+        WORK_DAY_START_MINUTES = workDayStartMinutes;
+        WORK_DAY_END_MINUTES = workDayEndMinutes;
+    }
+
+    DNABuilder(int firstJulianDay, int top, int bottom, int minPixels, int[] dayXs) {
+        this.conflictColor = CONFLICT_COLOR;
+        this.workDayStartMinutes = WORK_DAY_START_MINUTES;
+        this.workDayEndMinutes = WORK_DAY_END_MINUTES;
+        this.workDayMinutes = workDayEndMinutes - workDayStartMinutes;
+        this.workDayEndLength = DAY_IN_MINUTES - workDayEndMinutes;
+        this.firstJulianDay = firstJulianDay;
+        this.top = top;
+        this.bottom = bottom;
+        this.dayXs = dayXs;
+        // add a black strand by default, other colors will get added in
+        // the loop
+        DNAStrand blackStrand = new DNAStrand();
+        blackStrand.color = conflictColor;
+        strands.put(conflictColor, blackStrand);
+        // the min length is the number of minutes that will occupy
+        // MIN_SEGMENT_PIXELS in the 'work day' time slot. This computes the
+        // minutes/pixel * minpx where the number of pixels are 3/4 the total
+        // dna height: 4*(mins/(px * 3/4))
+        minMinutes = minPixels * 4 * workDayMinutes / (3 * (bottom - top));
+
+        // There are slightly fewer than half as many pixels in 1/6 the space,
+        // so round to 2.5x for the min minutes in the non-work area
+        minOtherMinutes = minMinutes * 5 / 2;
+        numDays = dayXs.length;
+        lastJulianDay = firstJulianDay + numDays - 1;
+    }
+
+    HashMap<Integer, DNAStrand> build() {
+        weaveDNAStrands();
+        return strands;
+    }
+
+    /**
+     * Adds an event. Days are julian days and times are minutes since the
+     * start of their day.
+     *
+     * @param drawAsAllday whether the event goes in the allday colors, see
+     *        {@link Event#drawAsAllday()}
+     */
+    void add(int startDay, int startTime, int endDay, int endTime, int color,
+            boolean drawAsAllday) {
+        // if this event is outside the weeks range skip it
+        if (endDay < firstJulianDay || startDay > lastJulianDay) {
+            return;
+        }
+        if (drawAsAllday) {
+            addAllDayToStrands(startDay, endDay, color);
+            return;
+        }
+        // Clip the start and end to our range
+        if (startDay < firstJulianDay) {
+            startDay = firstJulianDay;
+            startTime = 0;
+        }
+        // If it starts after the work day make sure the start is at least
+        // minPixels from midnight
+        if (startTime > DAY_IN_MINUTES - minOtherMinutes) {
+            startTime = DAY_IN_MINUTES - minOtherMinutes;
+        }
+        if (endDay > lastJulianDay) {
+            endDay = lastJulianDay;
+            endTime = DAY_IN_MINUTES - 1;
+        }
+        // If the end time is before the work day make sure it ends at least
+        // minPixels after midnight
+        if (endTime < minOtherMinutes) {
+            endTime = minOtherMinutes;
+        }
+        // If the start and end are on the same day make sure they are at
+        // least minPixels apart. This only needs to be done for times
+        // outside the work day as the min distance for within the work day
+        // is enforced in the segment code.
+        if (startDay == endDay && endTime - startTime < minOtherMinutes) {
+            // If it's less than minPixels in an area before the work
+            // day
+            if (startTime < workDayStartMinutes) {
+                // extend the end to the first easy guarantee that it's
+                // minPixels
+                endTime = Math.min(startTime + minOtherMinutes,
+                        workDayStartMinutes + minMinutes);
+                // if it's in the area after the work day
+            } else if (endTime > workDayEndMinutes) {
+                // First try shifting the end but not past midnight
+                endTime = Math.min(endTime + minOtherMinutes, DAY_IN_MINUTES - 1);
+                // if it's still too small move the start back
+                if (endTime - startTime < minOtherMinutes) {
+                    startTime = endTime - minOtherMinutes;
+                }
+            }
+        }
+
+        // This handles adding the first segment
+        if (segments.size() == 0) {
+            addNewSegment(startDay, startTime, endDay, endTime, color, 0);
+            return;
+        }
+        // Now compare our current start time to the end time of the last
+        // segment in the list
+        DNASegment lastSegment = segments.getLast();
+        int startMinute = (startDay - firstJulianDay) * DAY_IN_MINUTES + startTime;
+        int endMinute = Math.max((endDay - firstJulianDay) * DAY_IN_MINUTES + endTime,
+                startMinute + minMinutes);
+
+        if (startMinute < 0) {
+            startMinute = 0;
+        }
+        if (endMinute >= WEEK_IN_MINUTES) {
+            endMinute = WEEK_IN_MINUTES - 1;
+        }
+        // If we start before the last segment in the list ends we need to
+        // start going through the list as this may conflict with other
+        // events
+        if (startMinute < lastSegment.endMinute) {
+            int i = segments.size();
+            // find the last segment this event intersects with
+            while (--i >= 0 && endMinute < segments.get(i).startMinute);
+
+            DNASegment currSegment;
+            // for each segment this event intersects with
+            for (; i >= 0 && startMinute <= (currSegment = segments.get(i)).endMinute; i--) {
+                // if the segment is already a conflict ignore it
+                if (currSegment.color == conflictColor) {
+                    continue;
+                }
+                // if the event ends before the segment and wouldn't create
+                // a segment that is too small split off the right side
+                if (endMinute < currSegment.endMinute - minMinutes) {
+                    DNASegment rhs = new DNASegment();
+                    rhs.endMinute = currSegment.endMinute;
+                    rhs.color = currSegment.color;
+                    rhs.startMinute = endMinute + 1;
+                    rhs.day = currSegment.day;
+                    currSegment.endMinute = endMinute;
+                    segments.add(i + 1, rhs);
+                    strands.get(rhs.color).count++;
+                }
+                // if the event starts after the segment and wouldn't create
+                // a segment that is too small split off the left side
+                if (startMinute > currSegment.startMinute + minMinutes) {
+                    DNASegment lhs = new DNASegment();
+                    lhs.startMinute = currSegment.startMinute;
+                    lhs.color = currSegment.color;
+                    lhs.endMinute = startMinute - 1;
+                    lhs.day = currSegment.day;
+                    currSegment.startMinute = startMinute;
+                    // increment i so that we are at the right position when
+                    // referencing the segments to the right and left of the
+                    // current segment.
+                    segments.add(i++, lhs);
+                    strands.get(lhs.color).count++;
+                }
+                // if the right side is black merge this with the segment to
+                // the right if they're on the same day and overlap
+                if (i + 1 < segments.size()) {
+                    DNASegment rhs = segments.get(i + 1);
+                    if (rhs.color == conflictColor && currSegment.day == rhs.day
+                            && rhs.startMinute <= currSegment.endMinute + 1) {
+                        rhs.startMinute = Math.min(currSegment.startMinute, rhs.startMinute);
+                        segments.remove(currSegment);
+                        strands.get(currSegment.color).count--;
+                        // point at the new current segment
+                        currSegment = rhs;
+                    }
+                }
+                // if the left side is black merge this with the segment to
+                // the left if they're on the same day and overlap
+                if (i - 1 >= 0) {
+                    DNASegment lhs = segments.get(i - 1);
+                    if (lhs.color == conflictColor && currSegment.day == lhs.day
+                            && lhs.endMinute >= currSegment.startMinute - 1) {
+                        lhs.endMinute = Math.max(currSegment.endMinute, lhs.endMinute);
+                        segments.remove(currSegment);
+                        strands.get(currSegment.color).count--;
+                        // point at the new current segment
+                        currSegment = lhs;
+                        // point i at the new current segment in case new
+                        // code is added
+                        i--;
+                    }
+                }
+                // if we're still not black, decrement the count for the
+                // color being removed, change this to black, and increment
+                // the black count
+                if (currSegment.color != conflictColor) {
+                    strands.get(currSegment.color).count--;
+                    currSegment.color = conflictColor;
+                    strands.get(conflictColor).count++;
+                }
+            }
+
+        }
+        // If this event extends beyond the last segment add a new segment
+        if (endMinute > lastSegment.endMinute) {
+            addNewSegment(startDay, startTime, endDay, endTime, color, lastSegment.endMinute);
+        }
+    }
+
+    // This figures out allDay colors as allDay events are found
+    private void addAllDayToStrands(int startDay, int endDay, int color) {
+        DNAStrand strand = getOrCreateStrand(conflictColor);
+        // if we haven't initialized the allDay portion create it now
+        if (strand.allDays == null) {
+            strand.allDays = new int[numDays];
+        }
+
+        // For each day this event is on update the color
+        int end = Math.min(endDay - firstJulianDay, numDays - 1);
+        for (int i = Math.max(startDay - firstJulianDay, 0); i <= end; i++) {
+            if (strand.allDays[i] != 0) {
+                // if this day already had a color, it is now a conflict
+                strand.allDays[i] = conflictColor;
+            } else {
+                // else it's just the color of the event
+                strand.allDays[i] = color;
+            }
+        }
+    }
+
+    // This processes all the segments, sorts them by color, and generates a
+    // list of points to draw
+    private void weaveDNAStrands() {
+        // First, get rid of any colors that ended up with no segments
+        Iterator<DNAStrand> strandIterator = strands.values().iterator();
+        while (strandIterator.hasNext()) {
+            DNAStrand strand = strandIterator.next();
+            if (strand.count < 1 && strand.allDays == null) {
+                strandIterator.remove();
+                continue;
+            }
+            strand.points = new float[strand.count * 4];
+            strand.position = 0;
+        }
+        // Go through each segment and compute its points
+        for (DNASegment segment : segments) {
+            // Add the points to the strand of that color
+            DNAStrand strand = strands.get(segment.color);
+            int dayIndex = segment.day - firstJulianDay;
+            int dayStartMinute = segment.startMinute % DAY_IN_MINUTES;
+            int dayEndMinute = segment.endMinute % DAY_IN_MINUTES;
+            int height = bottom - top;
+            int workDayHeight = height * 3 / 4;
+            int remainderHeight = (height - workDayHeight) / 2;
+
+            int x = dayXs[dayIndex];
+            int y0 = top + getPixelOffsetFromMinutes(dayStartMinute, workDayHeight,
+                    remainderHeight);
+            int y1 = top + getPixelOffsetFromMinutes(dayEndMinute, workDayHeight,
+                    remainderHeight);
+            strand.points[strand.position++] = x;
+            strand.points[strand.position++] = y0;
+            strand.points[strand.position++] = x;
+            strand.points[strand.position++] = y1;
+        }
+    }
+
+    /**
+     * Compute a pixel offset from the top for a given minute from the work day
+     * height and the height of the top area.
+     */
+    private int getPixelOffsetFromMinutes(int minute, int workDayHeight, int remainderHeight) {
+        int y;
+        if (minute < workDayStartMinutes) {
+            y = minute * remainderHeight / workDayStartMinutes;
+        } else if (minute < workDayEndMinutes) {
+            y = remainderHeight + (minute - workDayStartMinutes) * workDayHeight
+                    / workDayMinutes;
+        } else {
+            y = remainderHeight + workDayHeight + (minute - workDayEndMinutes) * remainderHeight
+                    / workDayEndLength;
+        }
+        return y;
+    }
+
+    /**
+     * Add a new segment based on the event provided. This will handle splitting
+     * segments across day boundaries and ensures a minimum size for segments.
+     */
+    private void addNewSegment(int startDay, int startTime, int endDay, int endTime, int color,
+            int minStart) {
+        // If this is a multiday event split it up by day. The days in
+        // between are all day, even though that shouldn't actually happen
+        // due to the allday filtering
+        while (startDay < endDay) {
+            addDaySegment(startDay, startTime, DAY_IN_MINUTES - 1, color, minStart);
+            startDay++;
+            startTime = 0;
+            minStart = 0;
+        }
+        // The last day we want the end time to be the actual end time
+        addDaySegment(startDay, startTime, endTime, color, minStart);
+    }
+
+    private void addDaySegment(int day, int startTime, int endTime, int color, int minStart) {
+        // Create the new segment and compute its fields
+        DNASegment segment = new DNASegment();
+        int dayOffset = (day - firstJulianDay) * DAY_IN_MINUTES;
+        int endOfDay = dayOffset + DAY_IN_MINUTES - 1;
+        // clip the start if needed
+        segment.startMinute = Math.max(dayOffset + startTime, minStart);
+        // and extend the end if it's too small, but not beyond the end of the
+        // day
+        int minEnd = Math.min(segment.startMinute + minMinutes, endOfDay);
+        segment.endMinute = Math.max(dayOffset + endTime, minEnd);
+        if (segment.endMinute > endOfDay) {
+            segment.endMinute = endOfDay;
+        }
+
+        segment.color = color;
+        segment.day = day;
+        segments.add(segment);
+        // increment the count for the correct color or add a new strand if we
+        // don't have that color yet
+        DNAStrand strand = getOrCreateStrand(segment.color);
+        strand.count++;
+    }
+
+    /**
+     * Try to get a strand of the given color. Create it if it doesn't exist.
+     */
+    private DNAStrand getOrCreateStrand(int color) {
+        DNAStrand strand = strands.get(color);
+        if (strand == null) {
+            strand = new DNAStrand();
+            strand.color = color;
+            strand.count = 0;
+            strands.put(strand.color, strand);
+        }
+        return strand;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+/**
+ * A single strand represents one color of events. Events are divided up by
+ * color to make them convenient to draw. The black strand is special in that
+ * it holds conflicting events as well as color settings for allday on each
+ * day.
+ */
+public class DNAStrand {
+    public float[] points;
+    public int[] allDays; // color for the allday, 0 means no event
+    int position;
+    public int color;
+    int count;
+}
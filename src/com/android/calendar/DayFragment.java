@@ -22,6 +22,7 @@ import com.android.calendar.CalendarController.EventType;
 import android.app.Fragment;
 import android.content.Context;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.text.format.Time;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -53,6 +54,8 @@ public class DayFragment extends Fragment implements CalendarController.EventHan
     protected Animation mInAnimationBackward;
     protected Animation mOutAnimationBackward;
     EventLoader mEventLoader;
+    private final DayPrefetchPolicy mPrefetchPolicy = new DayPrefetchPolicy();
+    private final EventLayoutCache mLayoutCache = new EventLayoutCache();
 
     Time mSelectedDay = new Time();
 
@@ -115,6 +118,8 @@ public class DayFragment extends Fragment implements CalendarController.EventHan
         DayView view = new DayView(getActivity(), CalendarController
                 .getInstance(getActivity()), mViewSwitcher, mEventLoader, mNumDays);
         view.setId(VIEW_ID);
+        view.setPrefetchPolicy(mPrefetchPolicy);
+        view.setLayoutCache(mLayoutCache);
         view.setLayoutParams(new ViewSwitcher.LayoutParams(
                 LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
         view.setSelected(mSelectedDay, false, false);
@@ -186,6 +191,8 @@ public class DayFragment extends Fragment implements CalendarController.EventHan
             // In visible range. No need to switch view
             currentView.setSelected(goToTime, ignoreTime, animateToday);
         } else {
+            mPrefetchPolicy.onSwipe(diff > 0, SystemClock.uptimeMillis());
+
             // Figure out which way to animate
             if (diff > 0) {
                 mViewSwitcher.setInAnimation(mInAnimationForward);
@@ -231,9 +238,9 @@ public class DayFragment extends Fragment implements CalendarController.EventHan
         if (mViewSwitcher == null) {
             return;
         }
+        mEventLoader.invalidateCache();
         DayView view = (DayView) mViewSwitcher.getCurrentView();
-        view.clearCachedEvents();
-        view.reloadEvents();
+        view.refreshEvents();
 
         view = (DayView) mViewSwitcher.getNextView();
         view.clearCachedEvents();
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+/**
+ * Decides how many day or week views to prefetch on each side of the one
+ * that is showing, based on how the user has been swiping. A single swipe
+ * prefetches one view either way; a run of quick swipes in the same
+ * direction prefetches further ahead in that direction.
+ *
+ * Shared by the two DayViews of a DayFragment and only used on the UI thread.
+ */
+/* package */ class DayPrefetchPolicy {
+    // Swipes closer together than this count as part of the same run
+    private static final long FAST_SWIPE_INTERVAL_MS = 1500;
+
+    // The most views prefetched ahead in the swipe direction
+    private static final int MAX_VIEWS_AHEAD = 3;
+
+    // 1 for forward, -1 for backward, 0 before the first swipe
+    private int mDirection;
+    private int mRunLength;
+    private long mLastSwipeMillis;
+
+    /**
+     * Records a move to the next (forward) or previous view.
+     */
+    public void onSwipe(boolean forward, long nowMillis) {
+        int direction = forward ? 1 : -1;
+        if (direction == mDirection && nowMillis - mLastSwipeMillis < FAST_SWIPE_INTERVAL_MS) {
+            mRunLength++;
+        } else {
+            mRunLength = 1;
+        }
+        mDirection = direction;
+        mLastSwipeMillis = nowMillis;
+    }
+
+    /**
+     * @return how many views to prefetch after the visible one
+     */
+    public int getViewsForward(long nowMillis) {
+        return mDirection > 0 ? getViewsAhead(nowMillis) : 1;
+    }
+
+    /**
+     * @return how many views to prefetch before the visible one
+     */
+    public int getViewsBackward(long nowMillis) {
+        return mDirection < 0 ? getViewsAhead(nowMillis) : 1;
+    }
+
+    /**
+     * @return true if the next swipe is more likely to go forward
+     */
+    public boolean isForwardLikely() {
+        return mDirection >= 0;
+    }
+
+    private int getViewsAhead(long nowMillis) {
+        // Once the user has paused, fall back to one view on each side.
+        if (nowMillis - mLastSwipeMillis >= FAST_SWIPE_INTERVAL_MS) {
+            return 1;
+        }
+        return Math.min(mRunLength, MAX_VIEWS_AHEAD);
+    }
+}
@@ -29,7 +29,9 @@ import android.content.DialogInterface;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.database.Cursor;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.Paint.Style;
@@ -38,18 +40,15 @@ import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.Calendars;
 import android.provider.CalendarContract.Events;
-import android.text.Layout.Alignment;
-import android.text.SpannableStringBuilder;
 import android.text.StaticLayout;
-import android.text.TextPaint;
 import android.text.TextUtils;
 import android.text.format.DateFormat;
 import android.text.format.DateUtils;
 import android.text.format.Time;
-import android.text.style.StyleSpan;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
@@ -85,8 +84,6 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Formatter;
 import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * View for multi-day view. So far only 1 and 7 day have been tested.
@@ -309,8 +306,8 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
 
     private ArrayList<Event> mEvents = new ArrayList<Event>();
     private ArrayList<Event> mAllDayEvents = new ArrayList<Event>();
-    private StaticLayout[] mLayouts = null;
-    private StaticLayout[] mAllDayLayouts = null;
+    private EventLayoutCache mLayoutCache = new EventLayoutCache();
+    private EventLayoutCache.PrecomputeTask mLayoutTask;
     private int mSelectionDay;        // Julian day
     private int mSelectionHour;
 
@@ -341,6 +338,37 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
     private final Paint mSelectionPaint = new Paint();
     private float[] mLines;
 
+    // The background colors, hour grid and hour labels only change on
+    // resize, zoom, date change or when the current time line moves, so they
+    // are drawn into a bitmap and blitted on every frame of a scroll or
+    // fling. The bitmap covers a band of up to twice the visible height
+    // around what is on screen, and is redrawn when the view scrolls out of
+    // it or anything it was drawn from changes. The band is kept under the
+    // texture size every GPU can draw and under MAX_GRID_LAYER_BYTES, since
+    // both views of the switcher hold one; a screen too large for that draws
+    // the grid directly.
+    private static final int MAX_GRID_LAYER_SIZE = 2048;
+    private static final int MAX_GRID_LAYER_BYTES = 8 * 1024 * 1024;
+    private Bitmap mGridLayer;
+    private final Canvas mGridLayerCanvas = new Canvas();
+    private boolean mGridLayerValid;
+    private int mGridLayerTop;
+    private int mGridLayerCellHeight;
+    private int mGridLayerFirstJulianDay;
+    private int mGridLayerTimeLineY;
+    private int mGridLayerFutureBgColor;
+    private String[] mGridLayerHourStrs;
+
+    // The day header, drawn into a bitmap the same way
+    private Bitmap mHeaderLayer;
+    private final Canvas mHeaderLayerCanvas = new Canvas();
+    private boolean mHeaderLayerValid;
+    private int mHeaderLayerFirstJulianDay;
+    private int mHeaderLayerTodayJulianDay;
+    private int mHeaderLayerFirstDayOfWeek;
+    private boolean mHeaderLayerShowLunar;
+    private int mHeaderLayerLunarGeneration;
+
     private int mFirstDayOfWeek; // First day of the week
 
     private PopupWindow mPopup;
@@ -353,6 +381,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
     private boolean mRemeasure = true;
 
     private final EventLoader mEventLoader;
+    private DayPrefetchPolicy mPrefetchPolicy;
     protected final EventGeometry mEventGeometry;
 
     private static float GRID_LINE_LEFT_MARGIN = 0;
@@ -416,7 +445,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
     private static float AMPM_TEXT_SIZE = 9;
     private static int MIN_HOURS_WIDTH = 96;
     private static int MIN_CELL_WIDTH_FOR_TEXT = 20;
-    private static final int MAX_EVENT_TEXT_LEN = 500;
     // smallest height to draw an event with
     private static float MIN_EVENT_HEIGHT = 24.0F; // in pixels
     private static int CALENDAR_COLOR_SQUARE_SIZE = 10;
@@ -936,6 +964,8 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         mIs24HourFormat = DateFormat.is24HourFormat(mContext);
         mHourStrs = mIs24HourFormat ? CalendarData.s24Hours : CalendarData.s12HoursNoAmPm;
         mFirstDayOfWeek = Utils.getFirstDayOfWeek(mContext);
+        mGridLayerValid = false;
+        mHeaderLayerValid = false;
         mLastSelectionDayForAccessibility = 0;
         mLastSelectionHourForAccessibility = 0;
         mLastSelectedEventForAccessibility = null;
@@ -1325,6 +1355,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         final long minimumDurationMillis = (long)
                 (MIN_EVENT_HEIGHT * DateUtils.MINUTE_IN_MILLIS / (mCellHeight / 60.0f));
         Event.computePositions(mEvents, minimumDurationMillis);
+        precomputeLayouts();
 
         // Compute the top of our reachable view
         mMaxViewStartY = HOUR_GAP + 24 * (mCellHeight + HOUR_GAP) - mGridAreaHeight;
@@ -1843,6 +1874,10 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
             outToXValue = 1.0f;
         }
 
+        if (mPrefetchPolicy != null) {
+            mPrefetchPolicy.onSwipe(forward, SystemClock.uptimeMillis());
+        }
+
         final Time start = new Time(mBaseDate.timezone);
         start.set(mController.getTime());
         if (forward) {
@@ -1995,6 +2030,50 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         mLastReloadMillis = 0;
     }
 
+    /**
+     * Sets the policy used to decide how many of the neighboring days or
+     * weeks to prefetch once this view's events have loaded.
+     */
+    void setPrefetchPolicy(DayPrefetchPolicy policy) {
+        mPrefetchPolicy = policy;
+    }
+
+    /**
+     * Sets the cache of event text layouts, so that it can be shared with
+     * the other view of the fragment.
+     */
+    void setLayoutCache(EventLayoutCache cache) {
+        mLayoutCache = cache;
+    }
+
+    /**
+     * Asks the loader to cache the views on either side of this one, so that
+     * swiping to them can show their events right away.
+     */
+    private void prefetchNeighbors() {
+        if (mPrefetchPolicy == null) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        int forwardDays = mPrefetchPolicy.getViewsForward(now) * mNumDays;
+        int backwardDays = mPrefetchPolicy.getViewsBackward(now) * mNumDays;
+        int nextDay = mFirstJulianDay + mNumDays;
+        int previousDay = mFirstJulianDay - backwardDays;
+        // Requests of the same priority run in order, so ask for the likely
+        // direction first.
+        if (mPrefetchPolicy.isForwardLikely()) {
+            mEventLoader.prefetchEventsInBackground(nextDay, forwardDays,
+                    EventLoader.PRIORITY_PREFETCH);
+            mEventLoader.prefetchEventsInBackground(previousDay, backwardDays,
+                    EventLoader.PRIORITY_PREFETCH);
+        } else {
+            mEventLoader.prefetchEventsInBackground(previousDay, backwardDays,
+                    EventLoader.PRIORITY_PREFETCH);
+            mEventLoader.prefetchEventsInBackground(nextDay, forwardDays,
+                    EventLoader.PRIORITY_PREFETCH);
+        }
+    }
+
     private final Runnable mCancelCallback = new Runnable() {
         public void run() {
             clearCachedEvents();
@@ -2032,57 +2111,126 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         // load events in the background
 //        mContext.startProgressSpinner();
         final ArrayList<Event> events = new ArrayList<Event>();
+        if (mEventLoader.loadCachedEvents(mNumDays, events, mFirstJulianDay)) {
+            // These days were prefetched, so show them right away. There's
+            // no empty grid to fade in from.
+            onEventsLoaded(events, false);
+            return;
+        }
         mEventLoader.loadEventsInBackground(mNumDays, events, mFirstJulianDay, new Runnable() {
 
             public void run() {
-                boolean fadeinEvents = mFirstJulianDay != mLoadedFirstJulianDay;
-                mEvents = events;
-                mLoadedFirstJulianDay = mFirstJulianDay;
-                if (mAllDayEvents == null) {
-                    mAllDayEvents = new ArrayList<Event>();
-                } else {
-                    mAllDayEvents.clear();
-                }
+                onEventsLoaded(events, mFirstJulianDay != mLoadedFirstJulianDay);
+            }
+        }, mCancelCallback);
+    }
 
-                // Create a shorter array for all day events
-                for (Event e : events) {
-                    if (e.drawAsAllday()) {
-                        mAllDayEvents.add(e);
-                    }
-                }
+    /**
+     * Reloads the events after the provider reported a change. Unlike
+     * {@link #reloadEvents()}, the current events stay on screen until the
+     * new ones arrive, nothing happens if the instances in view didn't
+     * change, and otherwise only the changed instances are laid out again.
+     */
+    /* package */ void refreshEvents() {
+        if (mLastReloadMillis == 0 || mEvents == null
+                || mLoadedFirstJulianDay != mFirstJulianDay) {
+            // Nothing on screen to compare against
+            reloadEvents();
+            return;
+        }
+        mTZUpdater.run();
 
-                // New events, new layouts
-                if (mLayouts == null || mLayouts.length < events.size()) {
-                    mLayouts = new StaticLayout[events.size()];
-                } else {
-                    Arrays.fill(mLayouts, null);
-                }
+        final int firstJulianDay = mFirstJulianDay;
+        final ArrayList<Event> events = new ArrayList<Event>();
+        mEventLoader.loadEventsInBackground(mNumDays, events, mFirstJulianDay, new Runnable() {
 
-                if (mAllDayLayouts == null || mAllDayLayouts.length < mAllDayEvents.size()) {
-                    mAllDayLayouts = new StaticLayout[events.size()];
-                } else {
-                    Arrays.fill(mAllDayLayouts, null);
+            public void run() {
+                if (firstJulianDay != mFirstJulianDay
+                        || firstJulianDay != mLoadedFirstJulianDay) {
+                    // The view has moved on and loaded other days since
+                    return;
+                }
+                InstanceDelta delta = InstanceDelta.compute(mEvents, events);
+                if (!delta.isEmpty()) {
+                    onEventsChanged(events, delta);
                 }
+            }
+        }, mCancelCallback);
+    }
+
+    /**
+     * Swaps in a reload of the days on screen, keeping the selection of the
+     * instances that are still there. The text layouts of the unchanged
+     * instances are still in the layout cache.
+     */
+    private void onEventsChanged(ArrayList<Event> events, InstanceDelta delta) {
+        final ArrayList<Event> oldEvents = mEvents;
+        int oldSelected = -1;
+        for (int i = 0; i < oldEvents.size(); i++) {
+            if (oldEvents.get(i) == mSelectedEvent) {
+                oldSelected = i;
+                break;
+            }
+        }
 
-                computeEventRelations();
+        onEventsLoaded(events, false);
 
-                mRemeasure = true;
-                mComputeSelectedEvents = true;
-                recalc();
-
-                // Start animation to cross fade the events
-                if (fadeinEvents) {
-                    if (mEventsCrossFadeAnimation == null) {
-                        mEventsCrossFadeAnimation =
-                                ObjectAnimator.ofInt(DayView.this, "EventsAlpha", 0, 255);
-                        mEventsCrossFadeAnimation.setDuration(EVENTS_CROSS_FADE_DURATION);
-                    }
-                    mEventsCrossFadeAnimation.start();
-                } else{
-                    invalidate();
+        Event selected = null;
+        if (oldSelected != -1) {
+            for (int i = 0; i < events.size(); i++) {
+                if (delta.getOldPosition(i) == oldSelected) {
+                    selected = events.get(i);
+                    break;
                 }
             }
-        }, mCancelCallback);
+        }
+        setSelectedEvent(selected);
+        mPrevSelectedEvent = null;
+        mSelectedEvents.clear();
+    }
+
+    private void onEventsLoaded(ArrayList<Event> events, boolean fadeinEvents) {
+        mEvents = events;
+        mLoadedFirstJulianDay = mFirstJulianDay;
+        if (mAllDayEvents == null) {
+            mAllDayEvents = new ArrayList<Event>();
+        } else {
+            mAllDayEvents.clear();
+        }
+
+        // Create a shorter array for all day events
+        for (Event e : events) {
+            if (e.drawAsAllday()) {
+                mAllDayEvents.add(e);
+            }
+        }
+
+        computeEventRelations();
+
+        mComputeSelectedEvents = true;
+        recalc();
+        if (mViewWidth > 0) {
+            // Measure now rather than in the next onDraw so that the text
+            // layouts can be built before they are drawn
+            remeasure(getWidth(), getHeight());
+            mRemeasure = false;
+        } else {
+            mRemeasure = true;
+        }
+
+        prefetchNeighbors();
+
+        // Start animation to cross fade the events
+        if (fadeinEvents) {
+            if (mEventsCrossFadeAnimation == null) {
+                mEventsCrossFadeAnimation =
+                        ObjectAnimator.ofInt(DayView.this, "EventsAlpha", 0, 255);
+                mEventsCrossFadeAnimation.setDuration(EVENTS_CROSS_FADE_DURATION);
+            }
+            mEventsCrossFadeAnimation.start();
+        } else{
+            invalidate();
+        }
     }
 
     public void setEventsAlpha(int alpha) {
@@ -2258,7 +2406,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         }
 
         drawScrollLine(r, canvas, p);
-        drawDayHeaderLoop(r, canvas, p);
+        drawDayHeaderLayer(canvas, p, r);
 
         // Draw the AM and PM indicators if we're in 12 hour mode
         if (!mIs24HourFormat) {
@@ -2354,6 +2502,40 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         }
     }
 
+    /**
+     * Draws the day header from its cached bitmap, redrawing the bitmap
+     * first if the days, today or the header settings changed.
+     */
+    private void drawDayHeaderLayer(Canvas canvas, Paint p, Rect r) {
+        if (mViewWidth <= 0 || DAY_HEADER_HEIGHT <= 0) {
+            return;
+        }
+        final boolean showLunar = LunarUtils.showLunar(mContext);
+        final int lunarGeneration = showLunar ? LunarUtils.getGeneration() : 0;
+        if (mHeaderLayer == null || mHeaderLayer.getWidth() != mViewWidth
+                || mHeaderLayer.getHeight() != DAY_HEADER_HEIGHT) {
+            mHeaderLayer = Bitmap.createBitmap(mViewWidth, DAY_HEADER_HEIGHT,
+                    Bitmap.Config.ARGB_8888);
+            mHeaderLayerValid = false;
+        }
+        if (!mHeaderLayerValid || mHeaderLayerFirstJulianDay != mFirstJulianDay
+                || mHeaderLayerTodayJulianDay != mTodayJulianDay
+                || mHeaderLayerFirstDayOfWeek != mFirstDayOfWeek
+                || mHeaderLayerShowLunar != showLunar
+                || mHeaderLayerLunarGeneration != lunarGeneration) {
+            mHeaderLayer.eraseColor(Color.TRANSPARENT);
+            mHeaderLayerCanvas.setBitmap(mHeaderLayer);
+            drawDayHeaderLoop(r, mHeaderLayerCanvas, p);
+            mHeaderLayerValid = true;
+            mHeaderLayerFirstJulianDay = mFirstJulianDay;
+            mHeaderLayerTodayJulianDay = mTodayJulianDay;
+            mHeaderLayerFirstDayOfWeek = mFirstDayOfWeek;
+            mHeaderLayerShowLunar = showLunar;
+            mHeaderLayerLunarGeneration = lunarGeneration;
+        }
+        canvas.drawBitmap(mHeaderLayer, 0, 0, null);
+    }
+
     private void drawDayHeaderLoop(Rect r, Canvas canvas, Paint p) {
         // Draw the horizontal day background banner
         // p.setColor(mCalendarDateBannerBackground);
@@ -2455,11 +2637,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         Paint p = mPaint;
         Rect r = mRect;
 
-        if (mFutureBgColor != 0) {
-            drawBgColors(r, canvas, p);
-        }
-        drawGridBackground(r, canvas, p);
-        drawHours(r, canvas, p);
+        drawGridLayer(r, canvas, p);
 
         // Draw each day
         int cell = mFirstJulianDay;
@@ -2487,6 +2665,76 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         drawSelectedRect(r, canvas, p);
     }
 
+    /**
+     * Draws the background colors, the hour grid and the hour labels from
+     * the cached grid layer, redrawing it first if the visible part of the
+     * grid is outside it or it is out of date.
+     */
+    private void drawGridLayer(Rect r, Canvas canvas, Paint p) {
+        final int visibleTop = mDestRect.top;
+        final int visibleHeight = mDestRect.bottom - mDestRect.top;
+        if (mViewWidth <= 0 || visibleHeight <= 0) {
+            return;
+        }
+        final int layerHeight = Math.min(visibleHeight * 2, Math.min(MAX_GRID_LAYER_SIZE,
+                MAX_GRID_LAYER_BYTES / (mViewWidth * 4)));
+        if (mViewWidth > MAX_GRID_LAYER_SIZE || layerHeight < visibleHeight) {
+            // Too large to cache
+            mGridLayer = null;
+            if (mFutureBgColor != 0) {
+                drawBgColors(r, canvas, p, visibleTop, visibleTop + visibleHeight);
+            }
+            drawGridBackground(r, canvas, p);
+            drawHours(r, canvas, p);
+            return;
+        }
+        if (mGridLayer == null || mGridLayer.getWidth() != mViewWidth
+                || mGridLayer.getHeight() != layerHeight) {
+            mGridLayer = Bitmap.createBitmap(mViewWidth, layerHeight, Bitmap.Config.ARGB_8888);
+            mGridLayerValid = false;
+        }
+
+        // The current time line only shows in the background colors on today
+        int timeLineY = -1;
+        final int todayIndex = mTodayJulianDay - mFirstJulianDay;
+        if (mFutureBgColor != 0 && todayIndex >= 0 && todayIndex < mNumDays) {
+            timeLineY = mCurrentTime.hour * (mCellHeight + HOUR_GAP)
+                    + ((mCurrentTime.minute * mCellHeight) / 60) + 1;
+        }
+
+        if (!mGridLayerValid || visibleTop < mGridLayerTop
+                || visibleTop + visibleHeight > mGridLayerTop + layerHeight
+                || mGridLayerCellHeight != mCellHeight
+                || mGridLayerFirstJulianDay != mFirstJulianDay
+                || mGridLayerTimeLineY != timeLineY
+                || mGridLayerFutureBgColor != mFutureBgColor
+                || mGridLayerHourStrs != mHourStrs) {
+            // Center the band on the visible part so that scrolling either
+            // way can go as far before it needs redrawing
+            final int top = visibleTop - (layerHeight - visibleHeight) / 2;
+            mGridLayer.eraseColor(Color.TRANSPARENT);
+            Canvas layerCanvas = mGridLayerCanvas;
+            layerCanvas.setBitmap(mGridLayer);
+            layerCanvas.save();
+            layerCanvas.translate(0, -top);
+            if (mFutureBgColor != 0) {
+                drawBgColors(r, layerCanvas, p, top, top + layerHeight);
+            }
+            drawGridBackground(r, layerCanvas, p);
+            drawHours(r, layerCanvas, p);
+            layerCanvas.restore();
+
+            mGridLayerValid = true;
+            mGridLayerTop = top;
+            mGridLayerCellHeight = mCellHeight;
+            mGridLayerFirstJulianDay = mFirstJulianDay;
+            mGridLayerTimeLineY = timeLineY;
+            mGridLayerFutureBgColor = mFutureBgColor;
+            mGridLayerHourStrs = mHourStrs;
+        }
+        canvas.drawBitmap(mGridLayer, 0, mGridLayerTop, null);
+    }
+
     private void drawSelectedRect(Rect r, Canvas canvas, Paint p) {
         // Draw a highlight on the selected hour (if needed)
         if (mSelectionMode != SELECTION_HIDDEN && !mSelectionAllday) {
@@ -2668,15 +2916,13 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
     }
 
     /**
-     * @param r
-     * @param canvas
-     * @param p
+     * Draws the background colors of the grid between top and bottom.
      */
-    private void drawBgColors(Rect r, Canvas canvas, Paint p) {
+    private void drawBgColors(Rect r, Canvas canvas, Paint p, int top, int bottom) {
         int todayIndex = mTodayJulianDay - mFirstJulianDay;
         // Draw the hours background color
-        r.top = mDestRect.top;
-        r.bottom = mDestRect.bottom;
+        r.top = top;
+        r.bottom = bottom;
         r.left = 0;
         r.right = mHoursWidth;
         p.setColor(mBgColor);
@@ -2689,12 +2935,12 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
             // Draw a white background for the time later than current time
             int lineY = mCurrentTime.hour * (mCellHeight + HOUR_GAP)
                     + ((mCurrentTime.minute * mCellHeight) / 60) + 1;
-            if (lineY < mViewStartY + mViewHeight) {
-                lineY = Math.max(lineY, mViewStartY);
+            if (lineY < bottom) {
+                lineY = Math.max(lineY, top);
                 r.left = mHoursWidth;
                 r.right = mViewWidth;
                 r.top = lineY;
-                r.bottom = mViewStartY + mViewHeight;
+                r.bottom = bottom;
                 p.setColor(mFutureBgColor);
                 canvas.drawRect(r, p);
             }
@@ -2702,12 +2948,12 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
             // Draw today with a white background for the time later than current time
             int lineY = mCurrentTime.hour * (mCellHeight + HOUR_GAP)
                     + ((mCurrentTime.minute * mCellHeight) / 60) + 1;
-            if (lineY < mViewStartY + mViewHeight) {
-                lineY = Math.max(lineY, mViewStartY);
+            if (lineY < bottom) {
+                lineY = Math.max(lineY, top);
                 r.left = computeDayLeftPosition(todayIndex) + 1;
                 r.right = computeDayLeftPosition(todayIndex + 1);
                 r.top = lineY;
-                r.bottom = mViewStartY + mViewHeight;
+                r.bottom = bottom;
                 p.setColor(mFutureBgColor);
                 canvas.drawRect(r, p);
             }
@@ -2716,8 +2962,8 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
             if (todayIndex + 1 < mNumDays) {
                 r.left = computeDayLeftPosition(todayIndex + 1) + 1;
                 r.right = computeDayLeftPosition(mNumDays);
-                r.top = mDestRect.top;
-                r.bottom = mDestRect.bottom;
+                r.top = top;
+                r.bottom = bottom;
                 p.setColor(mFutureBgColor);
                 canvas.drawRect(r, p);
             }
@@ -2725,8 +2971,8 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
             // Future
             r.left = computeDayLeftPosition(0) + 1;
             r.right = computeDayLeftPosition(mNumDays);
-            r.top = mDestRect.top;
-            r.bottom = mDestRect.bottom;
+            r.top = top;
+            r.bottom = bottom;
             p.setColor(mFutureBgColor);
             canvas.drawRect(r, p);
         }
@@ -2830,55 +3076,94 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
     }
 
     /**
-     * Return the layout for a numbered event. Create it if not already existing
+     * Return the layout for the text of an event, from the layout cache.
      */
-    private StaticLayout getEventLayout(StaticLayout[] layouts, int i, Event event, Paint paint,
-            Rect r) {
-        if (i < 0 || i >= layouts.length) {
-            return null;
+    private StaticLayout getEventLayout(Event event, Paint paint, Rect r) {
+        StaticLayout layout = mLayoutCache.get(event, r.width(), getEventTextColor(event), paint);
+        layout.getPaint().setAlpha(mEventsAlpha);
+        return layout;
+    }
+
+    private static int getEventTextColor(Event event) {
+        switch (event.selfAttendeeStatus) {
+            case Attendees.ATTENDEE_STATUS_INVITED:
+                return event.color;
+            case Attendees.ATTENDEE_STATUS_DECLINED:
+                return (mEventTextColor & 0x00FFFFFF) | (Utils.DECLINED_EVENT_TEXT_ALPHA << 24);
+            case Attendees.ATTENDEE_STATUS_NONE: // Your own events
+            case Attendees.ATTENDEE_STATUS_ACCEPTED:
+            case Attendees.ATTENDEE_STATUS_TENTATIVE:
+            default:
+                return mEventTextColor;
+        }
+    }
+
+    /**
+     * Returns the width drawEvents and drawAllDayEvents give the text of an
+     * event whose rectangle spans left to right. This must match what
+     * drawEventRect and setupTextRect or setupAllDayTextRect do to the
+     * text rectangle.
+     */
+    private static int getEventTextWidth(float left, float right, boolean allDay) {
+        int width = ((int) right - EVENT_RECT_RIGHT_MARGIN)
+                - ((int) left + EVENT_RECT_LEFT_MARGIN);
+        if (width <= 0) {
+            return 0;
+        }
+        int margins = allDay
+                ? EVENT_ALL_DAY_TEXT_LEFT_MARGIN + EVENT_ALL_DAY_TEXT_RIGHT_MARGIN
+                : EVENT_TEXT_LEFT_MARGIN + EVENT_TEXT_RIGHT_MARGIN;
+        return width > margins ? width - margins : width;
+    }
+
+    /**
+     * Starts building the text layouts of the loaded events on a background
+     * thread, for every width they will be drawn at in the current geometry.
+     */
+    private void precomputeLayouts() {
+        if (mLayoutTask != null) {
+            mLayoutTask.cancel();
+            mLayoutTask = null;
+        }
+        if (mEvents == null || mEvents.isEmpty() || mViewWidth <= 0) {
+            return;
         }
 
-        StaticLayout layout = layouts[i];
-        // Check if we have already initialized the StaticLayout and that
-        // the width hasn't changed (due to vertical resizing which causes
-        // re-layout of events at min height)
-        if (layout == null || r.width() != layout.getWidth()) {
-            SpannableStringBuilder bob = new SpannableStringBuilder();
-            if (event.title != null) {
-                // MAX - 1 since we add a space
-                bob.append(drawTextSanitizer(event.title.toString(), MAX_EVENT_TEXT_LEN - 1));
-                bob.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), 0, bob.length(), 0);
-                bob.append(' ');
+        final Paint paint = mEventTextPaint;
+        final int lastDay = mFirstJulianDay + mNumDays - 1;
+        ArrayList<EventLayoutCache.Key> keys = new ArrayList<EventLayoutCache.Key>();
+        for (Event event : mEvents) {
+            if (event.startDay > lastDay || event.endDay < mFirstJulianDay) {
+                continue;
             }
-            if (event.location != null) {
-                bob.append(drawTextSanitizer(event.location.toString(),
-                        MAX_EVENT_TEXT_LEN - bob.length()));
+            int startIndex = Math.max(event.startDay, mFirstJulianDay) - mFirstJulianDay;
+            int endIndex = Math.min(event.endDay, lastDay) - mFirstJulianDay;
+            int color = getEventTextColor(event);
+            if (event.drawAsAllday()) {
+                // Drawn once across all of its days
+                int width = getEventTextWidth(computeDayLeftPosition(startIndex),
+                        computeDayLeftPosition(endIndex + 1) - DAY_GAP, true);
+                keys.add(mLayoutCache.newKey(event, width, color, paint));
+                continue;
             }
-
-            switch (event.selfAttendeeStatus) {
-                case Attendees.ATTENDEE_STATUS_INVITED:
-                    paint.setColor(event.color);
-                    break;
-                case Attendees.ATTENDEE_STATUS_DECLINED:
-                    paint.setColor(mEventTextColor);
-                    paint.setAlpha(Utils.DECLINED_EVENT_TEXT_ALPHA);
-                    break;
-                case Attendees.ATTENDEE_STATUS_NONE: // Your own events
-                case Attendees.ATTENDEE_STATUS_ACCEPTED:
-                case Attendees.ATTENDEE_STATUS_TENTATIVE:
-                default:
-                    paint.setColor(mEventTextColor);
-                    break;
+            // Drawn in its column on each of its days, which may differ in
+            // width by a pixel
+            int lastWidth = -1;
+            for (int dayIndex = startIndex; dayIndex <= endIndex; dayIndex++) {
+                int left = computeDayLeftPosition(dayIndex) + 1;
+                int cellWidth = computeDayLeftPosition(dayIndex + 1) - left + 1;
+                float colWidth = mEventGeometry.computeColumnWidth(cellWidth,
+                        event.getMaxColumns());
+                float eventLeft = mEventGeometry.computeColumnLeft(left, event.getColumn(),
+                        colWidth);
+                int width = getEventTextWidth(eventLeft, eventLeft + colWidth, false);
+                if (width != lastWidth) {
+                    keys.add(mLayoutCache.newKey(event, width, color, paint));
+                    lastWidth = width;
+                }
             }
-
-            // Leave a one pixel boundary on the left and right of the rectangle for the event
-            layout = new StaticLayout(bob, 0, bob.length(), new TextPaint(paint), r.width(),
-                    Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true, null, r.width());
-
-            layouts[i] = layout;
         }
-        layout.getPaint().setAlpha(mEventsAlpha);
-        return layout;
+        mLayoutTask = mLayoutCache.precompute(keys, paint);
     }
 
     private void drawAllDayEvents(int firstDay, int numDays, Canvas canvas, Paint p) {
@@ -2989,7 +3274,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
             Rect r = drawEventRect(event, canvas, p, eventTextPaint, (int) event.top,
                     (int) event.bottom);
             setupAllDayTextRect(r);
-            StaticLayout layout = getEventLayout(mAllDayLayouts, i, event, eventTextPaint, r);
+            StaticLayout layout = getEventLayout(event, eventTextPaint, r);
             drawEventText(layout, r, canvas, r.top, r.bottom, true);
 
             // Check if this all-day event intersects the selected day
@@ -3161,7 +3446,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
             if (r.top > viewEndY || r.bottom < mViewStartY) {
                 continue;
             }
-            StaticLayout layout = getEventLayout(mLayouts, i, event, eventTextPaint, r);
+            StaticLayout layout = getEventLayout(event, eventTextPaint, r);
             // TODO: not sure why we are 4 pixels off
             drawEventText(layout, r, canvas, mViewStartY + 4, mViewStartY + mViewHeight
                     - DAY_HEADER_HEIGHT - mAlldayHeight, false);
@@ -3559,27 +3844,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         return r;
     }
 
-    private final Pattern drawTextSanitizerFilter = Pattern.compile("[\t\n],");
-
-    // Sanitize a string before passing it to drawText or else we get little
-    // squares. For newlines and tabs before a comma, delete the character.
-    // Otherwise, just replace them with a space.
-    private String drawTextSanitizer(String string, int maxEventTextLen) {
-        Matcher m = drawTextSanitizerFilter.matcher(string);
-        string = m.replaceAll(",");
-
-        int len = string.length();
-        if (maxEventTextLen <= 0) {
-            string = "";
-            len = 0;
-        } else if (len > maxEventTextLen) {
-            string = string.substring(0, maxEventTextLen);
-            len = maxEventTextLen;
-        }
-
-        return string.replace('\n', ' ');
-    }
-
     private void drawEventText(StaticLayout eventLayout, Rect rect, Canvas canvas, int top,
             int bottom, boolean center) {
         // drawEmptyRect(canvas, rect, 0xFFFF00FF); // for debugging
@@ -4845,6 +5109,9 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
 
         Utils.setSharedPreference(mContext, GeneralPreferences.KEY_DEFAULT_CELL_HEIGHT,
             mCellHeight);
+        // Let go of the cached layers while we're not showing
+        mGridLayer = null;
+        mHeaderLayer = null;
         // Clear all click animations
         eventClickCleanup();
         // Turn off redraw
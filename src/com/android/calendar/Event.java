@@ -23,6 +23,7 @@ import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.CancellationSignal;
 import android.os.Debug;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.Calendars;
@@ -34,7 +35,8 @@ import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.concurrent.atomic.AtomicInteger;
 
 // TODO: should Event be Parcelable so it can be passed via Intents?
@@ -59,8 +61,40 @@ public class Event implements Cloneable {
             "startDay ASC, endDay DESC, title ASC";
     private static final String DISPLAY_AS_ALLDAY = "dispAllday";
 
-    private static final String EVENTS_WHERE = DISPLAY_AS_ALLDAY + "=0";
-    private static final String ALLDAY_WHERE = DISPLAY_AS_ALLDAY + "=1";
+    /**
+     * In-memory equivalent of {@link #SORT_EVENTS_BY}, used when events are
+     * assembled from several queries and have to be put back in order.
+     */
+    /* package */ static final Comparator<Event> SORT_EVENTS_COMPARATOR =
+            new Comparator<Event>() {
+        @Override
+        public int compare(Event lhs, Event rhs) {
+            if (lhs.startMillis != rhs.startMillis) {
+                return lhs.startMillis < rhs.startMillis ? -1 : 1;
+            }
+            if (lhs.endMillis != rhs.endMillis) {
+                return lhs.endMillis > rhs.endMillis ? -1 : 1;
+            }
+            return compareTitles(lhs, rhs);
+        }
+    };
+
+    /**
+     * In-memory equivalent of {@link #SORT_ALLDAY_BY}.
+     */
+    /* package */ static final Comparator<Event> SORT_ALLDAY_COMPARATOR =
+            new Comparator<Event>() {
+        @Override
+        public int compare(Event lhs, Event rhs) {
+            if (lhs.startDay != rhs.startDay) {
+                return lhs.startDay < rhs.startDay ? -1 : 1;
+            }
+            if (lhs.endDay != rhs.endDay) {
+                return lhs.endDay > rhs.endDay ? -1 : 1;
+            }
+            return compareTitles(lhs, rhs);
+        }
+    };
 
     // The projection to use when querying instances to build a list of events
     public static final String[] EVENT_PROJECTION = new String[] {
@@ -222,13 +256,26 @@ public class Event implements Cloneable {
      */
     public static void loadEvents(Context context, ArrayList<Event> events, int startDay, int days,
             int requestId, AtomicInteger sequenceNumber) {
+        loadEvents(context, events, startDay, days, requestId, sequenceNumber, null);
+    }
+
+    /**
+     * Loads <i>days</i> days worth of instances starting at <i>startDay</i>.
+     * The load is abandoned, leaving events empty, when sequenceNumber no
+     * longer matches requestId. Pass a null sequenceNumber to always load.
+     *
+     * @param cancellationSignal Cancels the provider query while it is in
+     *            progress, or null. Only used on Jellybean or later. When the
+     *            query is cancelled an OperationCanceledException is thrown.
+     */
+    public static void loadEvents(Context context, ArrayList<Event> events, int startDay, int days,
+            int requestId, AtomicInteger sequenceNumber, CancellationSignal cancellationSignal) {
 
         if (PROFILE) {
             Debug.startMethodTracing("loadEvents");
         }
 
-        Cursor cEvents = null;
-        Cursor cAllday = null;
+        Cursor cInstances = null;
 
         events.clear();
         try {
@@ -243,41 +290,36 @@ public class Event implements Cloneable {
             // the left side.  If the start and end times of two events are
             // the same then we sort alphabetically on the title.  This isn't
             // required for correctness, it just adds a nice touch.
+            //
+            // Timed and all-day instances come back from a single query so
+            // the provider only expands recurrences once. The all-day rows are
+            // split off and re-sorted by day in buildEventsFromCombinedCursor.
 
             // Respect the preference to show/hide declined events
             SharedPreferences prefs = GeneralPreferences.getSharedPreferences(context);
             boolean hideDeclined = prefs.getBoolean(GeneralPreferences.KEY_HIDE_DECLINED,
                     false);
 
-            String where = EVENTS_WHERE;
-            String whereAllday = ALLDAY_WHERE;
+            String where = null;
             if (hideDeclined) {
-                String hideString = " AND " + Instances.SELF_ATTENDEE_STATUS + "!="
+                where = Instances.SELF_ATTENDEE_STATUS + "!="
                         + Attendees.ATTENDEE_STATUS_DECLINED;
-                where += hideString;
-                whereAllday += hideString;
             }
 
-            cEvents = instancesQuery(context.getContentResolver(), EVENT_PROJECTION, startDay,
-                    endDay, where, null, SORT_EVENTS_BY);
-            cAllday = instancesQuery(context.getContentResolver(), EVENT_PROJECTION, startDay,
-                    endDay, whereAllday, null, SORT_ALLDAY_BY);
+            cInstances = instancesQuery(context.getContentResolver(), EVENT_PROJECTION, startDay,
+                    endDay, where, null, SORT_EVENTS_BY, cancellationSignal);
 
             // Check if we should return early because there are more recent
             // load requests waiting.
-            if (requestId != sequenceNumber.get()) {
+            if (sequenceNumber != null && requestId != sequenceNumber.get()) {
                 return;
             }
 
-            buildEventsFromCursor(events, cEvents, context, startDay, endDay);
-            buildEventsFromCursor(events, cAllday, context, startDay, endDay);
+            buildEventsFromCombinedCursor(events, cInstances, context, startDay, endDay);
 
         } finally {
-            if (cEvents != null) {
-                cEvents.close();
-            }
-            if (cAllday != null) {
-                cAllday.close();
+            if (cInstances != null) {
+                cInstances.close();
             }
             if (PROFILE) {
                 Debug.stopMethodTracing();
@@ -302,10 +344,13 @@ public class Event implements Cloneable {
      * @param selection Filter on the query as an SQL WHERE statement
      * @param selectionArgs Args to replace any '?'s in the selection
      * @param orderBy How to order the rows as an SQL ORDER BY statement
+     * @param cancellationSignal Cancels the query while it is in progress,
+     *            or null
      * @return A Cursor of instances matching the selection
      */
     private static final Cursor instancesQuery(ContentResolver cr, String[] projection,
-            int startDay, int endDay, String selection, String[] selectionArgs, String orderBy) {
+            int startDay, int endDay, String selection, String[] selectionArgs, String orderBy,
+            CancellationSignal cancellationSignal) {
         String WHERE_CALENDARS_SELECTED = Calendars.VISIBLE + "=?";
         String[] WHERE_CALENDARS_ARGS = {"1"};
         String DEFAULT_SORT_ORDER = "begin ASC";
@@ -325,6 +370,10 @@ public class Event implements Cloneable {
                 selectionArgs = WHERE_CALENDARS_ARGS;
             }
         }
+        if (cancellationSignal != null && Utils.isJellybeanOrLater()) {
+            return cr.query(builder.build(), projection, selection, selectionArgs,
+                    orderBy == null ? DEFAULT_SORT_ORDER : orderBy, cancellationSignal);
+        }
         return cr.query(builder.build(), projection, selection, selectionArgs,
                 orderBy == null ? DEFAULT_SORT_ORDER : orderBy);
     }
@@ -366,6 +415,104 @@ public class Event implements Cloneable {
         }
     }
 
+    /**
+     * Adds the events from a cursor holding both timed and all-day instances,
+     * sorted by {@link #SORT_EVENTS_BY}, to the events list. The result is
+     * the same as querying the two kinds separately: timed events first in
+     * start time order, followed by the all-day events sorted by day.
+     *
+     * @param events The list of events
+     * @param cInstances Timed and all-day instances to add to the list
+     * @param context
+     * @param startDay
+     * @param endDay
+     */
+    /* package */ static void buildEventsFromCombinedCursor(
+            ArrayList<Event> events, Cursor cInstances, Context context, int startDay,
+            int endDay) {
+        if (cInstances == null || events == null) {
+            Log.e(TAG, "buildEventsFromCombinedCursor: null cursor or null events list!");
+            return;
+        }
+
+        if (cInstances.getCount() == 0) {
+            return;
+        }
+
+        Resources res = context.getResources();
+        mNoTitleString = res.getString(R.string.no_title_label);
+        mNoColorColor = res.getColor(R.color.event_center);
+
+        ArrayList<Event> allDay = new ArrayList<Event>();
+        cInstances.moveToPosition(-1);
+        while (cInstances.moveToNext()) {
+            Event e = generateEventFromCursor(cInstances);
+            if (e.startDay > endDay || e.endDay < startDay) {
+                continue;
+            }
+            if (cInstances.getInt(PROJECTION_DISPLAY_AS_ALLDAY) != 0) {
+                allDay.add(e);
+            } else {
+                events.add(e);
+            }
+        }
+
+        // Collections.sort is stable, so rows that tie on the day order keep
+        // their start time order from the query.
+        Collections.sort(allDay, SORT_ALLDAY_COMPARATOR);
+        events.addAll(allDay);
+    }
+
+    /**
+     * Adds all the instances from the cursor to the table without creating
+     * an {@link Event} for each row. The cursor must use
+     * {@link #EVENT_PROJECTION}.
+     *
+     * @param table The table to append to
+     * @param cEvents Instances to add to the table
+     * @param context
+     * @param startDay
+     * @param endDay
+     */
+    public static void buildEventTableFromCursor(
+            EventTable table, Cursor cEvents, Context context, int startDay, int endDay) {
+        if (cEvents == null || table == null) {
+            Log.e(TAG, "buildEventTableFromCursor: null cursor or null table!");
+            return;
+        }
+
+        if (cEvents.getCount() == 0) {
+            return;
+        }
+
+        Resources res = context.getResources();
+        mNoTitleString = res.getString(R.string.no_title_label);
+        mNoColorColor = res.getColor(R.color.event_center);
+        table.setNoTitleString(mNoTitleString);
+
+        cEvents.moveToPosition(-1);
+        while (cEvents.moveToNext()) {
+            int eStartDay = cEvents.getInt(PROJECTION_START_DAY_INDEX);
+            int eEndDay = cEvents.getInt(PROJECTION_END_DAY_INDEX);
+            if (eStartDay > endDay || eEndDay < startDay) {
+                continue;
+            }
+            int color;
+            if (!cEvents.isNull(PROJECTION_COLOR_INDEX)) {
+                // Read the color from the database
+                color = Utils.getDisplayColorFromColor(cEvents.getInt(PROJECTION_COLOR_INDEX));
+            } else {
+                color = mNoColorColor;
+            }
+            int i = table.add(cEvents.getLong(PROJECTION_EVENT_ID_INDEX), color,
+                    eStartDay, cEvents.getInt(PROJECTION_START_MINUTE_INDEX),
+                    eEndDay, cEvents.getInt(PROJECTION_END_MINUTE_INDEX),
+                    cEvents.getLong(PROJECTION_BEGIN_INDEX), cEvents.getLong(PROJECTION_END_INDEX),
+                    cEvents.getInt(PROJECTION_ALL_DAY_INDEX) != 0);
+            table.setTitle(i, cEvents, PROJECTION_TITLE_INDEX);
+        }
+    }
+
     /**
      * @param cEvents Cursor pointing at event
      * @return An event created from the cursor
@@ -428,7 +575,10 @@ public class Event implements Cloneable {
      * rectangle depend on the maximum number of rectangles that occur at
      * the same time.
      *
-     * @param eventsList the list of events, sorted into increasing time order
+     * Any number of events may overlap; see {@link ColumnLayout}.
+     *
+     * @param eventsList the list of events. Events that start at the same
+     * time are placed in the order of the list.
      * @param minimumDurationMillis minimum duration acceptable as cell height of each event
      * rectangle in millisecond. Should be 0 when it is not determined.
      */
@@ -438,94 +588,49 @@ public class Event implements Cloneable {
             return;
         }
 
-        // Compute the column positions separately for the all-day events
-        doComputePositions(eventsList, minimumDurationMillis, false);
-        doComputePositions(eventsList, minimumDurationMillis, true);
-    }
-
-    private static void doComputePositions(ArrayList<Event> eventsList,
-            long minimumDurationMillis, boolean doAlldayEvents) {
-        final ArrayList<Event> activeList = new ArrayList<Event>();
-        final ArrayList<Event> groupList = new ArrayList<Event>();
-
-        if (minimumDurationMillis < 0) {
-            minimumDurationMillis = 0;
+        final int size = eventsList.size();
+        final long[] startMillis = new long[size];
+        final long[] endMillis = new long[size];
+        final int[] startDay = new int[size];
+        final int[] endDay = new int[size];
+        final boolean[] drawAsAllday = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            Event event = eventsList.get(i);
+            startMillis[i] = event.startMillis;
+            endMillis[i] = event.endMillis;
+            startDay[i] = event.startDay;
+            endDay[i] = event.endDay;
+            drawAsAllday[i] = event.drawAsAllday();
         }
 
-        long colMask = 0;
-        int maxCols = 0;
-        for (Event event : eventsList) {
-            // Process all-day events separately
-            if (event.drawAsAllday() != doAlldayEvents)
-                continue;
-
-           if (!doAlldayEvents) {
-                colMask = removeNonAlldayActiveEvents(
-                        event, activeList.iterator(), minimumDurationMillis, colMask);
-            } else {
-                colMask = removeAlldayActiveEvents(event, activeList.iterator(), colMask);
-            }
-
-            // If the active list is empty, then reset the max columns, clear
-            // the column bit mask, and empty the groupList.
-            if (activeList.isEmpty()) {
-                for (Event ev : groupList) {
-                    ev.setMaxColumns(maxCols);
-                }
-                maxCols = 0;
-                colMask = 0;
-                groupList.clear();
-            }
-
-            // Find the first empty column.  Empty columns are represented by
-            // zero bits in the column mask "colMask".
-            int col = findFirstZeroBit(colMask);
-            if (col == 64)
-                col = 63;
-            colMask |= (1L << col);
-            event.setColumn(col);
-            activeList.add(event);
-            groupList.add(event);
-            int len = activeList.size();
-            if (maxCols < len)
-                maxCols = len;
-        }
-        for (Event ev : groupList) {
-            ev.setMaxColumns(maxCols);
+        final int[] columns = new int[size];
+        final int[] maxColumns = new int[size];
+        ColumnLayout.computePositions(size, startMillis, endMillis, startDay, endDay,
+                drawAsAllday, minimumDurationMillis, columns, maxColumns);
+        for (int i = 0; i < size; i++) {
+            Event event = eventsList.get(i);
+            event.setColumn(columns[i]);
+            event.setMaxColumns(maxColumns[i]);
         }
     }
 
-    private static long removeAlldayActiveEvents(Event event, Iterator<Event> iter, long colMask) {
-        // Remove the inactive allday events. An event on the active list
-        // becomes inactive when the end day is less than the current event's
-        // start day.
-        while (iter.hasNext()) {
-            final Event active = iter.next();
-            if (active.endDay < event.startDay) {
-                colMask &= ~(1L << active.getColumn());
-                iter.remove();
-            }
+    /**
+     * Same as {@link #computePositions(ArrayList, long)} but stores the
+     * column assignments in the table's column and maxColumns arrays.
+     */
+    /* package */ static void computePositions(EventTable table, long minimumDurationMillis) {
+        if (table == null) {
+            return;
         }
-        return colMask;
-    }
 
-    private static long removeNonAlldayActiveEvents(
-            Event event, Iterator<Event> iter, long minDurationMillis, long colMask) {
-        long start = event.getStartMillis();
-        // Remove the inactive events. An event on the active list
-        // becomes inactive when its end time is less than or equal to
-        // the current event's start time.
-        while (iter.hasNext()) {
-            final Event active = iter.next();
-
-            final long duration = Math.max(
-                    active.getEndMillis() - active.getStartMillis(), minDurationMillis);
-            if ((active.getStartMillis() + duration) <= start) {
-                colMask &= ~(1L << active.getColumn());
-                iter.remove();
-            }
+        final int size = table.size();
+        final boolean[] drawAsAllday = new boolean[size];
+        for (int row = 0; row < size; row++) {
+            drawAsAllday[row] = table.drawAsAllday(row);
         }
-        return colMask;
+        ColumnLayout.computePositions(size, table.startMillis, table.endMillis, table.startDay,
+                table.endDay, drawAsAllday, minimumDurationMillis, table.column,
+                table.maxColumns);
     }
 
     public static int findFirstZeroBit(long val) {
@@ -536,6 +641,12 @@ public class Event implements Cloneable {
         return 64;
     }
 
+    private static int compareTitles(Event lhs, Event rhs) {
+        String lhsTitle = lhs.title == null ? "" : lhs.title.toString();
+        String rhsTitle = rhs.title == null ? "" : rhs.title.toString();
+        return lhsTitle.compareTo(rhsTitle);
+    }
+
     public final void dump() {
         Log.e("Cal", "+-----------------------------------------+");
         Log.e("Cal", "+        id = " + id);
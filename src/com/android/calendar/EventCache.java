@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.content.Context;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the instances loaded by {@link EventLoader} in memory, bucketed by
+ * Julian day, so that paging back and forth between adjacent days does not
+ * hit the provider again. Each bucket holds every instance that intersects
+ * its day, which makes a cached day complete on its own.
+ *
+ * All methods are synchronized; the cache is filled from the loader thread
+ * and invalidated from the UI thread.
+ */
+public class EventCache {
+    private static final String TAG = "EventCache";
+    private static final boolean DEBUG = false;
+
+    /**
+     * Upper bound on the number of cached days. This comfortably covers the
+     * week view plus the views on either side of it.
+     */
+    /* package */ static final int MAX_CACHED_DAYS = 56;
+
+    private final LinkedHashMap<Integer, ArrayList<Event>> mDays =
+            new LinkedHashMap<Integer, ArrayList<Event>>(MAX_CACHED_DAYS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ArrayList<Event>> eldest) {
+            return size() > MAX_CACHED_DAYS;
+        }
+    };
+
+    // The hide declined preference the cached days were loaded with
+    private boolean mHideDeclined;
+
+    // Bumped on every invalidation so that a query which was already running
+    // doesn't put stale results back into the cache.
+    private int mGeneration;
+
+    /**
+     * Loads <i>numDays</i> days worth of instances starting at
+     * <i>startDay</i> into events, querying the provider only for the days
+     * that are not cached yet. The events are returned in the same order as
+     * {@link Event#loadEvents} and are copies, so callers are free to modify
+     * their layout fields.
+     */
+    public void loadEvents(Context context, ArrayList<Event> events, int startDay, int numDays,
+            int requestId, AtomicInteger sequenceNumber, CancellationSignal cancellationSignal) {
+        if (numDays > MAX_CACHED_DAYS) {
+            Event.loadEvents(context, events, startDay, numDays, requestId, sequenceNumber,
+                    cancellationSignal);
+            return;
+        }
+
+        int endDay = startDay + numDays - 1;
+        if (!loadMissingDays(context, startDay, endDay, requestId, sequenceNumber,
+                cancellationSignal)) {
+            // The load was abandoned part way through.
+            events.clear();
+            return;
+        }
+        if (!get(startDay, endDay, events)) {
+            // The cache was invalidated while we were loading, so go to the
+            // provider directly for this one.
+            Event.loadEvents(context, events, startDay, numDays, requestId, sequenceNumber,
+                    cancellationSignal);
+        }
+    }
+
+    /**
+     * Makes sure the days in [startDay, startDay + numDays - 1] are cached,
+     * without copying any events out.
+     */
+    public void prefetchEvents(Context context, int startDay, int numDays,
+            CancellationSignal cancellationSignal) {
+        if (numDays > MAX_CACHED_DAYS) {
+            return;
+        }
+        loadMissingDays(context, startDay, startDay + numDays - 1, 0, null, cancellationSignal);
+    }
+
+    /**
+     * @return true if every day in [startDay, startDay + numDays - 1] is cached
+     */
+    public synchronized boolean hasEvents(int startDay, int numDays) {
+        for (int day = startDay; day < startDay + numDays; day++) {
+            if (!mDays.containsKey(day)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Queries the provider for the span of days in [startDay, endDay] that
+     * isn't cached. Returns false if the load was abandoned because a newer
+     * request came in.
+     */
+    private boolean loadMissingDays(Context context, int startDay, int endDay, int requestId,
+            AtomicInteger sequenceNumber, CancellationSignal cancellationSignal) {
+        int firstMissing;
+        int lastMissing;
+        int generation;
+        synchronized (this) {
+            boolean hideDeclined = Utils.getHideDeclinedEvents(context);
+            if (hideDeclined != mHideDeclined) {
+                invalidateAll();
+                mHideDeclined = hideDeclined;
+            }
+            firstMissing = startDay;
+            while (firstMissing <= endDay && mDays.containsKey(firstMissing)) {
+                firstMissing++;
+            }
+            lastMissing = endDay;
+            while (lastMissing >= firstMissing && mDays.containsKey(lastMissing)) {
+                lastMissing--;
+            }
+            generation = mGeneration;
+        }
+
+        if (firstMissing > lastMissing) {
+            if (DEBUG) {
+                Log.d(TAG, "Days " + startDay + "-" + endDay + " served from cache");
+            }
+            return true;
+        }
+
+        // Query only the span of days that are missing. Cached days in
+        // the middle of that span are simply refreshed.
+        ArrayList<Event> loaded = new ArrayList<Event>();
+        Event.loadEvents(context, loaded, firstMissing, lastMissing - firstMissing + 1,
+                requestId, sequenceNumber, cancellationSignal);
+        if (sequenceNumber != null && requestId != sequenceNumber.get()) {
+            // Don't cache a load that was abandoned part way through.
+            return false;
+        }
+        put(firstMissing, lastMissing, loaded, generation);
+        if (DEBUG) {
+            Log.d(TAG, "Queried days " + firstMissing + "-" + lastMissing + " for "
+                    + startDay + "-" + endDay);
+        }
+        return true;
+    }
+
+    /**
+     * Stores the result of a query over [startDay, endDay]. Every day in the
+     * range gets a bucket, even if it has no events. The result is dropped if
+     * the cache was invalidated since the query started.
+     */
+    /* package */ synchronized void put(int startDay, int endDay, ArrayList<Event> loaded,
+            int generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        for (int day = startDay; day <= endDay; day++) {
+            mDays.put(day, new ArrayList<Event>());
+        }
+        for (Event e : loaded) {
+            int first = Math.max(e.startDay, startDay);
+            int last = Math.min(e.endDay, endDay);
+            for (int day = first; day <= last; day++) {
+                mDays.get(day).add(e);
+            }
+        }
+    }
+
+    /**
+     * Copies the cached events intersecting [startDay, endDay] into events.
+     * Returns false, leaving events empty, if any of the days is missing.
+     */
+    /* package */ synchronized boolean get(int startDay, int endDay, ArrayList<Event> events) {
+        events.clear();
+        ArrayList<Event> allDay = new ArrayList<Event>();
+        for (int day = startDay; day <= endDay; day++) {
+            ArrayList<Event> bucket = mDays.get(day);
+            if (bucket == null) {
+                events.clear();
+                return false;
+            }
+            for (Event cached : bucket) {
+                // A multi-day event sits in several buckets; only take it
+                // from the first day of the range that it appears on.
+                if (Math.max(cached.startDay, startDay) != day) {
+                    continue;
+                }
+                Event e = Event.newInstance();
+                cached.copyTo(e);
+                if (e.drawAsAllday()) {
+                    allDay.add(e);
+                } else {
+                    events.add(e);
+                }
+            }
+        }
+        Collections.sort(events, Event.SORT_EVENTS_COMPARATOR);
+        Collections.sort(allDay, Event.SORT_ALLDAY_COMPARATOR);
+        events.addAll(allDay);
+        return true;
+    }
+
+    /**
+     * Drops the cached days in [startDay, endDay].
+     */
+    public synchronized void invalidate(int startDay, int endDay) {
+        mGeneration++;
+        for (int day = startDay; day <= endDay; day++) {
+            mDays.remove(day);
+        }
+    }
+
+    /**
+     * @return the runs of consecutive cached Julian days in order, each as
+     *         its first and last day. The days in between runs aren't
+     *         cached, and no run is longer than {@link #MAX_CACHED_DAYS}.
+     */
+    public synchronized ArrayList<int[]> getCachedRanges() {
+        ArrayList<int[]> ranges = new ArrayList<int[]>();
+        if (mDays.isEmpty()) {
+            return ranges;
+        }
+        int[] days = new int[mDays.size()];
+        int i = 0;
+        for (int day : mDays.keySet()) {
+            days[i++] = day;
+        }
+        Arrays.sort(days);
+        int first = days[0];
+        for (i = 1; i <= days.length; i++) {
+            if (i == days.length || days[i] != days[i - 1] + 1) {
+                ranges.add(new int[] { first, days[i - 1] });
+                if (i < days.length) {
+                    first = days[i];
+                }
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Drops every cached day.
+     */
+    public synchronized void invalidateAll() {
+        mGeneration++;
+        mDays.clear();
+    }
+}
@@ -97,12 +97,22 @@ public class EventGeometry {
             event.bottom = event.top + mMinEventHeight;
         }
 
-        float colWidth = (float) (cellWidth - (maxCols + 1) * mCellMargin) / (float) maxCols;
-        event.left = left + col * (colWidth + mCellMargin);
+        float colWidth = computeColumnWidth(cellWidth, maxCols);
+        event.left = computeColumnLeft(left, col, colWidth);
         event.right = event.left + colWidth;
         return true;
     }
 
+    // Computes the width of each column when a day cell is split into maxCols columns.
+    float computeColumnWidth(int cellWidth, int maxCols) {
+        return (float) (cellWidth - (maxCols + 1) * mCellMargin) / (float) maxCols;
+    }
+
+    // Computes the left edge of column col in a day cell starting at left.
+    float computeColumnLeft(int left, int col, float colWidth) {
+        return left + col * (colWidth + mCellMargin);
+    }
+
     /**
      * Returns true if this event intersects the selection region.
      */
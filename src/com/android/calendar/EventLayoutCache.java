@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Process;
+import android.text.Layout.Alignment;
+import android.text.SpannableStringBuilder;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.text.style.StyleSpan;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
+
+/**
+ * The text layouts of the events in a DayView, keyed by everything that
+ * goes into one: the event, its title and location, the width and the
+ * paint. A layout stays valid when the events are reloaded or moved to
+ * another column, and the two DayViews of a DayFragment share them.
+ *
+ * Layouts can be built ahead of time on a background thread with
+ * {@link #precompute}, so that drawing only has to look them up.
+ */
+/* package */ class EventLayoutCache {
+    // A busy week is a few hundred layouts, and the neighbouring week that
+    // the other DayView holds as many again.
+    private static final int MAX_LAYOUTS = 1024;
+
+    private static final int MAX_EVENT_TEXT_LEN = 500;
+
+    private static final Pattern DRAW_TEXT_SANITIZER_FILTER = Pattern.compile("[\t\n],");
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "EventLayoutCache");
+                }
+            });
+
+    private final LruCache<Key, StaticLayout> mLayouts =
+            new LruCache<Key, StaticLayout>(MAX_LAYOUTS);
+
+    // Only used on the UI thread, so that lookups don't allocate
+    private final Key mLookupKey = new Key();
+
+    /**
+     * Everything a layout depends on.
+     */
+    static class Key {
+        long eventId;
+        String title;
+        String location;
+        int width;
+        int color;
+        float textSize;
+        Typeface typeface;
+
+        void set(Event event, int width, int color, Paint paint) {
+            this.eventId = event.id;
+            this.title = event.title == null ? null : event.title.toString();
+            this.location = event.location == null ? null : event.location.toString();
+            this.width = width;
+            this.color = color;
+            this.textSize = paint.getTextSize();
+            this.typeface = paint.getTypeface();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return eventId == other.eventId && width == other.width && color == other.color
+                    && textSize == other.textSize && typeface == other.typeface
+                    && TextUtils.equals(title, other.title)
+                    && TextUtils.equals(location, other.location);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (eventId ^ (eventId >>> 32));
+            result = 31 * result + width;
+            result = 31 * result + color;
+            result = 31 * result + (title == null ? 0 : title.hashCode());
+            result = 31 * result + (location == null ? 0 : location.hashCode());
+            return result;
+        }
+    }
+
+    /**
+     * A run of {@link #precompute}, which can be cancelled once its
+     * layouts are no longer wanted.
+     */
+    class PrecomputeTask implements Runnable {
+        private final ArrayList<Key> mKeys;
+        private final TextPaint mPaint;
+        private volatile boolean mCancelled;
+
+        PrecomputeTask(ArrayList<Key> keys, TextPaint paint) {
+            mKeys = keys;
+            mPaint = paint;
+        }
+
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            for (Key key : mKeys) {
+                if (mCancelled) {
+                    return;
+                }
+                if (mLayouts.get(key) == null) {
+                    mLayouts.put(key, buildLayout(key, mPaint));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the layout for the text of an event, building it if it isn't
+     * cached. Only call this on the UI thread.
+     *
+     * @param color the color of the text
+     * @param paint the paint to draw the text with, apart from the color
+     */
+    public StaticLayout get(Event event, int width, int color, Paint paint) {
+        Key key = mLookupKey;
+        key.set(event, width, color, paint);
+        StaticLayout layout = mLayouts.get(key);
+        if (layout == null) {
+            Key newKey = new Key();
+            newKey.set(event, width, color, paint);
+            layout = buildLayout(newKey, paint);
+            mLayouts.put(newKey, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Makes a key for {@link #precompute}.
+     */
+    public Key newKey(Event event, int width, int color, Paint paint) {
+        Key key = new Key();
+        key.set(event, width, color, paint);
+        return key;
+    }
+
+    /**
+     * Builds the layouts for the keys that aren't cached yet on a background
+     * thread. Call this on the UI thread; the paint is copied before
+     * returning.
+     */
+    public PrecomputeTask precompute(ArrayList<Key> keys, Paint paint) {
+        PrecomputeTask task = new PrecomputeTask(keys, new TextPaint(paint));
+        sExecutor.execute(task);
+        return task;
+    }
+
+    private static StaticLayout buildLayout(Key key, Paint paint) {
+        SpannableStringBuilder bob = new SpannableStringBuilder();
+        if (key.title != null) {
+            // MAX - 1 since we add a space
+            bob.append(drawTextSanitizer(key.title, MAX_EVENT_TEXT_LEN - 1));
+            bob.setSpan(new StyleSpan(Typeface.BOLD), 0, bob.length(), 0);
+            bob.append(' ');
+        }
+        if (key.location != null) {
+            bob.append(drawTextSanitizer(key.location, MAX_EVENT_TEXT_LEN - bob.length()));
+        }
+
+        TextPaint textPaint = new TextPaint(paint);
+        textPaint.setColor(key.color);
+
+        // Leave a one pixel boundary on the left and right of the rectangle for the event
+        return new StaticLayout(bob, 0, bob.length(), textPaint, key.width,
+                Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true, null, key.width);
+    }
+
+    // Sanitize a string before passing it to drawText or else we get little
+    // squares. For newlines and tabs before a comma, delete the character.
+    // Otherwise, just replace them with a space.
+    private static String drawTextSanitizer(String string, int maxEventTextLen) {
+        string = DRAW_TEXT_SANITIZER_FILTER.matcher(string).replaceAll(",");
+
+        if (maxEventTextLen <= 0) {
+            string = "";
+        } else if (string.length() > maxEventTextLen) {
+            string = string.substring(0, maxEventTextLen);
+        }
+
+        return string.replace('\n', ' ');
+    }
+}
@@ -18,8 +18,11 @@ package com.android.calendar;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.os.CancellationSignal;
 import android.os.Handler;
+import android.os.OperationCanceledException;
 import android.os.Process;
 import android.provider.CalendarContract;
 import android.provider.CalendarContract.EventDays;
@@ -27,25 +30,110 @@ import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Iterator;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class EventLoader {
 
+    /**
+     * Priority for loading the range the user is looking at. These requests
+     * are always run before any of the others.
+     */
+    public static final int PRIORITY_VISIBLE = 0;
+
+    /**
+     * Priority for speculatively loading the ranges next to the visible one.
+     */
+    public static final int PRIORITY_PREFETCH = 1;
+
+    /**
+     * Priority for reloading ranges that were cached before a change.
+     */
+    public static final int PRIORITY_REFRESH = 2;
+
+    // Requests that always run first, ahead of the visible range
+    private static final int PRIORITY_SHUTDOWN = -1;
+
     private Context mContext;
     private Handler mHandler = new Handler();
     private AtomicInteger mSequenceNumber = new AtomicInteger();
+    // Breaks ties between requests of the same priority in the order they
+    // were made.
+    private AtomicLong mRequestOrder = new AtomicLong();
 
-    private LinkedBlockingQueue<LoadRequest> mLoaderQueue;
+    private PriorityBlockingQueue<LoadRequest> mLoaderQueue;
     private LoaderThread mLoaderThread;
     private ContentResolver mResolver;
+    private final EventCache mCache = new EventCache();
+
+    // The request the loader thread is working on, if any
+    private volatile LoadRequest mCurrentRequest;
+
+    // The calendar provider notifies on its authority root whenever
+    // anything changes, so there's no finer grained range to invalidate.
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidateCache();
+        }
+    };
+
+    private static abstract class LoadRequest implements Comparable<LoadRequest> {
+        public final int priority;
+        public final long order;
+
+        // Only created on Jellybean or later, where queries can be cancelled.
+        protected final CancellationSignal mCancellationSignal;
+
+        LoadRequest(int priority, long order) {
+            this.priority = priority;
+            this.order = order;
+            mCancellationSignal = Utils.isJellybeanOrLater() ? new CancellationSignal() : null;
+        }
+
+        public abstract void processRequest(EventLoader eventLoader);
+        public abstract void skipRequest(EventLoader eventLoader);
+
+        /**
+         * @return true if the request has been superseded and shouldn't run
+         */
+        public boolean isStale(EventLoader eventLoader) {
+            return false;
+        }
 
-    private static interface LoadRequest {
-        public void processRequest(EventLoader eventLoader);
-        public void skipRequest(EventLoader eventLoader);
+        /**
+         * Cancels the provider query of this request if it is in progress.
+         */
+        public void cancel() {
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
+
+        @Override
+        public int compareTo(LoadRequest another) {
+            if (priority != another.priority) {
+                return priority < another.priority ? -1 : 1;
+            }
+            if (order != another.order) {
+                return order < another.order ? -1 : 1;
+            }
+            return 0;
+        }
     }
 
-    private static class ShutdownRequest implements LoadRequest {
+    private static class ShutdownRequest extends LoadRequest {
+        ShutdownRequest(long order) {
+            super(PRIORITY_SHUTDOWN, order);
+        }
+
         public void processRequest(EventLoader eventLoader) {
         }
 
@@ -59,7 +147,7 @@ public class EventLoader {
      * and filling in the eventDays array.
      *
      */
-    private static class LoadEventDaysRequest implements LoadRequest {
+    private static class LoadEventDaysRequest extends LoadRequest {
         public int startDay;
         public int numDays;
         public boolean[] eventDays;
@@ -72,9 +160,10 @@ public class EventLoader {
                 CalendarContract.EventDays.STARTDAY, CalendarContract.EventDays.ENDDAY
         };
 
-        public LoadEventDaysRequest(int startDay, int numDays, boolean[] eventDays,
+        public LoadEventDaysRequest(long order, int startDay, int numDays, boolean[] eventDays,
                 final Runnable uiCallback)
         {
+            super(PRIORITY_VISIBLE, order);
             this.startDay = startDay;
             this.numDays = numDays;
             this.eventDays = eventDays;
@@ -121,7 +210,7 @@ public class EventLoader {
         }
     }
 
-    private static class LoadEventsRequest implements LoadRequest {
+    private static class LoadEventsRequest extends LoadRequest {
 
         public int id;
         public int startDay;
@@ -130,8 +219,10 @@ public class EventLoader {
         public Runnable successCallback;
         public Runnable cancelCallback;
 
-        public LoadEventsRequest(int id, int startDay, int numDays, ArrayList<Event> events,
-                final Runnable successCallback, final Runnable cancelCallback) {
+        public LoadEventsRequest(long order, int id, int startDay, int numDays,
+                ArrayList<Event> events, final Runnable successCallback,
+                final Runnable cancelCallback) {
+            super(PRIORITY_VISIBLE, order);
             this.id = id;
             this.startDay = startDay;
             this.numDays = numDays;
@@ -141,8 +232,15 @@ public class EventLoader {
         }
 
         public void processRequest(EventLoader eventLoader) {
-            Event.loadEvents(eventLoader.mContext, events, startDay,
-                    numDays, id, eventLoader.mSequenceNumber);
+            try {
+                eventLoader.mCache.loadEvents(eventLoader.mContext, events, startDay,
+                        numDays, id, eventLoader.mSequenceNumber, mCancellationSignal);
+            } catch (OperationCanceledException e) {
+                // A newer request replaced this one while it was loading.
+                events.clear();
+                eventLoader.mHandler.post(cancelCallback);
+                return;
+            }
 
             // Check if we are still the most recent request.
             if (id == eventLoader.mSequenceNumber.get()) {
@@ -155,25 +253,66 @@ public class EventLoader {
         public void skipRequest(EventLoader eventLoader) {
             eventLoader.mHandler.post(cancelCallback);
         }
+
+        @Override
+        public boolean isStale(EventLoader eventLoader) {
+            return id != eventLoader.mSequenceNumber.get();
+        }
+    }
+
+    /**
+     * Loads a range of days into the cache without reporting back. Used for
+     * prefetching and refreshing; gives way to visible range requests.
+     */
+    private static class PrefetchEventsRequest extends LoadRequest {
+        public final int startDay;
+        public final int numDays;
+
+        public PrefetchEventsRequest(int priority, long order, int startDay, int numDays) {
+            super(priority, order);
+            this.startDay = startDay;
+            this.numDays = numDays;
+        }
+
+        public void processRequest(EventLoader eventLoader) {
+            try {
+                eventLoader.mCache.prefetchEvents(eventLoader.mContext, startDay, numDays,
+                        mCancellationSignal);
+            } catch (OperationCanceledException e) {
+                // Preempted by a visible range request. Put the work back in
+                // the queue in its old place instead of throwing it away.
+                eventLoader.enqueue(new PrefetchEventsRequest(priority, order, startDay,
+                        numDays));
+            }
+        }
+
+        public void skipRequest(EventLoader eventLoader) {
+        }
+
+        @Override
+        public boolean isStale(EventLoader eventLoader) {
+            return eventLoader.mCache.hasEvents(startDay, numDays);
+        }
+
+        public int getEndDay() {
+            return startDay + numDays - 1;
+        }
     }
 
     private static class LoaderThread extends Thread {
-        LinkedBlockingQueue<LoadRequest> mQueue;
+        PriorityBlockingQueue<LoadRequest> mQueue;
         EventLoader mEventLoader;
 
-        public LoaderThread(LinkedBlockingQueue<LoadRequest> queue, EventLoader eventLoader) {
+        public LoaderThread(PriorityBlockingQueue<LoadRequest> queue, EventLoader eventLoader) {
             mQueue = queue;
             mEventLoader = eventLoader;
         }
 
         public void shutdown() {
-            try {
-                mQueue.put(new ShutdownRequest());
-            } catch (InterruptedException ex) {
-                // The put() method fails with InterruptedException if the
-                // queue is full. This should never happen because the queue
-                // has no limit.
-                Log.e("Cal", "LoaderThread.shutdown() interrupted!");
+            mQueue.put(new ShutdownRequest(mEventLoader.mRequestOrder.incrementAndGet()));
+            LoadRequest current = mEventLoader.mCurrentRequest;
+            if (current != null) {
+                current.cancel();
             }
         }
 
@@ -182,23 +321,31 @@ public class EventLoader {
             Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
             while (true) {
                 try {
-                    // Wait for the next request
+                    // Wait for the highest priority request
                     LoadRequest request = mQueue.take();
 
-                    // If there are a bunch of requests already waiting, then
-                    // skip all but the most recent request.
-                    while (!mQueue.isEmpty()) {
-                        // Let the request know that it was skipped
-                        request.skipRequest(mEventLoader);
+                    if (request instanceof ShutdownRequest) {
+                        // Let everything still waiting know it was skipped
+                        LoadRequest skipped;
+                        while ((skipped = mQueue.poll()) != null) {
+                            skipped.skipRequest(mEventLoader);
+                        }
+                        return;
+                    }
 
-                        // Skip to the next request
-                        request = mQueue.take();
+                    // Skip requests that were superseded while waiting, such
+                    // as an older visible range or an already cached prefetch.
+                    if (request.isStale(mEventLoader)) {
+                        request.skipRequest(mEventLoader);
+                        continue;
                     }
 
-                    if (request instanceof ShutdownRequest) {
-                        return;
+                    mEventLoader.mCurrentRequest = request;
+                    try {
+                        request.processRequest(mEventLoader);
+                    } finally {
+                        mEventLoader.mCurrentRequest = null;
                     }
-                    request.processRequest(mEventLoader);
                 } catch (InterruptedException ex) {
                     Log.e("Cal", "background LoaderThread interrupted!");
                 }
@@ -208,7 +355,7 @@ public class EventLoader {
 
     public EventLoader(Context context) {
         mContext = context;
-        mLoaderQueue = new LinkedBlockingQueue<LoadRequest>();
+        mLoaderQueue = new PriorityBlockingQueue<LoadRequest>();
         mResolver = context.getContentResolver();
     }
 
@@ -216,6 +363,9 @@ public class EventLoader {
      * Call this from the activity's onResume()
      */
     public void startBackgroundThread() {
+        // Anything cached may have changed while we weren't listening.
+        mCache.invalidateAll();
+        mResolver.registerContentObserver(CalendarContract.CONTENT_URI, true, mObserver);
         mLoaderThread = new LoaderThread(mLoaderQueue, this);
         mLoaderThread.start();
     }
@@ -224,11 +374,28 @@ public class EventLoader {
      * Call this from the activity's onPause()
      */
     public void stopBackgroundThread() {
+        mResolver.unregisterContentObserver(mObserver);
         mLoaderThread.shutdown();
     }
 
+    /**
+     * Drops all cached instances so the next load goes to the provider. The
+     * days that were cached are reloaded in the background at
+     * {@link #PRIORITY_REFRESH}, one run of consecutive days at a time since
+     * the span from the first to the last can be longer than the cache holds.
+     */
+    public void invalidateCache() {
+        ArrayList<int[]> ranges = mCache.getCachedRanges();
+        mCache.invalidateAll();
+        for (int[] range : ranges) {
+            prefetchEventsInBackground(range[0], range[1] - range[0] + 1, PRIORITY_REFRESH);
+        }
+    }
+
     /**
      * Loads "numDays" days worth of events, starting at start, into events.
+     * Days that were loaded before and haven't changed since are served
+     * from an in-memory cache instead of the provider.
      * Posts uiCallback to the {@link Handler} for this view, which will run in the UI thread.
      * Reuses an existing background thread, if events were already being loaded in the background.
      * NOTE: events and uiCallback are not used if an existing background thread gets reused --
@@ -245,19 +412,101 @@ public class EventLoader {
         int id = mSequenceNumber.incrementAndGet();
 
         // Send the load request to the background thread
-        LoadEventsRequest request = new LoadEventsRequest(id, startDay, numDays,
-                events, successCallback, cancelCallback);
-
-        try {
-            mLoaderQueue.put(request);
-        } catch (InterruptedException ex) {
-            // The put() method fails with InterruptedException if the
-            // queue is full. This should never happen because the queue
-            // has no limit.
-            Log.e("Cal", "loadEventsInBackground() interrupted!");
+        LoadEventsRequest request = new LoadEventsRequest(mRequestOrder.incrementAndGet(), id,
+                startDay, numDays, events, successCallback, cancelCallback);
+        enqueue(request);
+
+        // If an older visible range or speculative work is loading right
+        // now, make it give way.
+        cancelStaleRequest(request);
+    }
+
+    /**
+     * Loads "numDays" days worth of events, starting at startDay, into events
+     * from the cache alone, on the calling thread. Returns false, leaving
+     * events empty, if any of the days isn't cached; the caller should then
+     * use {@link #loadEventsInBackground}.
+     */
+    public boolean loadCachedEvents(int numDays, ArrayList<Event> events, int startDay) {
+        if (numDays <= 0 || numDays > EventCache.MAX_CACHED_DAYS
+                || !mCache.get(startDay, startDay + numDays - 1, events)) {
+            events.clear();
+            return false;
+        }
+
+        // The days are shown now, so a visible range request that is still
+        // loading is out of date.
+        mSequenceNumber.incrementAndGet();
+        LoadRequest current = mCurrentRequest;
+        if (current != null && current.isStale(this)) {
+            current.cancel();
+        }
+        return true;
+    }
+
+    /**
+     * Cancels the request in flight if it's lower priority than the visible
+     * range, or a visible range that has been superseded.
+     */
+    private void cancelStaleRequest(LoadRequest newRequest) {
+        LoadRequest current = mCurrentRequest;
+        if (current != null && current != newRequest
+                && (current.priority > PRIORITY_VISIBLE || current.isStale(this))) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * Loads "numDays" days worth of events, starting at startDay, into the
+     * cache so that a later {@link #loadEventsInBackground} for the same days
+     * doesn't have to wait for the provider. Ranges that overlap or touch a
+     * range that is already waiting to be loaded are merged with it.
+     *
+     * @param priority {@link #PRIORITY_PREFETCH} or {@link #PRIORITY_REFRESH}
+     */
+    public void prefetchEventsInBackground(int startDay, int numDays, int priority) {
+        if (numDays <= 0 || numDays > EventCache.MAX_CACHED_DAYS
+                || mCache.hasEvents(startDay, numDays)) {
+            return;
+        }
+        int endDay = startDay + numDays - 1;
+        long order = mRequestOrder.incrementAndGet();
+        synchronized (mLoaderQueue) {
+            Iterator<LoadRequest> iter = mLoaderQueue.iterator();
+            while (iter.hasNext()) {
+                LoadRequest queued = iter.next();
+                if (!(queued instanceof PrefetchEventsRequest)) {
+                    continue;
+                }
+                PrefetchEventsRequest prefetch = (PrefetchEventsRequest) queued;
+                if (prefetch.startDay > endDay + 1 || prefetch.getEndDay() < startDay - 1) {
+                    continue;
+                }
+                int mergedStart = Math.min(startDay, prefetch.startDay);
+                int mergedEnd = Math.max(endDay, prefetch.getEndDay());
+                if (mergedEnd - mergedStart + 1 > EventCache.MAX_CACHED_DAYS) {
+                    continue;
+                }
+                if (mLoaderQueue.remove(prefetch)) {
+                    startDay = mergedStart;
+                    endDay = mergedEnd;
+                    priority = Math.min(priority, prefetch.priority);
+                    order = Math.min(order, prefetch.order);
+                    // Removing invalidates the iterator; start over since
+                    // the bigger range may now touch other requests.
+                    iter = mLoaderQueue.iterator();
+                }
+            }
+            enqueue(new PrefetchEventsRequest(priority, order, startDay,
+                    endDay - startDay + 1));
         }
     }
 
+    private void enqueue(LoadRequest request) {
+        // The queue is unbounded, so put() never blocks.
+        mLoaderQueue.put(request);
+    }
+
     /**
      * Sends a request for the days with events to be marked. Loads "numDays"
      * worth of days, starting at start, and fills in eventDays to express which
@@ -272,15 +521,8 @@ public class EventLoader {
         final Runnable uiCallback)
     {
         // Send load request to the background thread
-        LoadEventDaysRequest request = new LoadEventDaysRequest(startDay, numDays,
-                eventDays, uiCallback);
-        try {
-            mLoaderQueue.put(request);
-        } catch (InterruptedException ex) {
-            // The put() method fails with InterruptedException if the
-            // queue is full. This should never happen because the queue
-            // has no limit.
-            Log.e("Cal", "loadEventDaysInBackground() interrupted!");
-        }
+        LoadEventDaysRequest request = new LoadEventDaysRequest(mRequestOrder.incrementAndGet(),
+                startDay, numDays, eventDays, uiCallback);
+        enqueue(request);
     }
 }
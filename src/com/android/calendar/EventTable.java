@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.text.format.DateUtils;
+
+import java.util.Arrays;
+
+/**
+ * A compact, column oriented list of event instances. Each row of the table
+ * holds the fields the layout and drawing code need in parallel primitive
+ * arrays, so loading a range of instances doesn't create an {@link Event}
+ * per row. Titles are copied into a shared character pool and only turned
+ * into strings when {@link #getTitle(int)} is called.
+ *
+ * The arrays are exposed directly for tight loops. They are reallocated as
+ * rows are added, so don't hold on to them across calls to {@link #add}.
+ */
+public class EventTable {
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final int DEFAULT_TITLE_CAPACITY = DEFAULT_CAPACITY * 16;
+
+    private int mSize;
+
+    public long[] id;
+    public int[] color;
+    public int[] startDay;     // start Julian day
+    public int[] endDay;       // end Julian day
+    public int[] startTime;    // Start and end time are in minutes since midnight
+    public int[] endTime;
+    public long[] startMillis; // UTC milliseconds since the epoch
+    public long[] endMillis;   // UTC milliseconds since the epoch
+    public boolean[] allDay;
+    public int[] column;
+    public int[] maxColumns;
+
+    private int[] mTitleStart;
+    private int[] mTitleLength;
+    private char[] mTitleChars;
+    private int mTitleCharsUsed;
+    private String[] mTitles;
+    private String mNoTitleString;
+    private final CharArrayBuffer mBuffer = new CharArrayBuffer(64);
+
+    public EventTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public EventTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        id = new long[capacity];
+        color = new int[capacity];
+        startDay = new int[capacity];
+        endDay = new int[capacity];
+        startTime = new int[capacity];
+        endTime = new int[capacity];
+        startMillis = new long[capacity];
+        endMillis = new long[capacity];
+        allDay = new boolean[capacity];
+        column = new int[capacity];
+        maxColumns = new int[capacity];
+        mTitleStart = new int[capacity];
+        mTitleLength = new int[capacity];
+        mTitles = new String[capacity];
+        mTitleChars = new char[DEFAULT_TITLE_CAPACITY];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Removes all rows, keeping the allocated storage for reuse.
+     */
+    public void clear() {
+        Arrays.fill(mTitles, 0, mSize, null);
+        mSize = 0;
+        mTitleCharsUsed = 0;
+    }
+
+    /* package */ void setNoTitleString(String noTitle) {
+        mNoTitleString = noTitle;
+    }
+
+    /**
+     * Appends a row and returns its index. The title is left empty; use
+     * {@link #setTitle(int, Cursor, int)} to fill it in.
+     */
+    public int add(long eventId, int eventColor, int eventStartDay, int eventStartTime,
+            int eventEndDay, int eventEndTime, long eventStartMillis, long eventEndMillis,
+            boolean isAllDay) {
+        if (mSize == id.length) {
+            grow(mSize * 2);
+        }
+        int i = mSize++;
+        id[i] = eventId;
+        color[i] = eventColor;
+        startDay[i] = eventStartDay;
+        startTime[i] = eventStartTime;
+        endDay[i] = eventEndDay;
+        endTime[i] = eventEndTime;
+        startMillis[i] = eventStartMillis;
+        endMillis[i] = eventEndMillis;
+        allDay[i] = isAllDay;
+        column[i] = 0;
+        maxColumns[i] = 0;
+        mTitleStart[i] = 0;
+        mTitleLength[i] = 0;
+        mTitles[i] = null;
+        return i;
+    }
+
+    /**
+     * Copies the title of row i from the given cursor column into the
+     * character pool without creating a String.
+     */
+    /* package */ void setTitle(int i, Cursor cursor, int columnIndex) {
+        cursor.copyStringToBuffer(columnIndex, mBuffer);
+        int length = mBuffer.sizeCopied;
+        if (mTitleCharsUsed + length > mTitleChars.length) {
+            mTitleChars = Arrays.copyOf(mTitleChars,
+                    Math.max(mTitleChars.length * 2, mTitleCharsUsed + length));
+        }
+        System.arraycopy(mBuffer.data, 0, mTitleChars, mTitleCharsUsed, length);
+        mTitleStart[i] = mTitleCharsUsed;
+        mTitleLength[i] = length;
+        mTitleCharsUsed += length;
+        mTitles[i] = null;
+    }
+
+    /**
+     * Returns the title of row i, creating the String the first time it is
+     * asked for.
+     */
+    public CharSequence getTitle(int i) {
+        String title = mTitles[i];
+        if (title == null) {
+            if (mTitleLength[i] == 0 && mNoTitleString != null) {
+                title = mNoTitleString;
+            } else {
+                title = new String(mTitleChars, mTitleStart[i], mTitleLength[i]);
+            }
+            mTitles[i] = title;
+        }
+        return title;
+    }
+
+    /**
+     * Returns the same value as getTitle(i).hashCode() for a title read from
+     * a cursor, without creating the String.
+     */
+    public int getTitleHashCode(int i) {
+        int hash = 0;
+        int end = mTitleStart[i] + mTitleLength[i];
+        for (int c = mTitleStart[i]; c < end; c++) {
+            hash = 31 * hash + mTitleChars[c];
+        }
+        return hash;
+    }
+
+    public boolean drawAsAllday(int i) {
+        // Use >= so we'll pick up Exchange allday events
+        return allDay[i] || endMillis[i] - startMillis[i] >= DateUtils.DAY_IN_MILLIS;
+    }
+
+    /**
+     * Copies the layout fields of row i into dest, which lets code written
+     * against {@link Event} reuse a single scratch instance. The title is
+     * not copied.
+     */
+    public void copyTo(int i, Event dest) {
+        dest.id = id[i];
+        dest.color = color[i];
+        dest.startDay = startDay[i];
+        dest.endDay = endDay[i];
+        dest.startTime = startTime[i];
+        dest.endTime = endTime[i];
+        dest.startMillis = startMillis[i];
+        dest.endMillis = endMillis[i];
+        dest.allDay = allDay[i];
+        dest.setColumn(column[i]);
+        dest.setMaxColumns(maxColumns[i]);
+    }
+
+    private void grow(int capacity) {
+        id = Arrays.copyOf(id, capacity);
+        color = Arrays.copyOf(color, capacity);
+        startDay = Arrays.copyOf(startDay, capacity);
+        endDay = Arrays.copyOf(endDay, capacity);
+        startTime = Arrays.copyOf(startTime, capacity);
+        endTime = Arrays.copyOf(endTime, capacity);
+        startMillis = Arrays.copyOf(startMillis, capacity);
+        endMillis = Arrays.copyOf(endMillis, capacity);
+        allDay = Arrays.copyOf(allDay, capacity);
+        column = Arrays.copyOf(column, capacity);
+        maxColumns = Arrays.copyOf(maxColumns, capacity);
+        mTitleStart = Arrays.copyOf(mTitleStart, capacity);
+        mTitleLength = Arrays.copyOf(mTitleLength, capacity);
+        mTitles = Arrays.copyOf(mTitles, capacity);
+    }
+}
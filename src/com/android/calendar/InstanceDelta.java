@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The difference between two loads of the same window of instances. Like
+ * {@link Utils#compareCursors}, but instead of a yes or no answer it says
+ * which instances were added, removed or changed, so that a view can redo
+ * only the work for those.
+ *
+ * An instance is identified by its event id and begin time and its
+ * contents by a hash of the fields that are displayed. A change that
+ * collides on the hash goes unnoticed until the next full load.
+ */
+public class InstanceDelta {
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * The keys and row hashes of a list of instances, sorted by key so that
+     * two snapshots can be compared in a single pass.
+     */
+    public static class Snapshot {
+        private long[] mEventIds;
+        private long[] mBegins;
+        private int[] mHashes;
+        private int[] mPositions; // position of each row in the source list
+        private int mSize;
+
+        private Snapshot(int capacity) {
+            capacity = Math.max(capacity, 1);
+            mEventIds = new long[capacity];
+            mBegins = new long[capacity];
+            mHashes = new int[capacity];
+            mPositions = new int[capacity];
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public static Snapshot of(List<Event> events) {
+            int size = events == null ? 0 : events.size();
+            Snapshot snapshot = new Snapshot(size);
+            for (int i = 0; i < size; i++) {
+                Event e = events.get(i);
+                snapshot.add(e.id, e.startMillis, hashEvent(e), i);
+            }
+            snapshot.sort();
+            return snapshot;
+        }
+
+        public static Snapshot of(EventTable table) {
+            int size = table == null ? 0 : table.size();
+            Snapshot snapshot = new Snapshot(size);
+            for (int i = 0; i < size; i++) {
+                snapshot.add(table.id[i], table.startMillis[i], hashTableRow(table, i), i);
+            }
+            snapshot.sort();
+            return snapshot;
+        }
+
+        /**
+         * Builds a snapshot of the rows of one or more cursors. Every column
+         * is part of the row hash. Positions count rows across all of the
+         * cursors in order. The cursors are left at an undefined position.
+         */
+        public static Snapshot of(List<? extends Cursor> cursors, int eventIdColumn,
+                int beginColumn) {
+            int count = 0;
+            for (Cursor cursor : cursors) {
+                count += cursor.getCount();
+            }
+            Snapshot snapshot = new Snapshot(count);
+            int position = 0;
+            for (Cursor cursor : cursors) {
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    snapshot.add(cursor.getLong(eventIdColumn), cursor.getLong(beginColumn),
+                            hashCursorRow(cursor), position++);
+                }
+            }
+            snapshot.sort();
+            return snapshot;
+        }
+
+        private void add(long eventId, long begin, int hash, int position) {
+            int i = mSize++;
+            mEventIds[i] = eventId;
+            mBegins[i] = begin;
+            mHashes[i] = hash;
+            mPositions[i] = position;
+        }
+
+        /**
+         * Sorts the rows by key. Rows with the same key, such as a multi-day
+         * instance that shows up in two adjacent queries, are kept once.
+         */
+        private void sort() {
+            Integer[] order = new Integer[mSize];
+            for (int i = 0; i < mSize; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    int result = compareKeys(mEventIds[lhs], mBegins[lhs],
+                            mEventIds[rhs], mBegins[rhs]);
+                    // Keep the first occurrence of a duplicate first
+                    return result != 0 ? result : lhs - rhs;
+                }
+            });
+
+            long[] eventIds = new long[mEventIds.length];
+            long[] begins = new long[mBegins.length];
+            int[] hashes = new int[mHashes.length];
+            int[] positions = new int[mPositions.length];
+            int size = 0;
+            for (int i = 0; i < mSize; i++) {
+                int from = order[i];
+                if (size > 0 && eventIds[size - 1] == mEventIds[from]
+                        && begins[size - 1] == mBegins[from]) {
+                    continue;
+                }
+                eventIds[size] = mEventIds[from];
+                begins[size] = mBegins[from];
+                hashes[size] = mHashes[from];
+                positions[size] = mPositions[from];
+                size++;
+            }
+            mEventIds = eventIds;
+            mBegins = begins;
+            mHashes = hashes;
+            mPositions = positions;
+            mSize = size;
+        }
+    }
+
+    // Positions in the new list of the instances that weren't there before
+    private final int[] mAdded;
+    // Positions in the old list of the instances that are gone
+    private final int[] mRemoved;
+    // Positions in the new list of the instances whose contents changed
+    private final int[] mChanged;
+    // For each position in the new list, the position of the same instance
+    // in the old list or -1 if it was added
+    private final int[] mOldPositions;
+    private final boolean[] mIsChanged;
+
+    private InstanceDelta(int[] added, int[] removed, int[] changed, int[] oldPositions,
+            boolean[] isChanged) {
+        mAdded = added;
+        mRemoved = removed;
+        mChanged = changed;
+        mOldPositions = oldPositions;
+        mIsChanged = isChanged;
+    }
+
+    /**
+     * Compares two snapshots of the same window.
+     *
+     * @param newSize the number of rows in the list the new snapshot was
+     *        taken from, which may be more than the snapshot holds if it
+     *        had duplicates
+     */
+    public static InstanceDelta compute(Snapshot oldSnapshot, Snapshot newSnapshot, int newSize) {
+        int[] added = new int[newSnapshot.mSize];
+        int[] removed = new int[oldSnapshot.mSize];
+        int[] changed = new int[newSnapshot.mSize];
+        int numAdded = 0;
+        int numRemoved = 0;
+        int numChanged = 0;
+        int[] oldPositions = new int[newSize];
+        boolean[] isChanged = new boolean[newSize];
+        Arrays.fill(oldPositions, -1);
+
+        int o = 0;
+        int n = 0;
+        while (o < oldSnapshot.mSize || n < newSnapshot.mSize) {
+            int result;
+            if (o == oldSnapshot.mSize) {
+                result = 1;
+            } else if (n == newSnapshot.mSize) {
+                result = -1;
+            } else {
+                result = compareKeys(oldSnapshot.mEventIds[o], oldSnapshot.mBegins[o],
+                        newSnapshot.mEventIds[n], newSnapshot.mBegins[n]);
+            }
+            if (result < 0) {
+                removed[numRemoved++] = oldSnapshot.mPositions[o++];
+            } else if (result > 0) {
+                added[numAdded++] = newSnapshot.mPositions[n++];
+            } else {
+                int newPosition = newSnapshot.mPositions[n];
+                oldPositions[newPosition] = oldSnapshot.mPositions[o];
+                if (oldSnapshot.mHashes[o] != newSnapshot.mHashes[n]) {
+                    changed[numChanged++] = newPosition;
+                    isChanged[newPosition] = true;
+                }
+                o++;
+                n++;
+            }
+        }
+        return new InstanceDelta(trim(added, numAdded), trim(removed, numRemoved),
+                trim(changed, numChanged), oldPositions, isChanged);
+    }
+
+    public static InstanceDelta compute(List<Event> oldEvents, List<Event> newEvents) {
+        return compute(Snapshot.of(oldEvents), Snapshot.of(newEvents),
+                newEvents == null ? 0 : newEvents.size());
+    }
+
+    public static InstanceDelta compute(EventTable oldTable, EventTable newTable) {
+        return compute(Snapshot.of(oldTable), Snapshot.of(newTable),
+                newTable == null ? 0 : newTable.size());
+    }
+
+    /**
+     * @return true if both loads hold the same instances with the same contents
+     */
+    public boolean isEmpty() {
+        return mAdded.length == 0 && mRemoved.length == 0 && mChanged.length == 0;
+    }
+
+    /**
+     * @return the positions in the new list of the added instances
+     */
+    public int[] getAdded() {
+        return mAdded;
+    }
+
+    /**
+     * @return the positions in the old list of the removed instances
+     */
+    public int[] getRemoved() {
+        return mRemoved;
+    }
+
+    /**
+     * @return the positions in the new list of the changed instances
+     */
+    public int[] getChanged() {
+        return mChanged;
+    }
+
+    /**
+     * @return the position in the old list of the instance at newPosition,
+     *         or -1 if it was added
+     */
+    public int getOldPosition(int newPosition) {
+        return mOldPositions[newPosition];
+    }
+
+    /**
+     * @return true if the instance at newPosition was in the old list and
+     *         neither it nor its contents changed
+     */
+    public boolean isUnchanged(int newPosition) {
+        return mOldPositions[newPosition] != -1 && !mIsChanged[newPosition];
+    }
+
+    @Override
+    public String toString() {
+        return "added=" + mAdded.length + " removed=" + mRemoved.length
+                + " changed=" + mChanged.length;
+    }
+
+    private static int compareKeys(long lhsId, long lhsBegin, long rhsId, long rhsBegin) {
+        if (lhsId != rhsId) {
+            return lhsId < rhsId ? -1 : 1;
+        }
+        if (lhsBegin != rhsBegin) {
+            return lhsBegin < rhsBegin ? -1 : 1;
+        }
+        return 0;
+    }
+
+    private static int[] trim(int[] array, int length) {
+        if (length == 0) {
+            return EMPTY;
+        }
+        return length == array.length ? array : Arrays.copyOf(array, length);
+    }
+
+    private static int hash(int result, long value) {
+        return 31 * result + (int) (value ^ (value >>> 32));
+    }
+
+    private static int hash(int result, Object value) {
+        return 31 * result + (value == null ? 0 : value.toString().hashCode());
+    }
+
+    /**
+     * Returns a hash of the fields of e that are displayed.
+     */
+    public static int hashEvent(Event e) {
+        int result = 17;
+        result = hash(result, e.title);
+        result = hash(result, e.location);
+        result = hash(result, e.organizer);
+        result = hash(result, e.color);
+        result = hash(result, e.startDay);
+        result = hash(result, e.endDay);
+        result = hash(result, e.startTime);
+        result = hash(result, e.endTime);
+        result = hash(result, e.endMillis);
+        result = hash(result, e.selfAttendeeStatus);
+        result = hash(result, (e.allDay ? 1 : 0) | (e.hasAlarm ? 2 : 0)
+                | (e.isRepeating ? 4 : 0) | (e.guestsCanModify ? 8 : 0));
+        return result;
+    }
+
+    private static int hashTableRow(EventTable table, int i) {
+        int result = 17;
+        result = 31 * result + table.getTitleHashCode(i);
+        result = hash(result, table.color[i]);
+        result = hash(result, table.startDay[i]);
+        result = hash(result, table.endDay[i]);
+        result = hash(result, table.startTime[i]);
+        result = hash(result, table.endTime[i]);
+        result = hash(result, table.endMillis[i]);
+        result = hash(result, table.allDay[i] ? 1 : 0);
+        return result;
+    }
+
+    private static int hashCursorRow(Cursor cursor) {
+        int result = 17;
+        int columnCount = cursor.getColumnCount();
+        for (int i = 0; i < columnCount; i++) {
+            result = hash(result, cursor.getString(i));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.calendar;
+
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the coordinates and North American phone numbers in a piece of text
+ * that {@link Utils#extendedLinkify} turns into links on top of those found
+ * by Linkify. Works on plain character ranges so that it has no framework
+ * dependencies.
+ */
+/* package */ class LinkFinder {
+
+    /**
+    * A coordinate must be of the following form for Google Maps to correctly use it:
+    * Latitude, Longitude
+    *
+    * This may be in decimal form:
+    * Latitude: {-90 to 90}
+    * Longitude: {-180 to 180}
+    *
+    * Or, in degrees, minutes, and seconds:
+    * Latitude: {-90 to 90}° {0 to 59}' {0 to 59}"
+    * Latitude: {-180 to 180}° {0 to 59}' {0 to 59}"
+    * + or - degrees may also be represented with N or n, S or s for latitude, and with
+    * E or e, W or w for longitude, where the direction may either precede or follow the value.
+    *
+    * Some examples of coordinates that will be accepted by the regex:
+    * 37.422081°, -122.084576°
+    * 37.422081,-122.084576
+    * +37°25'19.49", -122°5'4.47"
+    * 37°25'19.49"N, 122°5'4.47"W
+    * N 37° 25' 19.49",  W 122° 5' 4.47"
+    **/
+    private static final String COORD_DEGREES_LATITUDE =
+            "([-+NnSs]" + "(\\s)*)?"
+            + "[1-9]?[0-9](\u00B0)" + "(\\s)*"
+            + "([1-5]?[0-9]\')?" + "(\\s)*"
+            + "([1-5]?[0-9]" + "(\\.[0-9]+)?\")?"
+            + "((\\s)*" + "[NnSs])?";
+    private static final String COORD_DEGREES_LONGITUDE =
+            "([-+EeWw]" + "(\\s)*)?"
+            + "(1)?[0-9]?[0-9](\u00B0)" + "(\\s)*"
+            + "([1-5]?[0-9]\')?" + "(\\s)*"
+            + "([1-5]?[0-9]" + "(\\.[0-9]+)?\")?"
+            + "((\\s)*" + "[EeWw])?";
+    private static final String COORD_DEGREES_PATTERN =
+            COORD_DEGREES_LATITUDE
+            + "(\\s)*" + "," + "(\\s)*"
+            + COORD_DEGREES_LONGITUDE;
+    private static final String COORD_DECIMAL_LATITUDE =
+            "[+-]?"
+            + "[1-9]?[0-9]" + "(\\.[0-9]+)"
+            + "(\u00B0)?";
+    private static final String COORD_DECIMAL_LONGITUDE =
+            "[+-]?"
+            + "(1)?[0-9]?[0-9]" + "(\\.[0-9]+)"
+            + "(\u00B0)?";
+    private static final String COORD_DECIMAL_PATTERN =
+            COORD_DECIMAL_LATITUDE
+            + "(\\s)*" + "," + "(\\s)*"
+            + COORD_DECIMAL_LONGITUDE;
+    private static final Pattern COORD_PATTERN =
+            Pattern.compile(COORD_DEGREES_PATTERN + "|" + COORD_DECIMAL_PATTERN);
+
+    private static final String NANP_ALLOWED_SYMBOLS = "()+-*#.";
+    private static final int NANP_MIN_DIGITS = 7;
+    private static final int NANP_MAX_DIGITS = 11;
+
+    /**
+     * A link to add to the text, covering [start, end).
+     */
+    static class Link {
+        final int start;
+        final int end;
+        final String url;
+
+        Link(int start, int end, String url) {
+            this.start = start;
+            this.end = end;
+            this.url = url;
+        }
+    }
+
+    /**
+     * Finds the coordinates and phone numbers in text that don't overlap any
+     * existing link or each other. Coordinates are looked for first because
+     * a longitude may look like a phone number.
+     *
+     * @param existingRanges [start, end) pairs of the links already in the text
+     * @return the links to add, coordinates first, each in order of position
+     */
+    static ArrayList<Link> findCoordinatesAndPhoneNumbers(String text, int[] existingRanges) {
+        ArrayList<Link> links = new ArrayList<Link>();
+
+        /*
+         * Check for coordinates.
+         */
+        Matcher coordMatcher = COORD_PATTERN.matcher(text);
+        while (coordMatcher.find()) {
+            int start = coordMatcher.start();
+            int end = coordMatcher.end();
+            if (spanWillOverlap(existingRanges, existingRanges.length, start, end)) {
+                continue;
+            }
+            links.add(new Link(start, end, "geo:0,0?q=" + coordMatcher.group()));
+        }
+
+        /*
+         * Add the coordinates to the list of existing ranges, for the phone number overlapping
+         * span check.
+         */
+        int numRanges = existingRanges.length;
+        if (!links.isEmpty()) {
+            int[] ranges = new int[numRanges + links.size() * 2];
+            System.arraycopy(existingRanges, 0, ranges, 0, numRanges);
+            for (Link link : links) {
+                ranges[numRanges++] = link.start;
+                ranges[numRanges++] = link.end;
+            }
+            existingRanges = ranges;
+        }
+
+        /*
+         * Search for phone numbers.
+         *
+         * Some URIs contain strings of digits that look like phone numbers.  If both the URI
+         * scanner and the phone number scanner find them, we want the URI link to win.  Since
+         * the URI scanner runs first, we just need to avoid creating overlapping spans.
+         */
+        int[] phoneSequences = findNanpPhoneNumbers(text);
+        StringBuilder dialBuilder = new StringBuilder();
+        for (int match = 0; match < phoneSequences.length / 2; match++) {
+            int start = phoneSequences[match*2];
+            int end = phoneSequences[match*2 + 1];
+
+            if (spanWillOverlap(existingRanges, numRanges, start, end)) {
+                continue;
+            }
+
+            /*
+             * The Linkify code takes the matching span and strips out everything that isn't a
+             * digit or '+' sign.  We do the same here.  Extension numbers will get appended
+             * without a separator, but the dialer wasn't doing anything useful with ";ext="
+             * anyway.
+             */
+            dialBuilder.setLength(0);
+            dialBuilder.append("tel:");
+            for (int i = start; i < end; i++) {
+                char ch = text.charAt(i);
+                if (ch == '+' || Character.isDigit(ch)) {
+                    dialBuilder.append(ch);
+                }
+            }
+            links.add(new Link(start, end, dialBuilder.toString()));
+        }
+        return links;
+    }
+
+    /**
+     * Finds North American Numbering Plan (NANP) phone numbers in the input text.
+     *
+     * @param text The text to scan.
+     * @return A list of [start, end) pairs indicating the positions of phone numbers in the input.
+     */
+    static int[] findNanpPhoneNumbers(CharSequence text) {
+        ArrayList<Integer> list = new ArrayList<Integer>();
+
+        int startPos = 0;
+        int endPos = text.length() - NANP_MIN_DIGITS + 1;
+        if (endPos < 0) {
+            return new int[] {};
+        }
+
+        /*
+         * We can't just strip the whitespace out and crunch it down, because the whitespace
+         * is significant.  March through, trying to figure out where numbers start and end.
+         */
+        while (startPos < endPos) {
+            // skip whitespace
+            while (Character.isWhitespace(text.charAt(startPos)) && startPos < endPos) {
+                startPos++;
+            }
+            if (startPos == endPos) {
+                break;
+            }
+
+            // check for a match at this position
+            int matchEnd = findNanpMatchEnd(text, startPos);
+            if (matchEnd > startPos) {
+                list.add(startPos);
+                list.add(matchEnd);
+                startPos = matchEnd;    // skip past match
+            } else {
+                // skip to next whitespace char
+                while (!Character.isWhitespace(text.charAt(startPos)) && startPos < endPos) {
+                    startPos++;
+                }
+            }
+        }
+
+        int[] result = new int[list.size()];
+        for (int i = list.size() - 1; i >= 0; i--) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Checks to see if there is a valid phone number in the input, starting at the specified
+     * offset.  If so, the index of the last character + 1 is returned.  The input is assumed
+     * to begin with a non-whitespace character.
+     *
+     * @return Exclusive end position, or -1 if not a match.
+     */
+    private static int findNanpMatchEnd(CharSequence text, int startPos) {
+        /*
+         * A few interesting cases:
+         *   94043                              # too short, ignore
+         *   123456789012                       # too long, ignore
+         *   +1 (650) 555-1212                  # 11 digits, spaces
+         *   (650) 555 5555                     # Second space, only when first is present.
+         *   (650) 555-1212, (650) 555-1213     # two numbers, return first
+         *   1-650-555-1212                     # 11 digits with leading '1'
+         *   *#650.555.1212#*!                  # 10 digits, include #*, ignore trailing '!'
+         *   555.1212                           # 7 digits
+         *
+         * For the most part we want to break on whitespace, but it's common to leave a space
+         * between the initial '1' and/or after the area code.
+         */
+
+        // Check for "tel:" URI prefix.
+        if (text.length() > startPos+4
+                && text.subSequence(startPos, startPos+4).toString().equalsIgnoreCase("tel:")) {
+            startPos += 4;
+        }
+
+        int endPos = text.length();
+        int curPos = startPos;
+        int foundDigits = 0;
+        char firstDigit = 'x';
+        boolean foundWhiteSpaceAfterAreaCode = false;
+
+        while (curPos <= endPos) {
+            char ch;
+            if (curPos < endPos) {
+                ch = text.charAt(curPos);
+            } else {
+                ch = 27;    // fake invalid symbol at end to trigger loop break
+            }
+
+            if (Character.isDigit(ch)) {
+                if (foundDigits == 0) {
+                    firstDigit = ch;
+                }
+                foundDigits++;
+                if (foundDigits > NANP_MAX_DIGITS) {
+                    // too many digits, stop early
+                    return -1;
+                }
+            } else if (Character.isWhitespace(ch)) {
+                if ( (firstDigit == '1' && foundDigits == 4) ||
+                        (foundDigits == 3)) {
+                    foundWhiteSpaceAfterAreaCode = true;
+                } else if (firstDigit == '1' && foundDigits == 1) {
+                } else if (foundWhiteSpaceAfterAreaCode
+                        && ( (firstDigit == '1' && (foundDigits == 7)) || (foundDigits == 6))) {
+                } else {
+                    break;
+                }
+            } else if (NANP_ALLOWED_SYMBOLS.indexOf(ch) == -1) {
+                break;
+            }
+            // else it's an allowed symbol
+
+            curPos++;
+        }
+
+        if ((firstDigit != '1' && (foundDigits == 7 || foundDigits == 10)) ||
+                (firstDigit == '1' && foundDigits == 11)) {
+            // match
+            return curPos;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Determines whether a new span at [start,end) will overlap with any of the
+     * first numRanges / 2 existing [start, end) ranges.
+     */
+    static boolean spanWillOverlap(int[] ranges, int numRanges, int start, int end) {
+        if (start == end) {
+            // empty span, ignore
+            return false;
+        }
+        for (int i = 0; i < numRanges; i += 2) {
+            int existingStart = ranges[i];
+            int existingEnd = ranges[i + 1];
+            if ((start >= existingStart && start < existingEnd) ||
+                    end > existingStart && end <= existingEnd) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * The lunar info of a contiguous range of days, indexed by Julian day. Each
+ * day holds {@link #NUM_FIELDS} indexes into a pool of distinct strings, so
+ * a year of days costs a few kilobytes no matter how often the same labels
+ * and festivals repeat.
+ *
+ * Days are loaded a whole year at a time and saved to a small binary file
+ * in app storage. Lunar info never changes for a given day, so whatever
+ * was saved stays valid as long as the locale the strings were loaded in
+ * is the same. The cache remembers that locale, and drops the strings once
+ * it's loaded again in another one.
+ *
+ * Thread safe; the views read it on the UI thread while the loader fills it
+ * in the background. The file is read and written without holding the lock,
+ * so drawing never waits on disk I/O.
+ */
+/* package */ class LunarInfoCache {
+    private static final String TAG = "LunarInfoCache";
+
+    static final int FIELD_LABEL_LONG = 0;
+    static final int FIELD_LABEL_SHORT = 1;
+    static final int FIELD_ANIMAL = 2;
+    static final int FIELD_FESTIVAL_1 = 3;
+    static final int FIELD_FESTIVAL_2 = 4;
+    static final int FIELD_FESTIVAL_3 = 5;
+    static final int FIELD_FESTIVAL_4 = 6;
+    static final int NUM_FIELDS = 7;
+
+    // Index of a day that hasn't been loaded
+    private static final short NOT_LOADED = -1;
+    // Index of an empty field
+    private static final short NO_STRING = 0;
+
+    private static final String FILE_NAME = "lunar_info.bin";
+    private static final int FILE_MAGIC = 0x4c554e52;
+    private static final int FILE_VERSION = 1;
+
+    private static LunarInfoCache sInstance;
+
+    /**
+     * Days read from the file or copied to be saved, apart from the cache.
+     */
+    private static class Days {
+        Locale locale;
+        // The string pool, starting with null for NO_STRING
+        ArrayList<String> strings;
+        int firstJulianDay;
+        int numDays;
+        short[] fields;
+    }
+
+    private int mFirstJulianDay;
+    private int mNumDays;
+    // NUM_FIELDS string indexes per day
+    private short[] mFields = new short[0];
+    private final ArrayList<String> mStrings = new ArrayList<String>();
+    private final HashMap<String, Integer> mStringIndexes = new HashMap<String, Integer>();
+    // Changes whenever days are added
+    private int mGeneration;
+    // The locale the strings are in
+    private Locale mLocale;
+    private boolean mRead;
+
+    LunarInfoCache() {
+        mStrings.add(null);
+        mLocale = Locale.getDefault();
+    }
+
+    static synchronized LunarInfoCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new LunarInfoCache();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the Julian day of a Gregorian date.
+     *
+     * @param month The month [0-11]
+     */
+    static int getJulianDay(int year, int month, int monthDay) {
+        int a = (13 - month) / 12;
+        int y = year + 4800 - a;
+        int m = month + 1 + 12 * a - 3;
+        return monthDay + (153 * m + 2) / 5 + 365 * y + y / 4 - y / 100 + y / 400 - 32045;
+    }
+
+    /**
+     * Returns field of julianDay, or null if the day isn't loaded or has no
+     * such info.
+     */
+    synchronized String get(int julianDay, int field) {
+        int day = julianDay - mFirstJulianDay;
+        if (day < 0 || day >= mNumDays) {
+            return null;
+        }
+        short index = mFields[day * NUM_FIELDS + field];
+        return index > NO_STRING ? mStrings.get(index) : null;
+    }
+
+    /**
+     * Returns true if the strings are in locale.
+     */
+    synchronized boolean isLocale(Locale locale) {
+        return mLocale.equals(locale);
+    }
+
+    synchronized boolean contains(int julianDay) {
+        int day = julianDay - mFirstJulianDay;
+        return day >= 0 && day < mNumDays && mFields[day * NUM_FIELDS] != NOT_LOADED;
+    }
+
+    /**
+     * Returns true if every day of year is loaded.
+     */
+    synchronized boolean containsYear(int year) {
+        int first = getJulianDay(year, 0, 1);
+        int last = getJulianDay(year + 1, 0, 1) - 1;
+        for (int julianDay = first; julianDay <= last; julianDay++) {
+            if (!contains(julianDay)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores the info of julianDay, fields being indexed by the FIELD
+     * constants.
+     */
+    synchronized void put(int julianDay, String[] fields) {
+        ensureRange(julianDay, julianDay);
+        int offset = (julianDay - mFirstJulianDay) * NUM_FIELDS;
+        for (int i = 0; i < NUM_FIELDS; i++) {
+            mFields[offset + i] = intern(fields[i]);
+        }
+        mGeneration++;
+    }
+
+    /**
+     * Makes room for the days [firstJulianDay, lastJulianDay] so a bulk
+     * load doesn't grow the arrays once per day.
+     */
+    synchronized void ensureRange(int firstJulianDay, int lastJulianDay) {
+        if (mNumDays > 0) {
+            if (firstJulianDay >= mFirstJulianDay
+                    && lastJulianDay < mFirstJulianDay + mNumDays) {
+                return;
+            }
+            firstJulianDay = Math.min(firstJulianDay, mFirstJulianDay);
+            lastJulianDay = Math.max(lastJulianDay, mFirstJulianDay + mNumDays - 1);
+        }
+        int numDays = lastJulianDay - firstJulianDay + 1;
+        short[] fields = new short[numDays * NUM_FIELDS];
+        Arrays.fill(fields, NOT_LOADED);
+        if (mNumDays > 0) {
+            System.arraycopy(mFields, 0, fields, (mFirstJulianDay - firstJulianDay) * NUM_FIELDS,
+                    mNumDays * NUM_FIELDS);
+        }
+        mFirstJulianDay = firstJulianDay;
+        mNumDays = numDays;
+        mFields = fields;
+    }
+
+    private short intern(String s) {
+        if (s == null || s.length() == 0) {
+            return NO_STRING;
+        }
+        Integer index = mStringIndexes.get(s);
+        if (index == null) {
+            index = mStrings.size();
+            if (index > Short.MAX_VALUE) {
+                Log.w(TAG, "Too many distinct lunar strings, dropping " + s);
+                return NO_STRING;
+            }
+            mStrings.add(s);
+            mStringIndexes.put(s, index);
+        }
+        return (short) (int) index;
+    }
+
+    /**
+     * Returns a number that changes whenever days are added, so views that
+     * cache what they drew know to draw again.
+     */
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    synchronized void clear() {
+        mFirstJulianDay = 0;
+        mNumDays = 0;
+        mFields = new short[0];
+        mStrings.clear();
+        mStrings.add(null);
+        mStringIndexes.clear();
+        mGeneration++;
+        // Read the saved days again on the next load
+        mRead = false;
+    }
+
+    /**
+     * Reads the days saved by {@link #write} the first time it's called, or
+     * the first time after the default locale changed. Strings loaded in
+     * another locale are dropped.
+     */
+    void readIfNeeded(Context context) {
+        readIfNeeded(new AtomicDataFile(context, FILE_NAME));
+    }
+
+    /* package */ void readIfNeeded(AtomicDataFile file) {
+        final Locale locale = Locale.getDefault();
+        synchronized (this) {
+            if (!mLocale.equals(locale)) {
+                clear();
+                mLocale = locale;
+            }
+            if (mRead) {
+                return;
+            }
+        }
+        // Parsed without the lock, the views keep drawing meanwhile
+        final Days[] saved = new Days[1];
+        boolean read = file.read(new AtomicDataFile.Reader() {
+            @Override
+            public void read(DataInputStream in) throws IOException {
+                saved[0] = LunarInfoCache.read(in, locale);
+            }
+        });
+        synchronized (this) {
+            if (mRead || !mLocale.equals(locale)) {
+                // Read again by now, or the locale changed while reading
+                return;
+            }
+            if (saved[0] != null) {
+                setDays(saved[0]);
+            } else if (!read) {
+                clear();
+            }
+            mRead = true;
+        }
+    }
+
+    /**
+     * Reads days saved by {@link #write(Days, DataOutputStream)}.
+     *
+     * @return null if they were saved in another locale than locale
+     */
+    private static Days read(DataInputStream in, Locale locale) throws IOException {
+        if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+            throw new IOException("Unknown file format");
+        }
+        if (!locale.toString().equals(in.readUTF())) {
+            // The strings are in another language
+            return null;
+        }
+        int numStrings = in.readInt();
+        Days days = new Days();
+        days.locale = locale;
+        days.strings = new ArrayList<String>(numStrings + 1);
+        days.strings.add(null);
+        for (int i = 0; i < numStrings; i++) {
+            days.strings.add(in.readUTF());
+        }
+        days.firstJulianDay = in.readInt();
+        days.numDays = in.readInt();
+        if (days.numDays < 0 || numStrings > Short.MAX_VALUE) {
+            throw new IOException("Bad header");
+        }
+        days.fields = new short[days.numDays * NUM_FIELDS];
+        for (int i = 0; i < days.fields.length; i++) {
+            short index = in.readShort();
+            if (index > numStrings || index < NOT_LOADED) {
+                throw new IOException("Bad string index " + index);
+            }
+            days.fields[i] = index;
+        }
+        return days;
+    }
+
+    private void setDays(Days days) {
+        clear();
+        mStrings.clear();
+        mStrings.addAll(days.strings);
+        for (int i = 1; i < days.strings.size(); i++) {
+            mStringIndexes.put(days.strings.get(i), i);
+        }
+        mFirstJulianDay = days.firstJulianDay;
+        mNumDays = days.numDays;
+        mFields = days.fields;
+    }
+
+    /**
+     * Saves all the loaded days.
+     */
+    void write(Context context) {
+        write(new AtomicDataFile(context, FILE_NAME));
+    }
+
+    /* package */ void write(AtomicDataFile file) {
+        // Copied so the file is written without the lock
+        final Days days = new Days();
+        synchronized (this) {
+            days.locale = mLocale;
+            days.strings = new ArrayList<String>(mStrings);
+            days.firstJulianDay = mFirstJulianDay;
+            days.numDays = mNumDays;
+            days.fields = Arrays.copyOf(mFields, mNumDays * NUM_FIELDS);
+        }
+        file.write(new AtomicDataFile.Writer() {
+            @Override
+            public void write(DataOutputStream out) throws IOException {
+                LunarInfoCache.write(days, out);
+            }
+        });
+    }
+
+    private static void write(Days days, DataOutputStream out) throws IOException {
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeUTF(days.locale.toString());
+        out.writeInt(days.strings.size() - 1);
+        for (int i = 1; i < days.strings.size(); i++) {
+            out.writeUTF(days.strings.get(i));
+        }
+        out.writeInt(days.firstJulianDay);
+        out.writeInt(days.numDays);
+        for (int i = 0; i < days.fields.length; i++) {
+            out.writeShort(days.fields[i]);
+        }
+    }
+}
@@ -37,7 +37,6 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Locale;
 
 public class LunarUtils {
@@ -53,7 +52,7 @@ public class LunarUtils {
     private static final String INFO_SEPARATE = " ";
     private static final String MORE_FESTIVAL_SUFFIX = "*";
 
-    private static HashMap<String, LunarInfo> sLunarInfos = new HashMap<String, LunarInfo>();
+    private static final LunarInfoCache sLunarInfos = LunarInfoCache.getInstance();
 
     /**
      * If need show the lunar info now. As default, it will need shown if the current
@@ -67,13 +66,23 @@ public class LunarUtils {
     }
 
     /**
-     * Used to clear the saved info.
+     * Used to clear the saved info from memory. The copy saved in app storage
+     * is kept, the next {@link LunarInfoLoader#load} reads it back.
      */
     public static void clearInfo() {
         Log.i(TAG, "Clear all the saved info.");
         sLunarInfos.clear();
     }
 
+    /**
+     * Returns a number that changes whenever more lunar info is loaded.
+     * Views that cache what they drew can compare it to know that the lunar
+     * info they drew may have been missing.
+     */
+    public static int getGeneration() {
+        return sLunarInfos.getGeneration();
+    }
+
     /**
      * Used to get the lunar, festival and animal info of the date. Before you call this
      * function to get the info, you need make sure already load the info by calling
@@ -93,53 +102,54 @@ public class LunarUtils {
 
         String res = null;
 
-        // Try to find the matched lunar info from the hash map.
-        String key = getKey(year, month, day);
-        LunarInfo info = sLunarInfos.get(key);
-        if (info != null) {
-            res = buildInfo(info, format, showLunarBeforeFestival, result);
-        } else {
-            Log.d(TAG, "Couldn't get the lunar info for " + key);
+        // Try to find the matched lunar info in the cache.
+        int julianDay = LunarInfoCache.getJulianDay(year, month, day);
+        if (sLunarInfos.isLocale(Locale.getDefault()) && sLunarInfos.contains(julianDay)) {
+            res = buildInfo(julianDay, format, showLunarBeforeFestival, result);
+        } else if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Couldn't get the lunar info for " + year + "-" + month + "-" + day);
         }
 
         return res;
     }
 
-    private static String getKey(int year, int month, int day) {
-        return year + "-" + month + "-" + day;
-    }
-
-    private static String buildInfo(LunarInfo info, int format, boolean showLunarBeforeFestival,
+    private static String buildInfo(int julianDay, int format, boolean showLunarBeforeFestival,
             ArrayList<String> list) {
-        if (info == null || format < FORMAT_LUNAR_LONG) return null;
+        if (format < FORMAT_LUNAR_LONG) return null;
 
         StringBuilder result = new StringBuilder();
 
-        if (showLunarBeforeFestival || TextUtils.isEmpty(info._festival1)) {
+        String festival1 = sLunarInfos.get(julianDay, LunarInfoCache.FIELD_FESTIVAL_1);
+        if (showLunarBeforeFestival || TextUtils.isEmpty(festival1)) {
             // The format should not support long and short at one time.
             if ((format & FORMAT_LUNAR_LONG) == FORMAT_LUNAR_LONG) {
-                appendInfo(result, info._label_long, list);
+                appendInfo(result,
+                        sLunarInfos.get(julianDay, LunarInfoCache.FIELD_LABEL_LONG), list);
             } else if ((format & FORMAT_LUNAR_SHORT) == FORMAT_LUNAR_SHORT) {
-                appendInfo(result, info._label_short, list);
+                appendInfo(result,
+                        sLunarInfos.get(julianDay, LunarInfoCache.FIELD_LABEL_SHORT), list);
             }
         }
 
         // The format should not support only one festival and multiple festivals.
+        String festival2 = sLunarInfos.get(julianDay, LunarInfoCache.FIELD_FESTIVAL_2);
         if ((format & FORMAT_ONE_FESTIVAL) == FORMAT_ONE_FESTIVAL) {
-            String festival = info._festival1;
-            if (!TextUtils.isEmpty(info._festival2)) {
+            String festival = festival1;
+            if (!TextUtils.isEmpty(festival2)) {
                 festival = festival + MORE_FESTIVAL_SUFFIX;
             }
             appendInfo(result, festival, list);
         } else if ((format & FORMAT_MULTI_FESTIVAL) == FORMAT_MULTI_FESTIVAL) {
-            appendInfo(result, info._festival1, list);
-            appendInfo(result, info._festival2, list);
-            appendInfo(result, info._festival3, list);
-            appendInfo(result, info._festival4, list);
+            appendInfo(result, festival1, list);
+            appendInfo(result, festival2, list);
+            appendInfo(result,
+                    sLunarInfos.get(julianDay, LunarInfoCache.FIELD_FESTIVAL_3), list);
+            appendInfo(result,
+                    sLunarInfos.get(julianDay, LunarInfoCache.FIELD_FESTIVAL_4), list);
         }
 
         if ((format & FORMAT_ANIMAL) == FORMAT_ANIMAL) {
-            appendInfo(result, info._animal, list);
+            appendInfo(result, sLunarInfos.get(julianDay, LunarInfoCache.FIELD_ANIMAL), list);
         }
 
         return result.toString();
@@ -154,18 +164,16 @@ public class LunarUtils {
         if (list != null) list.add(info);
     }
 
+    /**
+     * Loads the lunar info of whole years at a time. The info saved in app
+     * storage is read first, and only the years it doesn't have are queried
+     * from the lunar info provider and then saved too.
+     */
     public static class LunarInfoLoader extends AsyncTaskLoader<Void> {
-        private static final Uri CONTENT_URI_GET_ONE_DAY =
-                Uri.parse("content://com.qualcomm.qti.lunarinfo/one_day");
-        private static final Uri CONTENT_URI_GET_ONE_MONTH =
-                Uri.parse("content://com.qualcomm.qti.lunarinfo/one_month");
         private static final Uri CONTENT_URI_GET_FROM_TO =
                 Uri.parse("content://com.qualcomm.qti.lunarinfo/from_to");
 
         // The query parameters used to get lunar info.
-        private static final String PARAM_YEAR = "year";
-        private static final String PARAM_MONTH = "month";
-        private static final String PARAM_DAY = "day";
         private static final String PARAM_FROM_YEAR = "from_year";
         private static final String PARAM_FROM_MONTH = "from_month";
         private static final String PARAM_FROM_DAY = "from_day";
@@ -198,82 +206,108 @@ public class LunarUtils {
         private static int sIndexFestival3 = -1;
         private static int sIndexFestival4 = -1;
 
-        private Uri mUri;
+        private int mFromYear;
+        private int mToYear;
 
         public LunarInfoLoader(Context context) {
             super(context);
         }
 
+        /**
+         * Loads the year of the given day.
+         */
         public void load(int year, int month, int day) {
-            reset();
-            // Build the query uri.
-            mUri = CONTENT_URI_GET_ONE_DAY.buildUpon()
-                    .appendQueryParameter(PARAM_YEAR, String.valueOf(year))
-                    .appendQueryParameter(PARAM_MONTH, String.valueOf(month))
-                    .appendQueryParameter(PARAM_DAY, String.valueOf(day))
-                    .build();
-            startLoading();
-            forceLoad();
+            loadYears(year, year);
         }
 
+        /**
+         * Loads the year of the given month.
+         */
         public void load(int year, int month) {
-            reset();
-            // Build the query uri.
-            mUri = CONTENT_URI_GET_ONE_MONTH.buildUpon()
-                    .appendQueryParameter(PARAM_YEAR, String.valueOf(year))
-                    .appendQueryParameter(PARAM_MONTH, String.valueOf(month))
-                    .build();
-            startLoading();
-            forceLoad();
+            loadYears(year, year);
         }
 
+        /**
+         * Loads every year from from_year to to_year.
+         */
         public void load(int from_year, int from_month, int from_day,
                 int to_year, int to_month, int to_day) {
+            loadYears(from_year, to_year);
+        }
+
+        private void loadYears(int fromYear, int toYear) {
             reset();
-            // Build the query uri.
-            mUri = CONTENT_URI_GET_FROM_TO.buildUpon()
-                    .appendQueryParameter(PARAM_FROM_YEAR, String.valueOf(from_year))
-                    .appendQueryParameter(PARAM_FROM_MONTH, String.valueOf(from_month))
-                    .appendQueryParameter(PARAM_FROM_DAY, String.valueOf(from_day))
-                    .appendQueryParameter(PARAM_TO_YEAR, String.valueOf(to_year))
-                    .appendQueryParameter(PARAM_TO_MONTH, String.valueOf(to_month))
-                    .appendQueryParameter(PARAM_TO_DAY, String.valueOf(to_day))
-                    .build();
+            mFromYear = fromYear;
+            mToYear = toYear;
             startLoading();
             forceLoad();
         }
 
         @Override
         public Void loadInBackground() {
-            Cursor cursor = getContext().getContentResolver().query(mUri, null, null, null, null);
+            Context context = getContext();
+            Locale locale = Locale.getDefault();
+            sLunarInfos.readIfNeeded(context);
+            boolean added = false;
+            for (int year = mFromYear; year <= mToYear; year++) {
+                if (!sLunarInfos.containsYear(year)) {
+                    added |= loadYear(context, year);
+                }
+            }
+            if (!locale.equals(Locale.getDefault())) {
+                // The locale changed while loading, so the strings may be in
+                // either language. The next load starts over.
+                sLunarInfos.clear();
+            } else if (added) {
+                sLunarInfos.write(context);
+            }
+            return null;
+        }
+
+        /**
+         * Queries the whole year from the provider. Returns true if any day
+         * was added.
+         */
+        private boolean loadYear(Context context, int year) {
+            Uri uri = CONTENT_URI_GET_FROM_TO.buildUpon()
+                    .appendQueryParameter(PARAM_FROM_YEAR, String.valueOf(year))
+                    .appendQueryParameter(PARAM_FROM_MONTH, String.valueOf(0))
+                    .appendQueryParameter(PARAM_FROM_DAY, String.valueOf(1))
+                    .appendQueryParameter(PARAM_TO_YEAR, String.valueOf(year))
+                    .appendQueryParameter(PARAM_TO_MONTH, String.valueOf(11))
+                    .appendQueryParameter(PARAM_TO_DAY, String.valueOf(31))
+                    .build();
+            Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
             try {
-                if (cursor == null || cursor.getCount() < 1) return null;
+                if (cursor == null || cursor.getCount() < 1) return false;
 
                 if (sIndexId < 0) getIndexValue(cursor);
+                sLunarInfos.ensureRange(LunarInfoCache.getJulianDay(year, 0, 1),
+                        LunarInfoCache.getJulianDay(year, 11, 31));
+                String[] fields = new String[LunarInfoCache.NUM_FIELDS];
                 while (cursor.moveToNext()) {
-                    int year = cursor.getInt(sIndexYear);
-                    int month = cursor.getInt(sIndexMonth);
-                    int day = cursor.getInt(sIndexDay);
-
-                    LunarInfo info = new LunarInfo();
-                    info._label_long = cursor.getString(sIndexLunarLabelLong);
-                    info._label_short = cursor.getString(sIndexLunarLabelShort);
-                    info._animal = cursor.getString(sIndexAnimal);
-                    info._festival1 = cursor.getString(sIndexFestival1);
-                    info._festival2 = cursor.getString(sIndexFestival2);
-                    info._festival3 = cursor.getString(sIndexFestival3);
-                    info._festival4 = cursor.getString(sIndexFestival4);
-
-                    sLunarInfos.put(getKey(year, month, day), info);
+                    int julianDay = LunarInfoCache.getJulianDay(cursor.getInt(sIndexYear),
+                            cursor.getInt(sIndexMonth), cursor.getInt(sIndexDay));
+
+                    fields[LunarInfoCache.FIELD_LABEL_LONG] =
+                            cursor.getString(sIndexLunarLabelLong);
+                    fields[LunarInfoCache.FIELD_LABEL_SHORT] =
+                            cursor.getString(sIndexLunarLabelShort);
+                    fields[LunarInfoCache.FIELD_ANIMAL] = cursor.getString(sIndexAnimal);
+                    fields[LunarInfoCache.FIELD_FESTIVAL_1] = cursor.getString(sIndexFestival1);
+                    fields[LunarInfoCache.FIELD_FESTIVAL_2] = cursor.getString(sIndexFestival2);
+                    fields[LunarInfoCache.FIELD_FESTIVAL_3] = cursor.getString(sIndexFestival3);
+                    fields[LunarInfoCache.FIELD_FESTIVAL_4] = cursor.getString(sIndexFestival4);
+
+                    sLunarInfos.put(julianDay, fields);
                 }
+                return true;
             } finally {
                 if (cursor != null) {
                     cursor.close();
                     cursor = null;
                 }
             }
-
-            return null;
         }
 
         private void getIndexValue(Cursor cursor) {
@@ -293,14 +327,4 @@ public class LunarUtils {
         }
 
     }
-
-    private static class LunarInfo {
-        public String _label_long;
-        public String _label_short;
-        public String _animal;
-        public String _festival1;
-        public String _festival2;
-        public String _festival3;
-        public String _festival4;
-    }
 }
@@ -61,15 +61,12 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Formatter;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Utils {
@@ -109,15 +106,7 @@ public class Utils {
     private static final float SATURATION_ADJUST = 1.3f;
     private static final float INTENSITY_ADJUST = 0.8f;
 
-    // Defines used by the DNA generation code
-    static final int DAY_IN_MINUTES = 60 * 24;
-    static final int WEEK_IN_MINUTES = DAY_IN_MINUTES * 7;
-    // The work day is being counted as 6am to 8pm
-    static int WORK_DAY_MINUTES = 14 * 60;
-    static int WORK_DAY_START_MINUTES = 6 * 60;
-    static int WORK_DAY_END_MINUTES = 20 * 60;
-    static int WORK_DAY_END_LENGTH = (24 * 60) - WORK_DAY_END_MINUTES;
-    static int CONFLICT_COLOR = 0xFF000000;
+    // Whether the DNA parameters have been loaded from resources
     static boolean mMinutesLoaded = false;
 
     public static final int YEAR_MIN = 1970;
@@ -144,61 +133,6 @@ public class Utils {
 
     private static final Pattern mWildcardPattern = Pattern.compile("^.*$");
 
-    /**
-    * A coordinate must be of the following form for Google Maps to correctly use it:
-    * Latitude, Longitude
-    *
-    * This may be in decimal form:
-    * Latitude: {-90 to 90}
-    * Longitude: {-180 to 180}
-    *
-    * Or, in degrees, minutes, and seconds:
-    * Latitude: {-90 to 90}° {0 to 59}' {0 to 59}"
-    * Latitude: {-180 to 180}° {0 to 59}' {0 to 59}"
-    * + or - degrees may also be represented with N or n, S or s for latitude, and with
-    * E or e, W or w for longitude, where the direction may either precede or follow the value.
-    *
-    * Some examples of coordinates that will be accepted by the regex:
-    * 37.422081°, -122.084576°
-    * 37.422081,-122.084576
-    * +37°25'19.49", -122°5'4.47"
-    * 37°25'19.49"N, 122°5'4.47"W
-    * N 37° 25' 19.49",  W 122° 5' 4.47"
-    **/
-    private static final String COORD_DEGREES_LATITUDE =
-            "([-+NnSs]" + "(\\s)*)?"
-            + "[1-9]?[0-9](\u00B0)" + "(\\s)*"
-            + "([1-5]?[0-9]\')?" + "(\\s)*"
-            + "([1-5]?[0-9]" + "(\\.[0-9]+)?\")?"
-            + "((\\s)*" + "[NnSs])?";
-    private static final String COORD_DEGREES_LONGITUDE =
-            "([-+EeWw]" + "(\\s)*)?"
-            + "(1)?[0-9]?[0-9](\u00B0)" + "(\\s)*"
-            + "([1-5]?[0-9]\')?" + "(\\s)*"
-            + "([1-5]?[0-9]" + "(\\.[0-9]+)?\")?"
-            + "((\\s)*" + "[EeWw])?";
-    private static final String COORD_DEGREES_PATTERN =
-            COORD_DEGREES_LATITUDE
-            + "(\\s)*" + "," + "(\\s)*"
-            + COORD_DEGREES_LONGITUDE;
-    private static final String COORD_DECIMAL_LATITUDE =
-            "[+-]?"
-            + "[1-9]?[0-9]" + "(\\.[0-9]+)"
-            + "(\u00B0)?";
-    private static final String COORD_DECIMAL_LONGITUDE =
-            "[+-]?"
-            + "(1)?[0-9]?[0-9]" + "(\\.[0-9]+)"
-            + "(\u00B0)?";
-    private static final String COORD_DECIMAL_PATTERN =
-            COORD_DECIMAL_LATITUDE
-            + "(\\s)*" + "," + "(\\s)*"
-            + COORD_DECIMAL_LONGITUDE;
-    private static final Pattern COORD_PATTERN =
-            Pattern.compile(COORD_DEGREES_PATTERN + "|" + COORD_DECIMAL_PATTERN);
-
-    private static final String NANP_ALLOWED_SYMBOLS = "()+-*#.";
-    private static final int NANP_MIN_DIGITS = 7;
-    private static final int NANP_MAX_DIGITS = 11;
 
 
     /**
@@ -871,27 +805,6 @@ public class Utils {
                 PackageManager.COMPONENT_ENABLED_STATE_DISABLED, PackageManager.DONT_KILL_APP);
     }
 
-    // A single strand represents one color of events. Events are divided up by
-    // color to make them convenient to draw. The black strand is special in
-    // that it holds conflicting events as well as color settings for allday on
-    // each day.
-    public static class DNAStrand {
-        public float[] points;
-        public int[] allDays; // color for the allday, 0 means no event
-        int position;
-        public int color;
-        int count;
-    }
-
-    // A segment is a single continuous length of time occupied by a single
-    // color. Segments should never span multiple days.
-    private static class DNASegment {
-        int startMinute; // in minutes since the start of the week
-        int endMinute;
-        int color; // Calendar color or black for conflicts
-        int day; // quick reference to the day this segment is on
-    }
-
     /**
      * Converts a list of events to a list of segments to draw. Assumes list is
      * ordered by start time of the events. The function processes events for a
@@ -925,18 +838,7 @@ public class Utils {
             ArrayList<Event> events, int top, int bottom, int minPixels, int[] dayXs,
             Context context) {
 
-        if (!mMinutesLoaded) {
-            if (context == null) {
-                Log.wtf(TAG, "No context and haven't loaded parameters yet! Can't create DNA.");
-            }
-            Resources res = context.getResources();
-            CONFLICT_COLOR = res.getColor(R.color.month_dna_conflict_time_color);
-            WORK_DAY_START_MINUTES = res.getInteger(R.integer.work_start_minutes);
-            WORK_DAY_END_MINUTES = res.getInteger(R.integer.work_end_minutes);
-            WORK_DAY_END_LENGTH = DAY_IN_MINUTES - WORK_DAY_END_MINUTES;
-            WORK_DAY_MINUTES = WORK_DAY_END_MINUTES - WORK_DAY_START_MINUTES;
-            mMinutesLoaded = true;
-        }
+        loadDNAParameters(context);
 
         if (events == null || events.isEmpty() || dayXs == null || dayXs.length < 1
                 || bottom - top < 8 || minPixels < 0) {
@@ -947,348 +849,61 @@ public class Utils {
             return null;
         }
 
-        LinkedList<DNASegment> segments = new LinkedList<DNASegment>();
-        HashMap<Integer, DNAStrand> strands = new HashMap<Integer, DNAStrand>();
-        // add a black strand by default, other colors will get added in
-        // the loop
-        DNAStrand blackStrand = new DNAStrand();
-        blackStrand.color = CONFLICT_COLOR;
-        strands.put(CONFLICT_COLOR, blackStrand);
-        // the min length is the number of minutes that will occupy
-        // MIN_SEGMENT_PIXELS in the 'work day' time slot. This computes the
-        // minutes/pixel * minpx where the number of pixels are 3/4 the total
-        // dna height: 4*(mins/(px * 3/4))
-        int minMinutes = minPixels * 4 * WORK_DAY_MINUTES / (3 * (bottom - top));
-
-        // There are slightly fewer than half as many pixels in 1/6 the space,
-        // so round to 2.5x for the min minutes in the non-work area
-        int minOtherMinutes = minMinutes * 5 / 2;
-        int lastJulianDay = firstJulianDay + dayXs.length - 1;
-
-        Event event = new Event();
+        DNABuilder builder = new DNABuilder(firstJulianDay, top, bottom, minPixels, dayXs);
         // Go through all the events for the week
         for (Event currEvent : events) {
-            // if this event is outside the weeks range skip it
-            if (currEvent.endDay < firstJulianDay || currEvent.startDay > lastJulianDay) {
-                continue;
-            }
-            if (currEvent.drawAsAllday()) {
-                addAllDayToStrands(currEvent, strands, firstJulianDay, dayXs.length);
-                continue;
-            }
-            // Copy the event over so we can clip its start and end to our range
-            currEvent.copyTo(event);
-            if (event.startDay < firstJulianDay) {
-                event.startDay = firstJulianDay;
-                event.startTime = 0;
-            }
-            // If it starts after the work day make sure the start is at least
-            // minPixels from midnight
-            if (event.startTime > DAY_IN_MINUTES - minOtherMinutes) {
-                event.startTime = DAY_IN_MINUTES - minOtherMinutes;
-            }
-            if (event.endDay > lastJulianDay) {
-                event.endDay = lastJulianDay;
-                event.endTime = DAY_IN_MINUTES - 1;
-            }
-            // If the end time is before the work day make sure it ends at least
-            // minPixels after midnight
-            if (event.endTime < minOtherMinutes) {
-                event.endTime = minOtherMinutes;
-            }
-            // If the start and end are on the same day make sure they are at
-            // least minPixels apart. This only needs to be done for times
-            // outside the work day as the min distance for within the work day
-            // is enforced in the segment code.
-            if (event.startDay == event.endDay &&
-                    event.endTime - event.startTime < minOtherMinutes) {
-                // If it's less than minPixels in an area before the work
-                // day
-                if (event.startTime < WORK_DAY_START_MINUTES) {
-                    // extend the end to the first easy guarantee that it's
-                    // minPixels
-                    event.endTime = Math.min(event.startTime + minOtherMinutes,
-                            WORK_DAY_START_MINUTES + minMinutes);
-                    // if it's in the area after the work day
-                } else if (event.endTime > WORK_DAY_END_MINUTES) {
-                    // First try shifting the end but not past midnight
-                    event.endTime = Math.min(event.endTime + minOtherMinutes, DAY_IN_MINUTES - 1);
-                    // if it's still too small move the start back
-                    if (event.endTime - event.startTime < minOtherMinutes) {
-                        event.startTime = event.endTime - minOtherMinutes;
-                    }
-                }
-            }
-
-            // This handles adding the first segment
-            if (segments.size() == 0) {
-                addNewSegment(segments, event, strands, firstJulianDay, 0, minMinutes);
-                continue;
-            }
-            // Now compare our current start time to the end time of the last
-            // segment in the list
-            DNASegment lastSegment = segments.getLast();
-            int startMinute = (event.startDay - firstJulianDay) * DAY_IN_MINUTES + event.startTime;
-            int endMinute = Math.max((event.endDay - firstJulianDay) * DAY_IN_MINUTES
-                    + event.endTime, startMinute + minMinutes);
-
-            if (startMinute < 0) {
-                startMinute = 0;
-            }
-            if (endMinute >= WEEK_IN_MINUTES) {
-                endMinute = WEEK_IN_MINUTES - 1;
-            }
-            // If we start before the last segment in the list ends we need to
-            // start going through the list as this may conflict with other
-            // events
-            if (startMinute < lastSegment.endMinute) {
-                int i = segments.size();
-                // find the last segment this event intersects with
-                while (--i >= 0 && endMinute < segments.get(i).startMinute);
-
-                DNASegment currSegment;
-                // for each segment this event intersects with
-                for (; i >= 0 && startMinute <= (currSegment = segments.get(i)).endMinute; i--) {
-                    // if the segment is already a conflict ignore it
-                    if (currSegment.color == CONFLICT_COLOR) {
-                        continue;
-                    }
-                    // if the event ends before the segment and wouldn't create
-                    // a segment that is too small split off the right side
-                    if (endMinute < currSegment.endMinute - minMinutes) {
-                        DNASegment rhs = new DNASegment();
-                        rhs.endMinute = currSegment.endMinute;
-                        rhs.color = currSegment.color;
-                        rhs.startMinute = endMinute + 1;
-                        rhs.day = currSegment.day;
-                        currSegment.endMinute = endMinute;
-                        segments.add(i + 1, rhs);
-                        strands.get(rhs.color).count++;
-                        if (DEBUG) {
-                            Log.d(TAG, "Added rhs, curr:" + currSegment.toString() + " i:"
-                                    + segments.get(i).toString());
-                        }
-                    }
-                    // if the event starts after the segment and wouldn't create
-                    // a segment that is too small split off the left side
-                    if (startMinute > currSegment.startMinute + minMinutes) {
-                        DNASegment lhs = new DNASegment();
-                        lhs.startMinute = currSegment.startMinute;
-                        lhs.color = currSegment.color;
-                        lhs.endMinute = startMinute - 1;
-                        lhs.day = currSegment.day;
-                        currSegment.startMinute = startMinute;
-                        // increment i so that we are at the right position when
-                        // referencing the segments to the right and left of the
-                        // current segment.
-                        segments.add(i++, lhs);
-                        strands.get(lhs.color).count++;
-                        if (DEBUG) {
-                            Log.d(TAG, "Added lhs, curr:" + currSegment.toString() + " i:"
-                                    + segments.get(i).toString());
-                        }
-                    }
-                    // if the right side is black merge this with the segment to
-                    // the right if they're on the same day and overlap
-                    if (i + 1 < segments.size()) {
-                        DNASegment rhs = segments.get(i + 1);
-                        if (rhs.color == CONFLICT_COLOR && currSegment.day == rhs.day
-                                && rhs.startMinute <= currSegment.endMinute + 1) {
-                            rhs.startMinute = Math.min(currSegment.startMinute, rhs.startMinute);
-                            segments.remove(currSegment);
-                            strands.get(currSegment.color).count--;
-                            // point at the new current segment
-                            currSegment = rhs;
-                        }
-                    }
-                    // if the left side is black merge this with the segment to
-                    // the left if they're on the same day and overlap
-                    if (i - 1 >= 0) {
-                        DNASegment lhs = segments.get(i - 1);
-                        if (lhs.color == CONFLICT_COLOR && currSegment.day == lhs.day
-                                && lhs.endMinute >= currSegment.startMinute - 1) {
-                            lhs.endMinute = Math.max(currSegment.endMinute, lhs.endMinute);
-                            segments.remove(currSegment);
-                            strands.get(currSegment.color).count--;
-                            // point at the new current segment
-                            currSegment = lhs;
-                            // point i at the new current segment in case new
-                            // code is added
-                            i--;
-                        }
-                    }
-                    // if we're still not black, decrement the count for the
-                    // color being removed, change this to black, and increment
-                    // the black count
-                    if (currSegment.color != CONFLICT_COLOR) {
-                        strands.get(currSegment.color).count--;
-                        currSegment.color = CONFLICT_COLOR;
-                        strands.get(CONFLICT_COLOR).count++;
-                    }
-                }
-
-            }
-            // If this event extends beyond the last segment add a new segment
-            if (endMinute > lastSegment.endMinute) {
-                addNewSegment(segments, event, strands, firstJulianDay, lastSegment.endMinute,
-                        minMinutes);
-            }
-        }
-        weaveDNAStrands(segments, firstJulianDay, strands, top, bottom, dayXs);
-        return strands;
-    }
-
-    // This figures out allDay colors as allDay events are found
-    private static void addAllDayToStrands(Event event, HashMap<Integer, DNAStrand> strands,
-            int firstJulianDay, int numDays) {
-        DNAStrand strand = getOrCreateStrand(strands, CONFLICT_COLOR);
-        // if we haven't initialized the allDay portion create it now
-        if (strand.allDays == null) {
-            strand.allDays = new int[numDays];
-        }
-
-        // For each day this event is on update the color
-        int end = Math.min(event.endDay - firstJulianDay, numDays - 1);
-        for (int i = Math.max(event.startDay - firstJulianDay, 0); i <= end; i++) {
-            if (strand.allDays[i] != 0) {
-                // if this day already had a color, it is now a conflict
-                strand.allDays[i] = CONFLICT_COLOR;
-            } else {
-                // else it's just the color of the event
-                strand.allDays[i] = event.color;
+            if (currEvent.startDay > currEvent.endDay) {
+                Log.wtf(TAG, "Event starts after it ends: " + currEvent.toString());
             }
+            builder.add(currEvent.startDay, currEvent.startTime, currEvent.endDay,
+                    currEvent.endTime, currEvent.color, currEvent.drawAsAllday());
         }
-    }
-
-    // This processes all the segments, sorts them by color, and generates a
-    // list of points to draw
-    private static void weaveDNAStrands(LinkedList<DNASegment> segments, int firstJulianDay,
-            HashMap<Integer, DNAStrand> strands, int top, int bottom, int[] dayXs) {
-        // First, get rid of any colors that ended up with no segments
-        Iterator<DNAStrand> strandIterator = strands.values().iterator();
-        while (strandIterator.hasNext()) {
-            DNAStrand strand = strandIterator.next();
-            if (strand.count < 1 && strand.allDays == null) {
-                strandIterator.remove();
-                continue;
-            }
-            strand.points = new float[strand.count * 4];
-            strand.position = 0;
-        }
-        // Go through each segment and compute its points
-        for (DNASegment segment : segments) {
-            // Add the points to the strand of that color
-            DNAStrand strand = strands.get(segment.color);
-            int dayIndex = segment.day - firstJulianDay;
-            int dayStartMinute = segment.startMinute % DAY_IN_MINUTES;
-            int dayEndMinute = segment.endMinute % DAY_IN_MINUTES;
-            int height = bottom - top;
-            int workDayHeight = height * 3 / 4;
-            int remainderHeight = (height - workDayHeight) / 2;
-
-            int x = dayXs[dayIndex];
-            int y0 = 0;
-            int y1 = 0;
-
-            y0 = top + getPixelOffsetFromMinutes(dayStartMinute, workDayHeight, remainderHeight);
-            y1 = top + getPixelOffsetFromMinutes(dayEndMinute, workDayHeight, remainderHeight);
-            if (DEBUG) {
-                Log.d(TAG, "Adding " + Integer.toHexString(segment.color) + " at x,y0,y1: " + x
-                        + " " + y0 + " " + y1 + " for " + dayStartMinute + " " + dayEndMinute);
-            }
-            strand.points[strand.position++] = x;
-            strand.points[strand.position++] = y0;
-            strand.points[strand.position++] = x;
-            strand.points[strand.position++] = y1;
-        }
+        return builder.build();
     }
 
     /**
-     * Compute a pixel offset from the top for a given minute from the work day
-     * height and the height of the top area.
+     * Same as {@link #createDNAStrands(int, ArrayList, int, int, int, int[], Context)}
+     * but reads the events from an {@link EventTable}, which must be ordered
+     * by start time. No per-event objects are created for the table rows.
      */
-    private static int getPixelOffsetFromMinutes(int minute, int workDayHeight,
-            int remainderHeight) {
-        int y;
-        if (minute < WORK_DAY_START_MINUTES) {
-            y = minute * remainderHeight / WORK_DAY_START_MINUTES;
-        } else if (minute < WORK_DAY_END_MINUTES) {
-            y = remainderHeight + (minute - WORK_DAY_START_MINUTES) * workDayHeight
-                    / WORK_DAY_MINUTES;
-        } else {
-            y = remainderHeight + workDayHeight + (minute - WORK_DAY_END_MINUTES) * remainderHeight
-                    / WORK_DAY_END_LENGTH;
-        }
-        return y;
-    }
+    public static HashMap<Integer, DNAStrand> createDNAStrands(int firstJulianDay,
+            EventTable events, int top, int bottom, int minPixels, int[] dayXs,
+            Context context) {
 
-    /**
-     * Add a new segment based on the event provided. This will handle splitting
-     * segments across day boundaries and ensures a minimum size for segments.
-     */
-    private static void addNewSegment(LinkedList<DNASegment> segments, Event event,
-            HashMap<Integer, DNAStrand> strands, int firstJulianDay, int minStart, int minMinutes) {
-        if (event.startDay > event.endDay) {
-            Log.wtf(TAG, "Event starts after it ends: " + event.toString());
+        loadDNAParameters(context);
+
+        if (events == null || events.size() == 0 || dayXs == null || dayXs.length < 1
+                || bottom - top < 8 || minPixels < 0) {
+            Log.e(TAG,
+                    "Bad values for createDNAStrands! events:" + events + " dayXs:"
+                            + Arrays.toString(dayXs) + " bot-top:" + (bottom - top) + " minPixels:"
+                            + minPixels);
+            return null;
         }
-        // If this is a multiday event split it up by day
-        if (event.startDay != event.endDay) {
-            Event lhs = new Event();
-            lhs.color = event.color;
-            lhs.startDay = event.startDay;
-            // the first day we want the start time to be the actual start time
-            lhs.startTime = event.startTime;
-            lhs.endDay = lhs.startDay;
-            lhs.endTime = DAY_IN_MINUTES - 1;
-            // Nearly recursive iteration!
-            while (lhs.startDay != event.endDay) {
-                addNewSegment(segments, lhs, strands, firstJulianDay, minStart, minMinutes);
-                // The days in between are all day, even though that shouldn't
-                // actually happen due to the allday filtering
-                lhs.startDay++;
-                lhs.endDay = lhs.startDay;
-                lhs.startTime = 0;
-                minStart = 0;
+
+        DNABuilder builder = new DNABuilder(firstJulianDay, top, bottom, minPixels, dayXs);
+        int size = events.size();
+        for (int i = 0; i < size; i++) {
+            if (events.startDay[i] > events.endDay[i]) {
+                Log.wtf(TAG, "Event starts after it ends: " + events.id[i]);
             }
-            // The last day we want the end time to be the actual end time
-            lhs.endTime = event.endTime;
-            event = lhs;
+            builder.add(events.startDay[i], events.startTime[i], events.endDay[i],
+                    events.endTime[i], events.color[i], events.drawAsAllday(i));
         }
-        // Create the new segment and compute its fields
-        DNASegment segment = new DNASegment();
-        int dayOffset = (event.startDay - firstJulianDay) * DAY_IN_MINUTES;
-        int endOfDay = dayOffset + DAY_IN_MINUTES - 1;
-        // clip the start if needed
-        segment.startMinute = Math.max(dayOffset + event.startTime, minStart);
-        // and extend the end if it's too small, but not beyond the end of the
-        // day
-        int minEnd = Math.min(segment.startMinute + minMinutes, endOfDay);
-        segment.endMinute = Math.max(dayOffset + event.endTime, minEnd);
-        if (segment.endMinute > endOfDay) {
-            segment.endMinute = endOfDay;
-        }
-
-        segment.color = event.color;
-        segment.day = event.startDay;
-        segments.add(segment);
-        // increment the count for the correct color or add a new strand if we
-        // don't have that color yet
-        DNAStrand strand = getOrCreateStrand(strands, segment.color);
-        strand.count++;
+        return builder.build();
     }
 
-    /**
-     * Try to get a strand of the given color. Create it if it doesn't exist.
-     */
-    private static DNAStrand getOrCreateStrand(HashMap<Integer, DNAStrand> strands, int color) {
-        DNAStrand strand = strands.get(color);
-        if (strand == null) {
-            strand = new DNAStrand();
-            strand.color = color;
-            strand.count = 0;
-            strands.put(strand.color, strand);
+    private static void loadDNAParameters(Context context) {
+        if (!mMinutesLoaded) {
+            if (context == null) {
+                Log.wtf(TAG, "No context and haven't loaded parameters yet! Can't create DNA.");
+            }
+            Resources res = context.getResources();
+            DNABuilder.setParameters(res.getColor(R.color.month_dna_conflict_time_color),
+                    res.getInteger(R.integer.work_start_minutes),
+                    res.getInteger(R.integer.work_end_minutes));
+            mMinutesLoaded = true;
         }
-        return strand;
     }
 
     /**
@@ -1825,81 +1440,31 @@ public class Utils {
                 Linkify.ALL & ~(Linkify.PHONE_NUMBERS));
 
         /*
-         * Get a list of any spans created by Linkify, for the coordinate overlapping span check.
+         * Get a list of any spans created by Linkify, for the overlapping span checks.
          */
         URLSpan[] existingSpans = spanText.getSpans(0, spanText.length(), URLSpan.class);
-
-        /*
-         * Check for coordinates.
-         * This must be done before phone numbers because longitude may look like a phone number.
-         */
-        Matcher coordMatcher = COORD_PATTERN.matcher(spanText);
-        int coordCount = 0;
-        while (coordMatcher.find()) {
-            int start = coordMatcher.start();
-            int end = coordMatcher.end();
-            if (spanWillOverlap(spanText, existingSpans, start, end)) {
-                continue;
-            }
-
-            URLSpan span = new URLSpan("geo:0,0?q=" + coordMatcher.group());
-            spanText.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            coordCount++;
+        int[] existingRanges = new int[existingSpans.length * 2];
+        for (int i = 0; i < existingSpans.length; i++) {
+            existingRanges[i * 2] = spanText.getSpanStart(existingSpans[i]);
+            existingRanges[i * 2 + 1] = spanText.getSpanEnd(existingSpans[i]);
         }
 
         /*
-         * Update the list of existing spans, for the phone number overlapping span check.
+         * Check for coordinates and then phone numbers, and insert spans for the ones that don't
+         * overlap a link Linkify found.  We generate "geo:" and "tel:" URIs.
          */
-        existingSpans = spanText.getSpans(0, spanText.length(), URLSpan.class);
-
-        /*
-         * Search for phone numbers.
-         *
-         * Some URIs contain strings of digits that look like phone numbers.  If both the URI
-         * scanner and the phone number scanner find them, we want the URI link to win.  Since
-         * the URI scanner runs first, we just need to avoid creating overlapping spans.
-         */
-        int[] phoneSequences = findNanpPhoneNumbers(text);
-
-        /*
-         * Insert spans for the numbers we found.  We generate "tel:" URIs.
-         */
-        int phoneCount = 0;
-        for (int match = 0; match < phoneSequences.length / 2; match++) {
-            int start = phoneSequences[match*2];
-            int end = phoneSequences[match*2 + 1];
-
-            if (spanWillOverlap(spanText, existingSpans, start, end)) {
-                continue;
-            }
-
-            /*
-             * The Linkify code takes the matching span and strips out everything that isn't a
-             * digit or '+' sign.  We do the same here.  Extension numbers will get appended
-             * without a separator, but the dialer wasn't doing anything useful with ";ext="
-             * anyway.
-             */
-
-            //String dialStr = phoneUtil.format(match.number(),
-            //        PhoneNumberUtil.PhoneNumberFormat.RFC3966);
-            StringBuilder dialBuilder = new StringBuilder();
-            for (int i = start; i < end; i++) {
-                char ch = spanText.charAt(i);
-                if (ch == '+' || Character.isDigit(ch)) {
-                    dialBuilder.append(ch);
-                }
-            }
-            URLSpan span = new URLSpan("tel:" + dialBuilder.toString());
-
-            spanText.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            phoneCount++;
+        ArrayList<LinkFinder.Link> links =
+                LinkFinder.findCoordinatesAndPhoneNumbers(text, existingRanges);
+        for (LinkFinder.Link link : links) {
+            spanText.setSpan(new URLSpan(link.url), link.start, link.end,
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
         }
 
         /*
          * If lastDitchGeo, and no other links have been found, set the entire string as a geo link.
          */
         if (lastDitchGeo && !text.isEmpty() &&
-                !linkifyFoundLinks && phoneCount == 0 && coordCount == 0) {
+                !linkifyFoundLinks && links.isEmpty()) {
             if (Log.isLoggable(TAG, Log.VERBOSE)) {
                 Log.v(TAG, "No linkification matches, using geo default");
             }
@@ -1935,150 +1500,7 @@ public class Utils {
      */
     // @VisibleForTesting
     static int[] findNanpPhoneNumbers(CharSequence text) {
-        ArrayList<Integer> list = new ArrayList<Integer>();
-
-        int startPos = 0;
-        int endPos = text.length() - NANP_MIN_DIGITS + 1;
-        if (endPos < 0) {
-            return new int[] {};
-        }
-
-        /*
-         * We can't just strip the whitespace out and crunch it down, because the whitespace
-         * is significant.  March through, trying to figure out where numbers start and end.
-         */
-        while (startPos < endPos) {
-            // skip whitespace
-            while (Character.isWhitespace(text.charAt(startPos)) && startPos < endPos) {
-                startPos++;
-            }
-            if (startPos == endPos) {
-                break;
-            }
-
-            // check for a match at this position
-            int matchEnd = findNanpMatchEnd(text, startPos);
-            if (matchEnd > startPos) {
-                list.add(startPos);
-                list.add(matchEnd);
-                startPos = matchEnd;    // skip past match
-            } else {
-                // skip to next whitespace char
-                while (!Character.isWhitespace(text.charAt(startPos)) && startPos < endPos) {
-                    startPos++;
-                }
-            }
-        }
-
-        int[] result = new int[list.size()];
-        for (int i = list.size() - 1; i >= 0; i--) {
-            result[i] = list.get(i);
-        }
-        return result;
-    }
-
-    /**
-     * Checks to see if there is a valid phone number in the input, starting at the specified
-     * offset.  If so, the index of the last character + 1 is returned.  The input is assumed
-     * to begin with a non-whitespace character.
-     *
-     * @return Exclusive end position, or -1 if not a match.
-     */
-    private static int findNanpMatchEnd(CharSequence text, int startPos) {
-        /*
-         * A few interesting cases:
-         *   94043                              # too short, ignore
-         *   123456789012                       # too long, ignore
-         *   +1 (650) 555-1212                  # 11 digits, spaces
-         *   (650) 555 5555                     # Second space, only when first is present.
-         *   (650) 555-1212, (650) 555-1213     # two numbers, return first
-         *   1-650-555-1212                     # 11 digits with leading '1'
-         *   *#650.555.1212#*!                  # 10 digits, include #*, ignore trailing '!'
-         *   555.1212                           # 7 digits
-         *
-         * For the most part we want to break on whitespace, but it's common to leave a space
-         * between the initial '1' and/or after the area code.
-         */
-
-        // Check for "tel:" URI prefix.
-        if (text.length() > startPos+4
-                && text.subSequence(startPos, startPos+4).toString().equalsIgnoreCase("tel:")) {
-            startPos += 4;
-        }
-
-        int endPos = text.length();
-        int curPos = startPos;
-        int foundDigits = 0;
-        char firstDigit = 'x';
-        boolean foundWhiteSpaceAfterAreaCode = false;
-
-        while (curPos <= endPos) {
-            char ch;
-            if (curPos < endPos) {
-                ch = text.charAt(curPos);
-            } else {
-                ch = 27;    // fake invalid symbol at end to trigger loop break
-            }
-
-            if (Character.isDigit(ch)) {
-                if (foundDigits == 0) {
-                    firstDigit = ch;
-                }
-                foundDigits++;
-                if (foundDigits > NANP_MAX_DIGITS) {
-                    // too many digits, stop early
-                    return -1;
-                }
-            } else if (Character.isWhitespace(ch)) {
-                if ( (firstDigit == '1' && foundDigits == 4) ||
-                        (foundDigits == 3)) {
-                    foundWhiteSpaceAfterAreaCode = true;
-                } else if (firstDigit == '1' && foundDigits == 1) {
-                } else if (foundWhiteSpaceAfterAreaCode
-                        && ( (firstDigit == '1' && (foundDigits == 7)) || (foundDigits == 6))) {
-                } else {
-                    break;
-                }
-            } else if (NANP_ALLOWED_SYMBOLS.indexOf(ch) == -1) {
-                break;
-            }
-            // else it's an allowed symbol
-
-            curPos++;
-        }
-
-        if ((firstDigit != '1' && (foundDigits == 7 || foundDigits == 10)) ||
-                (firstDigit == '1' && foundDigits == 11)) {
-            // match
-            return curPos;
-        }
-
-        return -1;
-    }
-
-    /**
-     * Determines whether a new span at [start,end) will overlap with any existing span.
-     */
-    private static boolean spanWillOverlap(Spannable spanText, URLSpan[] spanList, int start,
-            int end) {
-        if (start == end) {
-            // empty span, ignore
-            return false;
-        }
-        for (URLSpan span : spanList) {
-            int existingStart = spanText.getSpanStart(span);
-            int existingEnd = spanText.getSpanEnd(span);
-            if ((start >= existingStart && start < existingEnd) ||
-                    end > existingStart && end <= existingEnd) {
-                if (Log.isLoggable(TAG, Log.VERBOSE)) {
-                    CharSequence seq = spanText.subSequence(start, end);
-                    Log.v(TAG, "Not linkifying " + seq + " as phone number due to overlap");
-                }
-                return true;
-            }
-        }
-
-        return false;
+        return LinkFinder.findNanpPhoneNumbers(text);
     }
 
     /**
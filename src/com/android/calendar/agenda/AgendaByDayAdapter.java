@@ -30,17 +30,16 @@ import android.widget.TextView;
 
 import com.android.calendar.R;
 import com.android.calendar.Utils;
+import com.android.calendar.agenda.AgendaRows.RowInfo;
 import com.android.calendar.agenda.AgendaWindowAdapter.DayAdapterInfo;
 
 import java.util.ArrayList;
 import java.util.Formatter;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Locale;
 
 public class AgendaByDayAdapter extends BaseAdapter {
-    private static final int TYPE_DAY = 0;
-    private static final int TYPE_MEETING = 1;
+    private static final int TYPE_DAY = AgendaRows.TYPE_DAY;
+    private static final int TYPE_MEETING = AgendaRows.TYPE_MEETING;
     static final int TYPE_LAST = 2;
 
     private final Context mContext;
@@ -291,206 +290,128 @@ public class AgendaByDayAdapter extends BaseAdapter {
     }
 
     public void changeCursor(DayAdapterInfo info) {
-        calculateDays(info);
+        ArrayList<RowInfo> rows = null;
+        if (info.page != null && info.page.start == info.start
+                && info.page.end == info.end) {
+            rows = info.page.getRows(mTimeZone);
+        }
+        if (rows != null) {
+            // Built along with the page, off the UI thread
+            updateTodayJulianDay();
+            for (int i = 0; i < rows.size(); i++) {
+                rows.get(i).mFirstDayAfterYesterday = false;
+            }
+            mRowInfo = rows;
+        } else {
+            calculateDays(info);
+            if (info.page != null) {
+                info.page.setRows(mRowInfo, mTimeZone);
+            }
+        }
         mAgendaAdapter.changeCursor(info.cursor);
     }
 
     public void calculateDays(DayAdapterInfo dayAdapterInfo) {
-        Cursor cursor = dayAdapterInfo.cursor;
-        ArrayList<RowInfo> rowInfo = new ArrayList<RowInfo>();
-        int prevStartDay = -1;
+        Time tempTime = updateTodayJulianDay();
+        mRowInfo = AgendaRows.calculateDays(new CursorInstanceSource(dayAdapterInfo.cursor),
+                dayAdapterInfo.start, dayAdapterInfo.end, new TimeDayClock(tempTime, mTimeZone));
+    }
 
+    private Time updateTodayJulianDay() {
         Time tempTime = new Time(mTimeZone);
         long now = System.currentTimeMillis();
         tempTime.set(now);
         mTodayJulianDay = Time.getJulianDay(now, tempTime.gmtoff);
+        return tempTime;
+    }
 
-        LinkedList<MultipleDayInfo> multipleDayList = new LinkedList<MultipleDayInfo>();
-        for (int position = 0; cursor.moveToNext(); position++) {
-            int startDay = cursor.getInt(AgendaWindowAdapter.INDEX_START_DAY);
-            long id = cursor.getLong(AgendaWindowAdapter.INDEX_EVENT_ID);
-            long startTime =  cursor.getLong(AgendaWindowAdapter.INDEX_BEGIN);
-            long endTime =  cursor.getLong(AgendaWindowAdapter.INDEX_END);
-            long instanceId = cursor.getLong(AgendaWindowAdapter.INDEX_INSTANCE_ID);
-            boolean allDay = cursor.getInt(AgendaWindowAdapter.INDEX_ALL_DAY) != 0;
-            if (allDay) {
-                startTime = Utils.convertAlldayUtcToLocal(tempTime, startTime, mTimeZone);
-                endTime = Utils.convertAlldayUtcToLocal(tempTime, endTime, mTimeZone);
-            }
-            // Skip over the days outside of the adapter's range
-            startDay = Math.max(startDay, dayAdapterInfo.start);
-            // Make sure event's start time is not before the start of the day
-            // (setJulianDay sets the time to 12:00am)
-            long adapterStartTime = tempTime.setJulianDay(startDay);
-            startTime = Math.max(startTime, adapterStartTime);
-
-            if (startDay != prevStartDay) {
-                // Check if we skipped over any empty days
-                if (prevStartDay == -1) {
-                    rowInfo.add(new RowInfo(TYPE_DAY, startDay));
-                } else {
-                    // If there are any multiple-day events that span the empty
-                    // range of days, then create day headers and events for
-                    // those multiple-day events.
-                    boolean dayHeaderAdded = false;
-                    for (int currentDay = prevStartDay + 1; currentDay <= startDay; currentDay++) {
-                        dayHeaderAdded = false;
-                        Iterator<MultipleDayInfo> iter = multipleDayList.iterator();
-                        while (iter.hasNext()) {
-                            MultipleDayInfo info = iter.next();
-                            // If this event has ended then remove it from the
-                            // list.
-                            if (info.mEndDay < currentDay) {
-                                iter.remove();
-                                continue;
-                            }
-
-                            // If this is the first event for the day, then
-                            // insert a day header.
-                            if (!dayHeaderAdded) {
-                                rowInfo.add(new RowInfo(TYPE_DAY, currentDay));
-                                dayHeaderAdded = true;
-                            }
-                            long nextMidnight = Utils.getNextMidnight(tempTime,
-                                    info.mEventStartTimeMilli, mTimeZone);
-
-                            long infoEndTime = (info.mEndDay == currentDay) ?
-                                    info.mEventEndTimeMilli : nextMidnight;
-                            rowInfo.add(new RowInfo(TYPE_MEETING, currentDay, info.mPosition,
-                                    info.mEventId, info.mEventStartTimeMilli,
-                                    infoEndTime, info.mInstanceId, info.mAllDay));
-
-                            info.mEventStartTimeMilli = nextMidnight;
-                        }
-                    }
+    /**
+     * Builds the rows of page in timeZone. Unlike {@link #calculateDays}
+     * this can be called from any thread.
+     */
+    static ArrayList<RowInfo> calculateDays(AgendaPage page, String timeZone) {
+        return AgendaRows.calculateDays(new CursorInstanceSource(page.newCursor()), page.start,
+                page.end, new TimeDayClock(new Time(timeZone), timeZone));
+    }
 
-                    // If the day header was not added for the start day, then
-                    // add it now.
-                    if (!dayHeaderAdded) {
-                        rowInfo.add(new RowInfo(TYPE_DAY, startDay));
-                    }
-                }
-                prevStartDay = startDay;
-            }
+    /**
+     * Reads the instances for {@link AgendaRows} from an agenda query.
+     */
+    private static class CursorInstanceSource implements AgendaRows.InstanceSource {
+        private final Cursor mCursor;
 
-            // If this event spans multiple days, then add it to the multipleDay
-            // list.
-            int endDay = cursor.getInt(AgendaWindowAdapter.INDEX_END_DAY);
-
-            // Skip over the days outside of the adapter's range
-            endDay = Math.min(endDay, dayAdapterInfo.end);
-            if (endDay > startDay) {
-                long nextMidnight = Utils.getNextMidnight(tempTime, startTime, mTimeZone);
-                multipleDayList.add(new MultipleDayInfo(position, endDay, id, nextMidnight,
-                        endTime, instanceId, allDay));
-                // Add in the event for this cursor position - since it is the start of a multi-day
-                // event, the end time is midnight
-                rowInfo.add(new RowInfo(TYPE_MEETING, startDay, position, id, startTime,
-                        nextMidnight, instanceId, allDay));
-            } else {
-                // Add in the event for this cursor position
-                rowInfo.add(new RowInfo(TYPE_MEETING, startDay, position, id, startTime, endTime,
-                        instanceId, allDay));
-            }
+        CursorInstanceSource(Cursor cursor) {
+            mCursor = cursor;
         }
 
-        // There are no more cursor events but we might still have multiple-day
-        // events left.  So create day headers and events for those.
-        if (prevStartDay > 0) {
-            for (int currentDay = prevStartDay + 1; currentDay <= dayAdapterInfo.end;
-                    currentDay++) {
-                boolean dayHeaderAdded = false;
-                Iterator<MultipleDayInfo> iter = multipleDayList.iterator();
-                while (iter.hasNext()) {
-                    MultipleDayInfo info = iter.next();
-                    // If this event has ended then remove it from the
-                    // list.
-                    if (info.mEndDay < currentDay) {
-                        iter.remove();
-                        continue;
-                    }
+        @Override
+        public boolean moveToNext() {
+            return mCursor.moveToNext();
+        }
 
-                    // If this is the first event for the day, then
-                    // insert a day header.
-                    if (!dayHeaderAdded) {
-                        rowInfo.add(new RowInfo(TYPE_DAY, currentDay));
-                        dayHeaderAdded = true;
-                    }
-                    long nextMidnight = Utils.getNextMidnight(tempTime, info.mEventStartTimeMilli,
-                            mTimeZone);
-                    long infoEndTime =
-                            (info.mEndDay == currentDay) ? info.mEventEndTimeMilli : nextMidnight;
-                    rowInfo.add(new RowInfo(TYPE_MEETING, currentDay, info.mPosition,
-                            info.mEventId, info.mEventStartTimeMilli, infoEndTime,
-                            info.mInstanceId, info.mAllDay));
-
-                    info.mEventStartTimeMilli = nextMidnight;
-                }
-            }
+        @Override
+        public int getStartDay() {
+            return mCursor.getInt(AgendaWindowAdapter.INDEX_START_DAY);
         }
-        mRowInfo = rowInfo;
-    }
 
-    private static class RowInfo {
-        // mType is either a day header (TYPE_DAY) or an event (TYPE_MEETING)
-        final int mType;
-
-        final int mDay;          // Julian day
-        final int mPosition;     // cursor position (not used for TYPE_DAY)
-        // This is used to mark a day header as the first day with events that is "today"
-        // or later. This flag is used by the adapter to create a view with a visual separator
-        // between the past and the present/future
-        boolean mFirstDayAfterYesterday;
-        final long mEventId;
-        final long mEventStartTimeMilli;
-        final long mEventEndTimeMilli;
-        final long mInstanceId;
-        final boolean mAllDay;
-
-        RowInfo(int type, int julianDay, int position, long id, long startTime, long endTime,
-                long instanceId, boolean allDay) {
-            mType = type;
-            mDay = julianDay;
-            mPosition = position;
-            mEventId = id;
-            mEventStartTimeMilli = startTime;
-            mEventEndTimeMilli = endTime;
-            mFirstDayAfterYesterday = false;
-            mInstanceId = instanceId;
-            mAllDay = allDay;
-        }
-
-        RowInfo(int type, int julianDay) {
-            mType = type;
-            mDay = julianDay;
-            mPosition = 0;
-            mEventId = 0;
-            mEventStartTimeMilli = 0;
-            mEventEndTimeMilli = 0;
-            mFirstDayAfterYesterday = false;
-            mInstanceId = -1;
-            mAllDay = false;
+        @Override
+        public int getEndDay() {
+            return mCursor.getInt(AgendaWindowAdapter.INDEX_END_DAY);
+        }
+
+        @Override
+        public long getEventId() {
+            return mCursor.getLong(AgendaWindowAdapter.INDEX_EVENT_ID);
+        }
+
+        @Override
+        public long getBegin() {
+            return mCursor.getLong(AgendaWindowAdapter.INDEX_BEGIN);
+        }
+
+        @Override
+        public long getEnd() {
+            return mCursor.getLong(AgendaWindowAdapter.INDEX_END);
+        }
+
+        @Override
+        public long getInstanceId() {
+            return mCursor.getLong(AgendaWindowAdapter.INDEX_INSTANCE_ID);
+        }
+
+        @Override
+        public boolean isAllDay() {
+            return mCursor.getInt(AgendaWindowAdapter.INDEX_ALL_DAY) != 0;
         }
     }
 
-    private static class MultipleDayInfo {
-        final int mPosition;
-        final int mEndDay;
-        final long mEventId;
-        long mEventStartTimeMilli;
-        long mEventEndTimeMilli;
-        final long mInstanceId;
-        final boolean mAllDay;
-
-        MultipleDayInfo(int position, int endDay, long id, long startTime, long endTime,
-                long instanceId, boolean allDay) {
-            mPosition = position;
-            mEndDay = endDay;
-            mEventId = id;
-            mEventStartTimeMilli = startTime;
-            mEventEndTimeMilli = endTime;
-            mInstanceId = instanceId;
-            mAllDay = allDay;
+    /**
+     * Does the time zone math for {@link AgendaRows} with a recycled {@link Time}.
+     */
+    private static class TimeDayClock implements AgendaRows.DayClock {
+        private final Time mTime;
+        private final String mTimeZone;
+
+        TimeDayClock(Time recycle, String timeZone) {
+            mTime = recycle;
+            mTimeZone = timeZone;
+        }
+
+        @Override
+        public long convertAlldayUtcToLocal(long utcTime) {
+            return Utils.convertAlldayUtcToLocal(mTime, utcTime, mTimeZone);
+        }
+
+        @Override
+        public long getStartOfDay(int julianDay) {
+            // setJulianDay sets the time to 12:00am
+            mTime.timezone = mTimeZone;
+            return mTime.setJulianDay(julianDay);
+        }
+
+        @Override
+        public long getNextMidnight(long time) {
+            return Utils.getNextMidnight(mTime, time, mTimeZone);
         }
     }
 
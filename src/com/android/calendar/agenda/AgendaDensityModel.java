@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.CalendarContract.Calendars;
+
+import com.android.calendar.AtomicDataFile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Learns how many instances a day holds, so agenda queries can be sized to
+ * return about the number of events wanted on the first try.
+ *
+ * The density is kept per set of visible calendars, as a histogram over the
+ * weeks around today: instances per day for each week from
+ * {@link #MAX_WEEK_OFFSET} weeks back to as many weeks ahead, the weeks
+ * farther out sharing the last bucket. Each query result updates the
+ * buckets of the days it covered with a running average that forgets old
+ * results, and the histograms are saved to a small file in app storage so
+ * they outlive the process.
+ *
+ * Thread safe; queries are sized on the UI thread while results are
+ * learned in the background.
+ */
+/* package */ class AgendaDensityModel {
+    private static final String TAG = "AgendaDensityModel";
+
+    static final int MAX_WEEK_OFFSET = 26;
+    private static final int NUM_BUCKETS = 2 * MAX_WEEK_OFFSET + 1;
+    // Days of results a bucket averages over before older results fade
+    private static final float MAX_WEIGHT = 28;
+    // Calendar sets remembered, the least recently used is dropped
+    private static final int MAX_CALENDAR_SETS = 8;
+
+    private static final String FILE_NAME = "agenda_density.bin";
+    private static final int FILE_MAGIC = 0x41444e53;
+    private static final int FILE_VERSION = 1;
+    // Saves at most this often while results come in
+    private static final long WRITE_INTERVAL_MILLIS = 30 * 1000;
+
+    private static AgendaDensityModel sInstance;
+
+    private final LinkedHashMap<String, Histogram> mHistograms =
+            new LinkedHashMap<String, Histogram>(MAX_CALENDAR_SETS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Histogram> eldest) {
+                    return size() > MAX_CALENDAR_SETS;
+                }
+            };
+    private String mCalendarSet = "";
+    private boolean mRead;
+    private boolean mDirty;
+    private long mLastWriteMillis;
+
+    private int mHits;
+    private int mMisses;
+
+    private static class Histogram {
+        // Instances per day of each bucket
+        final float[] density = new float[NUM_BUCKETS];
+        // Days of results averaged in each bucket, up to MAX_WEIGHT
+        final float[] weight = new float[NUM_BUCKETS];
+    }
+
+    static synchronized AgendaDensityModel getInstance() {
+        if (sInstance == null) {
+            sInstance = new AgendaDensityModel();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns a key for the calendars that are visible, and whether declined
+     * events are hidden. Queries the provider, don't call it on the UI
+     * thread.
+     */
+    static String queryCalendarSet(ContentResolver resolver, boolean hideDeclined) {
+        StringBuilder key = new StringBuilder(hideDeclined ? "d" : "a");
+        Cursor cursor = resolver.query(Calendars.CONTENT_URI, new String[] { Calendars._ID },
+                Calendars.VISIBLE + "=1", null, Calendars._ID);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    key.append(',').append(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Makes the calendar set the results are learned for and the queries
+     * sized by.
+     */
+    synchronized void setCalendarSet(String calendarSet) {
+        mCalendarSet = calendarSet;
+    }
+
+    private static int getBucket(int julianDay, int todayJulianDay) {
+        int week = Math.round((julianDay - todayJulianDay) / 7f);
+        return Math.max(-MAX_WEEK_OFFSET, Math.min(MAX_WEEK_OFFSET, week)) + MAX_WEEK_OFFSET;
+    }
+
+    /**
+     * Learns from the result of a query of the days [start, start +
+     * instancesPerDay.length - 1].
+     *
+     * @param instancesPerDay The number of instances that start on each day
+     */
+    synchronized void learn(int start, int[] instancesPerDay, int todayJulianDay) {
+        Histogram histogram = mHistograms.get(mCalendarSet);
+        if (histogram == null) {
+            histogram = new Histogram();
+            mHistograms.put(mCalendarSet, histogram);
+        }
+        for (int i = 0; i < instancesPerDay.length; i++) {
+            int bucket = getBucket(start + i, todayJulianDay);
+            float weight = histogram.weight[bucket];
+            histogram.density[bucket] =
+                    (histogram.density[bucket] * weight + instancesPerDay[i]) / (weight + 1);
+            histogram.weight[bucket] = Math.min(weight + 1, MAX_WEIGHT);
+        }
+        mDirty = true;
+    }
+
+    /**
+     * Returns how many days to query from fromDay, going forward if
+     * forward is set and back otherwise, to get about targetInstances, or
+     * -1 if nothing was learned for the calendar set yet.
+     */
+    synchronized int getQueryDuration(int fromDay, boolean forward, int todayJulianDay,
+            int targetInstances, int minDays, int maxDays) {
+        Histogram histogram = mHistograms.get(mCalendarSet);
+        if (histogram == null) {
+            return -1;
+        }
+        // Buckets with no results yet count at the average of the others
+        float total = 0;
+        float totalWeight = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            total += histogram.density[i] * histogram.weight[i];
+            totalWeight += histogram.weight[i];
+        }
+        if (totalWeight == 0) {
+            return -1;
+        }
+        float fallback = total / totalWeight;
+
+        float expected = 0;
+        int days = 0;
+        int step = forward ? 1 : -1;
+        while (days < maxDays && (days < minDays || expected < targetInstances)) {
+            int bucket = getBucket(fromDay + days * step, todayJulianDay);
+            expected += histogram.weight[bucket] > 0 ? histogram.density[bucket] : fallback;
+            days++;
+        }
+        return days;
+    }
+
+    /**
+     * Counts a sized query as a hit if it returned between half and twice
+     * targetInstances, and as a miss otherwise.
+     */
+    synchronized void recordResult(int instances, int targetInstances) {
+        if (instances >= targetInstances / 2 && instances <= targetInstances * 2) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+    }
+
+    /**
+     * Returns how many sized queries returned about the number of instances
+     * wanted.
+     */
+    synchronized int getHits() {
+        return mHits;
+    }
+
+    /**
+     * Returns how many sized queries returned far more or fewer instances
+     * than wanted.
+     */
+    synchronized int getMisses() {
+        return mMisses;
+    }
+
+    /**
+     * Reads the histograms saved by {@link #write} the first time it's
+     * called.
+     */
+    void readIfNeeded(Context context) {
+        readIfNeeded(new AtomicDataFile(context, FILE_NAME));
+    }
+
+    /* package */ synchronized void readIfNeeded(AtomicDataFile file) {
+        if (mRead) {
+            return;
+        }
+        mRead = true;
+        // A bad file leaves the histograms as they are
+        file.read(new AtomicDataFile.Reader() {
+            @Override
+            public void read(DataInputStream in) throws IOException {
+                AgendaDensityModel.this.read(in);
+            }
+        });
+    }
+
+    /* package */ synchronized void read(DataInputStream in) throws IOException {
+        if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+            throw new IOException("Unknown file format");
+        }
+        int numSets = in.readInt();
+        if (numSets < 0 || numSets > MAX_CALENDAR_SETS || in.readInt() != NUM_BUCKETS) {
+            throw new IOException("Bad header");
+        }
+        LinkedHashMap<String, Histogram> histograms = new LinkedHashMap<String, Histogram>();
+        for (int i = 0; i < numSets; i++) {
+            String calendarSet = in.readUTF();
+            Histogram histogram = new Histogram();
+            for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+                histogram.density[bucket] = in.readFloat();
+                histogram.weight[bucket] = in.readFloat();
+                if (!(histogram.density[bucket] >= 0) || !(histogram.weight[bucket] >= 0)
+                        || histogram.weight[bucket] > MAX_WEIGHT) {
+                    throw new IOException("Bad bucket");
+                }
+            }
+            histograms.put(calendarSet, histogram);
+        }
+        // Results learned before the file was read are newer, keep them
+        histograms.putAll(mHistograms);
+        mHistograms.clear();
+        mHistograms.putAll(histograms);
+    }
+
+    /**
+     * Saves the histograms if they changed and weren't saved in a while, or
+     * right away if force is set.
+     */
+    void writeIfNeeded(Context context, boolean force) {
+        writeIfNeeded(new AtomicDataFile(context, FILE_NAME), force);
+    }
+
+    /* package */ synchronized void writeIfNeeded(AtomicDataFile file, boolean force) {
+        long now = System.currentTimeMillis();
+        if (!mDirty || (!force && now - mLastWriteMillis < WRITE_INTERVAL_MILLIS)) {
+            return;
+        }
+        mLastWriteMillis = now;
+        mDirty = !file.write(new AtomicDataFile.Writer() {
+            @Override
+            public void write(DataOutputStream out) throws IOException {
+                AgendaDensityModel.this.write(out);
+            }
+        });
+    }
+
+    /* package */ synchronized void write(DataOutputStream out) throws IOException {
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(mHistograms.size());
+        out.writeInt(NUM_BUCKETS);
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            out.writeUTF(entry.getKey());
+            Histogram histogram = entry.getValue();
+            for (int bucket = 0; bucket < NUM_BUCKETS; bucket++) {
+                out.writeFloat(histogram.density[bucket]);
+                out.writeFloat(histogram.weight[bucket]);
+            }
+        }
+    }
+
+    /* package */ synchronized void clear() {
+        mHistograms.clear();
+        mCalendarSet = "";
+        mDirty = false;
+        mHits = 0;
+        mMisses = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        Histogram histogram = mHistograms.get(mCalendarSet);
+        return "sets=" + mHistograms.size() + " hits=" + mHits + " misses=" + mMisses
+                + (histogram != null ? " density=" + Arrays.toString(histogram.density) : "");
+    }
+}
@@ -78,6 +78,15 @@ public class AgendaFragment extends Fragment implements CalendarController.Event
     // bar.
     int  mJulianDayOnTop = -1;
 
+    // Searches again once edits reach the search index
+    private final EventTextIndex.OnChangedListener mIndexListener =
+            new EventTextIndex.OnChangedListener() {
+        @Override
+        public void onIndexChanged() {
+            eventsChanged();
+        }
+    };
+
     private final Runnable mTZUpdater = new Runnable() {
         @Override
         public void run() {
@@ -113,6 +122,10 @@ public class AgendaFragment extends Fragment implements CalendarController.Event
         mTimeZone = Utils.getTimeZone(activity, mTZUpdater);
         mTime.switchTimezone(mTimeZone);
         mActivity = activity;
+        if (mUsedForSearch) {
+            // Start loading the index while the first search is set up
+            EventTextIndex.getInstance(activity);
+        }
         if (mOnAttachedInfo != null) {
             showEventInfo(mOnAttachedInfo, mOnAttachAllDay, true);
             mOnAttachedInfo = null;
@@ -229,6 +242,9 @@ public class AgendaFragment extends Fragment implements CalendarController.Event
             mAgendaListView.goTo(mTime, -1, mQuery, true, false);
         }
         mAgendaListView.onResume();
+        if (mUsedForSearch) {
+            EventTextIndex.getInstance(getActivity()).addListener(mIndexListener);
+        }
 
 //        // Register for Intent broadcasts
 //        IntentFilter filter = new IntentFilter();
@@ -306,6 +322,9 @@ public class AgendaFragment extends Fragment implements CalendarController.Event
         super.onPause();
 
         mAgendaListView.onPause();
+        if (mUsedForSearch) {
+            EventTextIndex.getInstance(getActivity()).removeListener(mIndexListener);
+        }
 
 //        mContentResolver.unregisterContentObserver(mObserver);
 //        unregisterReceiver(mIntentReceiver);
@@ -350,7 +369,7 @@ public class AgendaFragment extends Fragment implements CalendarController.Event
     @Override
     public void eventsChanged() {
         if (mAgendaListView != null) {
-            mAgendaListView.refresh(true);
+            mAgendaListView.reloadEvents();
         }
     }
 
@@ -228,6 +228,14 @@ public class AgendaListView extends ListView implements OnItemClickListener {
         mWindowAdapter.refresh(mTime, -1, null, forced, false);
     }
 
+    /**
+     * Applies a change in the provider to the days that are loaded, rather
+     * than querying around the current time from scratch.
+     */
+    public void reloadEvents() {
+        mWindowAdapter.reloadEvents(mTime);
+    }
+
     public void deleteSelectedEvent() {
         int position = getSelectedItemPosition();
         AgendaItem agendaItem = mWindowAdapter.getAgendaItemByPosition(position);
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.android.calendar.agenda.AgendaRows.RowInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A copy of one agenda query, the instances of the days [start,
+ * end]. Each column is held in a single primitive or string array, and
+ * strings that repeat within the page, like the titles of a recurring
+ * event, are stored once. The provider cursor can be closed as soon as the
+ * page is made.
+ *
+ * The page is read through cursors from {@link #newCursor()}, which the
+ * adapters may close without affecting the page, so a page can be dropped
+ * from the list and shown again later. The list rows of the page are built
+ * once, on the thread that copies it, and go along with it.
+ */
+/* package */ class AgendaPage {
+    // Rough per object overhead, used to estimate the size of a page
+    private static final int OBJECT_BYTES = 16;
+    private static final int ARRAY_BYTES = 16;
+    // Rough size of a RowInfo and its slot in the row list
+    private static final int ROW_BYTES = 64;
+
+    final int start;
+    final int end;
+
+    private final String[] mColumnNames;
+    private final int mCount;
+    // Per column, either a long[] or a String[]
+    private final Object[] mColumns;
+    private final int mSizeBytes;
+
+    private ArrayList<RowInfo> mRows;
+    private String mRowsTimeZone;
+
+    private AgendaPage(int start, int end, String[] columnNames, int count, Object[] columns,
+            int sizeBytes) {
+        this.start = start;
+        this.end = end;
+        mColumnNames = columnNames;
+        mCount = count;
+        mColumns = columns;
+        mSizeBytes = sizeBytes;
+    }
+
+    /**
+     * Copies every row of cursor, leaving it open and its position
+     * unspecified.
+     *
+     * @param textColumns Which columns hold strings, the others are read
+     *            as longs
+     */
+    static AgendaPage copyOf(int start, int end, Cursor cursor, boolean[] textColumns) {
+        String[] columnNames = cursor.getColumnNames();
+        int count = cursor.getCount();
+        Object[] columns = new Object[columnNames.length];
+        // Counts a row and a day header per instance for the list rows
+        int sizeBytes = OBJECT_BYTES + ARRAY_BYTES * (columns.length + 1)
+                + 2 * count * ROW_BYTES;
+        for (int i = 0; i < columns.length; i++) {
+            boolean text = i < textColumns.length && textColumns[i];
+            columns[i] = text ? new String[count] : new long[count];
+            sizeBytes += count * (text ? 4 : 8);
+        }
+
+        HashMap<String, String> strings = new HashMap<String, String>();
+        cursor.moveToPosition(-1);
+        int row = 0;
+        while (cursor.moveToNext() && row < count) {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i] instanceof long[]) {
+                    ((long[]) columns[i])[row] = cursor.getLong(i);
+                    continue;
+                }
+                String s = cursor.getString(i);
+                if (s != null) {
+                    String shared = strings.get(s);
+                    if (shared == null) {
+                        strings.put(s, s);
+                        sizeBytes += OBJECT_BYTES + ARRAY_BYTES + 2 * s.length();
+                        shared = s;
+                    }
+                    s = shared;
+                }
+                ((String[]) columns[i])[row] = s;
+            }
+            row++;
+        }
+        return new AgendaPage(start, end, columnNames, row, columns, sizeBytes);
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns an estimate of the memory held by this page, in bytes.
+     */
+    int getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    /**
+     * Keeps the list rows built for this page in timeZone.
+     */
+    synchronized void setRows(ArrayList<RowInfo> rows, String timeZone) {
+        mRows = rows;
+        mRowsTimeZone = timeZone;
+    }
+
+    /**
+     * Returns the list rows of this page if they were built in timeZone,
+     * or null.
+     */
+    synchronized ArrayList<RowInfo> getRows(String timeZone) {
+        return TextUtils.equals(timeZone, mRowsTimeZone) ? mRows : null;
+    }
+
+    /**
+     * Returns a new cursor over the rows of this page.
+     */
+    Cursor newCursor() {
+        return new PageCursor();
+    }
+
+    private class PageCursor extends AbstractCursor {
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumnNames;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object values = mColumns[column];
+            if (values instanceof String[]) {
+                return ((String[]) values)[getPosition()];
+            }
+            return Long.toString(((long[]) values)[getPosition()]);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object values = mColumns[column];
+            if (values instanceof long[]) {
+                return ((long[]) values)[getPosition()];
+            }
+            String s = ((String[]) values)[getPosition()];
+            return s == null ? 0 : Long.parseLong(s);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public int getType(int column) {
+            if (mColumns[column] instanceof long[]) {
+                return FIELD_TYPE_INTEGER;
+            }
+            return isNull(column) ? FIELD_TYPE_NULL : FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            Object values = mColumns[column];
+            return values instanceof String[] && ((String[]) values)[getPosition()] == null;
+        }
+    }
+}
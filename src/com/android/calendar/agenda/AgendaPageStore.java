@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import java.util.ArrayList;
+
+/**
+ * The agenda pages that were dropped from the list, kept so that scrolling
+ * back to their days doesn't query them again. The pages are held up to a
+ * memory budget; past it the pages farthest from the days on screen go
+ * first.
+ *
+ * Only used on the UI thread.
+ */
+/* package */ class AgendaPageStore {
+    private final ArrayList<AgendaPage> mPages = new ArrayList<AgendaPage>();
+    private int mSizeBytes;
+
+    private int mHits;
+    private int mMisses;
+
+    /**
+     * Keeps page, replacing any stored page that covers some of its days.
+     */
+    void put(AgendaPage page) {
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            AgendaPage other = mPages.get(i);
+            if (other.start <= page.end && page.start <= other.end) {
+                removeAt(i);
+            }
+        }
+        mPages.add(page);
+        mSizeBytes += page.getSizeBytes();
+    }
+
+    /**
+     * Removes and returns the page that ends the day before julianDay, or
+     * null if there is none.
+     */
+    AgendaPage takeEndingBefore(int julianDay) {
+        for (int i = 0; i < mPages.size(); i++) {
+            if (mPages.get(i).end == julianDay - 1) {
+                mHits++;
+                return removeAt(i);
+            }
+        }
+        mMisses++;
+        return null;
+    }
+
+    /**
+     * Removes and returns the page that starts the day after julianDay, or
+     * null if there is none.
+     */
+    AgendaPage takeStartingAfter(int julianDay) {
+        for (int i = 0; i < mPages.size(); i++) {
+            if (mPages.get(i).start == julianDay + 1) {
+                mHits++;
+                return removeAt(i);
+            }
+        }
+        mMisses++;
+        return null;
+    }
+
+    /**
+     * Drops the pages farthest from viewportDay until the rest fit in
+     * budgetBytes.
+     */
+    void trimToSize(int budgetBytes, int viewportDay) {
+        while (mSizeBytes > budgetBytes && !mPages.isEmpty()) {
+            int farthest = 0;
+            int farthestDistance = -1;
+            for (int i = 0; i < mPages.size(); i++) {
+                int distance = distance(mPages.get(i), viewportDay);
+                if (distance > farthestDistance) {
+                    farthest = i;
+                    farthestDistance = distance;
+                }
+            }
+            removeAt(farthest);
+        }
+    }
+
+    private static int distance(AgendaPage page, int julianDay) {
+        if (julianDay < page.start) {
+            return page.start - julianDay;
+        } else if (julianDay > page.end) {
+            return julianDay - page.end;
+        }
+        return 0;
+    }
+
+    private AgendaPage removeAt(int index) {
+        AgendaPage page = mPages.remove(index);
+        mSizeBytes -= page.getSizeBytes();
+        return page;
+    }
+
+    void clear() {
+        mPages.clear();
+        mSizeBytes = 0;
+    }
+
+    int getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    int getPageCount() {
+        return mPages.size();
+    }
+
+    /**
+     * Returns how many older or newer pages were served from the store.
+     */
+    int getHits() {
+        return mHits;
+    }
+
+    /**
+     * Returns how many older or newer pages had to be queried.
+     */
+    int getMisses() {
+        return mMisses;
+    }
+
+    @Override
+    public String toString() {
+        return "pages=" + mPages.size() + " bytes=" + mSizeBytes + " hits=" + mHits
+                + " misses=" + mMisses;
+    }
+}
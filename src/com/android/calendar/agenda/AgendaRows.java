@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Builds the rows of the agenda list, a day header followed by the
+ * instances on that day, from a query of instances ordered by start day.
+ * Instances that span several days are repeated on each of their days.
+ *
+ * The query and the time zone math are reached through {@link InstanceSource}
+ * and {@link DayClock} so that this has no framework dependencies.
+ */
+/* package */ class AgendaRows {
+    static final int TYPE_DAY = 0;
+    static final int TYPE_MEETING = 1;
+
+    /**
+     * The instances to build rows for, read one at a time like a cursor.
+     */
+    interface InstanceSource {
+        /**
+         * Moves to the next instance.
+         *
+         * @return false once there are no more instances
+         */
+        boolean moveToNext();
+        int getStartDay();
+        int getEndDay();
+        long getEventId();
+        long getBegin();
+        long getEnd();
+        long getInstanceId();
+        boolean isAllDay();
+    }
+
+    /**
+     * Time zone math in the time zone the agenda is shown in.
+     */
+    interface DayClock {
+        /**
+         * Converts the UTC time of an allday instance to the same wall clock
+         * time in this time zone.
+         */
+        long convertAlldayUtcToLocal(long utcTime);
+
+        /**
+         * @return the midnight that starts the given julian day
+         */
+        long getStartOfDay(int julianDay);
+
+        /**
+         * @return the first midnight after the given time
+         */
+        long getNextMidnight(long time);
+    }
+
+    static class RowInfo {
+        // mType is either a day header (TYPE_DAY) or an event (TYPE_MEETING)
+        final int mType;
+
+        final int mDay;          // Julian day
+        final int mPosition;     // cursor position (not used for TYPE_DAY)
+        // This is used to mark a day header as the first day with events that is "today"
+        // or later. This flag is used by the adapter to create a view with a visual separator
+        // between the past and the present/future
+        boolean mFirstDayAfterYesterday;
+        final long mEventId;
+        final long mEventStartTimeMilli;
+        final long mEventEndTimeMilli;
+        final long mInstanceId;
+        final boolean mAllDay;
+
+        RowInfo(int type, int julianDay, int position, long id, long startTime, long endTime,
+                long instanceId, boolean allDay) {
+            mType = type;
+            mDay = julianDay;
+            mPosition = position;
+            mEventId = id;
+            mEventStartTimeMilli = startTime;
+            mEventEndTimeMilli = endTime;
+            mFirstDayAfterYesterday = false;
+            mInstanceId = instanceId;
+            mAllDay = allDay;
+        }
+
+        RowInfo(int type, int julianDay) {
+            mType = type;
+            mDay = julianDay;
+            mPosition = 0;
+            mEventId = 0;
+            mEventStartTimeMilli = 0;
+            mEventEndTimeMilli = 0;
+            mFirstDayAfterYesterday = false;
+            mInstanceId = -1;
+            mAllDay = false;
+        }
+    }
+
+    private static class MultipleDayInfo {
+        final int mPosition;
+        final int mEndDay;
+        final long mEventId;
+        long mEventStartTimeMilli;
+        long mEventEndTimeMilli;
+        final long mInstanceId;
+        final boolean mAllDay;
+
+        MultipleDayInfo(int position, int endDay, long id, long startTime, long endTime,
+                long instanceId, boolean allDay) {
+            mPosition = position;
+            mEndDay = endDay;
+            mEventId = id;
+            mEventStartTimeMilli = startTime;
+            mEventEndTimeMilli = endTime;
+            mInstanceId = instanceId;
+            mAllDay = allDay;
+        }
+    }
+
+    /**
+     * Builds the rows for the instances between the julian days start and
+     * end, inclusive.
+     */
+    static ArrayList<RowInfo> calculateDays(InstanceSource instances, int start, int end,
+            DayClock clock) {
+        ArrayList<RowInfo> rowInfo = new ArrayList<RowInfo>();
+        int prevStartDay = -1;
+
+        LinkedList<MultipleDayInfo> multipleDayList = new LinkedList<MultipleDayInfo>();
+        for (int position = 0; instances.moveToNext(); position++) {
+            int startDay = instances.getStartDay();
+            long id = instances.getEventId();
+            long startTime = instances.getBegin();
+            long endTime = instances.getEnd();
+            long instanceId = instances.getInstanceId();
+            boolean allDay = instances.isAllDay();
+            if (allDay) {
+                startTime = clock.convertAlldayUtcToLocal(startTime);
+                endTime = clock.convertAlldayUtcToLocal(endTime);
+            }
+            // Skip over the days outside of the adapter's range
+            startDay = Math.max(startDay, start);
+            // Make sure event's start time is not before the start of the day
+            long adapterStartTime = clock.getStartOfDay(startDay);
+            startTime = Math.max(startTime, adapterStartTime);
+
+            if (startDay != prevStartDay) {
+                // Check if we skipped over any empty days
+                if (prevStartDay == -1) {
+                    rowInfo.add(new RowInfo(TYPE_DAY, startDay));
+                } else {
+                    // If there are any multiple-day events that span the empty
+                    // range of days, then create day headers and events for
+                    // those multiple-day events.
+                    boolean dayHeaderAdded = false;
+                    for (int currentDay = prevStartDay + 1; currentDay <= startDay; currentDay++) {
+                        dayHeaderAdded = addMultipleDayRows(rowInfo, multipleDayList, currentDay,
+                                clock);
+                    }
+
+                    // If the day header was not added for the start day, then
+                    // add it now.
+                    if (!dayHeaderAdded) {
+                        rowInfo.add(new RowInfo(TYPE_DAY, startDay));
+                    }
+                }
+                prevStartDay = startDay;
+            }
+
+            // If this event spans multiple days, then add it to the multipleDay
+            // list.
+            int endDay = instances.getEndDay();
+
+            // Skip over the days outside of the adapter's range
+            endDay = Math.min(endDay, end);
+            if (endDay > startDay) {
+                long nextMidnight = clock.getNextMidnight(startTime);
+                multipleDayList.add(new MultipleDayInfo(position, endDay, id, nextMidnight,
+                        endTime, instanceId, allDay));
+                // Add in the event for this cursor position - since it is the start of a multi-day
+                // event, the end time is midnight
+                rowInfo.add(new RowInfo(TYPE_MEETING, startDay, position, id, startTime,
+                        nextMidnight, instanceId, allDay));
+            } else {
+                // Add in the event for this cursor position
+                rowInfo.add(new RowInfo(TYPE_MEETING, startDay, position, id, startTime, endTime,
+                        instanceId, allDay));
+            }
+        }
+
+        // There are no more cursor events but we might still have multiple-day
+        // events left.  So create day headers and events for those.
+        if (prevStartDay > 0) {
+            for (int currentDay = prevStartDay + 1; currentDay <= end; currentDay++) {
+                addMultipleDayRows(rowInfo, multipleDayList, currentDay, clock);
+            }
+        }
+        return rowInfo;
+    }
+
+    /**
+     * Adds the rows of the multiple-day events that are still going on
+     * currentDay, with a day header before them if there are any.
+     *
+     * @return true if a day header was added
+     */
+    private static boolean addMultipleDayRows(ArrayList<RowInfo> rowInfo,
+            LinkedList<MultipleDayInfo> multipleDayList, int currentDay, DayClock clock) {
+        boolean dayHeaderAdded = false;
+        Iterator<MultipleDayInfo> iter = multipleDayList.iterator();
+        while (iter.hasNext()) {
+            MultipleDayInfo info = iter.next();
+            // If this event has ended then remove it from the
+            // list.
+            if (info.mEndDay < currentDay) {
+                iter.remove();
+                continue;
+            }
+
+            // If this is the first event for the day, then
+            // insert a day header.
+            if (!dayHeaderAdded) {
+                rowInfo.add(new RowInfo(TYPE_DAY, currentDay));
+                dayHeaderAdded = true;
+            }
+            long nextMidnight = clock.getNextMidnight(info.mEventStartTimeMilli);
+            long infoEndTime =
+                    (info.mEndDay == currentDay) ? info.mEventEndTimeMilli : nextMidnight;
+            rowInfo.add(new RowInfo(TYPE_MEETING, currentDay, info.mPosition,
+                    info.mEventId, info.mEventStartTimeMilli, infoEndTime,
+                    info.mInstanceId, info.mAllDay));
+
+            info.mEventStartTimeMilli = nextMidnight;
+        }
+        return dayHeaderAdded;
+    }
+}
@@ -25,6 +25,7 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.Process;
 import android.provider.CalendarContract;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.Calendars;
@@ -44,16 +45,23 @@ import android.widget.TextView;
 import com.android.calendar.CalendarController;
 import com.android.calendar.CalendarController.EventType;
 import com.android.calendar.CalendarController.ViewType;
+import com.android.calendar.InstanceDelta;
 import com.android.calendar.R;
 import com.android.calendar.StickyHeaderListView;
 import com.android.calendar.Utils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Formatter;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /*
 Bugs Bugs Bugs:
@@ -129,14 +137,41 @@ public class AgendaWindowAdapter extends BaseAdapter
         }
     }
 
+    // Which columns of PROJECTION are kept as strings in an AgendaPage
+    private static final boolean[] TEXT_COLUMNS = new boolean[PROJECTION.length];
+
+    static {
+        TEXT_COLUMNS[INDEX_TITLE] = true;
+        TEXT_COLUMNS[INDEX_EVENT_LOCATION] = true;
+        TEXT_COLUMNS[INDEX_RRULE] = true;
+        TEXT_COLUMNS[INDEX_ORGANIZER] = true;
+        TEXT_COLUMNS[INDEX_OWNER_ACCOUNT] = true;
+        TEXT_COLUMNS[INDEX_TIME_ZONE] = true;
+    }
+
+    // Copies query results into pages and builds their rows off the UI thread
+    private static final ExecutorService sPageExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "AgendaPages");
+                }
+            });
+
     // Listview may have a bug where the index/position is not consistent when there's a header.
     // position == positionInListView - OFF_BY_ONE_BUG
     // TODO Need to look into this.
     private static final int OFF_BY_ONE_BUG = 1;
-    private static final int MAX_NUM_OF_ADAPTERS = 5;
+    // Keeps the adapter lookups short, memory is bounded by mMemoryBudget
+    private static final int MAX_NUM_OF_ADAPTERS = 16;
+    // Default memory budget for the loaded pages, in bytes. Half of it may be
+    // used by the pages in the list, the rest keeps pages dropped from it.
+    private static final int DEFAULT_MEMORY_BUDGET = 1024 * 1024;
     private static final int IDEAL_NUM_OF_EVENTS = 50;
     private static final int MIN_QUERY_DURATION = 7; // days
     private static final int MAX_QUERY_DURATION = 60; // days
+    // Longest query sized by the density model, for stretches it knows are sparse
+    private static final int MAX_LEARNED_QUERY_DURATION = 120; // days
     private static final int PREFETCH_BOUNDARY = 1;
 
     /** Times to auto-expand/retry query after getting no data */
@@ -158,6 +193,17 @@ public class AgendaWindowAdapter extends BaseAdapter
 
     private final LinkedList<DayAdapterInfo> mAdapterInfos =
             new LinkedList<DayAdapterInfo>();
+    /** The pages dropped from mAdapterInfos, to show again without a query */
+    private final AgendaPageStore mPageStore = new AgendaPageStore();
+    private int mMemoryBudget = DEFAULT_MEMORY_BUDGET;
+    /** Sizes the older and newer queries from earlier results */
+    private final AgendaDensityModel mDensityModel = AgendaDensityModel.getInstance();
+    // The days the density model learned from for mLearnedCalendarSet, so
+    // pages that cover them again aren't counted twice. Only used on the
+    // page executor.
+    private String mLearnedCalendarSet;
+    private int mLearnedStart;
+    private int mLearnedEnd = -1;
     private final ConcurrentLinkedQueue<QuerySpec> mQueryQueue =
             new ConcurrentLinkedQueue<QuerySpec>();
     private final TextView mHeaderView;
@@ -232,6 +278,7 @@ public class AgendaWindowAdapter extends BaseAdapter
     private static final int QUERY_TYPE_OLDER = 0; // Query for older events
     private static final int QUERY_TYPE_NEWER = 1; // Query for newer events
     private static final int QUERY_TYPE_CLEAN = 2; // Delete everything and query around a date
+    private static final int QUERY_TYPE_RELOAD = 3; // Query the loaded days again and apply changes
 
     private static class QuerySpec {
         long queryStartMillis;
@@ -241,6 +288,9 @@ public class AgendaWindowAdapter extends BaseAdapter
         String searchQuery;
         int queryType;
         long id;
+        boolean hideDeclined;
+        // Whether the density model picked how many days to query
+        boolean sized;
 
         public QuerySpec(int queryType) {
             this.queryType = queryType;
@@ -307,7 +357,8 @@ public class AgendaWindowAdapter extends BaseAdapter
     }
 
     static class DayAdapterInfo {
-        Cursor cursor;
+        AgendaPage page;
+        Cursor cursor; // reads page
         AgendaByDayAdapter dayAdapter;
         int start; // start day of the cursor's coverage
         int end; // end day of the cursor's coverage
@@ -753,42 +804,116 @@ public class AgendaWindowAdapter extends BaseAdapter
         }
     }
 
+    /**
+     * Queries the loaded days again after the provider reported a change.
+     * If the instances in them didn't change the list is left alone;
+     * otherwise the loaded days are replaced, keeping the first visible item
+     * in place. Falls back to a forced refresh around goToTime if nothing
+     * has been loaded yet.
+     */
+    public void reloadEvents(Time goToTime) {
+        // The dropped pages may be out of date too
+        mPageStore.clear();
+        if (mCleanQueryInitiated || mAdapterInfos.isEmpty()) {
+            refresh(goToTime, -1, null, true, false);
+            return;
+        }
+        synchronized (mQueryQueue) {
+            Iterator<QuerySpec> it = mQueryQueue.iterator();
+            if (it.hasNext()) {
+                // Skip the query in progress, which may have been sent
+                // before the change.
+                it.next();
+            }
+            while (it.hasNext()) {
+                if (it.next().queryType == QUERY_TYPE_RELOAD) {
+                    // Already going to reload once the queue gets to it
+                    return;
+                }
+            }
+        }
+        QuerySpec queryData = new QuerySpec(QUERY_TYPE_RELOAD);
+        synchronized (mAdapterInfos) {
+            queryData.start = mAdapterInfos.getFirst().start;
+            queryData.end = mAdapterInfos.getLast().end;
+        }
+        queueQuery(queryData);
+    }
+
     public void close() {
+        sPageExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mDensityModel.writeIfNeeded(mContext, true);
+            }
+        });
         mShuttingDown = true;
-        pruneAdapterInfo(QUERY_TYPE_CLEAN);
+        pruneAdapterInfo(QUERY_TYPE_CLEAN, 0);
         if (mQueryHandler != null) {
             mQueryHandler.cancelOperation(0);
         }
     }
 
-    private DayAdapterInfo pruneAdapterInfo(int queryType) {
+    /**
+     * Sets how much memory the loaded pages may use, in bytes.
+     */
+    public void setMemoryBudget(int bytes) {
+        mMemoryBudget = bytes;
+    }
+
+    /**
+     * Makes room for a page of incomingBytes. Scrolling queries drop pages
+     * from the far end of the list, keeping them in mPageStore, until the
+     * list fits in half the memory budget; clean queries and reloads drop
+     * every page.
+     *
+     * @return a recycled adapter info, whose size is the number of rows
+     *         removed from the beginning of the list, or null
+     */
+    private DayAdapterInfo pruneAdapterInfo(int queryType, int incomingBytes) {
         synchronized (mAdapterInfos) {
             DayAdapterInfo recycleMe = null;
+            if (queryType == QUERY_TYPE_CLEAN) {
+                mPageStore.clear();
+            }
             if (!mAdapterInfos.isEmpty()) {
-                if (mAdapterInfos.size() >= MAX_NUM_OF_ADAPTERS) {
-                    if (queryType == QUERY_TYPE_NEWER) {
-                        recycleMe = mAdapterInfos.removeFirst();
-                    } else if (queryType == QUERY_TYPE_OLDER) {
-                        recycleMe = mAdapterInfos.removeLast();
-                        // Keep the size only if the oldest items are removed.
-                        recycleMe.size = 0;
-                    }
-                    if (recycleMe != null) {
+                if (queryType == QUERY_TYPE_NEWER || queryType == QUERY_TYPE_OLDER) {
+                    int viewportDay = getViewportJulianDay();
+                    int removedRows = 0;
+                    while (mAdapterInfos.size() > 1
+                            && (mAdapterInfos.size() >= MAX_NUM_OF_ADAPTERS
+                            || getListSizeBytes() + incomingBytes > mMemoryBudget / 2)) {
+                        if (queryType == QUERY_TYPE_NEWER) {
+                            recycleMe = mAdapterInfos.removeFirst();
+                            removedRows += recycleMe.size;
+                        } else {
+                            recycleMe = mAdapterInfos.removeLast();
+                        }
+                        if (recycleMe.page != null && recycleMe.page.getCount() > 0) {
+                            mPageStore.put(recycleMe.page);
+                        }
                         if (recycleMe.cursor != null) {
                             recycleMe.cursor.close();
                         }
+                    }
+                    mPageStore.trimToSize(mMemoryBudget - getListSizeBytes() - incomingBytes,
+                            viewportDay);
+                    if (recycleMe != null) {
+                        recycleMe.page = null;
+                        recycleMe.cursor = null;
+                        recycleMe.size = removedRows;
                         return recycleMe;
                     }
                 }
 
-                if (mRowCount == 0 || queryType == QUERY_TYPE_CLEAN) {
+                if (mRowCount == 0 || queryType == QUERY_TYPE_CLEAN
+                        || queryType == QUERY_TYPE_RELOAD) {
                     mRowCount = 0;
                     int deletedRows = 0;
                     DayAdapterInfo info;
                     do {
                         info = mAdapterInfos.poll();
                         if (info != null) {
-                            // TODO the following causes ANR's. Do this in a thread.
                             info.cursor.close();
                             deletedRows += info.size;
                             recycleMe = info;
@@ -796,6 +921,7 @@ public class AgendaWindowAdapter extends BaseAdapter
                     } while (info != null);
 
                     if (recycleMe != null) {
+                        recycleMe.page = null;
                         recycleMe.cursor = null;
                         recycleMe.size = deletedRows;
                     }
@@ -805,16 +931,59 @@ public class AgendaWindowAdapter extends BaseAdapter
         }
     }
 
-    private String buildQuerySelection() {
+    /**
+     * Returns the memory used by the pages in the list. Must be called with
+     * mAdapterInfos locked.
+     */
+    private int getListSizeBytes() {
+        int bytes = 0;
+        for (DayAdapterInfo info : mAdapterInfos) {
+            if (info.page != null) {
+                bytes += info.page.getSizeBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the Julian day at the top of the list, or the middle of the
+     * loaded days if it can't be told.
+     */
+    private int getViewportJulianDay() {
+        synchronized (mAdapterInfos) {
+            int position = mAgendaListView.getFirstVisiblePosition() - OFF_BY_ONE_BUG;
+            DayAdapterInfo info = getAdapterInfoByPosition(Math.max(position, 0));
+            if (info != null) {
+                return info.dayAdapter.findJulianDayFromPosition(
+                        Math.max(position, 0) - info.offset);
+            }
+            return (mAdapterInfos.getFirst().start + mAdapterInfos.getLast().end) / 2;
+        }
+    }
+
+    /**
+     * @param eventIds If not null, only the instances of these events are
+     *            selected
+     */
+    private String buildQuerySelection(long[] eventIds) {
         // Respect the preference to show/hide declined events
 
+        StringBuilder selection = new StringBuilder(Calendars.VISIBLE + "=1");
         if (mHideDeclined) {
-            return Calendars.VISIBLE + "=1 AND "
-                    + Instances.SELF_ATTENDEE_STATUS + "!="
-                    + Attendees.ATTENDEE_STATUS_DECLINED;
-        } else {
-            return Calendars.VISIBLE + "=1";
+            selection.append(" AND ").append(Instances.SELF_ATTENDEE_STATUS).append("!=")
+                    .append(Attendees.ATTENDEE_STATUS_DECLINED);
         }
+        if (eventIds != null) {
+            selection.append(" AND ").append(Instances.EVENT_ID).append(" IN (");
+            for (int i = 0; i < eventIds.length; i++) {
+                if (i > 0) {
+                    selection.append(',');
+                }
+                selection.append(eventIds[i]);
+            }
+            selection.append(')');
+        }
+        return selection.toString();
     }
 
     private Uri buildQueryUri(int start, int end, String searchQuery) {
@@ -839,7 +1008,21 @@ public class AgendaWindowAdapter extends BaseAdapter
         }
     }
 
-    private int calculateQueryDuration(int start, int end) {
+    private int calculateQueryDuration(QuerySpec queryData, int start, int end) {
+        if (queryData.searchQuery == null && (queryData.queryType == QUERY_TYPE_OLDER
+                || queryData.queryType == QUERY_TYPE_NEWER)) {
+            boolean newer = queryData.queryType == QUERY_TYPE_NEWER;
+            int days = mDensityModel.getQueryDuration(newer ? end + 1 : start - 1, newer,
+                    getTodayJulianDay(mTimeZone), IDEAL_NUM_OF_EVENTS, MIN_QUERY_DURATION,
+                    MAX_LEARNED_QUERY_DURATION);
+            if (days > 0) {
+                queryData.sized = true;
+                // The duration doesn't count the first day
+                return days - 1;
+            }
+        }
+        queryData.sized = false;
+
         int queryDuration = MAX_QUERY_DURATION;
         if (mRowCount != 0) {
             queryDuration = IDEAL_NUM_OF_EVENTS * (end - start + 1) / mRowCount;
@@ -862,6 +1045,7 @@ public class AgendaWindowAdapter extends BaseAdapter
         queryData.end = end;
         queryData.searchQuery = searchQuery;
         queryData.id = id;
+        queryData.hideDeclined = mHideDeclined;
         return queueQuery(queryData);
     }
 
@@ -884,7 +1068,7 @@ public class AgendaWindowAdapter extends BaseAdapter
         if (!mAdapterInfos.isEmpty()) {
             int start = mAdapterInfos.getFirst().start;
             int end = mAdapterInfos.getLast().end;
-            int queryDuration = calculateQueryDuration(start, end);
+            int queryDuration = calculateQueryDuration(queryData, start, end);
             switch(queryData.queryType) {
                 case QUERY_TYPE_OLDER:
                     queryData.end = start - 1;
@@ -894,11 +1078,17 @@ public class AgendaWindowAdapter extends BaseAdapter
                     queryData.start = end + 1;
                     queryData.end = queryData.start + queryDuration;
                     break;
+                case QUERY_TYPE_RELOAD:
+                    // Cover whatever is loaded by the time the query runs
+                    queryData.start = start;
+                    queryData.end = end;
+                    break;
             }
 
             // By "compacting" cursors, this fixes the disco/ping-pong problem
             // b/5311977
-            if (mRowCount < 20 && queryData.queryType != QUERY_TYPE_CLEAN) {
+            if (mRowCount < 20 && queryData.queryType != QUERY_TYPE_CLEAN
+                    && queryData.queryType != QUERY_TYPE_RELOAD) {
                 if (DEBUGLOG) {
                     Log.e(TAG, "Compacting cursor: mRowCount=" + mRowCount
                             + " totalStart:" + start
@@ -908,6 +1098,7 @@ public class AgendaWindowAdapter extends BaseAdapter
                 }
 
                 queryData.queryType = QUERY_TYPE_CLEAN;
+                queryData.sized = false;
 
                 if (queryData.start > start) {
                     queryData.start = start;
@@ -916,6 +1107,23 @@ public class AgendaWindowAdapter extends BaseAdapter
                     queryData.end = end;
                 }
             }
+
+            // Show the days again from a page dropped earlier if there is one
+            AgendaPage page = null;
+            if (queryData.queryType == QUERY_TYPE_OLDER) {
+                page = mPageStore.takeEndingBefore(start);
+            } else if (queryData.queryType == QUERY_TYPE_NEWER) {
+                page = mPageStore.takeStartingAfter(end);
+            }
+            if (page != null) {
+                if (DEBUGLOG) Log.e(TAG, "Page from store: " + mPageStore);
+                queryData.sized = false;
+                queryData.start = page.start;
+                queryData.end = page.end;
+                mQueryHandler.cancelOperation(0);
+                postStoredPage(queryData, page);
+                return;
+            }
         }
 
         if (BASICLOG) {
@@ -930,13 +1138,108 @@ public class AgendaWindowAdapter extends BaseAdapter
         mQueryHandler.cancelOperation(0);
         if (BASICLOG) queryData.queryStartMillis = System.nanoTime();
 
+        // Look the search up in the index, so only the instances of the
+        // matching events are queried
+        long[] eventIds = null;
+        if (queryData.searchQuery != null) {
+            eventIds = EventTextIndex.getInstance(mContext).findEventIds(queryData.searchQuery);
+        }
         Uri queryUri = buildQueryUri(
-                queryData.start, queryData.end, queryData.searchQuery);
+                queryData.start, queryData.end, eventIds != null ? null : queryData.searchQuery);
         mQueryHandler.startQuery(0, queryData, queryUri,
-                PROJECTION, buildQuerySelection(), null,
+                PROJECTION, buildQuerySelection(eventIds), null,
                 AGENDA_SORT_ORDER);
     }
 
+    /**
+     * Updates the density model with the instances per day of page, the
+     * result of queryData. Called on the page executor.
+     */
+    private void learnDensity(QuerySpec queryData, AgendaPage page, String timeZone) {
+        mDensityModel.readIfNeeded(mContext);
+        if (queryData.queryType == QUERY_TYPE_CLEAN) {
+            String calendarSet = AgendaDensityModel.queryCalendarSet(
+                    mContext.getContentResolver(), queryData.hideDeclined);
+            mDensityModel.setCalendarSet(calendarSet);
+            if (!calendarSet.equals(mLearnedCalendarSet)) {
+                mLearnedCalendarSet = calendarSet;
+                mLearnedEnd = mLearnedStart - 1;
+            }
+        }
+        int[] instancesPerDay = new int[page.end - page.start + 1];
+        Cursor cursor = page.newCursor();
+        while (cursor.moveToNext()) {
+            int day = cursor.getInt(INDEX_START_DAY) - page.start;
+            if (day >= 0 && day < instancesPerDay.length) {
+                instancesPerDay[day]++;
+            }
+        }
+        cursor.close();
+
+        // Reloaded and clean pages mostly cover days that were learned from
+        // already, only learn the others
+        int todayJulianDay = getTodayJulianDay(timeZone);
+        if (mLearnedEnd < mLearnedStart || page.end < mLearnedStart - 1
+                || page.start > mLearnedEnd + 1) {
+            // Not next to the learned days, start over from this page
+            mDensityModel.learn(page.start, instancesPerDay, todayJulianDay);
+            mLearnedStart = page.start;
+            mLearnedEnd = page.end;
+        } else {
+            if (page.start < mLearnedStart) {
+                mDensityModel.learn(page.start, Arrays.copyOfRange(instancesPerDay, 0,
+                        mLearnedStart - page.start), todayJulianDay);
+                mLearnedStart = page.start;
+            }
+            if (page.end > mLearnedEnd) {
+                mDensityModel.learn(mLearnedEnd + 1, Arrays.copyOfRange(instancesPerDay,
+                        mLearnedEnd + 1 - page.start, instancesPerDay.length), todayJulianDay);
+                mLearnedEnd = page.end;
+            }
+        }
+        if (queryData.sized) {
+            mDensityModel.recordResult(page.getCount(), IDEAL_NUM_OF_EVENTS);
+        }
+        if (BASICLOG) Log.e(TAG, "Density: " + mDensityModel);
+        mDensityModel.writeIfNeeded(mContext, false);
+    }
+
+    private static int getTodayJulianDay(String timeZone) {
+        Time time = new Time(timeZone);
+        long now = System.currentTimeMillis();
+        time.set(now);
+        return Time.getJulianDay(now, time.gmtoff);
+    }
+
+    /**
+     * Returns how many older and newer queries returned about the number of
+     * events wanted, as sized by the density model.
+     */
+    public int getDensityHits() {
+        return mDensityModel.getHits();
+    }
+
+    /**
+     * Returns how many older and newer queries returned far more or fewer
+     * events than wanted.
+     */
+    public int getDensityMisses() {
+        return mDensityModel.getMisses();
+    }
+
+    /**
+     * Hands page to the query handler as if it had just been queried for
+     * queryData.
+     */
+    private void postStoredPage(final QuerySpec queryData, final AgendaPage page) {
+        mDataChangedHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mQueryHandler.onPageLoaded(queryData, page);
+            }
+        });
+    }
+
     private String formatDateString(int julianDay) {
         Time time = new Time(mTimeZone);
         time.setJulianDay(julianDay);
@@ -981,19 +1284,70 @@ public class AgendaWindowAdapter extends BaseAdapter
                         + " Count: " + cursor.getCount());
             }
 
+            if (mShuttingDown) {
+                cursor.close();
+                onPageLoaded(data, null);
+                return;
+            }
+
+            // Keep a compact copy rather than the provider's cursor, and
+            // build its rows while at it. The query stays at the head of the
+            // queue until the page is shown, so nothing else touches data.
+            final QuerySpec querySpec = data;
+            final Cursor result = cursor;
+            final String timeZone = mTimeZone;
+            sPageExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    final AgendaPage page;
+                    try {
+                        page = AgendaPage.copyOf(querySpec.start, querySpec.end, result,
+                                TEXT_COLUMNS);
+                    } finally {
+                        result.close();
+                    }
+                    page.setRows(AgendaByDayAdapter.calculateDays(page, timeZone), timeZone);
+                    if (querySpec.searchQuery == null) {
+                        learnDensity(querySpec, page, timeZone);
+                    }
+                    mDataChangedHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onPageLoaded(querySpec, page);
+                        }
+                    });
+                }
+            });
+        }
+
+        /*
+         * Shows a page that was queried for data, or taken from the store.
+         * page is null if the adapter is shutting down.
+         */
+        private void onPageLoaded(QuerySpec data, AgendaPage page) {
             if (data.queryType == QUERY_TYPE_CLEAN) {
                 mCleanQueryInitiated = false;
             }
 
-            if (mShuttingDown) {
-                cursor.close();
+            if (mShuttingDown || page == null) {
+                return;
+            }
+            Cursor cursor = page.newCursor();
+
+            if (data.queryType == QUERY_TYPE_RELOAD) {
+                applyReload(data, page);
+                synchronized (mQueryQueue) {
+                    mQueryQueue.poll();
+                    doNextQuery();
+                }
                 return;
             }
 
             // Notify Listview of changes and update position
             int cursorSize = cursor.getCount();
             if (cursorSize > 0 || mAdapterInfos.isEmpty() || data.queryType == QUERY_TYPE_CLEAN) {
-                final int listPositionOffset = processNewCursor(data, cursor);
+                final int listPositionOffset = processNewCursor(data, page);
                 int newPosition = -1;
                 if (data.goToTime == null) { // Typical Scrolling type query
                     notifyDataSetChanged();
@@ -1173,67 +1527,140 @@ public class AgendaWindowAdapter extends BaseAdapter
 
                 updateHeaderFooter(totalAgendaRangeStart, totalAgendaRangeEnd);
 
-                // Go over the events and mark the first day after yesterday
-                // that has events in it
-                // If the range of adapters doesn't include yesterday, skip marking it since it will
-                // mark the first day in the adapters.
-                synchronized (mAdapterInfos) {
-                    DayAdapterInfo info = mAdapterInfos.getFirst();
-                    Time time = new Time(mTimeZone);
-                    long now = System.currentTimeMillis();
-                    time.set(now);
-                    int JulianToday = Time.getJulianDay(now, time.gmtoff);
-                    if (info != null && JulianToday >= info.start && JulianToday
-                            <= mAdapterInfos.getLast().end) {
-                        Iterator<DayAdapterInfo> iter = mAdapterInfos.iterator();
-                        boolean foundDay = false;
-                        while (iter.hasNext() && !foundDay) {
-                            info = iter.next();
-                            for (int i = 0; i < info.size; i++) {
-                                if (info.dayAdapter.findJulianDayFromPosition(i) >= JulianToday) {
-                                    info.dayAdapter.setAsFirstDayAfterYesterday(i);
-                                    foundDay = true;
-                                    break;
-                                }
+                markFirstDayAfterYesterday();
+                doNextQuery();
+            }
+            if (BASICLOG) {
+                for (DayAdapterInfo info3 : mAdapterInfos) {
+                    Log.e(TAG, "> " + info3.toString());
+                }
+            }
+        }
+
+        // Go over the events and mark the first day after yesterday
+        // that has events in it
+        // If the range of adapters doesn't include yesterday, skip marking it since it will
+        // mark the first day in the adapters.
+        private void markFirstDayAfterYesterday() {
+            synchronized (mAdapterInfos) {
+                DayAdapterInfo info = mAdapterInfos.getFirst();
+                Time time = new Time(mTimeZone);
+                long now = System.currentTimeMillis();
+                time.set(now);
+                int JulianToday = Time.getJulianDay(now, time.gmtoff);
+                if (info != null && JulianToday >= info.start && JulianToday
+                        <= mAdapterInfos.getLast().end) {
+                    Iterator<DayAdapterInfo> iter = mAdapterInfos.iterator();
+                    boolean foundDay = false;
+                    while (iter.hasNext() && !foundDay) {
+                        info = iter.next();
+                        for (int i = 0; i < info.size; i++) {
+                            if (info.dayAdapter.findJulianDayFromPosition(i) >= JulianToday) {
+                                info.dayAdapter.setAsFirstDayAfterYesterday(i);
+                                foundDay = true;
+                                break;
                             }
                         }
                     }
                 }
+            }
+        }
 
-                // Fire off the next query if any
-                Iterator<QuerySpec> it = mQueryQueue.iterator();
-                while (it.hasNext()) {
-                    QuerySpec queryData = it.next();
-                    if (queryData.queryType == QUERY_TYPE_CLEAN
-                            || !isInRange(queryData.start, queryData.end)) {
-                        // Query accepted
-                        if (DEBUGLOG) Log.e(TAG, "Query accepted. QueueSize:" + mQueryQueue.size());
-                        doQuery(queryData);
+        // Fire off the next query if any. Must be called with mQueryQueue locked.
+        private void doNextQuery() {
+            Iterator<QuerySpec> it = mQueryQueue.iterator();
+            while (it.hasNext()) {
+                QuerySpec queryData = it.next();
+                if (queryData.queryType == QUERY_TYPE_CLEAN
+                        || queryData.queryType == QUERY_TYPE_RELOAD
+                        || !isInRange(queryData.start, queryData.end)) {
+                    // Query accepted
+                    if (DEBUGLOG) Log.e(TAG, "Query accepted. QueueSize:" + mQueryQueue.size());
+                    doQuery(queryData);
+                    break;
+                } else {
+                    // Query rejected
+                    it.remove();
+                    if (DEBUGLOG) Log.e(TAG, "Query rejected. QueueSize:" + mQueryQueue.size());
+                }
+            }
+        }
+
+        /*
+         * Replace the loaded days with a reload of the same days, unless the
+         * instances in them are unchanged.
+         */
+        private void applyReload(QuerySpec data, AgendaPage page) {
+            Cursor cursor = page.newCursor();
+            InstanceDelta delta;
+            synchronized (mAdapterInfos) {
+                if (mAdapterInfos.isEmpty() || mAdapterInfos.getFirst().start != data.start
+                        || mAdapterInfos.getLast().end != data.end) {
+                    // Something else replaced the loaded days in the meantime
+                    cursor.close();
+                    return;
+                }
+                ArrayList<Cursor> cursors = new ArrayList<Cursor>(mAdapterInfos.size());
+                for (DayAdapterInfo info : mAdapterInfos) {
+                    cursors.add(info.cursor);
+                }
+                delta = InstanceDelta.compute(
+                        InstanceDelta.Snapshot.of(cursors, INDEX_EVENT_ID, INDEX_BEGIN),
+                        InstanceDelta.Snapshot.of(Collections.singletonList(cursor),
+                                INDEX_EVENT_ID, INDEX_BEGIN),
+                        cursor.getCount());
+            }
+            if (DEBUGLOG) {
+                Log.d(TAG, "applyReload: " + delta);
+            }
+            if (delta.isEmpty()) {
+                cursor.close();
+                return;
+            }
+
+            // Remember what is at the top of the list so it stays there
+            View firstView = mAgendaListView.getChildAt(0);
+            int top = firstView == null ? 0 : firstView.getTop();
+            AgendaItem firstItem =
+                    getAgendaItemByPosition(mAgendaListView.getFirstVisiblePosition());
+
+            processNewCursor(data, page);
+            if (mSelectedInstanceId != -1) {
+                boolean found = false;
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    if (mSelectedInstanceId == cursor.getLong(INDEX_INSTANCE_ID)) {
+                        found = true;
                         break;
-                    } else {
-                        // Query rejected
-                        it.remove();
-                        if (DEBUGLOG) Log.e(TAG, "Query rejected. QueueSize:" + mQueryQueue.size());
                     }
                 }
+                if (!found) {
+                    mSelectedInstanceId = -1;
+                }
             }
-            if (BASICLOG) {
-                for (DayAdapterInfo info3 : mAdapterInfos) {
-                    Log.e(TAG, "> " + info3.toString());
+            markFirstDayAfterYesterday();
+            notifyDataSetChanged();
+
+            if (firstItem != null) {
+                Time time = new Time(mTimeZone);
+                time.set(firstItem.begin);
+                int newPosition = findEventPositionNearestTime(time, firstItem.id);
+                if (newPosition >= 0) {
+                    mAgendaListView.setSelectionFromTop(newPosition + OFF_BY_ONE_BUG, top);
                 }
             }
         }
 
         /*
-         * Update the adapter info array with a the new cursor. Close out old
-         * cursors as needed.
+         * Update the adapter info array with a the new page. Drop old pages
+         * as needed.
          *
          * @return number of rows removed from the beginning
          */
-        private int processNewCursor(QuerySpec data, Cursor cursor) {
+        private int processNewCursor(QuerySpec data, AgendaPage page) {
             synchronized (mAdapterInfos) {
                 // Remove adapter info's from adapterInfos as needed
-                DayAdapterInfo info = pruneAdapterInfo(data.queryType);
+                DayAdapterInfo info = pruneAdapterInfo(data.queryType, page.getSizeBytes());
                 int listPositionOffset = 0;
                 if (info == null) {
                     info = new DayAdapterInfo(mContext);
@@ -1247,7 +1674,8 @@ public class AgendaWindowAdapter extends BaseAdapter
                 // Setup adapter info
                 info.start = data.start;
                 info.end = data.end;
-                info.cursor = cursor;
+                info.page = page;
+                info.cursor = page.newCursor();
                 info.dayAdapter.changeCursor(info);
                 info.size = info.dayAdapter.getCount();
 
@@ -0,0 +1,586 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.provider.CalendarContract.Attendees;
+import android.provider.CalendarContract.Events;
+
+import com.android.calendar.AtomicDataFile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An inverted index from the words of events to their ids, so that a search
+ * only has to query the instances of the events that match instead of
+ * scanning the text of every instance.
+ *
+ * The words of an event come from its title, location and description and
+ * the names and emails of its attendees, the fields the provider searches.
+ * A search matches the events that have, for each word of the query, a word
+ * starting with it. Runs of ideographs aren't split into words, so their
+ * suffixes are indexed to match inside them: all of them for the title and
+ * location, and up to {@link #MAX_OTHER_SUFFIXES} for the other fields.
+ * Searches for ideographs are left to the provider once an event had more.
+ * Words are cut to {@link #MAX_WORD_LENGTH} characters.
+ *
+ * The index is saved to a file in app storage. Whenever events change it is
+ * brought up to date in the background by reading the text of the events
+ * and indexing again only those whose text changed. Until then searches are
+ * left to the provider, and listeners are told once the index changed.
+ *
+ * Thread safe. Each load or update builds a new snapshot of the index and
+ * swaps it in, so searches never wait for them.
+ */
+/* package */ class EventTextIndex {
+    private static final String TAG = "EventTextIndex";
+
+    // More matches than this are left to the provider, rather than query
+    // the instances of a long list of events
+    static final int MAX_MATCHES = 1000;
+    // Longer words are indexed and searched by their start
+    static final int MAX_WORD_LENGTH = 32;
+    // Suffixes indexed per event for ideographs in the description and
+    // attendees
+    static final int MAX_OTHER_SUFFIXES = 64;
+    // Waits for changes to settle before updating
+    private static final long UPDATE_DELAY_MILLIS = 2000;
+
+    private static final String FILE_NAME = "event_text_index.bin";
+    private static final int FILE_MAGIC = 0x45544958;
+    private static final int FILE_VERSION = 2;
+
+    private static final String[] EVENTS_PROJECTION = new String[] {
+            Events._ID,
+            Events.TITLE,
+            Events.EVENT_LOCATION,
+            Events.DESCRIPTION,
+    };
+    private static final String[] ATTENDEES_PROJECTION = new String[] {
+            Attendees.EVENT_ID,
+            Attendees.ATTENDEE_NAME,
+            Attendees.ATTENDEE_EMAIL,
+    };
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "EventTextIndex");
+                }
+            });
+
+    private static EventTextIndex sInstance;
+
+    /**
+     * Told on the UI thread when the index changed, so searches done before
+     * can be done again.
+     */
+    interface OnChangedListener {
+        void onIndexChanged();
+    }
+
+    /**
+     * The text of an event, as read from the provider.
+     */
+    /* package */ static class EventText {
+        // The title and location
+        final StringBuilder main = new StringBuilder();
+        // The description and attendees
+        final StringBuilder other = new StringBuilder();
+
+        int getHash() {
+            return main.toString().hashCode() * 31 + other.toString().hashCode();
+        }
+    }
+
+    private static class Entry {
+        final int textHash;
+        final String[] words;
+        // Some suffixes of the other fields weren't indexed
+        final boolean partial;
+
+        Entry(int textHash, String[] words, boolean partial) {
+            this.textHash = textHash;
+            this.words = words;
+            this.partial = partial;
+        }
+    }
+
+    /**
+     * The index at one point in time. Never changed once it's built.
+     */
+    private static class Snapshot {
+        final HashMap<Long, Entry> entries;
+        // The sorted event ids of each word
+        final TreeMap<String, long[]> words = new TreeMap<String, long[]>();
+        final int numPartial;
+
+        Snapshot(HashMap<Long, Entry> entries) {
+            this.entries = entries;
+            // Count the events of each word, sharing one copy of each word
+            HashMap<String, WordIds> wordIds = new HashMap<String, WordIds>();
+            int numPartial = 0;
+            for (Entry entry : entries.values()) {
+                for (int i = 0; i < entry.words.length; i++) {
+                    WordIds ids = wordIds.get(entry.words[i]);
+                    if (ids == null) {
+                        ids = new WordIds(entry.words[i]);
+                        wordIds.put(ids.word, ids);
+                    }
+                    entry.words[i] = ids.word;
+                    ids.count++;
+                }
+                if (entry.partial) {
+                    numPartial++;
+                }
+            }
+            this.numPartial = numPartial;
+            for (WordIds ids : wordIds.values()) {
+                ids.ids = new long[ids.count];
+                ids.count = 0;
+            }
+            for (Map.Entry<Long, Entry> event : entries.entrySet()) {
+                for (String word : event.getValue().words) {
+                    WordIds ids = wordIds.get(word);
+                    ids.ids[ids.count++] = event.getKey();
+                }
+            }
+            for (WordIds ids : wordIds.values()) {
+                Arrays.sort(ids.ids);
+                words.put(ids.word, ids.ids);
+            }
+        }
+    }
+
+    private static class WordIds {
+        final String word;
+        int count;
+        long[] ids;
+
+        WordIds(String word) {
+            this.word = word;
+        }
+    }
+
+    // Null until the index is loaded
+    private volatile Snapshot mSnapshot;
+    // The changes reported, and those the index is up to date with
+    private volatile int mChanges;
+    private volatile int mChangesApplied;
+
+    private Context mContext;
+    private AtomicDataFile mFile;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Only used on the UI thread
+    private final ArrayList<OnChangedListener> mListeners = new ArrayList<OnChangedListener>();
+    private final Runnable mUpdater = new Runnable() {
+        @Override
+        public void run() {
+            sExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    update();
+                }
+            });
+        }
+    };
+    private final Runnable mNotifier = new Runnable() {
+        @Override
+        public void run() {
+            for (OnChangedListener listener : new ArrayList<OnChangedListener>(mListeners)) {
+                listener.onIndexChanged();
+            }
+        }
+    };
+
+    /**
+     * Returns the index, starting to load it and to follow the changes of
+     * events the first time.
+     */
+    static synchronized EventTextIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EventTextIndex();
+            sInstance.start(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private void start(Context context) {
+        mContext = context;
+        mFile = new AtomicDataFile(context, FILE_NAME);
+        context.getContentResolver().registerContentObserver(Events.CONTENT_URI, true,
+                new ContentObserver(mHandler) {
+                    @Override
+                    public boolean deliverSelfNotifications() {
+                        return true;
+                    }
+
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        // Searches go to the provider until the update lands
+                        mChanges++;
+                        mHandler.removeCallbacks(mUpdater);
+                        mHandler.postDelayed(mUpdater, UPDATE_DELAY_MILLIS);
+                    }
+                });
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                read(mFile);
+                // Catch up with the changes made while the app wasn't running
+                update();
+            }
+        });
+    }
+
+    /**
+     * Adds a listener, called on the UI thread once the index changed.
+     * Call on the UI thread.
+     */
+    void addListener(OnChangedListener listener) {
+        mListeners.add(listener);
+    }
+
+    void removeListener(OnChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Splits text into lower case words, adding them to words. Runs of
+     * ideographs are added with their suffixes, up to maxSuffixes of them.
+     *
+     * @return the number of suffixes the runs of ideographs have, including
+     *         those that weren't added
+     */
+    static int tokenize(String text, int maxSuffixes, ArrayList<String> words) {
+        if (text == null) {
+            return 0;
+        }
+        String lower = text.toLowerCase(Locale.getDefault());
+        int length = lower.length();
+        int start = -1;
+        int numSuffixes = 0;
+        boolean ideographic = false;
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? lower.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (start < 0) {
+                    start = i;
+                    ideographic = false;
+                }
+                ideographic |= isIdeographic(c);
+            } else if (start >= 0) {
+                words.add(lower.substring(start, Math.min(i, start + MAX_WORD_LENGTH)));
+                if (ideographic) {
+                    for (int j = start + 1; j < i; j++, numSuffixes++) {
+                        if (numSuffixes < maxSuffixes) {
+                            words.add(lower.substring(j, Math.min(i, j + MAX_WORD_LENGTH)));
+                        }
+                    }
+                }
+                start = -1;
+            }
+        }
+        return numSuffixes;
+    }
+
+    private static boolean isIdeographic(char c) {
+        Character.UnicodeBlock block = Character.UnicodeBlock.of(c);
+        return block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS
+                || block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A
+                || block == Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS
+                || block == Character.UnicodeBlock.HIRAGANA
+                || block == Character.UnicodeBlock.KATAKANA
+                || block == Character.UnicodeBlock.HANGUL_SYLLABLES;
+    }
+
+    private static boolean isIdeographic(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (isIdeographic(word.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the sorted ids of the events that match query, or null if the
+     * search should be left to the provider: the index isn't loaded or up to
+     * date, more than {@link #MAX_MATCHES} events match, or ideographs are
+     * searched for and some of an event's weren't indexed.
+     */
+    long[] findEventIds(String query) {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null || mChanges != mChangesApplied) {
+            return null;
+        }
+        ArrayList<String> queryWords = new ArrayList<String>();
+        tokenize(query, 0, queryWords);
+        if (queryWords.isEmpty()) {
+            return null;
+        }
+
+        long[] matches = null;
+        for (String word : queryWords) {
+            if (snapshot.numPartial > 0 && isIdeographic(word)) {
+                return null;
+            }
+            // Every word that starts with the query word
+            SortedMap<String, long[]> prefixed = snapshot.words.subMap(word, word + '\uffff');
+            long[] wordMatches = union(prefixed.values());
+            matches = matches == null ? wordMatches : intersect(matches, wordMatches);
+            if (matches.length == 0) {
+                break;
+            }
+        }
+        return matches.length > MAX_MATCHES ? null : matches;
+    }
+
+    /**
+     * Returns the sorted ids that are in any of the sorted arrays.
+     */
+    private static long[] union(Collection<long[]> idArrays) {
+        int length = 0;
+        for (long[] ids : idArrays) {
+            length += ids.length;
+        }
+        long[] all = new long[length];
+        int i = 0;
+        for (long[] ids : idArrays) {
+            System.arraycopy(ids, 0, all, i, ids.length);
+            i += ids.length;
+        }
+        Arrays.sort(all);
+        int count = 0;
+        for (i = 0; i < all.length; i++) {
+            if (count == 0 || all[i] != all[count - 1]) {
+                all[count++] = all[i];
+            }
+        }
+        return count == all.length ? all : Arrays.copyOf(all, count);
+    }
+
+    /**
+     * Returns the sorted ids that are in both sorted arrays.
+     */
+    private static long[] intersect(long[] a, long[] b) {
+        long[] both = new long[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                both[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(both, count);
+    }
+
+    int size() {
+        Snapshot snapshot = mSnapshot;
+        return snapshot != null ? snapshot.entries.size() : 0;
+    }
+
+    /**
+     * Brings the index up to date with the text of all the events, indexing
+     * again only the events whose text changed. Called on the executor.
+     *
+     * @return true if the index changed
+     */
+    /* package */ boolean apply(HashMap<Long, EventText> texts) {
+        Snapshot old = mSnapshot;
+        HashMap<Long, Entry> entries = new HashMap<Long, Entry>(texts.size() * 2);
+        boolean changed = old == null;
+        ArrayList<String> words = new ArrayList<String>();
+        for (Map.Entry<Long, EventText> event : texts.entrySet()) {
+            EventText text = event.getValue();
+            int textHash = text.getHash();
+            Entry entry = old != null ? old.entries.get(event.getKey()) : null;
+            if (entry == null || entry.textHash != textHash) {
+                words.clear();
+                tokenize(text.main.toString(), Integer.MAX_VALUE, words);
+                int numOtherSuffixes = tokenize(text.other.toString(), MAX_OTHER_SUFFIXES, words);
+                // Each word once
+                entry = new Entry(textHash, new HashSet<String>(words).toArray(new String[0]),
+                        numOtherSuffixes > MAX_OTHER_SUFFIXES);
+                changed = true;
+            }
+            entries.put(event.getKey(), entry);
+        }
+        // The same events, unless some were removed
+        changed |= old != null && old.entries.size() != entries.size();
+        if (changed) {
+            mSnapshot = new Snapshot(entries);
+        }
+        return changed;
+    }
+
+    /**
+     * Reads the text of all events and indexes those that changed. Called
+     * on the executor.
+     */
+    private void update() {
+        int changes = mChanges;
+        ContentResolver resolver = mContext.getContentResolver();
+        HashMap<Long, EventText> texts = new HashMap<Long, EventText>();
+        Cursor cursor = resolver.query(Events.CONTENT_URI, EVENTS_PROJECTION,
+                Events.DELETED + "=0", null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                EventText text = new EventText();
+                appendField(text.main, cursor.getString(1));
+                appendField(text.main, cursor.getString(2));
+                appendField(text.other, cursor.getString(3));
+                texts.put(cursor.getLong(0), text);
+            }
+        } finally {
+            cursor.close();
+        }
+        cursor = resolver.query(Attendees.CONTENT_URI, ATTENDEES_PROJECTION, null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    EventText text = texts.get(cursor.getLong(0));
+                    if (text != null) {
+                        appendField(text.other, cursor.getString(1));
+                        appendField(text.other, cursor.getString(2));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        boolean changed = apply(texts);
+        mChangesApplied = changes;
+        if (changed) {
+            mHandler.post(mNotifier);
+            write(mFile);
+        }
+    }
+
+    private static void appendField(StringBuilder text, String field) {
+        if (field != null) {
+            text.append(field).append('\n');
+        }
+    }
+
+    /* package */ void read(AtomicDataFile file) {
+        file.read(new AtomicDataFile.Reader() {
+            @Override
+            public void read(DataInputStream in) throws IOException {
+                EventTextIndex.this.read(in);
+            }
+        });
+    }
+
+    /**
+     * Reads an index saved by {@link #write(DataOutputStream)}, replacing
+     * the loaded one once it's all read.
+     *
+     * @return false if it was saved in another locale and was skipped
+     */
+    /* package */ boolean read(DataInputStream in) throws IOException {
+        if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+            throw new IOException("Unknown file format");
+        }
+        if (!Locale.getDefault().toString().equals(in.readUTF())) {
+            // The words were lower cased in another language, index again
+            return false;
+        }
+        int numEntries = in.readInt();
+        if (numEntries < 0) {
+            throw new IOException("Bad header");
+        }
+        HashMap<Long, Entry> entries = new HashMap<Long, Entry>(numEntries * 2);
+        for (int i = 0; i < numEntries; i++) {
+            long eventId = in.readLong();
+            int textHash = in.readInt();
+            boolean partial = in.readBoolean();
+            int numWords = in.readUnsignedShort();
+            String[] words = new String[numWords];
+            for (int j = 0; j < numWords; j++) {
+                words[j] = in.readUTF();
+            }
+            entries.put(eventId, new Entry(textHash, words, partial));
+        }
+        mSnapshot = new Snapshot(entries);
+        return true;
+    }
+
+    /* package */ void write(AtomicDataFile file) {
+        file.write(new AtomicDataFile.Writer() {
+            @Override
+            public void write(DataOutputStream out) throws IOException {
+                EventTextIndex.this.write(out);
+            }
+        });
+    }
+
+    /* package */ void write(DataOutputStream out) throws IOException {
+        Snapshot snapshot = mSnapshot;
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeUTF(Locale.getDefault().toString());
+        if (snapshot == null) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(snapshot.entries.size());
+        for (Map.Entry<Long, Entry> event : snapshot.entries.entrySet()) {
+            Entry entry = event.getValue();
+            int numWords = Math.min(entry.words.length, 0xffff);
+            out.writeLong(event.getKey());
+            out.writeInt(entry.textHash);
+            out.writeBoolean(entry.partial);
+            out.writeShort(numWords);
+            for (int i = 0; i < numWords; i++) {
+                out.writeUTF(entry.words[i]);
+            }
+        }
+    }
+}
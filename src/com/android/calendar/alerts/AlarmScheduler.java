@@ -42,6 +42,10 @@ import java.util.Map;
 /**
  * Schedules the next EVENT_REMINDER_APP broadcast with AlarmManager, by querying the events
  * and reminders tables for the next upcoming alert.
+ *
+ * The alarms found are kept in a {@link ReminderTimeline}, so until the events change the
+ * next alarm is looked up there, and only the instances that enter the lookahead window as
+ * time goes by are queried.
  */
 public class AlarmScheduler {
     private static final String TAG = "AlarmScheduler";
@@ -91,6 +95,8 @@ public class AlarmScheduler {
     // can minimize this to being only 1 day late by putting a 1 day max on the alarm time.
     private static final long EVENT_LOOKAHEAD_WINDOW_MS = DateUtils.WEEK_IN_MILLIS;
     private static final long MAX_ALARM_ELAPSED_MS = DateUtils.DAY_IN_MILLIS;
+    // How far behind the lookahead window the timeline may fall before it is extended
+    private static final long TIMELINE_EXTEND_MS = DateUtils.HOUR_IN_MILLIS * 6;
 
     /**
      * Schedules the nearest upcoming alarm, to refresh notifications.
@@ -103,22 +109,70 @@ public class AlarmScheduler {
      */
     public static void scheduleNextAlarm(Context context) {
         scheduleNextAlarm(context, AlertUtils.createAlarmManager(context),
-                REMINDER_QUERY_BATCH_SIZE, System.currentTimeMillis());
+                REMINDER_QUERY_BATCH_SIZE, System.currentTimeMillis(),
+                ReminderTimeline.getInstance(context));
+    }
+
+    /**
+     * Drops the saved alarms after the events or reminders changed, so the next
+     * {@link #scheduleNextAlarm} queries them again.
+     */
+    public static void onEventsChanged(Context context) {
+        ReminderTimeline.getInstance(context).invalidate();
     }
 
     // VisibleForTesting
     static void scheduleNextAlarm(Context context, AlarmManagerInterface alarmManager,
             int batchSize, long currentMillis) {
-        Cursor instancesCursor = null;
+        scheduleNextAlarm(context, alarmManager, batchSize, currentMillis,
+                new ReminderTimeline(null));
+    }
+
+    // VisibleForTesting
+    static void scheduleNextAlarm(Context context, AlarmManagerInterface alarmManager,
+            int batchSize, long currentMillis, ReminderTimeline timeline) {
         try {
-            instancesCursor = queryUpcomingEvents(context, context.getContentResolver(),
-                    currentMillis);
-            if (instancesCursor != null) {
-                queryNextReminderAndSchedule(instancesCursor, context,
-                        context.getContentResolver(), alarmManager, batchSize, currentMillis);
+            String timeZone = Time.getCurrentTimezone();
+            if (!timeline.isValid(currentMillis, timeZone)) {
+                timeline.reset(currentMillis, timeZone);
+                addUpcomingReminders(context, timeline, batchSize, currentMillis,
+                        currentMillis);
+            } else if (timeline.getWindowEnd()
+                    < currentMillis + EVENT_LOOKAHEAD_WINDOW_MS - TIMELINE_EXTEND_MS) {
+                // Only the instances that entered the window since it was last extended
+                addUpcomingReminders(context, timeline, batchSize, currentMillis,
+                        timeline.getWindowEnd() + 1);
+            }
+
+            if (timeline.popUntil(currentMillis)) {
+                scheduleAlarm(context, timeline.getNextEventId(), timeline.getNextAlarmTime(),
+                        currentMillis, alarmManager);
             }
         } catch (Exception e) {
             // can fail because of permissions
+            timeline.invalidate();
+        }
+        timeline.saveIfNeeded();
+    }
+
+    /**
+     * Adds to timeline the reminders of the instances that begin from localStartMin
+     * to the end of the lookahead window.
+     */
+    private static void addUpcomingReminders(Context context, ReminderTimeline timeline,
+            int batchSize, long currentMillis, long localStartMin) {
+        long localStartMax = currentMillis + EVENT_LOOKAHEAD_WINDOW_MS;
+        Cursor instancesCursor = null;
+        try {
+            instancesCursor = queryUpcomingEvents(context.getContentResolver(), localStartMin,
+                    localStartMax);
+            if (instancesCursor != null) {
+                queryReminders(instancesCursor, context.getContentResolver(), timeline,
+                        batchSize, currentMillis);
+                timeline.setWindowEnd(localStartMax);
+            } else {
+                timeline.invalidate();
+            }
         } finally {
             if (instancesCursor != null) {
                 instancesCursor.close();
@@ -127,17 +181,15 @@ public class AlarmScheduler {
     }
 
     /**
-     * Queries events starting within a fixed interval from now.
+     * Queries events starting from localStartMin to localStartMax.
      */
-    private static Cursor queryUpcomingEvents(Context context, ContentResolver contentResolver,
-            long currentMillis) {
+    private static Cursor queryUpcomingEvents(ContentResolver contentResolver,
+            long localStartMin, long localStartMax) {
         Time time = new Time();
         time.normalize(false);
         long localOffset = time.gmtoff * 1000;
-        final long localStartMin = currentMillis;
-        final long localStartMax = localStartMin + EVENT_LOOKAHEAD_WINDOW_MS;
         final long utcStartMin = localStartMin - localOffset;
-        final long utcStartMax = utcStartMin + EVENT_LOOKAHEAD_WINDOW_MS;
+        final long utcStartMax = localStartMax - localOffset;
 
         // Expand Instances table range by a day on either end to account for
         // all-day events.
@@ -172,11 +224,11 @@ public class AlarmScheduler {
     }
 
     /**
-     * Queries for all the reminders of the events in the instancesCursor, and schedules
-     * the alarm for the next upcoming reminder.
+     * Queries for all the reminders of the events in the instancesCursor, and adds the
+     * upcoming ones to timeline.
      */
-    private static void queryNextReminderAndSchedule(Cursor instancesCursor, Context context,
-            ContentResolver contentResolver, AlarmManagerInterface alarmManager,
+    private static void queryReminders(Cursor instancesCursor,
+            ContentResolver contentResolver, ReminderTimeline timeline,
             int batchSize, long currentMillis) {
         if (AlertService.DEBUG) {
             int eventCount = instancesCursor.getCount();
@@ -191,8 +243,6 @@ public class AlarmScheduler {
         // local start time.
         Map<Integer, List<Long>> eventMap = new HashMap<Integer, List<Long>>();
         Time timeObj = new Time();
-        long nextAlarmTime = Long.MAX_VALUE;
-        int nextAlarmEventId = 0;
         instancesCursor.moveToPosition(-1);
         while (!instancesCursor.isAfterLast()) {
             int index = 0;
@@ -252,9 +302,8 @@ public class AlarmScheduler {
                         for (Long startTime : startTimes) {
                             long alarmTime = startTime -
                                     reminderMinutes * DateUtils.MINUTE_IN_MILLIS;
-                            if (alarmTime > currentMillis && alarmTime < nextAlarmTime) {
-                                nextAlarmTime = alarmTime;
-                                nextAlarmEventId = eventId;
+                            if (alarmTime > currentMillis) {
+                                timeline.add(alarmTime, eventId, startTime);
                             }
 
                             if (Log.isLoggable(TAG, Log.DEBUG)) {
@@ -277,11 +326,6 @@ public class AlarmScheduler {
                 }
             }
         }
-
-        // Schedule the alarm for the next reminder time.
-        if (nextAlarmTime < Long.MAX_VALUE) {
-            scheduleAlarm(context, nextAlarmEventId, nextAlarmTime, currentMillis, alarmManager);
-        }
     }
 
     /**
@@ -167,7 +167,9 @@ public class AlertActivity extends Activity implements OnClickListener {
 
         @Override
         protected void onUpdateComplete(int token, Object cookie, int result) {
-            // Ignore
+            // Only once the alerts are dismissed, or an update in between would cache
+            // them as they were
+            AlertService.onAlertsChanged(AlertActivity.this);
         }
     }
 
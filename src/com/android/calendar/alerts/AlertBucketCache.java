@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.calendar.alerts;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.AsyncTask;
+import android.text.TextUtils;
+
+import com.android.calendar.AtomicDataFile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * The fired alerts {@link AlertService} last posted notifications for, and
+ * the priority bucket each one went in, so an update only has to query the
+ * alerts that came due since then.
+ *
+ * Every alert with an alarm time up to the high-water mark was processed.
+ * Each bucket is kept until the time the alert would change buckets, the
+ * end of its grace period or of the event, so notifications are only
+ * reclassified when one of those goes by. The cache has to be invalidated
+ * whenever the alerts change some other way, such as being dismissed,
+ * snoozed or edited.
+ *
+ * Saved to a small file in app storage so it survives the service being
+ * stopped between alerts.
+ */
+/* package */ class AlertBucketCache {
+    private static final String TAG = "AlertBucketCache";
+
+    static final int BUCKET_NONE = -1;
+    static final int BUCKET_HIGH = 0;
+    static final int BUCKET_MEDIUM = 1;
+    static final int BUCKET_LOW = 2;
+
+    private static final String FILE_NAME = "alert_buckets.bin";
+    private static final int FILE_MAGIC = 0x414c424b;
+    private static final int FILE_VERSION = 1;
+
+    private static final int MAX_ALERTS = 1000;
+
+    private static AlertBucketCache sInstance;
+
+    // Where the cache is saved, or null if it isn't
+    private final AtomicDataFile mFile;
+    // Whether the saved cache was read, which is left to the first update
+    private boolean mRead;
+
+    private boolean mValid;
+    // What the buckets depend on besides the alerts
+    private String mTimeZone;
+    private String mSkipReminders;
+    private long mHighWaterMark;
+
+    private HashMap<Long, Alert> mAlerts = new HashMap<Long, Alert>();
+    // The alerts kept by the update in progress
+    private HashMap<Long, Alert> mNewAlerts;
+    // Counts invalidations, so an update the alerts changed during isn't kept
+    private int mGeneration;
+    private int mUpdateGeneration;
+
+    /**
+     * A CalendarAlerts row in {@link AlertService#ALERT_PROJECTION}, and its
+     * bucket.
+     */
+    private static class Alert {
+        long id;
+        long eventId;
+        int state;
+        String title;
+        String location;
+        int selfAttendeeStatus;
+        int allDay;
+        long alarmTime;
+        int minutes;
+        long begin;
+        long end;
+        String description;
+
+        int bucket = BUCKET_NONE;
+        // When the alert changes buckets
+        long bucketValidUntil;
+
+        Object[] toRow() {
+            return new Object[] {
+                    id, eventId, state, title, location, selfAttendeeStatus, allDay, alarmTime,
+                    minutes, begin, end, description
+            };
+        }
+    }
+
+    // The order the alerts are queried in, ACTIVE_ALERTS_SORT
+    private static final Comparator<Alert> SORT = new Comparator<Alert>() {
+        @Override
+        public int compare(Alert lhs, Alert rhs) {
+            if (lhs.begin != rhs.begin) {
+                return lhs.begin > rhs.begin ? -1 : 1;
+            }
+            if (lhs.end != rhs.end) {
+                return lhs.end > rhs.end ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    AlertBucketCache(File file) {
+        mFile = file != null ? new AtomicDataFile(file) : null;
+    }
+
+    /**
+     * Returns the cache saved in app storage. The file is only read once the
+     * cache is used by an update, so this can be called on the UI thread to
+     * invalidate it.
+     */
+    static synchronized AlertBucketCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AlertBucketCache(new File(context.getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns true if the cache can be used with the current time zone and
+     * the reminder preferences.
+     */
+    synchronized boolean isValid(String timeZone, String skipReminders) {
+        readIfNeeded();
+        return mValid && TextUtils.equals(timeZone, mTimeZone)
+                && TextUtils.equals(skipReminders, mSkipReminders);
+    }
+
+    /**
+     * Marks the cache as out of date, after the alerts changed.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        if (mValid || !mRead) {
+            // Whatever was saved is out of date, no need to read it
+            mRead = true;
+            mValid = false;
+            mAlerts.clear();
+            deleteFile();
+        }
+    }
+
+    /**
+     * Returns the alarm time up to which all alerts were processed.
+     */
+    synchronized long getHighWaterMark() {
+        readIfNeeded();
+        return mHighWaterMark;
+    }
+
+    /**
+     * Returns the first time one of the alerts changes buckets, or
+     * Long.MAX_VALUE if none ever does.
+     */
+    synchronized long getNextBucketChange() {
+        readIfNeeded();
+        long next = Long.MAX_VALUE;
+        for (Alert alert : mAlerts.values()) {
+            if (alert.bucket != BUCKET_NONE) {
+                next = Math.min(next, alert.bucketValidUntil);
+            }
+        }
+        return next;
+    }
+
+    synchronized int size() {
+        readIfNeeded();
+        return mAlerts.size();
+    }
+
+    /**
+     * Returns a cursor over the cached alerts and newAlerts together, in the
+     * order the alerts are queried in. Closes newAlerts.
+     */
+    synchronized Cursor mergeWith(Cursor newAlerts) {
+        readIfNeeded();
+        ArrayList<Alert> alerts = new ArrayList<Alert>(mAlerts.values());
+        try {
+            while (newAlerts.moveToNext()) {
+                Alert alert = readAlert(newAlerts);
+                if (!mAlerts.containsKey(alert.id)) {
+                    alerts.add(alert);
+                }
+            }
+        } finally {
+            newAlerts.close();
+        }
+        Collections.sort(alerts, SORT);
+        MatrixCursor cursor = new MatrixCursor(AlertService.ALERT_PROJECTION, alerts.size());
+        for (Alert alert : alerts) {
+            cursor.addRow(alert.toRow());
+        }
+        return cursor;
+    }
+
+    private static Alert readAlert(Cursor cursor) {
+        Alert alert = new Alert();
+        alert.id = cursor.getLong(AlertService.ALERT_INDEX_ID);
+        alert.eventId = cursor.getLong(AlertService.ALERT_INDEX_EVENT_ID);
+        alert.state = cursor.getInt(AlertService.ALERT_INDEX_STATE);
+        alert.title = cursor.getString(AlertService.ALERT_INDEX_TITLE);
+        alert.location = cursor.getString(AlertService.ALERT_INDEX_EVENT_LOCATION);
+        alert.selfAttendeeStatus = cursor.getInt(AlertService.ALERT_INDEX_SELF_ATTENDEE_STATUS);
+        alert.allDay = cursor.getInt(AlertService.ALERT_INDEX_ALL_DAY);
+        alert.alarmTime = cursor.getLong(AlertService.ALERT_INDEX_ALARM_TIME);
+        alert.minutes = cursor.getInt(AlertService.ALERT_INDEX_MINUTES);
+        alert.begin = cursor.getLong(AlertService.ALERT_INDEX_BEGIN);
+        alert.end = cursor.getLong(AlertService.ALERT_INDEX_END);
+        alert.description = cursor.getString(AlertService.ALERT_INDEX_DESCRIPTION);
+        return alert;
+    }
+
+    /**
+     * Returns true if the alert was processed by an earlier update.
+     */
+    synchronized boolean contains(long alertId) {
+        readIfNeeded();
+        return mAlerts.containsKey(alertId);
+    }
+
+    /**
+     * Returns the bucket the alert went in, or {@link #BUCKET_NONE} if it
+     * wasn't put in one or has to be reclassified at currentTime.
+     */
+    synchronized int getBucket(long alertId, long currentTime) {
+        readIfNeeded();
+        Alert alert = mAlerts.get(alertId);
+        if (alert == null || currentTime >= alert.bucketValidUntil) {
+            return BUCKET_NONE;
+        }
+        return alert.bucket;
+    }
+
+    /**
+     * Starts an update, which keeps the fired alerts it processes in place
+     * of the cached ones.
+     */
+    synchronized void beginUpdate() {
+        readIfNeeded();
+        mNewAlerts = new HashMap<Long, Alert>();
+        mUpdateGeneration = mGeneration;
+    }
+
+    /**
+     * Keeps the fired alert at the position of the cursor.
+     */
+    synchronized void keep(Cursor alertCursor, int state) {
+        if (mNewAlerts == null || mNewAlerts.size() >= MAX_ALERTS) {
+            return;
+        }
+        Alert alert = readAlert(alertCursor);
+        alert.state = state;
+        mNewAlerts.put(alert.id, alert);
+    }
+
+    /**
+     * Records the bucket a kept alert went in, until validUntil.
+     */
+    synchronized void setBucket(long alertId, int bucket, long validUntil) {
+        Alert alert = mNewAlerts != null ? mNewAlerts.get(alertId) : null;
+        if (alert != null) {
+            alert.bucket = bucket;
+            alert.bucketValidUntil = validUntil;
+        }
+    }
+
+    /**
+     * Replaces the cached alerts with the ones kept by the update, and saves
+     * them.
+     */
+    synchronized void endUpdate(String timeZone, String skipReminders, long highWaterMark) {
+        if (mNewAlerts == null) {
+            return;
+        }
+        if (mNewAlerts.size() >= MAX_ALERTS || mUpdateGeneration != mGeneration) {
+            // Too many to keep or changed since they were queried, the next update
+            // queries all of them
+            mValid = false;
+            mAlerts.clear();
+        } else {
+            mValid = true;
+            mAlerts = mNewAlerts;
+        }
+        mNewAlerts = null;
+        mTimeZone = timeZone;
+        mSkipReminders = skipReminders;
+        mHighWaterMark = highWaterMark;
+        saveFile();
+    }
+
+    private void readIfNeeded() {
+        if (mRead) {
+            return;
+        }
+        mRead = true;
+        if (mFile == null) {
+            return;
+        }
+        // A bad file leaves the cache empty and invalid
+        mFile.read(new AtomicDataFile.Reader() {
+            @Override
+            public void read(DataInputStream in) throws IOException {
+                AlertBucketCache.this.read(in);
+            }
+        });
+    }
+
+    /* package */ synchronized void read(DataInputStream in) throws IOException {
+        mRead = true;
+        if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+            throw new IOException("Unknown file format");
+        }
+        boolean valid = in.readBoolean();
+        String timeZone = in.readUTF();
+        String skipReminders = in.readUTF();
+        long highWaterMark = in.readLong();
+        int size = in.readInt();
+        if (size < 0 || size > MAX_ALERTS) {
+            throw new IOException("Bad header");
+        }
+        HashMap<Long, Alert> alerts = new HashMap<Long, Alert>();
+        for (int i = 0; i < size; i++) {
+            Alert alert = new Alert();
+            alert.id = in.readLong();
+            alert.eventId = in.readLong();
+            alert.state = in.readInt();
+            alert.title = readString(in);
+            alert.location = readString(in);
+            alert.selfAttendeeStatus = in.readInt();
+            alert.allDay = in.readInt();
+            alert.alarmTime = in.readLong();
+            alert.minutes = in.readInt();
+            alert.begin = in.readLong();
+            alert.end = in.readLong();
+            alert.description = readString(in);
+            alert.bucket = in.readInt();
+            alert.bucketValidUntil = in.readLong();
+            if (alert.bucket < BUCKET_NONE || alert.bucket > BUCKET_LOW) {
+                throw new IOException("Bad bucket");
+            }
+            alerts.put(alert.id, alert);
+        }
+        mValid = valid;
+        mTimeZone = timeZone;
+        mSkipReminders = skipReminders;
+        mHighWaterMark = highWaterMark;
+        mAlerts = alerts;
+    }
+
+    // Descriptions can be longer than writeUTF allows
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = in.readChar();
+        }
+        return new String(chars);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(s.length());
+            out.writeChars(s);
+        }
+    }
+
+    // Off the calling thread, this may be called on the UI thread. An update
+    // that saves first only loses its cache.
+    private void deleteFile() {
+        final AtomicDataFile file = mFile;
+        if (file == null) {
+            return;
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                file.delete();
+            }
+        });
+    }
+
+    private void saveFile() {
+        if (mFile == null) {
+            return;
+        }
+        mFile.write(new AtomicDataFile.Writer() {
+            @Override
+            public void write(DataOutputStream out) throws IOException {
+                AlertBucketCache.this.write(out);
+            }
+        });
+    }
+
+    /* package */ synchronized void write(DataOutputStream out) throws IOException {
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeBoolean(mValid);
+        out.writeUTF(mTimeZone != null ? mTimeZone : "");
+        out.writeUTF(mSkipReminders != null ? mSkipReminders : "");
+        out.writeLong(mHighWaterMark);
+        out.writeInt(mAlerts.size());
+        for (Alert alert : mAlerts.values()) {
+            out.writeLong(alert.id);
+            out.writeLong(alert.eventId);
+            out.writeInt(alert.state);
+            writeString(out, alert.title);
+            writeString(out, alert.location);
+            out.writeInt(alert.selfAttendeeStatus);
+            out.writeInt(alert.allDay);
+            out.writeLong(alert.alarmTime);
+            out.writeInt(alert.minutes);
+            out.writeLong(alert.begin);
+            out.writeLong(alert.end);
+            writeString(out, alert.description);
+            out.writeInt(alert.bucket);
+            out.writeLong(alert.bucketValidUntil);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "valid=" + mValid + " alerts=" + mAlerts.size() + " highWaterMark="
+                + mHighWaterMark;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.calendar.alerts;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.CalendarContract.Attendees;
+import android.provider.CalendarContract.Calendars;
+import android.provider.CalendarContract.Events;
+import android.text.Spannable;
+import android.text.TextUtils;
+import android.text.style.URLSpan;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.calendar.Utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The event and attendee details the notification actions (map, call and
+ * email) are built from, for a set of events.
+ *
+ * The details of all the events are loaded together the first time any of
+ * them is needed, with a couple of queries per {@link #BATCH_SIZE} events,
+ * so a burst of reminders doesn't query the provider for each event.
+ *
+ * Not thread safe.
+ */
+/* package */ class AlertEventDetails {
+    private static final String TAG = "AlertEventDetails";
+
+    // Event ids per query, they are inlined in the selection
+    static final int BATCH_SIZE = 100;
+    private static final int MAX_URL_SPANS = 32;
+
+    static final String[] EVENT_PROJECTION = new String[] {
+        Events._ID,              // 0
+        Calendars.OWNER_ACCOUNT, // 1
+        Calendars.ACCOUNT_NAME,  // 2
+        Events.TITLE,            // 3
+        Events.ORGANIZER,        // 4
+        Events.EVENT_LOCATION,   // 5
+    };
+    private static final int EVENT_INDEX_ID = 0;
+    private static final int EVENT_INDEX_OWNER_ACCOUNT = 1;
+    private static final int EVENT_INDEX_ACCOUNT_NAME = 2;
+    private static final int EVENT_INDEX_TITLE = 3;
+    private static final int EVENT_INDEX_ORGANIZER = 4;
+    private static final int EVENT_INDEX_LOCATION = 5;
+
+    static final String[] ATTENDEES_PROJECTION = new String[] {
+        Attendees.EVENT_ID,                 // 0
+        Attendees.ATTENDEE_EMAIL,           // 1
+        Attendees.ATTENDEE_STATUS,          // 2
+    };
+    private static final int ATTENDEES_INDEX_EVENT_ID = 0;
+    private static final int ATTENDEES_INDEX_EMAIL = 1;
+    private static final int ATTENDEES_INDEX_STATUS = 2;
+    private static final String ATTENDEES_SORT_ORDER = Attendees.EVENT_ID + " ASC, "
+            + Attendees.ATTENDEE_NAME + " ASC, " + Attendees.ATTENDEE_EMAIL + " ASC";
+
+    // The links found in a location, by location. Locations repeat across
+    // updates and linkifying them is slow.
+    private static final LruCache<String, URLSpan[]> sURLSpans =
+            new LruCache<String, URLSpan[]>(MAX_URL_SPANS);
+
+    /**
+     * The details of one event.
+     */
+    static class EventDetails {
+        final long eventId;
+        String ownerAccount;
+        String accountName;
+        String title;
+        String organizer;
+        String location;
+        // In the order the emails should be listed
+        final ArrayList<String> attendeeEmails = new ArrayList<String>();
+        final ArrayList<Integer> attendeeStatuses = new ArrayList<Integer>();
+
+        EventDetails(long eventId) {
+            this.eventId = eventId;
+        }
+
+        /**
+         * Using the linkify magic, gets the URLs in the location. If no such links are
+         * found, there is a single geo link of the entire location.
+         */
+        URLSpan[] getURLSpans() {
+            return AlertEventDetails.getURLSpans(location);
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final long[] mEventIds;
+    private final HashMap<Long, EventDetails> mDetails = new HashMap<Long, EventDetails>();
+    private boolean mLoaded;
+
+    /**
+     * @param resolver Queries the details, or null to only have the added ones
+     * @param eventIds The events to load together, the first time one of them is needed
+     */
+    AlertEventDetails(ContentResolver resolver, long[] eventIds) {
+        mResolver = resolver;
+        mEventIds = eventIds;
+    }
+
+    /**
+     * Returns the details of eventId, or null if the event wasn't found. Events that
+     * weren't passed to the constructor are loaded on their own.
+     */
+    EventDetails get(long eventId) {
+        if (!mLoaded) {
+            mLoaded = true;
+            load(mEventIds, 0, mEventIds.length);
+        }
+        if (!mDetails.containsKey(eventId)) {
+            load(new long[] { eventId }, 0, 1);
+        }
+        return mDetails.get(eventId);
+    }
+
+    private void load(long[] eventIds, int from, int to) {
+        for (int start = from; start < to; start += BATCH_SIZE) {
+            if (mResolver == null) {
+                break;
+            }
+            int end = Math.min(start + BATCH_SIZE, to);
+            Cursor eventCursor = mResolver.query(Events.CONTENT_URI, EVENT_PROJECTION,
+                    makeInSelection(Events._ID, eventIds, start, end), null, null);
+            try {
+                addEvents(eventCursor);
+            } finally {
+                if (eventCursor != null) {
+                    eventCursor.close();
+                }
+            }
+
+            Cursor attendeesCursor = mResolver.query(Attendees.CONTENT_URI,
+                    ATTENDEES_PROJECTION, makeInSelection(Attendees.EVENT_ID, eventIds, start,
+                    end), null, ATTENDEES_SORT_ORDER);
+            try {
+                addAttendees(attendeesCursor);
+            } finally {
+                if (attendeesCursor != null) {
+                    attendeesCursor.close();
+                }
+            }
+        }
+        // Remember the events that weren't found
+        for (int i = from; i < to; i++) {
+            if (!mDetails.containsKey(eventIds[i])) {
+                mDetails.put(eventIds[i], null);
+            }
+        }
+        if (AlertService.DEBUG) {
+            Log.d(TAG, "Loaded details of " + (to - from) + " events");
+        }
+    }
+
+    /**
+     * Adds the events in a cursor with {@link #EVENT_PROJECTION}.
+     */
+    /* package */ void addEvents(Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            EventDetails details = new EventDetails(cursor.getLong(EVENT_INDEX_ID));
+            details.ownerAccount = cursor.getString(EVENT_INDEX_OWNER_ACCOUNT);
+            details.accountName = cursor.getString(EVENT_INDEX_ACCOUNT_NAME);
+            details.title = cursor.getString(EVENT_INDEX_TITLE);
+            details.organizer = cursor.getString(EVENT_INDEX_ORGANIZER);
+            details.location = cursor.getString(EVENT_INDEX_LOCATION);
+            mDetails.put(details.eventId, details);
+        }
+    }
+
+    /**
+     * Adds the attendees in a cursor with {@link #ATTENDEES_PROJECTION} to their
+     * events, which were added before.
+     */
+    /* package */ void addAttendees(Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            EventDetails details = mDetails.get(cursor.getLong(ATTENDEES_INDEX_EVENT_ID));
+            if (details != null) {
+                details.attendeeEmails.add(cursor.getString(ATTENDEES_INDEX_EMAIL));
+                details.attendeeStatuses.add(cursor.getInt(ATTENDEES_INDEX_STATUS));
+            }
+        }
+    }
+
+    /**
+     * Returns "column IN (...)" for eventIds[from] to eventIds[to - 1].
+     */
+    static String makeInSelection(String column, long[] eventIds, int from, int to) {
+        StringBuilder selection = new StringBuilder(column).append(" IN (");
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                selection.append(',');
+            }
+            selection.append(eventIds[i]);
+        }
+        return selection.append(')').toString();
+    }
+
+    /**
+     * Using the linkify magic, gets the URLs in a location. If no such links are found,
+     * there is a single geo link of the entire location. The returned array is shared
+     * and must not be changed.
+     */
+    static URLSpan[] getURLSpans(String location) {
+        if (TextUtils.isEmpty(location)) {
+            return new URLSpan[0];
+        }
+        URLSpan[] urlSpans = sURLSpans.get(location);
+        if (urlSpans == null) {
+            Spannable text = Utils.extendedLinkify(location, true);
+            // The linkify method should have found at least one link, at the very least.
+            // If no smart links were found, it should have set the whole string as a geo link.
+            urlSpans = text.getSpans(0, text.length(), URLSpan.class);
+            sURLSpans.put(location, urlSpans);
+        }
+        return urlSpans;
+    }
+}
@@ -30,10 +30,8 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.PowerManager;
 import android.provider.CalendarContract.Attendees;
-import android.provider.CalendarContract.Calendars;
 import android.provider.CalendarContract.Events;
 import android.telephony.TelephonyManager;
-import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.text.style.RelativeSizeSpan;
@@ -45,6 +43,7 @@ import android.widget.RemoteViews;
 
 import com.android.calendar.R;
 import com.android.calendar.Utils;
+import com.android.calendar.alerts.AlertEventDetails.EventDetails;
 import com.android.calendar.alerts.AlertService.NotificationWrapper;
 
 import java.util.ArrayList;
@@ -261,14 +260,14 @@ public class AlertReceiver extends BroadcastReceiver {
             int notificationId, boolean doPopup, int priority) {
         Notification n = buildBasicNotification(new Notification.Builder(context),
                 context, title, summaryText, startMillis, endMillis, eventId, notificationId,
-                doPopup, priority, false);
+                doPopup, priority, false, null);
         return new NotificationWrapper(n, notificationId, eventId, startMillis, endMillis, doPopup);
     }
 
     private static Notification buildBasicNotification(Notification.Builder notificationBuilder,
             Context context, String title, String summaryText, long startMillis, long endMillis,
             long eventId, int notificationId, boolean doPopup, int priority,
-            boolean addActionButtons) {
+            boolean addActionButtons, AlertEventDetails details) {
         Resources resources = context.getResources();
         if (title == null || title.length() == 0) {
             title = resources.getString(R.string.no_title_label);
@@ -300,13 +299,20 @@ public class AlertReceiver extends BroadcastReceiver {
             //    not automatically close the notification shade.
             // 2) Event information will always be up to date.
 
+            if (details == null) {
+                details = new AlertEventDetails(context.getContentResolver(),
+                        new long[] { eventId });
+            }
+            EventDetails eventDetails = details.get(eventId);
+
             // Create map and/or call intents.
-            URLSpan[] urlSpans = getURLSpans(context, eventId);
+            URLSpan[] urlSpans = eventDetails != null ? eventDetails.getURLSpans()
+                    : new URLSpan[0];
             mapIntent = createMapBroadcastIntent(context, urlSpans, eventId);
             callIntent = createCallBroadcastIntent(context, urlSpans, eventId);
 
             // Create email intent for emailing attendees.
-            emailIntent = createBroadcastMailIntent(context, eventId, title);
+            emailIntent = createBroadcastMailIntent(context, eventId, eventDetails);
 
             // Create snooze intent.  TODO: change snooze to 10 minutes.
             snoozeIntent = createSnoozeIntent(context, eventId, startMillis, endMillis,
@@ -411,10 +417,21 @@ public class AlertReceiver extends BroadcastReceiver {
     public static NotificationWrapper makeExpandingNotification(Context context, String title,
             String summaryText, String description, long startMillis, long endMillis, long eventId,
             int notificationId, boolean doPopup, int priority) {
+        return makeExpandingNotification(context, title, summaryText, description, startMillis,
+                endMillis, eventId, notificationId, doPopup, priority, null);
+    }
+
+    /**
+     * @param details The details the actions are built from, including those of eventId,
+     *     or null to query them for eventId alone
+     */
+    static NotificationWrapper makeExpandingNotification(Context context, String title,
+            String summaryText, String description, long startMillis, long endMillis, long eventId,
+            int notificationId, boolean doPopup, int priority, AlertEventDetails details) {
         Notification.Builder basicBuilder = new Notification.Builder(context);
         Notification notification = buildBasicNotification(basicBuilder, context, title,
                 summaryText, startMillis, endMillis, eventId, notificationId, doPopup,
-                priority, true);
+                priority, true, details);
         if (Utils.isJellybeanOrLater()) {
             // Create a new-style expanded notification
             Notification.BigTextStyle expandedBuilder = new Notification.BigTextStyle();
@@ -583,39 +600,6 @@ public class AlertReceiver extends BroadcastReceiver {
         context.sendBroadcast(closeNotificationShadeIntent);
     }
 
-    private static final String[] ATTENDEES_PROJECTION = new String[] {
-        Attendees.ATTENDEE_EMAIL,           // 0
-        Attendees.ATTENDEE_STATUS,          // 1
-    };
-    private static final int ATTENDEES_INDEX_EMAIL = 0;
-    private static final int ATTENDEES_INDEX_STATUS = 1;
-    private static final String ATTENDEES_WHERE = Attendees.EVENT_ID + "=?";
-    private static final String ATTENDEES_SORT_ORDER = Attendees.ATTENDEE_NAME + " ASC, "
-            + Attendees.ATTENDEE_EMAIL + " ASC";
-
-    private static final String[] EVENT_PROJECTION = new String[] {
-        Calendars.OWNER_ACCOUNT, // 0
-        Calendars.ACCOUNT_NAME,  // 1
-        Events.TITLE,            // 2
-        Events.ORGANIZER,        // 3
-    };
-    private static final int EVENT_INDEX_OWNER_ACCOUNT = 0;
-    private static final int EVENT_INDEX_ACCOUNT_NAME = 1;
-    private static final int EVENT_INDEX_TITLE = 2;
-    private static final int EVENT_INDEX_ORGANIZER = 3;
-
-    private static Cursor getEventCursor(Context context, long eventId) {
-        return context.getContentResolver().query(
-                ContentUris.withAppendedId(Events.CONTENT_URI, eventId), EVENT_PROJECTION,
-                null, null, null);
-    }
-
-    private static Cursor getAttendeesCursor(Context context, long eventId) {
-        return context.getContentResolver().query(Attendees.CONTENT_URI,
-                ATTENDEES_PROJECTION, ATTENDEES_WHERE, new String[] { Long.toString(eventId) },
-                ATTENDEES_SORT_ORDER);
-    }
-
     private static Cursor getLocationCursor(Context context, long eventId) {
         return context.getContentResolver().query(
                 ContentUris.withAppendedId(Events.CONTENT_URI, eventId),
@@ -627,43 +611,23 @@ public class AlertReceiver extends BroadcastReceiver {
      * is clicked.
      */
     private static PendingIntent createBroadcastMailIntent(Context context, long eventId,
-            String eventTitle) {
-        // Query for viewer account.
-        String syncAccount = null;
-        Cursor eventCursor = getEventCursor(context, eventId);
-        try {
-            if (eventCursor != null && eventCursor.moveToFirst()) {
-                syncAccount = eventCursor.getString(EVENT_INDEX_ACCOUNT_NAME);
-            }
-        } finally {
-            if (eventCursor != null) {
-                eventCursor.close();
-            }
-        }
-
-        // Query attendees to see if there are any to email.
-        Cursor attendeesCursor = getAttendeesCursor(context, eventId);
-        try {
-            if (attendeesCursor != null && attendeesCursor.moveToFirst()) {
-                do {
-                    String email = attendeesCursor.getString(ATTENDEES_INDEX_EMAIL);
-                    if (Utils.isEmailableFrom(email, syncAccount)) {
-                        Intent broadcastIntent = new Intent(MAIL_ACTION);
-                        broadcastIntent.setClass(context, AlertReceiver.class);
-                        broadcastIntent.putExtra(EXTRA_EVENT_ID, eventId);
-                        return PendingIntent.getBroadcast(context,
-                                Long.valueOf(eventId).hashCode(), broadcastIntent,
-                                PendingIntent.FLAG_CANCEL_CURRENT);
-                    }
-                } while (attendeesCursor.moveToNext());
-            }
+            EventDetails eventDetails) {
+        if (eventDetails == null) {
             return null;
+        }
 
-        } finally {
-            if (attendeesCursor != null) {
-                attendeesCursor.close();
+        // See if there are any attendees to email from the viewer account.
+        for (String email : eventDetails.attendeeEmails) {
+            if (Utils.isEmailableFrom(email, eventDetails.accountName)) {
+                Intent broadcastIntent = new Intent(MAIL_ACTION);
+                broadcastIntent.setClass(context, AlertReceiver.class);
+                broadcastIntent.putExtra(EXTRA_EVENT_ID, eventId);
+                return PendingIntent.getBroadcast(context,
+                        Long.valueOf(eventId).hashCode(), broadcastIntent,
+                        PendingIntent.FLAG_CANCEL_CURRENT);
             }
         }
+        return null;
     }
 
     /**
@@ -674,49 +638,31 @@ public class AlertReceiver extends BroadcastReceiver {
         // TODO: Refactor to move query part into Utils.createEmailAttendeeIntent, to
         // be shared with EventInfoFragment.
 
-        // Query for the owner account(s).
-        String ownerAccount = null;
-        String syncAccount = null;
-        String eventTitle = null;
-        String eventOrganizer = null;
-        Cursor eventCursor = getEventCursor(context, eventId);
-        try {
-            if (eventCursor != null && eventCursor.moveToFirst()) {
-                ownerAccount = eventCursor.getString(EVENT_INDEX_OWNER_ACCOUNT);
-                syncAccount = eventCursor.getString(EVENT_INDEX_ACCOUNT_NAME);
-                eventTitle = eventCursor.getString(EVENT_INDEX_TITLE);
-                eventOrganizer = eventCursor.getString(EVENT_INDEX_ORGANIZER);
-            }
-        } finally {
-            if (eventCursor != null) {
-                eventCursor.close();
-            }
+        // Query for the owner account(s) and the attendees.
+        EventDetails eventDetails = new AlertEventDetails(context.getContentResolver(),
+                new long[] { eventId }).get(eventId);
+        if (eventDetails == null) {
+            return null;
         }
+        String ownerAccount = eventDetails.ownerAccount;
+        String syncAccount = eventDetails.accountName;
+        String eventTitle = eventDetails.title;
+        String eventOrganizer = eventDetails.organizer;
         if (TextUtils.isEmpty(eventTitle)) {
             eventTitle = context.getResources().getString(R.string.no_title_label);
         }
 
-        // Query for the attendees.
         List<String> toEmails = new ArrayList<String>();
         List<String> ccEmails = new ArrayList<String>();
-        Cursor attendeesCursor = getAttendeesCursor(context, eventId);
-        try {
-            if (attendeesCursor != null && attendeesCursor.moveToFirst()) {
-                do {
-                    int status = attendeesCursor.getInt(ATTENDEES_INDEX_STATUS);
-                    String email = attendeesCursor.getString(ATTENDEES_INDEX_EMAIL);
-                    switch(status) {
-                        case Attendees.ATTENDEE_STATUS_DECLINED:
-                            addIfEmailable(ccEmails, email, syncAccount);
-                            break;
-                        default:
-                            addIfEmailable(toEmails, email, syncAccount);
-                    }
-                } while (attendeesCursor.moveToNext());
-            }
-        } finally {
-            if (attendeesCursor != null) {
-                attendeesCursor.close();
+        for (int i = 0; i < eventDetails.attendeeEmails.size(); i++) {
+            int status = eventDetails.attendeeStatuses.get(i);
+            String email = eventDetails.attendeeEmails.get(i);
+            switch(status) {
+                case Attendees.ATTENDEE_STATUS_DECLINED:
+                    addIfEmailable(ccEmails, email, syncAccount);
+                    break;
+                default:
+                    addIfEmailable(toEmails, email, syncAccount);
             }
         }
 
@@ -758,12 +704,7 @@ public class AlertReceiver extends BroadcastReceiver {
         URLSpan[] urlSpans = new URLSpan[0];
         if (locationCursor != null && locationCursor.moveToFirst()) {
             String location = locationCursor.getString(0); // Only one item in this cursor.
-            if (location != null && !location.isEmpty()) {
-                Spannable text = Utils.extendedLinkify(location, true);
-                // The linkify method should have found at least one link, at the very least.
-                // If no smart links were found, it should have set the whole string as a geo link.
-                urlSpans = text.getSpans(0, text.length(), URLSpan.class);
-            }
+            urlSpans = AlertEventDetails.getURLSpans(location);
             locationCursor.close();
         }
 
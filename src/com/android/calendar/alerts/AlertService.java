@@ -34,6 +34,7 @@ import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Process;
+import android.os.SystemClock;
 import android.provider.CalendarContract;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.CalendarAlerts;
@@ -77,18 +78,18 @@ public class AlertService extends Service {
         CalendarAlerts.DESCRIPTION,             // 11
     };
 
-    private static final int ALERT_INDEX_ID = 0;
-    private static final int ALERT_INDEX_EVENT_ID = 1;
-    private static final int ALERT_INDEX_STATE = 2;
-    private static final int ALERT_INDEX_TITLE = 3;
-    private static final int ALERT_INDEX_EVENT_LOCATION = 4;
-    private static final int ALERT_INDEX_SELF_ATTENDEE_STATUS = 5;
-    private static final int ALERT_INDEX_ALL_DAY = 6;
-    private static final int ALERT_INDEX_ALARM_TIME = 7;
-    private static final int ALERT_INDEX_MINUTES = 8;
-    private static final int ALERT_INDEX_BEGIN = 9;
-    private static final int ALERT_INDEX_END = 10;
-    private static final int ALERT_INDEX_DESCRIPTION = 11;
+    static final int ALERT_INDEX_ID = 0;
+    static final int ALERT_INDEX_EVENT_ID = 1;
+    static final int ALERT_INDEX_STATE = 2;
+    static final int ALERT_INDEX_TITLE = 3;
+    static final int ALERT_INDEX_EVENT_LOCATION = 4;
+    static final int ALERT_INDEX_SELF_ATTENDEE_STATUS = 5;
+    static final int ALERT_INDEX_ALL_DAY = 6;
+    static final int ALERT_INDEX_ALARM_TIME = 7;
+    static final int ALERT_INDEX_MINUTES = 8;
+    static final int ALERT_INDEX_BEGIN = 9;
+    static final int ALERT_INDEX_END = 10;
+    static final int ALERT_INDEX_DESCRIPTION = 11;
 
     private static final String ACTIVE_ALERTS_SELECTION = "(" + CalendarAlerts.STATE + "=? OR "
             + CalendarAlerts.STATE + "=?) AND " + CalendarAlerts.ALARM_TIME + "<=";
@@ -120,6 +121,8 @@ public class AlertService extends Service {
             "preference_received_provider_reminder_broadcast";
     private static Boolean sReceivedProviderReminderBroadcast = null;
 
+    private static final Object sUpdateLock = new Object();
+
     // Added wrapper for testing
     public static class NotificationWrapper {
         Notification mNotification;
@@ -127,6 +130,8 @@ public class AlertService extends Service {
         long mBegin;
         long mEnd;
         ArrayList<NotificationWrapper> mNw;
+        // Whether posting it makes a sound, vibrates or flashes a ticker
+        boolean mAlerting;
 
         public NotificationWrapper(Notification n, int notificationId, long eventId,
                 long startMillis, long endMillis, boolean doPopup) {
@@ -214,6 +219,12 @@ public class AlertService extends Service {
                 } catch (Exception e) {
                     // Ignore.
                 }
+                // The saved reminder alarms and fired alerts may be out of date
+                AlarmScheduler.onEventsChanged(this);
+                onAlertsChanged(this);
+            } else if (action.equals(Intent.ACTION_LOCALE_CHANGED)) {
+                // The notifications have to be posted again in the new locale
+                onAlertsChanged(this);
             }
 
             // If we dismissed a notification for a new event, then we need to sync the cache when
@@ -223,7 +234,7 @@ public class AlertService extends Service {
             // TODO(psliwowski): Find a quicker way to be notified when the data provider has the
             // syncId for event.
             GlobalDismissManager.syncSenderDismissCache(this);
-            updateAlertNotification(this);
+            updateAlertNotification(this, BatchingNotificationMgr.getInstance(this));
         } else if (action.equals(Intent.ACTION_BOOT_COMPLETED)) {
             // The provider usually initiates this setting up of alarms on startup,
             // but there was a bug (b/7221716) where a race condition caused this step to be
@@ -262,10 +273,27 @@ public class AlertService extends Service {
         });
     }
 
+    /**
+     * Drops the fired alerts cached for the next update, which then queries all the
+     * alerts.  Call this after changing the state of alerts.
+     */
+    static void onAlertsChanged(Context context) {
+        AlertBucketCache.getInstance(context).invalidate();
+    }
+
     static boolean updateAlertNotification(Context context) {
+        BatchingNotificationMgr nm = BatchingNotificationMgr.getInstance(context);
+        boolean result = updateAlertNotification(context, nm);
+        nm.flush();
+        return result;
+    }
+
+    /**
+     * Updates the notifications through nm, leaving the changes queued for the caller to
+     * flush.
+     */
+    private static boolean updateAlertNotification(Context context, NotificationMgr nm) {
         ContentResolver cr = context.getContentResolver();
-        NotificationMgr nm = new NotificationMgrWrapper(
-                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE));
         final long currentTime = System.currentTimeMillis();
         SharedPreferences prefs = GeneralPreferences.getSharedPreferences(context);
 
@@ -281,32 +309,79 @@ public class AlertService extends Service {
             // If we shouldn't be showing notifications cancel any existing ones
             // and return.
             nm.cancelAll();
+            onAlertsChanged(context);
             return true;
         }
 
         // Sync CalendarAlerts with global dismiss cache before query it
         GlobalDismissManager.syncReceiverDismissCache(context);
-        Cursor alertCursor = cr.query(CalendarAlerts.CONTENT_URI, ALERT_PROJECTION,
-                (ACTIVE_ALERTS_SELECTION + currentTime), ACTIVE_ALERTS_SELECTION_ARGS,
-                ACTIVE_ALERTS_SORT);
 
-        if (alertCursor == null || alertCursor.getCount() == 0) {
-            if (alertCursor != null) {
-                alertCursor.close();
+        // If the alerts processed by the last update are cached, only query the ones that
+        // came due since.
+        AlertBucketCache cache = AlertBucketCache.getInstance(context);
+        String timeZone = TimeZone.getDefault().getID();
+        String skipRemindersPref = Utils.getSharedPreference(context,
+                OtherPreferences.KEY_OTHER_REMINDERS_RESPONDED, "");
+        // Updates from the service and from AlertActivity take turns with the cache.
+        synchronized (sUpdateLock) {
+            boolean incremental = cache.isValid(timeZone, skipRemindersPref);
+            String selection = ACTIVE_ALERTS_SELECTION + currentTime;
+            if (incremental) {
+                selection += " AND " + CalendarAlerts.ALARM_TIME + ">" + cache.getHighWaterMark();
             }
+            Cursor alertCursor = cr.query(CalendarAlerts.CONTENT_URI, ALERT_PROJECTION,
+                    selection, ACTIVE_ALERTS_SELECTION_ARGS, ACTIVE_ALERTS_SORT);
 
-            if (DEBUG) Log.d(TAG, "No fired or scheduled alerts");
-            nm.cancelAll();
-            return false;
-        }
+            if (alertCursor == null) {
+                cache.invalidate();
+                nm.cancelAll();
+                return false;
+            }
 
-        return generateAlerts(context, nm, AlertUtils.createAlarmManager(context), prefs,
-                alertCursor, currentTime, MAX_NOTIFICATIONS);
+            if (incremental) {
+                if (alertCursor.getCount() == 0 && currentTime < cache.getNextBucketChange()) {
+                    // Nothing to fire and no notification changes buckets, the posted ones
+                    // are up to date.
+                    alertCursor.close();
+                    if (DEBUG) Log.d(TAG, "No new alerts, keeping notifications: " + cache);
+                    return true;
+                }
+                if (DEBUG) {
+                    Log.d(TAG, alertCursor.getCount() + " new alerts, " + cache.size() + " cached");
+                }
+                alertCursor = cache.mergeWith(alertCursor);
+            }
+
+            cache.beginUpdate();
+            boolean result;
+            if (alertCursor.getCount() == 0) {
+                alertCursor.close();
+
+                if (DEBUG) Log.d(TAG, "No fired or scheduled alerts");
+                nm.cancelAll();
+                result = false;
+            } else {
+                result = generateAlerts(context, nm, AlertUtils.createAlarmManager(context), prefs,
+                        alertCursor, currentTime, MAX_NOTIFICATIONS, cache);
+            }
+            cache.endUpdate(timeZone, skipRemindersPref, currentTime);
+            return result;
+        }
     }
 
     public static boolean generateAlerts(Context context, NotificationMgr nm,
             AlarmManagerInterface alarmMgr, SharedPreferences prefs, Cursor alertCursor,
             final long currentTime, final int maxNotifications) {
+        return generateAlerts(context, nm, alarmMgr, prefs, alertCursor, currentTime,
+                maxNotifications, null);
+    }
+
+    /**
+     * @param cache Keeps the fired alerts and their buckets for the next update, or null
+     */
+    static boolean generateAlerts(Context context, NotificationMgr nm,
+            AlarmManagerInterface alarmMgr, SharedPreferences prefs, Cursor alertCursor,
+            final long currentTime, final int maxNotifications, AlertBucketCache cache) {
         if (DEBUG) {
             Log.d(TAG, "alertCursor count:" + alertCursor.getCount());
         }
@@ -316,7 +391,7 @@ public class AlertService extends Service {
         ArrayList<NotificationInfo> mediumPriorityEvents = new ArrayList<NotificationInfo>();
         ArrayList<NotificationInfo> lowPriorityEvents = new ArrayList<NotificationInfo>();
         int numFired = processQuery(alertCursor, context, currentTime, highPriorityEvents,
-                mediumPriorityEvents, lowPriorityEvents);
+                mediumPriorityEvents, lowPriorityEvents, cache);
 
         if (highPriorityEvents.size() + mediumPriorityEvents.size()
                 + lowPriorityEvents.size() == 0) {
@@ -334,6 +409,11 @@ public class AlertService extends Service {
         redistributeBuckets(highPriorityEvents, mediumPriorityEvents, lowPriorityEvents,
                 maxNotifications);
 
+        // The actions of the individual notifications are built from the details of their
+        // events, load those together when the first one is needed.
+        AlertEventDetails details = new AlertEventDetails(context.getContentResolver(),
+                getEventIds(highPriorityEvents, mediumPriorityEvents));
+
         // Post the individual higher priority events (future and recently started
         // concurrent events).  Order these so that earlier start times appear higher in
         // the notification list.
@@ -342,7 +422,7 @@ public class AlertService extends Service {
             String summaryText = AlertUtils.formatTimeLocation(context, info.startMillis,
                     info.allDay, info.location);
             postNotification(info, summaryText, context, true, notificationPrefs, nm,
-                    currentNotificationId++);
+                    currentNotificationId++, details);
 
             // Keep concurrent events high priority (to appear higher in the notification list)
             // until 15 minutes into the event.
@@ -361,7 +441,7 @@ public class AlertService extends Service {
             String summaryText = AlertUtils.formatTimeLocation(context, info.startMillis,
                     info.allDay, info.location);
             postNotification(info, summaryText, context, false, notificationPrefs, nm,
-                    currentNotificationId++);
+                    currentNotificationId++, details);
 
             // Refresh when concurrent event ends so it will drop into the expired digest.
             nextRefreshTime = Math.min(nextRefreshTime, getNextRefreshTime(info, currentTime));
@@ -369,7 +449,15 @@ public class AlertService extends Service {
 
         // Post the low priority events as 1 combined notification.
         int numLowPriority = lowPriorityEvents.size();
-        if (numLowPriority > 0) {
+        long digestFingerprint = numLowPriority > 0
+                ? getDigestFingerprint(lowPriorityEvents, currentTime) : 0;
+        if (numLowPriority > 0 && nm.isPosted(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID,
+                digestFingerprint)) {
+            if (DEBUG) {
+                Log.d(TAG, "Skipping unchanged digest notification, numEvents:"
+                        + numLowPriority);
+            }
+        } else if (numLowPriority > 0) {
             String expiredDigestTitle = getDigestTitle(lowPriorityEvents);
             NotificationWrapper notification;
             if (numLowPriority == 1) {
@@ -399,7 +487,7 @@ public class AlertService extends Service {
           }
 
             // Post the new notification for the group.
-            nm.notify(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID, notification);
+            nm.notify(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID, notification, digestFingerprint);
         } else {
             nm.cancel(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID);
             if (DEBUG) {
@@ -551,6 +639,19 @@ public class AlertService extends Service {
             final long currentTime, ArrayList<NotificationInfo> highPriorityEvents,
             ArrayList<NotificationInfo> mediumPriorityEvents,
             ArrayList<NotificationInfo> lowPriorityEvents) {
+        return processQuery(alertCursor, context, currentTime, highPriorityEvents,
+                mediumPriorityEvents, lowPriorityEvents, null);
+    }
+
+    /**
+     * @param cache Keeps the fired alerts and their buckets for the next update, or null.
+     *     Alerts it has kept since an earlier update stay in the same bucket until the
+     *     bucket would change.
+     */
+    static int processQuery(final Cursor alertCursor, final Context context,
+            final long currentTime, ArrayList<NotificationInfo> highPriorityEvents,
+            ArrayList<NotificationInfo> mediumPriorityEvents,
+            ArrayList<NotificationInfo> lowPriorityEvents, AlertBucketCache cache) {
         // Experimental reminder setting to only remind for events that have
         // been responded to with "yes" or "maybe".
         String skipRemindersPref = Utils.getSharedPreference(context,
@@ -659,9 +760,9 @@ public class AlertService extends Service {
                 if (AlertUtils.BYPASS_DB && ((currentTime - alarmTime) / MINUTE_MS < 1)) {
                     // To avoid re-firing alerts, only fire if alarmTime is very recent.  Otherwise
                     // we can get refires for non-dismissed alerts after app installation, or if the
-                    // SharedPrefs was cleared too early.  This means alerts that were timed while
-                    // the phone was off may show up silently in the notification bar.
-                    boolean alreadyFired = AlertUtils.hasAlertFiredInSharedPrefs(context, eventId,
+                    // fired alerts ledger was flushed too early.  This means alerts that were timed
+                    // while the phone was off may show up silently in the notification bar.
+                    boolean alreadyFired = AlertUtils.hasAlertFired(context, eventId,
                             beginTime, alarmTime);
                     if (!alreadyFired) {
                         newAlertOverride = true;
@@ -732,14 +833,15 @@ public class AlertService extends Service {
                     state = newState;
 
                     if (AlertUtils.BYPASS_DB) {
-                        AlertUtils.setAlertFiredInSharedPrefs(context, eventId, beginTime,
-                                alarmTime);
+                        AlertUtils.setAlertFired(context, eventId, beginTime, alarmTime);
                     }
                 }
 
-                if (state == CalendarAlerts.STATE_FIRED) {
+                if (state == CalendarAlerts.STATE_FIRED
+                        && (newState != -1 || cache == null || !cache.contains(alertId))) {
                     // Record the time posting to notification manager.
-                    // This is used for debugging missed alarms.
+                    // This is used for debugging missed alarms.  Alerts posted by an
+                    // earlier update keep the time they were first posted.
                     values.put(CalendarAlerts.NOTIFY_TIME, currentTime);
                 }
 
@@ -749,6 +851,9 @@ public class AlertService extends Service {
                 if (state != CalendarAlerts.STATE_FIRED) {
                     continue;
                 }
+                if (cache != null) {
+                    cache.keep(alertCursor, state);
+                }
 
                 // TODO: Prefer accepted events in case of ties.
                 NotificationInfo newInfo = new NotificationInfo(eventName, location,
@@ -810,18 +915,35 @@ public class AlertService extends Service {
 
                 // TODO: Prioritize by "primary" calendar
                 eventIds.put(eventId, newInfo);
-                long highPriorityCutoff = currentTime -
-                        getGracePeriodMs(beginTime, endTime, allDay);
+                int bucket = cache != null ? cache.getBucket(alertId, currentTime)
+                        : AlertBucketCache.BUCKET_NONE;
+                if (bucket == AlertBucketCache.BUCKET_NONE) {
+                    long highPriorityCutoff = currentTime -
+                            getGracePeriodMs(beginTime, endTime, allDay);
+
+                    if (beginTimeAdjustedForAllDay > highPriorityCutoff) {
+                        // High priority = future events or events that just started
+                        bucket = AlertBucketCache.BUCKET_HIGH;
+                    } else if (allDay && tz != null
+                            && DateUtils.isToday(beginTimeAdjustedForAllDay)) {
+                        // Medium priority = in progress all day events
+                        bucket = AlertBucketCache.BUCKET_MEDIUM;
+                    } else {
+                        bucket = AlertBucketCache.BUCKET_LOW;
+                    }
+                }
 
-                if (beginTimeAdjustedForAllDay > highPriorityCutoff) {
-                    // High priority = future events or events that just started
+                if (bucket == AlertBucketCache.BUCKET_HIGH) {
                     highPriorityEvents.add(newInfo);
-                } else if (allDay && tz != null && DateUtils.isToday(beginTimeAdjustedForAllDay)) {
-                    // Medium priority = in progress all day events
+                } else if (bucket == AlertBucketCache.BUCKET_MEDIUM) {
                     mediumPriorityEvents.add(newInfo);
                 } else {
                     lowPriorityEvents.add(newInfo);
                 }
+                if (cache != null) {
+                    // Keep the bucket until the next time it would change
+                    cache.setBucket(alertId, bucket, getNextRefreshTime(newInfo, currentTime));
+                }
             }
             // TODO(psliwowski): move this to account synchronization
             GlobalDismissManager.processEventIds(context, eventIds.keySet());
@@ -846,6 +968,26 @@ public class AlertService extends Service {
         }
     }
 
+    /**
+     * Returns a fingerprint of what the digest of events shows.  The times of the events
+     * are shown relative to today.
+     */
+    private static long getDigestFingerprint(ArrayList<NotificationInfo> events,
+            long currentTime) {
+        long fingerprint = BatchingNotificationMgr.fingerprint();
+        fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, Time.getJulianDay(
+                currentTime, TimeZone.getDefault().getOffset(currentTime) / 1000));
+        for (NotificationInfo info : events) {
+            fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, info.eventId);
+            fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, info.startMillis);
+            fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, info.endMillis);
+            fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, info.allDay ? 1 : 0);
+            fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, info.eventName);
+            fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, info.location);
+        }
+        return fingerprint;
+    }
+
     private static String getDigestTitle(ArrayList<NotificationInfo> events) {
         StringBuilder digestTitle = new StringBuilder();
         for (NotificationInfo eventInfo : events) {
@@ -859,18 +1001,52 @@ public class AlertService extends Service {
         return digestTitle.toString();
     }
 
+    private static long[] getEventIds(ArrayList<NotificationInfo> highPriorityEvents,
+            ArrayList<NotificationInfo> mediumPriorityEvents) {
+        long[] eventIds = new long[highPriorityEvents.size() + mediumPriorityEvents.size()];
+        int i = 0;
+        for (NotificationInfo info : highPriorityEvents) {
+            eventIds[i++] = info.eventId;
+        }
+        for (NotificationInfo info : mediumPriorityEvents) {
+            eventIds[i++] = info.eventId;
+        }
+        return eventIds;
+    }
+
     private static void postNotification(NotificationInfo info, String summaryText,
             Context context, boolean highPriority, NotificationPrefs prefs,
-            NotificationMgr notificationMgr, int notificationId) {
+            NotificationMgr notificationMgr, int notificationId, AlertEventDetails details) {
         int priorityVal = Notification.PRIORITY_DEFAULT;
         if (highPriority) {
             priorityVal = Notification.PRIORITY_HIGH;
         }
 
+        // A quiet update of a notification that shows the same as the one posted can be
+        // skipped, without building it again.
+        long fingerprint = BatchingNotificationMgr.fingerprint();
+        fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, info.eventId);
+        fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, info.startMillis);
+        fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, info.endMillis);
+        fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, info.eventName);
+        fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, info.location);
+        fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, info.description);
+        fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, summaryText);
+        fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, priorityVal);
+        fingerprint = BatchingNotificationMgr.fingerprint(fingerprint, prefs.getDoPopup() ? 1 : 0);
+        if (!info.newAlert && notificationMgr.isPosted(notificationId, fingerprint)) {
+            if (DEBUG) {
+                Log.d(TAG, "Skipping unchanged notification, eventId:" + info.eventId
+                        + ", notificationId:" + notificationId);
+            }
+            return;
+        }
+
         String tickerText = getTickerText(info.eventName, info.location);
         NotificationWrapper notification = AlertReceiver.makeExpandingNotification(context,
                 info.eventName, summaryText, info.description, info.startMillis,
-                info.endMillis, info.eventId, notificationId, prefs.getDoPopup(), priorityVal);
+                info.endMillis, info.eventId, notificationId, prefs.getDoPopup(), priorityVal,
+                details);
 
         boolean quietUpdate = true;
         String ringtone = NotificationPrefs.EMPTY_RINGTONE;
@@ -886,7 +1062,7 @@ public class AlertService extends Service {
                 true); /* Show the LED for these non-expired events */
 
         // Post the notification.
-        notificationMgr.notify(notificationId, notification);
+        notificationMgr.notify(notificationId, notification, fingerprint);
 
         if (DEBUG) {
             Log.d(TAG, "Posting individual alarm notification, eventId:" + info.eventId
@@ -938,6 +1114,8 @@ public class AlertService extends Service {
 
         // Quietly update notification bar. Nothing new. Maybe something just got deleted.
         if (!quietUpdate) {
+            nw.mAlerting = true;
+
             // Flash ticker in status bar
             if (!TextUtils.isEmpty(tickerText)) {
                 notification.tickerText = tickerText;
@@ -1010,9 +1188,10 @@ public class AlertService extends Service {
 
     private void doTimeChanged() {
         ContentResolver cr = getContentResolver();
+        onAlertsChanged(this);
         // TODO Move this into Provider
         rescheduleMissedAlarms(cr, this, AlertUtils.createAlarmManager(this));
-        updateAlertNotification(this);
+        updateAlertNotification(this, BatchingNotificationMgr.getInstance(this));
     }
 
     private static final String SORT_ORDER_ALARMTIME_ASC =
@@ -1090,6 +1269,13 @@ public class AlertService extends Service {
         @Override
         public void handleMessage(Message msg) {
             processMessage(msg);
+            // Coalesce the notification changes of the intents that came in meanwhile, the
+            // last one to be processed applies them. A reminder that rings, or changes kept
+            // waiting too long, are applied now while the wake lock is still held.
+            BatchingNotificationMgr nm = BatchingNotificationMgr.getInstance(AlertService.this);
+            if (!hasMessages(0) || nm.isFlushDue(SystemClock.elapsedRealtime())) {
+                nm.flush();
+            }
             // NOTE: We MUST not call stopSelf() directly, since we need to
             // make sure the wake lock acquired by AlertReceiver is released.
             AlertReceiver.finishStartingService(AlertService.this, msg.arg1);
@@ -1123,6 +1309,7 @@ public class AlertService extends Service {
     @Override
     public void onDestroy() {
         mServiceLooper.quit();
+        BatchingNotificationMgr.getInstance(this).flush();
     }
 
     @Override
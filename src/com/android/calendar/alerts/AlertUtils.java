@@ -62,18 +62,20 @@ public class AlertUtils {
     // alerts from other apps.
     static boolean BYPASS_DB = true;
 
-    // SharedPrefs table name for storing fired alerts.  This prevents other installed
-    // Calendar apps from eating the alerts.
+    // SharedPrefs table name that older versions stored fired alerts in.  Fired alerts are
+    // now kept in a FiredAlertLedger, which also prevents other installed Calendar apps
+    // from eating the alerts.
     private static final String ALERTS_SHARED_PREFS_NAME = "calendar_alerts";
 
     // Keyname prefix for the alerts data in SharedPrefs.  The key will contain a combo
     // of event ID, begin time, and alarm time.  The value will be the fired time.
     private static final String KEY_FIRED_ALERT_PREFIX = "preference_alert_";
 
-    // The last time the SharedPrefs was scanned and flushed of old alerts data.
-    private static final String KEY_LAST_FLUSH_TIME_MS = "preference_flushTimeMs";
+    // Whether the fired alerts left in SharedPrefs by older versions were moved to the
+    // fired alerts ledger in this process.
+    private static boolean sFiredAlertsImported;
 
-    // The # of days to save alert states in the shared prefs table, before flushing.  This
+    // The # of days to save alert states in the fired alerts ledger, before flushing.  This
     // can be any value, since AlertService will also check for a recent alertTime before
     // ringing the alert.
     private static final int FLUSH_INTERVAL_DAYS = 1;
@@ -230,98 +232,80 @@ public class AlertUtils {
         return context.getSharedPreferences(ALERTS_SHARED_PREFS_NAME, Context.MODE_PRIVATE);
     }
 
-    private static String getFiredAlertsKey(long eventId, long beginTime,
-            long alarmTime) {
-        StringBuilder sb = new StringBuilder(KEY_FIRED_ALERT_PREFIX);
-        sb.append(eventId);
-        sb.append("_");
-        sb.append(beginTime);
-        sb.append("_");
-        sb.append(alarmTime);
-        return sb.toString();
-    }
-
     /**
-     * Returns whether the SharedPrefs storage indicates we have fired the alert before.
+     * Returns whether the fired alerts ledger indicates we have fired the alert before.
      */
-    static boolean hasAlertFiredInSharedPrefs(Context context, long eventId, long beginTime,
+    static boolean hasAlertFired(Context context, long eventId, long beginTime,
             long alarmTime) {
-        SharedPreferences prefs = getFiredAlertsTable(context);
-        return prefs.contains(getFiredAlertsKey(eventId, beginTime, alarmTime));
+        return FiredAlertLedger.getInstance(context).contains(eventId, beginTime, alarmTime);
     }
 
     /**
-     * Store fired alert info in the SharedPrefs.
+     * Store fired alert info in the fired alerts ledger.
      */
-    static void setAlertFiredInSharedPrefs(Context context, long eventId, long beginTime,
+    static void setAlertFired(Context context, long eventId, long beginTime,
             long alarmTime) {
-        // Store alarm time as the value too so we don't have to parse all the keys to flush
-        // old alarms out of the table later.
-        SharedPreferences prefs = getFiredAlertsTable(context);
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putLong(getFiredAlertsKey(eventId, beginTime, alarmTime), alarmTime);
-        editor.apply();
+        FiredAlertLedger.getInstance(context).add(eventId, beginTime, alarmTime);
     }
 
     /**
      * Scans and flushes the internal storage of old alerts.  Looks up the previous flush
-     * time in SharedPrefs, and performs the flush if overdue.  Otherwise, no-op.
+     * time in the fired alerts ledger, and performs the flush if overdue.  Otherwise, no-op.
      */
     static void flushOldAlertsFromInternalStorage(Context context) {
         if (BYPASS_DB) {
-            SharedPreferences prefs = getFiredAlertsTable(context);
+            FiredAlertLedger ledger = FiredAlertLedger.getInstance(context);
+            synchronized (AlertUtils.class) {
+                if (!sFiredAlertsImported) {
+                    sFiredAlertsImported = true;
+                    importFiredAlertsFromSharedPrefs(context, ledger);
+                }
+            }
 
             // Only flush if it hasn't been done in a while.
             long nowTime = System.currentTimeMillis();
-            long lastFlushTimeMs = prefs.getLong(KEY_LAST_FLUSH_TIME_MS, 0);
-            if (nowTime - lastFlushTimeMs > FLUSH_INTERVAL_MS) {
+            if (nowTime - ledger.getLastExpireTime() > FLUSH_INTERVAL_MS) {
+                // Remove the alerts that fired at least FLUSH_INTERVAL_MS ago.
+                int removed = ledger.expire(nowTime - FLUSH_INTERVAL_MS + 1, nowTime);
                 if (DEBUG) {
-                    Log.d(TAG, "Flushing old alerts from shared prefs table");
-                }
-
-                // Scan through all fired alert entries, removing old ones.
-                SharedPreferences.Editor editor = prefs.edit();
-                Time timeObj = new Time();
-                for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
-                    String key = entry.getKey();
-                    Object value = entry.getValue();
-                    if (key.startsWith(KEY_FIRED_ALERT_PREFIX)) {
-                        long alertTime;
-                        if (value instanceof Long) {
-                            alertTime = (Long) value;
-                        } else {
-                            // Should never occur.
-                            Log.e(TAG,"SharedPrefs key " + key + " did not have Long value: " +
-                                    value);
-                            continue;
-                        }
-
-                        if (nowTime - alertTime >= FLUSH_INTERVAL_MS) {
-                            editor.remove(key);
-                            if (DEBUG) {
-                                int ageInDays = getIntervalInDays(alertTime, nowTime, timeObj);
-                                Log.d(TAG, "SharedPrefs key " + key + ": removed (" + ageInDays +
-                                        " days old)");
-                            }
-                        } else {
-                            if (DEBUG) {
-                                int ageInDays = getIntervalInDays(alertTime, nowTime, timeObj);
-                                Log.d(TAG, "SharedPrefs key " + key + ": keep (" + ageInDays +
-                                        " days old)");
-                            }
-                        }
-                    }
+                    Log.d(TAG, "Flushed " + removed + " old alerts from the fired alerts ledger, "
+                            + ledger);
                 }
-                editor.putLong(KEY_LAST_FLUSH_TIME_MS, nowTime);
-                editor.apply();
             }
         }
     }
 
-    private static int getIntervalInDays(long startMillis, long endMillis, Time timeObj) {
-        timeObj.set(startMillis);
-        int startDay = Time.getJulianDay(startMillis, timeObj.gmtoff);
-        timeObj.set(endMillis);
-        return Time.getJulianDay(endMillis, timeObj.gmtoff) - startDay;
+    /**
+     * Moves the fired alerts stored in the SharedPrefs table by older versions into the
+     * fired alerts ledger, and clears the table.
+     */
+    private static void importFiredAlertsFromSharedPrefs(Context context,
+            FiredAlertLedger ledger) {
+        SharedPreferences prefs = getFiredAlertsTable(context);
+        Map<String, ?> entries = prefs.getAll();
+        if (entries.isEmpty()) {
+            return;
+        }
+        int imported = 0;
+        for (String key : entries.keySet()) {
+            if (!key.startsWith(KEY_FIRED_ALERT_PREFIX)) {
+                continue;
+            }
+            String[] parts = key.substring(KEY_FIRED_ALERT_PREFIX.length()).split("_");
+            if (parts.length != 3) {
+                continue;
+            }
+            try {
+                ledger.add(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                        Long.parseLong(parts[2]));
+                imported++;
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "SharedPrefs key " + key + " is malformed");
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Moved " + imported + " fired alerts from shared prefs to the ledger");
+        }
+        prefs.edit().clear().apply();
     }
 }
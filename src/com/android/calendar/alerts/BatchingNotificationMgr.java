@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.calendar.alerts;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.calendar.alerts.AlertService.NotificationMgrWrapper;
+import com.android.calendar.alerts.AlertService.NotificationWrapper;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Posts and cancels notifications in batches, and remembers a fingerprint
+ * of what each posted notification shows so posting it again unchanged can
+ * be skipped.
+ *
+ * Changes are queued and only reach the notification manager on
+ * {@link #flush}, where the last change to each id wins. AlertService
+ * flushes when it runs out of intents to process, so the updates of a burst
+ * of intents are applied as one batch. A notification that alerts the user
+ * doesn't wait for the burst to end though, and neither does any change
+ * queued for longer than {@link #MAX_BATCH_DELAY_MILLIS}, see
+ * {@link #isFlushDue}. Canceling an id that is known not to be posted is
+ * skipped.
+ *
+ * Thread safe.
+ */
+/* package */ class BatchingNotificationMgr extends NotificationMgr {
+    private static final String TAG = "BatchingNotificationMgr";
+
+    // The state of an id known to have no notification
+    private static final long CANCELED = Long.MIN_VALUE;
+    private static final long FINGERPRINT_SEED = 0xcbf29ce484222325L;
+    private static final long FINGERPRINT_PRIME = 0x100000001b3L;
+
+    /**
+     * How long a change may stay queued while AlertService keeps processing
+     * intents, some of which take seconds.
+     */
+    static final long MAX_BATCH_DELAY_MILLIS = 2000;
+
+    private static BatchingNotificationMgr sInstance;
+
+    private final NotificationMgr mTarget;
+
+    // The fingerprint posted with each id including queued changes, or
+    // CANCELED. Ids not in here may or may not have a notification.
+    private final HashMap<Integer, Long> mStates = new HashMap<Integer, Long>();
+    // The queued changes by id, a null notification cancels
+    private final LinkedHashMap<Integer, NotificationWrapper> mPending =
+            new LinkedHashMap<Integer, NotificationWrapper>();
+    // When the oldest queued change was made, in elapsed realtime
+    private long mFirstQueuedTime;
+    // Whether a queued notification alerts the user
+    private boolean mAlerting;
+
+    private int mPosts;
+    private int mCancels;
+    private int mSkips;
+
+    BatchingNotificationMgr(NotificationMgr target) {
+        mTarget = target;
+    }
+
+    static synchronized BatchingNotificationMgr getInstance(Context context) {
+        if (sInstance == null) {
+            NotificationManager nm = (NotificationManager) context.getApplicationContext()
+                    .getSystemService(Context.NOTIFICATION_SERVICE);
+            sInstance = new BatchingNotificationMgr(new NotificationMgrWrapper(nm));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts a fingerprint, add the parts of a notification to it with the
+     * fingerprint methods.
+     */
+    static long fingerprint() {
+        return FINGERPRINT_SEED;
+    }
+
+    static long fingerprint(long fingerprint, long value) {
+        for (int i = 0; i < 8; i++) {
+            fingerprint = (fingerprint ^ (value & 0xff)) * FINGERPRINT_PRIME;
+            value >>>= 8;
+        }
+        return fingerprint;
+    }
+
+    static long fingerprint(long fingerprint, String value) {
+        if (value == null) {
+            return fingerprint(fingerprint, -1);
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            fingerprint = (fingerprint ^ value.charAt(i)) * FINGERPRINT_PRIME;
+        }
+        return fingerprint(fingerprint, length);
+    }
+
+    @Override
+    public synchronized boolean isPosted(int id, long fingerprint) {
+        Long state = mStates.get(id);
+        if (state != null && state == fingerprint && fingerprint != CANCELED) {
+            mSkips++;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void notify(int id, NotificationWrapper notification) {
+        // What the notification shows isn't known
+        mStates.remove(id);
+        queue(id, notification);
+    }
+
+    @Override
+    public synchronized void notify(int id, NotificationWrapper notification,
+            long fingerprint) {
+        mStates.put(id, fingerprint);
+        queue(id, notification);
+    }
+
+    @Override
+    public synchronized void cancel(int id) {
+        Long state = mStates.get(id);
+        if (state != null && state == CANCELED) {
+            return;
+        }
+        mStates.put(id, CANCELED);
+        queue(id, null);
+    }
+
+    private void queue(int id, NotificationWrapper notification) {
+        if (mPending.isEmpty()) {
+            mFirstQueuedTime = SystemClock.elapsedRealtime();
+        }
+        if (notification != null && notification.mAlerting) {
+            mAlerting = true;
+        }
+        // Replaces an earlier change to id, and moves it to the end so the
+        // changes are applied in the order they were last made
+        mPending.remove(id);
+        mPending.put(id, notification);
+    }
+
+    /**
+     * Forgets what is posted with id, after the notification was canceled
+     * some other way.
+     */
+    synchronized void forget(int id) {
+        mStates.remove(id);
+    }
+
+    /**
+     * Forgets what all the notifications show.
+     */
+    synchronized void forgetAll() {
+        mStates.clear();
+    }
+
+    /**
+     * Returns true if the queued changes shouldn't wait for the rest of a
+     * batch: a queued notification alerts the user, or the oldest change was
+     * queued {@link #MAX_BATCH_DELAY_MILLIS} before now.
+     *
+     * @param now The elapsed realtime
+     */
+    synchronized boolean isFlushDue(long now) {
+        return !mPending.isEmpty()
+                && (mAlerting || now - mFirstQueuedTime >= MAX_BATCH_DELAY_MILLIS);
+    }
+
+    /**
+     * Applies the queued changes.
+     */
+    synchronized void flush() {
+        if (mPending.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<Integer, NotificationWrapper> change : mPending.entrySet()) {
+            if (change.getValue() != null) {
+                mTarget.notify(change.getKey(), change.getValue());
+                mPosts++;
+            } else {
+                mTarget.cancel(change.getKey());
+                mCancels++;
+            }
+        }
+        if (AlertService.DEBUG) {
+            Log.d(TAG, "Applied " + mPending.size() + " changes, " + this);
+        }
+        mPending.clear();
+        mAlerting = false;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "posts=" + mPosts + " cancels=" + mCancels + " skips=" + mSkips + " pending="
+                + mPending.size();
+    }
+}
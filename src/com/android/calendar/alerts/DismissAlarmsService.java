@@ -95,12 +95,14 @@ public class DismissAlarmsService extends IntentService {
         ContentValues values = new ContentValues();
         values.put(PROJECTION[COLUMN_INDEX_STATE], CalendarAlerts.STATE_DISMISSED);
         resolver.update(uri, values, selection, null);
+        AlertService.onAlertsChanged(this);
 
         // Remove from notification bar.
         if (notificationId != -1) {
             NotificationManager nm =
                     (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
             nm.cancel(notificationId);
+            BatchingNotificationMgr.getInstance(this).forget(notificationId);
         }
 
         if (SHOW_ACTION.equals(intent.getAction())) {
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.calendar.alerts;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.android.calendar.AtomicDataFile;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The alerts that were fired, kept so an alert isn't fired again when the
+ * alerts are looked at later.
+ *
+ * The alerts are fixed size records of event id, begin time and alarm time
+ * in an open addressing hash table with linear probing. The table is a file
+ * in app storage mapped into memory, so looking an alert up reads a few
+ * longs and adding one writes them, with no parsing, allocation or rewrite
+ * of the whole table. Alerts are expired by alarm time, and the table is
+ * rebuilt into a new file when it fills up or after alerts are expired.
+ *
+ * Thread safe.
+ */
+/* package */ class FiredAlertLedger {
+    private static final String TAG = "FiredAlertLedger";
+
+    private static final String FILE_NAME = "fired_alerts.bin";
+    private static final int FILE_MAGIC = 0x46414c47;
+    private static final int FILE_VERSION = 1;
+
+    // magic, version, capacity, unused, last expire time
+    private static final int HEADER_SIZE = 24;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int EXPIRE_TIME_OFFSET = 16;
+
+    // event id, begin time, alarm time
+    private static final int RECORD_SIZE = 24;
+    private static final int BEGIN_OFFSET = 8;
+    private static final int ALARM_TIME_OFFSET = 16;
+
+    // The alarm time of an empty slot, a new file reads as all empty slots.
+    // Alerts are only removed by rebuilding the table, so a probe can stop
+    // at the first empty slot.
+    private static final long EMPTY = 0;
+
+    /* package */ static final int MIN_CAPACITY = 64;
+    // Capacities are powers of two up to this
+    private static final int MAX_CAPACITY = 1 << 20;
+
+    private static FiredAlertLedger sInstance;
+
+    // Where the table is saved, or null if it's only kept in memory
+    private final AtomicDataFile mFile;
+
+    private ByteBuffer mBuffer;
+    private int mCapacity;
+    // Slots holding alerts
+    private int mCount;
+
+    /**
+     * Opens the ledger saved in file, or creates one in memory if file is
+     * null.
+     */
+    FiredAlertLedger(File file) {
+        mFile = file != null ? new AtomicDataFile(file) : null;
+        if (file == null || !open()) {
+            rebuild(MIN_CAPACITY, 0);
+        }
+    }
+
+    /**
+     * Returns the ledger in app storage, mapping it the first time.
+     */
+    static synchronized FiredAlertLedger getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FiredAlertLedger(new File(context.getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    private boolean open() {
+        File path = mFile.getReadableFile();
+        if (path == null) {
+            return false;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(path, "rw");
+            FileChannel channel = file.getChannel();
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException("Truncated header");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            int capacity = buffer.getInt(CAPACITY_OFFSET);
+            if (buffer.getInt(0) != FILE_MAGIC || buffer.getInt(4) != FILE_VERSION) {
+                throw new IOException("Unknown file format");
+            }
+            if (capacity < MIN_CAPACITY || capacity > MAX_CAPACITY
+                    || Integer.bitCount(capacity) != 1
+                    || length != HEADER_SIZE + (long) capacity * RECORD_SIZE) {
+                throw new IOException("Bad header");
+            }
+            mBuffer = buffer;
+            mCapacity = capacity;
+            // The counts aren't saved, a record written while the process
+            // was killed may not be counted otherwise
+            mCount = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                if (buffer.getLong(recordOffset(slot) + ALARM_TIME_OFFSET) != EMPTY) {
+                    mCount++;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't open " + path, e);
+            return false;
+        } finally {
+            if (file != null) {
+                try {
+                    // The mapping stays valid
+                    file.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static int recordOffset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private static int hash(long eventId, long beginTime, long alarmTime) {
+        long h = eventId * 0x9e3779b97f4a7c15L;
+        h = (h ^ beginTime) * 0x9e3779b97f4a7c15L;
+        h = (h ^ alarmTime) * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Returns the slot holding the alert, or -1 if it isn't in the ledger.
+     */
+    private int find(long eventId, long beginTime, long alarmTime) {
+        int mask = mCapacity - 1;
+        int slot = hash(eventId, beginTime, alarmTime) & mask;
+        for (int i = 0; i < mCapacity; i++) {
+            int offset = recordOffset(slot);
+            long time = mBuffer.getLong(offset + ALARM_TIME_OFFSET);
+            if (time == EMPTY) {
+                return -1;
+            }
+            if (time == alarmTime && mBuffer.getLong(offset) == eventId
+                    && mBuffer.getLong(offset + BEGIN_OFFSET) == beginTime) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether the alert was added and hasn't expired.
+     */
+    synchronized boolean contains(long eventId, long beginTime, long alarmTime) {
+        return alarmTime > 0 && find(eventId, beginTime, alarmTime) >= 0;
+    }
+
+    /**
+     * Adds the alert. Alarm times before the epoch can't be recorded.
+     */
+    synchronized void add(long eventId, long beginTime, long alarmTime) {
+        if (alarmTime <= 0 || find(eventId, beginTime, alarmTime) >= 0) {
+            return;
+        }
+        // Keep at least half of the slots empty so probes stay short
+        if ((mCount + 1) * 2 > mCapacity) {
+            rebuild(getCapacityFor(mCount + 1), 0);
+        }
+        int mask = mCapacity - 1;
+        int slot = hash(eventId, beginTime, alarmTime) & mask;
+        while (mBuffer.getLong(recordOffset(slot) + ALARM_TIME_OFFSET) != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        mCount++;
+        // The alarm time goes last, the slot is used once it's written
+        int offset = recordOffset(slot);
+        mBuffer.putLong(offset, eventId);
+        mBuffer.putLong(offset + BEGIN_OFFSET, beginTime);
+        mBuffer.putLong(offset + ALARM_TIME_OFFSET, alarmTime);
+    }
+
+    private static int getCapacityFor(int count) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < count * 4 && capacity < MAX_CAPACITY) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns when alerts were last expired, or 0 if they never were.
+     */
+    synchronized long getLastExpireTime() {
+        return mBuffer.getLong(EXPIRE_TIME_OFFSET);
+    }
+
+    /**
+     * Removes the alerts with alarm times before cutoff, and records now as
+     * the time alerts were last expired.
+     *
+     * @return the number of alerts removed
+     */
+    synchronized int expire(long cutoff, long now) {
+        int kept = 0;
+        for (int slot = 0; slot < mCapacity; slot++) {
+            long time = mBuffer.getLong(recordOffset(slot) + ALARM_TIME_OFFSET);
+            if (time != EMPTY && time >= cutoff) {
+                kept++;
+            }
+        }
+        int count = mCount;
+        // Rebuilding drops the expired alerts and shrinks the table
+        rebuild(getCapacityFor(kept), cutoff);
+        mBuffer.putLong(EXPIRE_TIME_OFFSET, now);
+        return count - mCount;
+    }
+
+    synchronized int size() {
+        return mCount;
+    }
+
+    /* package */ synchronized int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Copies the alerts with alarm times from cutoff on into a new table of
+     * capacity slots, and saves it in place of the old one.
+     */
+    private void rebuild(int capacity, long cutoff) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + capacity * RECORD_SIZE);
+        buffer.putInt(0, FILE_MAGIC);
+        buffer.putInt(4, FILE_VERSION);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        int count = 0;
+        if (mBuffer != null) {
+            buffer.putLong(EXPIRE_TIME_OFFSET, mBuffer.getLong(EXPIRE_TIME_OFFSET));
+            int mask = capacity - 1;
+            for (int slot = 0; slot < mCapacity && count < capacity / 2; slot++) {
+                int offset = recordOffset(slot);
+                long alarmTime = mBuffer.getLong(offset + ALARM_TIME_OFFSET);
+                if (alarmTime == EMPTY || alarmTime < cutoff) {
+                    continue;
+                }
+                long eventId = mBuffer.getLong(offset);
+                long beginTime = mBuffer.getLong(offset + BEGIN_OFFSET);
+                int newSlot = hash(eventId, beginTime, alarmTime) & mask;
+                while (buffer.getLong(recordOffset(newSlot) + ALARM_TIME_OFFSET) != EMPTY) {
+                    newSlot = (newSlot + 1) & mask;
+                }
+                int newOffset = recordOffset(newSlot);
+                buffer.putLong(newOffset, eventId);
+                buffer.putLong(newOffset + BEGIN_OFFSET, beginTime);
+                buffer.putLong(newOffset + ALARM_TIME_OFFSET, alarmTime);
+                count++;
+            }
+        }
+        mBuffer = buffer;
+        mCapacity = capacity;
+        mCount = count;
+        if (mFile != null) {
+            save();
+        }
+    }
+
+    /**
+     * Writes the table built in memory in place of the old file and maps it.
+     * Keeps using the table in memory if that fails.
+     */
+    private void save() {
+        boolean saved = mFile.write(new AtomicDataFile.Writer() {
+            @Override
+            public void write(DataOutputStream out) throws IOException {
+                out.write(mBuffer.array(), 0, mBuffer.capacity());
+            }
+        });
+        if (saved) {
+            open();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "alerts=" + mCount + " capacity=" + mCapacity;
+    }
+}
@@ -507,6 +507,7 @@ public class GlobalDismissManager extends BroadcastReceiver {
                         int rows = resolver.update(CalendarAlerts.CONTENT_URI, values,
                                 selection, null);
                         if (rows > 0) {
+                            AlertService.onAlertsChanged(context);
                             it.remove();
                         }
                     }
@@ -22,6 +22,21 @@ public abstract class NotificationMgr {
     public abstract void notify(int id, NotificationWrapper notification);
     public abstract void cancel(int id);
 
+    /**
+     * Returns true if the notification posted with id has the fingerprint, so posting
+     * it again can be skipped.  Managers that don't keep track return false.
+     */
+    public boolean isPosted(int id, long fingerprint) {
+        return false;
+    }
+
+    /**
+     * Posts a notification along with a fingerprint of what it shows.
+     */
+    public void notify(int id, NotificationWrapper notification, long fingerprint) {
+        notify(id, notification);
+    }
+
     /**
      * Don't actually use the notification framework's cancelAll since the SyncAdapter
      * might post notifications and we don't want to affect those.
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.calendar.alerts;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import com.android.calendar.AtomicDataFile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The upcoming reminder alarms of the instances that begin in a window of
+ * time, sorted by alarm time, so {@link AlarmScheduler} can find the next
+ * alarm without querying the instances and reminders again.
+ *
+ * The window starts when the timeline is built and is extended as time
+ * goes by. The alarm times of allday instances depend on the time zone, so
+ * the timeline is only used in the time zone it was built in. Alarms that
+ * went by are dropped from the front.
+ *
+ * Saved to a small file in app storage so it survives reboots and the
+ * process being killed between alerts.
+ */
+/* package */ class ReminderTimeline {
+    private static final String TAG = "ReminderTimeline";
+
+    private static final String FILE_NAME = "reminder_timeline.bin";
+    private static final int FILE_MAGIC = 0x524d544c;
+    private static final int FILE_VERSION = 1;
+
+    private static ReminderTimeline sInstance;
+
+    // Where the timeline is saved, or null if it isn't
+    private final AtomicDataFile mFile;
+
+    private boolean mValid;
+    private String mTimeZone;
+    // The begin times of the instances covered, inclusive
+    private long mWindowStart;
+    private long mWindowEnd;
+
+    // The alarms are [mFirst, mEnd) of these, sorted by alarm time
+    private long[] mAlarmTimes = new long[16];
+    private long[] mEventIds = new long[16];
+    private long[] mBegins = new long[16];
+    private int mFirst;
+    private int mEnd;
+    private boolean mDirty;
+
+    ReminderTimeline(AtomicDataFile file) {
+        mFile = file;
+    }
+
+    /**
+     * Returns the timeline saved in app storage, reading it the first time.
+     */
+    static synchronized ReminderTimeline getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ReminderTimeline(new AtomicDataFile(context, FILE_NAME));
+            sInstance.readFile();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns true if the timeline can be used at now in timeZone, though
+     * its window may need to be extended.
+     */
+    synchronized boolean isValid(long now, String timeZone) {
+        return mValid && TextUtils.equals(timeZone, mTimeZone) && now >= mWindowStart
+                && now <= mWindowEnd;
+    }
+
+    /**
+     * Marks the timeline as out of date, after the events or reminders
+     * changed.
+     */
+    synchronized void invalidate() {
+        if (mValid) {
+            mValid = false;
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Empties the timeline to build it again from windowStart.
+     */
+    synchronized void reset(long windowStart, String timeZone) {
+        mValid = true;
+        mTimeZone = timeZone;
+        mWindowStart = windowStart;
+        mWindowEnd = windowStart;
+        mFirst = 0;
+        mEnd = 0;
+        mDirty = true;
+    }
+
+    synchronized long getWindowEnd() {
+        return mWindowEnd;
+    }
+
+    /**
+     * Records that the alarms of the instances that begin up to windowEnd
+     * were added.
+     */
+    synchronized void setWindowEnd(long windowEnd) {
+        mWindowEnd = Math.max(mWindowEnd, windowEnd);
+        mDirty = true;
+    }
+
+    /**
+     * Adds an alarm, keeping the alarms sorted.
+     */
+    synchronized void add(long alarmTime, long eventId, long begin) {
+        if (mEnd == mAlarmTimes.length) {
+            // Move the alarms to the front, growing the arrays if that
+            // doesn't make room
+            int size = mEnd - mFirst;
+            int capacity = size < mAlarmTimes.length / 2 ? mAlarmTimes.length : size * 2;
+            mAlarmTimes = moveToFront(mAlarmTimes, capacity);
+            mEventIds = moveToFront(mEventIds, capacity);
+            mBegins = moveToFront(mBegins, capacity);
+            mFirst = 0;
+            mEnd = size;
+        }
+        int index = indexAfter(alarmTime);
+        System.arraycopy(mAlarmTimes, index, mAlarmTimes, index + 1, mEnd - index);
+        System.arraycopy(mEventIds, index, mEventIds, index + 1, mEnd - index);
+        System.arraycopy(mBegins, index, mBegins, index + 1, mEnd - index);
+        mAlarmTimes[index] = alarmTime;
+        mEventIds[index] = eventId;
+        mBegins[index] = begin;
+        mEnd++;
+        mDirty = true;
+    }
+
+    private long[] moveToFront(long[] array, int capacity) {
+        long[] moved = capacity == array.length ? array : new long[capacity];
+        System.arraycopy(array, mFirst, moved, 0, mEnd - mFirst);
+        return moved;
+    }
+
+    /**
+     * Returns the index of the first alarm after time, or mEnd if there is
+     * none.
+     */
+    private int indexAfter(long time) {
+        int low = mFirst;
+        int high = mEnd;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mAlarmTimes[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Drops the alarms up to now, a binary search.
+     *
+     * @return false if there are no alarms left
+     */
+    synchronized boolean popUntil(long now) {
+        int first = indexAfter(now);
+        if (first != mFirst) {
+            mFirst = first;
+            mDirty = true;
+        }
+        return mFirst < mEnd;
+    }
+
+    synchronized int size() {
+        return mEnd - mFirst;
+    }
+
+    /**
+     * Returns the time of the next alarm. There must be one.
+     */
+    synchronized long getNextAlarmTime() {
+        return mAlarmTimes[mFirst];
+    }
+
+    synchronized long getNextEventId() {
+        return mEventIds[mFirst];
+    }
+
+    synchronized long getNextBegin() {
+        return mBegins[mFirst];
+    }
+
+    /* package */ synchronized void readFile() {
+        // A bad file leaves the timeline empty and invalid
+        mFile.read(new AtomicDataFile.Reader() {
+            @Override
+            public void read(DataInputStream in) throws IOException {
+                ReminderTimeline.this.read(in);
+            }
+        });
+        mDirty = false;
+    }
+
+    /* package */ synchronized void read(DataInputStream in) throws IOException {
+        if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+            throw new IOException("Unknown file format");
+        }
+        boolean valid = in.readBoolean();
+        String timeZone = in.readUTF();
+        long windowStart = in.readLong();
+        long windowEnd = in.readLong();
+        int size = in.readInt();
+        if (size < 0 || windowEnd < windowStart) {
+            throw new IOException("Bad header");
+        }
+        long[] alarmTimes = new long[Math.max(size, 16)];
+        long[] eventIds = new long[alarmTimes.length];
+        long[] begins = new long[alarmTimes.length];
+        for (int i = 0; i < size; i++) {
+            alarmTimes[i] = in.readLong();
+            eventIds[i] = in.readLong();
+            begins[i] = in.readLong();
+            if (i > 0 && alarmTimes[i] < alarmTimes[i - 1]) {
+                throw new IOException("Alarms out of order");
+            }
+        }
+        mValid = valid;
+        mTimeZone = timeZone;
+        mWindowStart = windowStart;
+        mWindowEnd = windowEnd;
+        mAlarmTimes = alarmTimes;
+        mEventIds = eventIds;
+        mBegins = begins;
+        mFirst = 0;
+        mEnd = size;
+    }
+
+    /**
+     * Saves the timeline if it changed since it was read or saved.
+     */
+    synchronized void saveIfNeeded() {
+        if (mFile == null || !mDirty) {
+            return;
+        }
+        mDirty = !mFile.write(new AtomicDataFile.Writer() {
+            @Override
+            public void write(DataOutputStream out) throws IOException {
+                ReminderTimeline.this.write(out);
+            }
+        });
+    }
+
+    /* package */ synchronized void write(DataOutputStream out) throws IOException {
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeBoolean(mValid);
+        out.writeUTF(mTimeZone != null ? mTimeZone : "");
+        out.writeLong(mWindowStart);
+        out.writeLong(mWindowEnd);
+        out.writeInt(mEnd - mFirst);
+        for (int i = mFirst; i < mEnd; i++) {
+            out.writeLong(mAlarmTimes[i]);
+            out.writeLong(mEventIds[i]);
+            out.writeLong(mBegins[i]);
+        }
+    }
+}
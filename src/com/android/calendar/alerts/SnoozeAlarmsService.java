@@ -65,6 +65,7 @@ public class SnoozeAlarmsService extends IntentService {
                 NotificationManager nm =
                     (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
                 nm.cancel(notificationId);
+                BatchingNotificationMgr.getInstance(this).forget(notificationId);
             }
 
             // Dismiss current alarm
@@ -74,6 +75,7 @@ public class SnoozeAlarmsService extends IntentService {
             ContentValues dismissValues = new ContentValues();
             dismissValues.put(PROJECTION[COLUMN_INDEX_STATE], CalendarAlerts.STATE_DISMISSED);
             resolver.update(uri, dismissValues, selection, null);
+            AlertService.onAlertsChanged(this);
 
             // Add a new alarm
             long alarmTime = System.currentTimeMillis() + AlertUtils.SNOOZE_DELAY;
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.month;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+
+import com.android.calendar.DNAStrand;
+import com.android.calendar.Event;
+import com.android.calendar.EventTable;
+import com.android.calendar.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The dna strands of recently shown weeks, shared by all the week views. A
+ * week is identified by its first day, a fingerprint of the events that
+ * fall in it and the geometry the strands were computed for, so scrolling
+ * back to a week reuses its strands as long as none of that changed.
+ *
+ * Missing strands are computed on a background thread. Everything else,
+ * including the callbacks, happens on the UI thread.
+ */
+/* package */ class DNAStrandCache {
+    // About a dozen months of weeks
+    private static final int MAX_WEEKS = 64;
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "DNAStrandCache");
+                }
+            });
+
+    private static DNAStrandCache sInstance;
+
+    private final LruCache<Key, HashMap<Integer, DNAStrand>> mStrands =
+            new LruCache<Key, HashMap<Integer, DNAStrand>>(MAX_WEEKS);
+    private final HashMap<Key, ArrayList<Callback>> mPending =
+            new HashMap<Key, ArrayList<Callback>>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Called on the UI thread when the strands for a week are ready.
+     */
+    interface Callback {
+        void onDnaReady(Key key, HashMap<Integer, DNAStrand> dna);
+    }
+
+    /**
+     * Everything the strands of a week are computed from. Views keep their
+     * own keys and fill them in on every bind; the cache only ever stores
+     * and hands out copies, which are never modified.
+     */
+    static class Key {
+        int firstJulianDay;
+        long fingerprint;
+        int top;
+        int bottom;
+        int minPixels;
+        int[] dayXs;
+
+        /**
+         * Points this key at the week starting at firstJulianDay with
+         * dayXs.length days, computed from events.
+         */
+        void set(int firstJulianDay, ArrayList<Event> events, int top, int bottom,
+                int minPixels, int[] dayXs) {
+            int lastJulianDay = firstJulianDay + dayXs.length - 1;
+            long fingerprint = 17;
+            int size = events.size();
+            for (int i = 0; i < size; i++) {
+                Event e = events.get(i);
+                if (e.endDay < firstJulianDay || e.startDay > lastJulianDay) {
+                    continue;
+                }
+                fingerprint = fingerprintRow(fingerprint, e.id, e.startDay, e.startTime,
+                        e.endDay, e.endTime, e.color, e.drawAsAllday());
+            }
+            set(firstJulianDay, fingerprint, top, bottom, minPixels, dayXs);
+        }
+
+        /**
+         * Same as {@link #set(int, ArrayList, int, int, int, int[])} for
+         * events held in a table.
+         */
+        void set(int firstJulianDay, EventTable events, int top, int bottom, int minPixels,
+                int[] dayXs) {
+            int lastJulianDay = firstJulianDay + dayXs.length - 1;
+            long fingerprint = 17;
+            int size = events.size();
+            for (int i = 0; i < size; i++) {
+                if (events.endDay[i] < firstJulianDay || events.startDay[i] > lastJulianDay) {
+                    continue;
+                }
+                fingerprint = fingerprintRow(fingerprint, events.id[i], events.startDay[i],
+                        events.startTime[i], events.endDay[i], events.endTime[i],
+                        events.color[i], events.drawAsAllday(i));
+            }
+            set(firstJulianDay, fingerprint, top, bottom, minPixels, dayXs);
+        }
+
+        /**
+         * Makes this key equal to other.
+         */
+        void set(Key other) {
+            set(other.firstJulianDay, other.fingerprint, other.top, other.bottom,
+                    other.minPixels, other.dayXs);
+        }
+
+        private void set(int firstJulianDay, long fingerprint, int top, int bottom,
+                int minPixels, int[] dayXs) {
+            this.firstJulianDay = firstJulianDay;
+            this.fingerprint = fingerprint;
+            this.top = top;
+            this.bottom = bottom;
+            this.minPixels = minPixels;
+            if (this.dayXs == null || this.dayXs.length != dayXs.length) {
+                this.dayXs = new int[dayXs.length];
+            }
+            System.arraycopy(dayXs, 0, this.dayXs, 0, dayXs.length);
+        }
+
+        Key copy() {
+            Key key = new Key();
+            key.set(this);
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return firstJulianDay == other.firstJulianDay && fingerprint == other.fingerprint
+                    && top == other.top && bottom == other.bottom
+                    && minPixels == other.minPixels && Arrays.equals(dayXs, other.dayXs);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = firstJulianDay;
+            result = 31 * result + (int) (fingerprint ^ (fingerprint >>> 32));
+            result = 31 * result + top;
+            result = 31 * result + bottom;
+            result = 31 * result + minPixels;
+            result = 31 * result + Arrays.hashCode(dayXs);
+            return result;
+        }
+    }
+
+    static DNAStrandCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new DNAStrandCache();
+        }
+        return sInstance;
+    }
+
+    private static long fingerprintRow(long result, long id, int startDay, int startTime,
+            int endDay, int endTime, int color, boolean drawAsAllday) {
+        result = 31 * result + id;
+        result = 31 * result + startDay;
+        result = 31 * result + startTime;
+        result = 31 * result + endDay;
+        result = 31 * result + endTime;
+        result = 31 * result + color;
+        result = 31 * result + (drawAsAllday ? 1 : 0);
+        return result;
+    }
+
+    /**
+     * Returns the cached strands for key, or null if they haven't been
+     * computed.
+     */
+    HashMap<Integer, DNAStrand> get(Key key) {
+        return mStrands.get(key);
+    }
+
+    /**
+     * Computes the strands for key from events on a background thread and
+     * hands them to callback. The events must not change until then, but
+     * key may be reused as soon as this returns.
+     */
+    void load(Context context, Key key, ArrayList<Event> events, Callback callback) {
+        load(context, key, events, null, callback);
+    }
+
+    /**
+     * Same as {@link #load(Context, Key, ArrayList, Callback)} for events
+     * held in a table.
+     */
+    void load(Context context, Key key, EventTable events, Callback callback) {
+        load(context, key, null, events, callback);
+    }
+
+    private void load(Context context, Key lookupKey, final ArrayList<Event> events,
+            final EventTable table, Callback callback) {
+        ArrayList<Callback> callbacks = mPending.get(lookupKey);
+        if (callbacks != null) {
+            // Already being computed for another view
+            if (!callbacks.contains(callback)) {
+                callbacks.add(callback);
+            }
+            return;
+        }
+        final Key key = lookupKey.copy();
+        callbacks = new ArrayList<Callback>();
+        callbacks.add(callback);
+        mPending.put(key, callbacks);
+
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final HashMap<Integer, DNAStrand> dna = events != null
+                        ? Utils.createDNAStrands(key.firstJulianDay, events, key.top,
+                                key.bottom, key.minPixels, key.dayXs, appContext)
+                        : Utils.createDNAStrands(key.firstJulianDay, table, key.top,
+                                key.bottom, key.minPixels, key.dayXs, appContext);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLoaded(key, dna);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onLoaded(Key key, HashMap<Integer, DNAStrand> dna) {
+        if (dna != null) {
+            mStrands.put(key, dna);
+        }
+        ArrayList<Callback> callbacks = mPending.remove(key);
+        if (callbacks != null) {
+            for (Callback callback : callbacks) {
+                callback.onDnaReady(key, dna);
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.android.calendar.month;
 
 import android.content.Context;
 import android.content.res.Configuration;
+import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Message;
 import android.text.format.Time;
@@ -34,11 +35,14 @@ import com.android.calendar.CalendarController;
 import com.android.calendar.CalendarController.EventType;
 import com.android.calendar.CalendarController.ViewType;
 import com.android.calendar.Event;
+import com.android.calendar.EventTable;
+import com.android.calendar.InstanceDelta;
 import com.android.calendar.R;
 import com.android.calendar.Utils;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 public class MonthByWeekAdapter extends SimpleWeeksAdapter {
     private static final String TAG = "MonthByWeekAdapter";
@@ -58,7 +62,14 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
     private final boolean mShowAgendaWithMonth;
 
     protected ArrayList<ArrayList<Event>> mEventDayList = new ArrayList<ArrayList<Event>>();
+    // Views of mEventDayList by the day the week starts on, made on demand
+    private ArrayList<List<ArrayList<Event>>> mWeekDayLists;
     protected ArrayList<Event> mEvents = null;
+    // Used instead of mEvents when the weeks only draw dna
+    protected EventTable mEventTable = null;
+    // The index mEventDayList came from, if the weeks draw event details
+    private WeekEventIndex mEventIndex = null;
+    private BucketTask mBucketTask = null;
 
     private boolean mAnimateToday = false;
     private long mAnimateTime = 0;
@@ -127,6 +138,10 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
         notifyDataSetChanged();
     }
 
+    /**
+     * Sets the events for the weeks. They are bucketed by day on a
+     * background thread, and all the weeks are refreshed once that's done.
+     */
     public void setEvents(int firstJulianDay, int numDays, ArrayList<Event> events) {
         if (mIsMiniMonth) {
             if (Log.isLoggable(TAG, Log.ERROR)) {
@@ -135,64 +150,231 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
             }
             return;
         }
-        mEvents = events;
+        startBucketTask(firstJulianDay, numDays, events, null, null);
+    }
+
+    /**
+     * Like {@link #setEvents}, but if the events are a reload of the days
+     * that are already set, only the weeks in weekViews whose days changed
+     * are updated and nothing is refreshed if none did. Weeks that aren't
+     * showing pick up the new events when they are next bound.
+     */
+    public void updateEvents(int firstJulianDay, int numDays, ArrayList<Event> events,
+            ViewGroup weekViews) {
+        if (mIsMiniMonth || mEventIndex == null || mEventTable != null) {
+            setEvents(firstJulianDay, numDays, events);
+            return;
+        }
+        startBucketTask(firstJulianDay, numDays, events, mEventIndex, weekViews);
+    }
+
+    private void startBucketTask(int firstJulianDay, int numDays, ArrayList<Event> events,
+            WeekEventIndex previous, ViewGroup weekViews) {
+        cancelBucketTask();
+        mBucketTask = new BucketTask(firstJulianDay, numDays, events, previous, weekViews);
+        mBucketTask.execute();
+    }
+
+    private void cancelBucketTask() {
+        if (mBucketTask != null) {
+            mBucketTask.cancel(false);
+            mBucketTask = null;
+        }
+    }
+
+    /**
+     * Buckets the events into a {@link WeekEventIndex} and, if there was an
+     * index of the same days before, finds the days that changed. The
+     * result is applied on the UI thread unless a newer load replaced it.
+     */
+    private class BucketTask extends AsyncTask<Void, Void, WeekEventIndex> {
+        private final int mTaskFirstJulianDay;
+        private final int mTaskNumDays;
+        private final ArrayList<Event> mTaskEvents;
+        private final WeekEventIndex mPrevious;
+        private final ViewGroup mWeekViews;
+        private boolean[] mChangedDays;
+
+        BucketTask(int firstJulianDay, int numDays, ArrayList<Event> events,
+                WeekEventIndex previous, ViewGroup weekViews) {
+            mTaskFirstJulianDay = firstJulianDay;
+            mTaskNumDays = numDays;
+            mTaskEvents = events;
+            mPrevious = previous;
+            mWeekViews = weekViews;
+        }
+
+        @Override
+        protected WeekEventIndex doInBackground(Void... params) {
+            WeekEventIndex index = WeekEventIndex.build(mTaskFirstJulianDay, mTaskNumDays,
+                    mTaskEvents);
+            mChangedDays = index.findChangedDays(mPrevious);
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Processed " + (mTaskEvents == null ? 0 : mTaskEvents.size())
+                        + " events.");
+            }
+            return index;
+        }
+
+        @Override
+        protected void onPostExecute(WeekEventIndex index) {
+            if (mBucketTask != this) {
+                return;
+            }
+            mBucketTask = null;
+            if (mChangedDays == null || mPrevious != mEventIndex || mEventTable != null) {
+                applyEventIndex(index);
+                refresh();
+                return;
+            }
+
+            boolean anyChanged = false;
+            for (boolean changed : mChangedDays) {
+                anyChanged |= changed;
+            }
+            if (!anyChanged) {
+                // Keep the old lists so that no week has to redo its layout
+                return;
+            }
+            applyEventIndex(index);
+            updateChangedWeekViews(mWeekViews, mChangedDays);
+        }
+    }
+
+    private void applyEventIndex(WeekEventIndex index) {
+        mEventIndex = index;
+        mEvents = index.events;
+        mEventTable = null;
+        mFirstJulianDay = index.firstJulianDay;
+        mQueryDays = index.numDays;
+        mEventDayList = index.days;
+        mWeekDayLists = null;
+    }
+
+    /**
+     * Sends the current events to the week views that show any of the
+     * changed days.
+     */
+    private void updateChangedWeekViews(ViewGroup weekViews, boolean[] changedDays) {
+        int childCount = weekViews.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            View child = weekViews.getChildAt(i);
+            if (!(child instanceof MonthWeekEventsView)) {
+                continue;
+            }
+            MonthWeekEventsView v = (MonthWeekEventsView) child;
+            int start = Math.max(v.getFirstJulianDay() - mFirstJulianDay, 0);
+            int end = Math.min(v.getFirstJulianDay() - mFirstJulianDay + v.mNumDays,
+                    changedDays.length);
+            for (int day = start; day < end; day++) {
+                if (changedDays[day]) {
+                    sendEventsToView(v);
+                    v.invalidate();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the current events to the week views that show any of the days
+     * in [firstDay, lastDay].
+     */
+    private void updateWeekViews(ViewGroup weekViews, int firstDay, int lastDay) {
+        int childCount = weekViews.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            View child = weekViews.getChildAt(i);
+            if (!(child instanceof MonthWeekEventsView)) {
+                continue;
+            }
+            MonthWeekEventsView v = (MonthWeekEventsView) child;
+            int weekStart = v.getFirstJulianDay();
+            if (weekStart > lastDay || weekStart + v.mNumDays - 1 < firstDay) {
+                continue;
+            }
+            sendEventsToView(v);
+            v.invalidate();
+        }
+    }
+
+    /**
+     * Sets the events for the weeks that only draw dna. The table must be
+     * sorted by start time. No per-day lists of events are built since the
+     * dna is computed from the whole table.
+     */
+    public void setEventTable(int firstJulianDay, int numDays, EventTable table) {
+        if (mIsMiniMonth) {
+            if (Log.isLoggable(TAG, Log.ERROR)) {
+                Log.e(TAG, "Attempted to set events for mini view. Events only supported in full"
+                        + " view.");
+            }
+            return;
+        }
+        cancelBucketTask();
+        mEventIndex = null;
+        mEvents = null;
+        mEventTable = table;
         mFirstJulianDay = firstJulianDay;
         mQueryDays = numDays;
-        // Create a new list, this is necessary since the weeks are referencing
-        // pieces of the old list
+        // The weeks still expect one (empty) list per day
         ArrayList<ArrayList<Event>> eventDayList = new ArrayList<ArrayList<Event>>();
         for (int i = 0; i < numDays; i++) {
             eventDayList.add(new ArrayList<Event>());
         }
+        mEventDayList = eventDayList;
+        mWeekDayLists = null;
+        refresh();
+    }
 
-        if (events == null || events.size() == 0) {
-            if(Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "No events. Returning early--go schedule something fun.");
-            }
-            mEventDayList = eventDayList;
-            refresh();
+    /**
+     * Like {@link #updateEvents}, for the weeks that only draw dna.
+     */
+    public void updateEventTable(int firstJulianDay, int numDays, EventTable table,
+            ViewGroup weekViews) {
+        if (mIsMiniMonth || mEventTable == null
+                || firstJulianDay != mFirstJulianDay || numDays != mQueryDays) {
+            setEventTable(firstJulianDay, numDays, table);
+            return;
+        }
+        cancelBucketTask();
+        InstanceDelta delta = InstanceDelta.compute(mEventTable, table);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Reloaded event table: " + delta);
+        }
+        if (delta.isEmpty()) {
             return;
         }
 
-        // Compute the new set of days with events
-        for (Event event : events) {
-            int startDay = event.startDay - mFirstJulianDay;
-            int endDay = event.endDay - mFirstJulianDay + 1;
-            if (startDay < numDays || endDay >= 0) {
-                if (startDay < 0) {
-                    startDay = 0;
-                }
-                if (startDay > numDays) {
-                    continue;
-                }
-                if (endDay < 0) {
-                    continue;
-                }
-                if (endDay > numDays) {
-                    endDay = numDays;
-                }
-                for (int j = startDay; j < endDay; j++) {
-                    eventDayList.get(j).add(event);
+        int firstChangedDay = Integer.MAX_VALUE;
+        int lastChangedDay = Integer.MIN_VALUE;
+        for (int position : delta.getRemoved()) {
+            firstChangedDay = Math.min(firstChangedDay, mEventTable.startDay[position]);
+            lastChangedDay = Math.max(lastChangedDay, mEventTable.endDay[position]);
+        }
+        for (int[] positions : new int[][] { delta.getAdded(), delta.getChanged() }) {
+            for (int position : positions) {
+                firstChangedDay = Math.min(firstChangedDay, table.startDay[position]);
+                lastChangedDay = Math.max(lastChangedDay, table.endDay[position]);
+                int oldPosition = delta.getOldPosition(position);
+                if (oldPosition != -1) {
+                    firstChangedDay = Math.min(firstChangedDay,
+                            mEventTable.startDay[oldPosition]);
+                    lastChangedDay = Math.max(lastChangedDay, mEventTable.endDay[oldPosition]);
                 }
             }
         }
-        if(Log.isLoggable(TAG, Log.DEBUG)) {
-            Log.d(TAG, "Processed " + events.size() + " events.");
-        }
-        mEventDayList = eventDayList;
-        refresh();
+
+        // The per-day lists stay empty in table mode, only the table changes
+        mEventTable = table;
+        updateWeekViews(weekViews, firstChangedDay, lastChangedDay);
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
         if (mIsMiniMonth) {
             return super.getView(position, convertView, parent);
         }
         MonthWeekEventsView v;
-        LayoutParams params = new LayoutParams(
-                LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
-        HashMap<String, Integer> drawingParams = null;
         boolean isAnimatingToday = false;
         if (convertView != null) {
             v = (MonthWeekEventsView) convertView;
@@ -208,47 +390,45 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
                     mAnimateTime = 0;
                 } else {
                     isAnimatingToday = true;
-                    // There is a bug that causes invalidates to not work some
-                    // of the time unless we recreate the view.
-                    v = new MonthWeekEventsView(mContext);
-               }
-            } else {
-                drawingParams = (HashMap<String, Integer>) v.getTag();
+                }
             }
         } else {
             v = new MonthWeekEventsView(mContext);
+            LayoutParams params = new LayoutParams(
+                    LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
+            v.setLayoutParams(params);
+            v.setClickable(true);
+            v.setOnTouchListener(this);
         }
-        if (drawingParams == null) {
-            drawingParams = new HashMap<String, Integer>();
-        }
-        drawingParams.clear();
-
-        v.setLayoutParams(params);
-        v.setClickable(true);
-        v.setOnTouchListener(this);
 
         int selectedDay = -1;
         if (mSelectedWeek == position) {
             selectedDay = mSelectedDay.weekDay;
         }
 
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_HEIGHT,
-                (parent.getHeight() + parent.getTop()) / mNumWeeks);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_SELECTED_DAY, selectedDay);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_SHOW_WK_NUM, mShowWeekNumber ? 1 : 0);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_WEEK_START, mFirstDayOfWeek);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_NUM_DAYS, mDaysPerWeek);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_WEEK, position);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_FOCUS_MONTH, mFocusMonth);
-        drawingParams.put(MonthWeekEventsView.VIEW_PARAMS_ORIENTATION, mOrientation);
+        // The view owns its params, so rebinding it doesn't allocate
+        WeekParams drawingParams = v.getWeekParams();
+        drawingParams.clear();
+        drawingParams.height = (parent.getHeight() + parent.getTop()) / mNumWeeks;
+        drawingParams.selectedDay = selectedDay;
+        drawingParams.showWeekNum = mShowWeekNumber ? 1 : 0;
+        drawingParams.weekStart = mFirstDayOfWeek;
+        drawingParams.numDays = mDaysPerWeek;
+        drawingParams.week = position;
+        drawingParams.focusMonth = mFocusMonth;
+        drawingParams.orientation = mOrientation;
 
         if (isAnimatingToday) {
-            drawingParams.put(MonthWeekEventsView.VIEW_PARAMS_ANIMATE_TODAY, 1);
+            drawingParams.animateToday = true;
             mAnimateToday = false;
         }
 
         v.setWeekParams(drawingParams, mSelectedDay.timezone);
         sendEventsToView(v);
+        if (isAnimatingToday) {
+            // The recycled view may not be redrawn otherwise
+            v.invalidate();
+        }
         return v;
     }
 
@@ -271,7 +451,32 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
             v.setEvents(null, null);
             return;
         }
-        v.setEvents(mEventDayList.subList(start, end), mEvents);
+        List<ArrayList<Event>> weekDays = getWeekDayList(start, end);
+        if (mEventTable != null) {
+            v.setEventTable(weekDays, mEventTable);
+        } else {
+            v.setEvents(weekDays, mEvents);
+        }
+    }
+
+    /**
+     * Returns the days [start, end) of mEventDayList, made once per load of
+     * the events so that rebinding a week reuses the same list.
+     */
+    private List<ArrayList<Event>> getWeekDayList(int start, int end) {
+        if (mWeekDayLists == null) {
+            int size = mEventDayList.size();
+            mWeekDayLists = new ArrayList<List<ArrayList<Event>>>(size);
+            for (int i = 0; i < size; i++) {
+                mWeekDayLists.add(null);
+            }
+        }
+        List<ArrayList<Event>> weekDays = mWeekDayLists.get(start);
+        if (weekDays == null || weekDays.size() != end - start) {
+            weekDays = mEventDayList.subList(start, end);
+            mWeekDayLists.set(start, weekDays);
+        }
+        return weekDays;
     }
 
     @Override
@@ -29,6 +29,7 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.Calendars;
 import android.provider.CalendarContract.Instances;
@@ -49,6 +50,7 @@ import com.android.calendar.CalendarController.EventInfo;
 import com.android.calendar.CalendarController.EventType;
 import com.android.calendar.CalendarController.ViewType;
 import com.android.calendar.Event;
+import com.android.calendar.EventTable;
 import com.android.calendar.R;
 import com.android.calendar.Utils;
 import com.android.calendar.event.CreateEventDialogFragment;
@@ -78,8 +80,12 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
 
     protected int mFirstLoadedJulianDay;
     protected int mLastLoadedJulianDay;
+    // The days whose events have been delivered to the adapter
+    private int mFirstResultJulianDay = Integer.MAX_VALUE;
+    private int mLastResultJulianDay = Integer.MIN_VALUE;
 
-    private static final int WEEKS_BUFFER = 1;
+    // Decides how many weeks to load around the visible ones
+    private final MonthLoadPolicy mLoadPolicy = new MonthLoadPolicy();
     // How long to wait after scroll stops before starting the loader
     // Using scroll duration because scroll state changes don't update
     // correctly when a scroll is triggered programmatically.
@@ -173,14 +179,16 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
      */
     private Uri updateUri() {
         SimpleWeekView child = (SimpleWeekView) mListView.getChildAt(0);
+        int weeksBefore = mLoadPolicy.getWeeksBefore();
         if (child != null) {
             int julianDay = child.getFirstJulianDay();
-            mFirstLoadedJulianDay = julianDay;
+            mFirstLoadedJulianDay = julianDay - weeksBefore * 7;
         }
         // -1 to ensure we get all day events from any time zone
         mTempTime.setJulianDay(mFirstLoadedJulianDay - 1);
         long start = mTempTime.toMillis(true);
-        mLastLoadedJulianDay = mFirstLoadedJulianDay + (mNumWeeks + 2 * WEEKS_BUFFER) * 7;
+        mLastLoadedJulianDay = mFirstLoadedJulianDay
+                + (weeksBefore + mNumWeeks + mLoadPolicy.getWeeksAfter()) * 7;
         // +1 to ensure we get all day events from any time zone
         mTempTime.setJulianDay(mLastLoadedJulianDay + 1);
         long end = mTempTime.toMillis(true);
@@ -397,11 +405,24 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
                 // result
                 return;
             }
+            mFirstResultJulianDay = mFirstLoadedJulianDay;
+            mLastResultJulianDay = mLastLoadedJulianDay;
+            if (!mShowDetailsInMonth) {
+                // Only the dna is drawn, which doesn't need full Event objects
+                EventTable table = new EventTable(data.getCount());
+                Event.buildEventTableFromCursor(
+                        table, data, mContext, mFirstLoadedJulianDay, mLastLoadedJulianDay);
+                ((MonthByWeekAdapter) mAdapter).updateEventTable(mFirstLoadedJulianDay,
+                        mLastLoadedJulianDay - mFirstLoadedJulianDay + 1, table, mListView);
+                return;
+            }
             ArrayList<Event> events = new ArrayList<Event>();
             Event.buildEventsFromCursor(
                     events, data, mContext, mFirstLoadedJulianDay, mLastLoadedJulianDay);
-            ((MonthByWeekAdapter) mAdapter).setEvents(mFirstLoadedJulianDay,
-                    mLastLoadedJulianDay - mFirstLoadedJulianDay + 1, events);
+            // A reload of the same days, like the one eventsChanged() forces,
+            // only updates the weeks whose instances changed.
+            ((MonthByWeekAdapter) mAdapter).updateEvents(mFirstLoadedJulianDay,
+                    mLastLoadedJulianDay - mFirstLoadedJulianDay + 1, events, mListView);
         }
     }
 
@@ -487,13 +508,27 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
 
         synchronized (mUpdateLoader) {
             if (scrollState != OnScrollListener.SCROLL_STATE_IDLE) {
-                mShouldLoad = false;
-                stopLoader();
+                // Loads carry on while the scroll is slow, onScroll stops
+                // them if it turns into a fling
                 mDesiredDay.setToNow();
             } else {
+                mLoadPolicy.onScrollIdle();
+                boolean miss = false;
+                SimpleWeekView child = (SimpleWeekView) view.getChildAt(0);
+                if (child != null && !mIsMiniMonth) {
+                    int firstVisibleDay = child.getFirstJulianDay();
+                    miss = mLoadPolicy.onSettled(firstVisibleDay,
+                            firstVisibleDay + mNumWeeks * 7 - 1, mFirstResultJulianDay,
+                            mLastResultJulianDay);
+                    if (Log.isLoggable(TAG, Log.DEBUG)) {
+                        Log.d(TAG, "Scroll settled, " + (miss ? "not loaded" : "loaded") + ", "
+                                + mLoadPolicy + " miss rate=" + mLoadPolicy.getMissRate());
+                    }
+                }
                 mHandler.removeCallbacks(mUpdateLoader);
                 mShouldLoad = true;
-                mHandler.postDelayed(mUpdateLoader, LOADER_DELAY);
+                // Don't keep the user waiting if the weeks on screen are empty
+                mHandler.postDelayed(mUpdateLoader, miss ? 0 : LOADER_DELAY);
             }
         }
         if (scrollState == OnScrollListener.SCROLL_STATE_TOUCH_SCROLL) {
@@ -503,6 +538,37 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
         mScrollStateChangedRunnable.doScrollStateChange(view, scrollState);
     }
 
+    @Override
+    public void onScroll(
+            AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        super.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+        SimpleWeekView child = (SimpleWeekView) view.getChildAt(0);
+        if (mIsMiniMonth || child == null || child.getHeight() == 0) {
+            return;
+        }
+        float position = firstVisibleItem - (float) child.getTop() / child.getHeight();
+        mLoadPolicy.onScroll(position, SystemClock.uptimeMillis());
+
+        synchronized (mUpdateLoader) {
+            if (mLoadPolicy.isFling()) {
+                // Whatever is loading now will have scrolled by before it
+                // returns
+                if (mShouldLoad) {
+                    mShouldLoad = false;
+                    stopLoader();
+                }
+                return;
+            }
+            int firstVisibleDay = child.getFirstJulianDay();
+            if (mLoadPolicy.shouldLoadAhead(firstVisibleDay, firstVisibleDay + mNumWeeks * 7 - 1,
+                    mFirstLoadedJulianDay, mLastLoadedJulianDay)) {
+                mShouldLoad = true;
+                mHandler.removeCallbacks(mUpdateLoader);
+                mHandler.post(mUpdateLoader);
+            }
+        }
+    }
+
     @Override
     public boolean onTouch(View v, MotionEvent event) {
         mDesiredDay.setToNow();
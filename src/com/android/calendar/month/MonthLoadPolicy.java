@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.month;
+
+/**
+ * Decides which weeks MonthByWeekFragment queries around the visible ones,
+ * and when, based on how fast and in which direction the month is
+ * scrolling. At rest one extra week is loaded on each side. While scrolling
+ * slowly the range reaches further ahead in the scroll direction and is
+ * reloaded before the visible weeks run off its edge; during a fling
+ * nothing is loaded, since the weeks passing by would be stale before the
+ * query returned.
+ *
+ * Also keeps count of how often the weeks on screen when a scroll settled
+ * hadn't been loaded yet, which is the number this policy tries to drive
+ * to zero.
+ *
+ * Only used on the UI thread.
+ */
+/* package */ class MonthLoadPolicy {
+    // Weeks loaded on each side of the visible ones at rest
+    static final int MIN_WEEKS_BUFFER = 1;
+    // The most weeks loaded ahead in the scroll direction
+    static final int MAX_WEEKS_AHEAD = 8;
+    // How far ahead to load, in seconds of scrolling at the current speed
+    private static final float LOOKAHEAD_SECONDS = 1.5f;
+    // Faster than this, in weeks per second, is a fling that doesn't load
+    private static final float FLING_WEEKS_PER_SECOND = 12f;
+    // Reload once the visible weeks are this close to the loaded edge
+    private static final int EDGE_WEEKS = 1;
+    // Weight of the newest sample in the smoothed velocity
+    private static final float VELOCITY_SMOOTHING = 0.3f;
+    // A scroll position older than this doesn't say anything about velocity
+    private static final long MAX_SAMPLE_INTERVAL_MS = 200;
+
+    private float mLastPosition;
+    private long mLastPositionMillis = -1;
+    // Weeks per second, positive towards the future
+    private float mVelocity;
+
+    private int mSettles;
+    private int mMisses;
+
+    /**
+     * Records the scroll position, in weeks from any fixed origin, at
+     * nowMillis.
+     */
+    public void onScroll(float positionWeeks, long nowMillis) {
+        long elapsed = nowMillis - mLastPositionMillis;
+        if (mLastPositionMillis < 0 || elapsed > MAX_SAMPLE_INTERVAL_MS) {
+            mVelocity = 0;
+        } else if (elapsed > 0) {
+            float velocity = (positionWeeks - mLastPosition) * 1000f / elapsed;
+            mVelocity += VELOCITY_SMOOTHING * (velocity - mVelocity);
+        } else {
+            // Several calls in the same millisecond, keep the first one
+            return;
+        }
+        mLastPosition = positionWeeks;
+        mLastPositionMillis = nowMillis;
+    }
+
+    /**
+     * Records that the scroll stopped.
+     */
+    public void onScrollIdle() {
+        mVelocity = 0;
+        mLastPositionMillis = -1;
+    }
+
+    /**
+     * @return true if the month is scrolling too fast for a load to be
+     *         useful
+     */
+    public boolean isFling() {
+        return Math.abs(mVelocity) > FLING_WEEKS_PER_SECOND;
+    }
+
+    /**
+     * @return how many weeks to load before the first visible one
+     */
+    public int getWeeksBefore() {
+        return mVelocity < 0 ? getWeeksAhead() : MIN_WEEKS_BUFFER;
+    }
+
+    /**
+     * @return how many weeks to load after the last visible one
+     */
+    public int getWeeksAfter() {
+        return mVelocity > 0 ? getWeeksAhead() : MIN_WEEKS_BUFFER;
+    }
+
+    private int getWeeksAhead() {
+        int weeks = (int) Math.ceil(Math.abs(mVelocity) * LOOKAHEAD_SECONDS);
+        return Math.max(MIN_WEEKS_BUFFER, Math.min(weeks, MAX_WEEKS_AHEAD));
+    }
+
+    /**
+     * @return true if the visible days are close enough to the edge of the
+     *         loaded days, in the direction of the scroll, that the next
+     *         range should be loaded now
+     */
+    public boolean shouldLoadAhead(int firstVisibleDay, int lastVisibleDay, int firstLoadedDay,
+            int lastLoadedDay) {
+        if (isFling()) {
+            return false;
+        }
+        if (mVelocity > 0) {
+            return lastVisibleDay + EDGE_WEEKS * 7 > lastLoadedDay;
+        } else if (mVelocity < 0) {
+            return firstVisibleDay - EDGE_WEEKS * 7 < firstLoadedDay;
+        }
+        return false;
+    }
+
+    /**
+     * Records where a scroll settled and whether the events of the visible
+     * days had been loaded by then.
+     *
+     * @return true if they had not
+     */
+    public boolean onSettled(int firstVisibleDay, int lastVisibleDay, int firstLoadedDay,
+            int lastLoadedDay) {
+        boolean miss = firstVisibleDay < firstLoadedDay || lastVisibleDay > lastLoadedDay;
+        mSettles++;
+        if (miss) {
+            mMisses++;
+        }
+        return miss;
+    }
+
+    /**
+     * @return the fraction of settled scrolls that showed weeks whose events
+     *         weren't loaded yet
+     */
+    public float getMissRate() {
+        return mSettles == 0 ? 0 : (float) mMisses / mSettles;
+    }
+
+    @Override
+    public String toString() {
+        return "misses=" + mMisses + "/" + mSettles + " velocity=" + mVelocity;
+    }
+}
@@ -16,7 +16,9 @@
 
 package com.android.calendar.month;
 
+import com.android.calendar.DNAStrand;
 import com.android.calendar.Event;
+import com.android.calendar.EventTable;
 import com.android.calendar.LunarUtils;
 import com.android.calendar.R;
 import com.android.calendar.Utils;
@@ -28,6 +30,7 @@ import android.app.Service;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -54,7 +57,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 
-public class MonthWeekEventsView extends SimpleWeekView {
+public class MonthWeekEventsView extends SimpleWeekView implements DNAStrandCache.Callback {
 
     private static final String TAG = "MonthView";
 
@@ -114,7 +117,13 @@ public class MonthWeekEventsView extends SimpleWeekView {
     protected int mOrientation = Configuration.ORIENTATION_LANDSCAPE;
     protected List<ArrayList<Event>> mEvents = null;
     protected ArrayList<Event> mUnsortedEvents = null;
-    HashMap<Integer, Utils.DNAStrand> mDna = null;
+    protected EventTable mUnsortedEventTable = null;
+    HashMap<Integer, DNAStrand> mDna = null;
+    // The week mDna is for, or is being computed for, if mHasDnaKey
+    private final DNAStrandCache.Key mDnaKey = new DNAStrandCache.Key();
+    private boolean mHasDnaKey = false;
+    // Filled in on every bind and compared with mDnaKey
+    private final DNAStrandCache.Key mNextDnaKey = new DNAStrandCache.Key();
     // This is for drawing the outlines around event chips and supports up to 10
     // events being drawn on each day. The code will expand this if necessary.
     protected FloatRef mEventOutlines = new FloatRef(10 * 4 * 4 * 7);
@@ -226,6 +235,22 @@ public class MonthWeekEventsView extends SimpleWeekView {
 
     private int[] mDayXs;
 
+    // Everything but the today animation and the click highlight is drawn
+    // into this bitmap, and only redrawn when something it was drawn from
+    // changes, so that scrolling the month mostly blits it.
+    private Bitmap mRenderCache;
+    private final Canvas mRenderCanvas = new Canvas();
+    private boolean mRenderCacheValid;
+    private int mRenderFirstJulianDay;
+    private int mRenderOrientation;
+    private int mRenderTodayIndex;
+    private int mRenderMonthMask;
+    private boolean mRenderShowWeekNum;
+    private boolean mRenderShowLunar;
+    private int mRenderLunarGeneration;
+    private HashMap<Integer, DNAStrand> mRenderDna;
+    private ArrayList<?>[] mRenderEventDays;
+
     /**
      * This provides a reference to a float array which allows for easy size
      * checking and reallocation. Used for drawing lines.
@@ -252,6 +277,19 @@ public class MonthWeekEventsView extends SimpleWeekView {
         super(context);
     }
 
+    /**
+     * Overrides whether the weeks show event details or dna, which otherwise
+     * comes from the configuration the first view was created with. Only for
+     * tests, views have to be created before calling this.
+     *
+     * @return the previous value, to restore when done
+     */
+    /* package */ static boolean setShowDetailsInMonth(boolean showDetails) {
+        boolean previous = mShowDetailsInMonth;
+        mShowDetailsInMonth = showDetails;
+        return previous;
+    }
+
     // Sets the list of events for this week. Takes a sorted list of arrays
     // divided up by day for generating the large month version and the full
     // arraylist sorted by start time to generate the dna version.
@@ -262,17 +300,26 @@ public class MonthWeekEventsView extends SimpleWeekView {
         createDna(unsortedEvents);
     }
 
+    // Same as above, but generates the dna version from a table of events
+    // sorted by start time.
+    public void setEventTable(List<ArrayList<Event>> sortedEvents, EventTable unsortedEvents) {
+        setEvents(sortedEvents);
+        createDna(unsortedEvents);
+    }
+
     /**
      * Sets up the dna bits for the view. This will return early if the view
      * isn't in a state that will create a valid set of dna yet (such as the
      * views width not being set correctly yet).
      */
     public void createDna(ArrayList<Event> unsortedEvents) {
+        mUnsortedEventTable = null;
         if (unsortedEvents == null || mWidth <= MIN_WEEK_WIDTH || getContext() == null) {
             // Stash the list of events for use when this view is ready, or
             // just clear it if a null set has been passed to this view
             mUnsortedEvents = unsortedEvents;
             mDna = null;
+            mHasDnaKey = false;
             return;
         } else {
             // clear the cached set of events since we're ready to build it now
@@ -280,23 +327,93 @@ public class MonthWeekEventsView extends SimpleWeekView {
         }
         // Create the drawing coordinates for dna
         if (!mShowDetailsInMonth) {
-            int numDays = mEvents.size();
-            int effectiveWidth = mWidth - mPadding * 2;
-            if (mShowWeekNum) {
-                effectiveWidth -= SPACING_WEEK_NUMBER;
+            computeDayXs();
+            if (unsortedEvents.isEmpty()) {
+                mDna = null;
+                mHasDnaKey = false;
+                return;
             }
-            DNA_ALL_DAY_WIDTH = effectiveWidth / numDays - 2 * DNA_SIDE_PADDING;
-            mDNAAllDayPaint.setStrokeWidth(DNA_ALL_DAY_WIDTH);
-            mDayXs = new int[numDays];
-            for (int day = 0; day < numDays; day++) {
-                mDayXs[day] = computeDayLeftPosition(day) + DNA_WIDTH / 2 + DNA_SIDE_PADDING;
-
+            int top = DAY_SEPARATOR_INNER_WIDTH + DNA_MARGIN + DNA_ALL_DAY_HEIGHT + 1;
+            int bottom = mHeight - DNA_MARGIN;
+            DNAStrandCache cache = DNAStrandCache.getInstance();
+            mNextDnaKey.set(mFirstJulianDay, unsortedEvents, top, bottom,
+                    DNA_MIN_SEGMENT_HEIGHT, mDayXs);
+            if (!setDnaFromCache(cache)) {
+                cache.load(getContext(), mNextDnaKey, unsortedEvents, this);
             }
+        }
+    }
 
+    /**
+     * Same as {@link #createDna(ArrayList)} for events held in a table.
+     */
+    public void createDna(EventTable unsortedEvents) {
+        mUnsortedEvents = null;
+        if (unsortedEvents == null || mWidth <= MIN_WEEK_WIDTH || getContext() == null) {
+            mUnsortedEventTable = unsortedEvents;
+            mDna = null;
+            mHasDnaKey = false;
+            return;
+        } else {
+            mUnsortedEventTable = null;
+        }
+        if (!mShowDetailsInMonth) {
+            computeDayXs();
+            if (unsortedEvents.size() == 0) {
+                mDna = null;
+                mHasDnaKey = false;
+                return;
+            }
             int top = DAY_SEPARATOR_INNER_WIDTH + DNA_MARGIN + DNA_ALL_DAY_HEIGHT + 1;
             int bottom = mHeight - DNA_MARGIN;
-            mDna = Utils.createDNAStrands(mFirstJulianDay, unsortedEvents, top, bottom,
-                    DNA_MIN_SEGMENT_HEIGHT, mDayXs, getContext());
+            DNAStrandCache cache = DNAStrandCache.getInstance();
+            mNextDnaKey.set(mFirstJulianDay, unsortedEvents, top, bottom,
+                    DNA_MIN_SEGMENT_HEIGHT, mDayXs);
+            if (!setDnaFromCache(cache)) {
+                cache.load(getContext(), mNextDnaKey, unsortedEvents, this);
+            }
+        }
+    }
+
+    /**
+     * Points this view at the week in mNextDnaKey. Returns false if its
+     * strands still have to be computed, in which case no dna is drawn until
+     * they are.
+     */
+    private boolean setDnaFromCache(DNAStrandCache cache) {
+        if (mHasDnaKey && mDna != null && mNextDnaKey.equals(mDnaKey)) {
+            // Rebound to the same week
+            return true;
+        }
+        mDnaKey.set(mNextDnaKey);
+        mHasDnaKey = true;
+        mDna = cache.get(mDnaKey);
+        return mDna != null;
+    }
+
+    @Override
+    public void onDnaReady(DNAStrandCache.Key key, HashMap<Integer, DNAStrand> dna) {
+        // The view may have been rebound to another week in the meantime
+        if (mHasDnaKey && key.equals(mDnaKey)) {
+            mDna = dna;
+            invalidate();
+        }
+    }
+
+    private void computeDayXs() {
+        int numDays = mEvents.size();
+        int effectiveWidth = mWidth - mPadding * 2;
+        if (mShowWeekNum) {
+            effectiveWidth -= SPACING_WEEK_NUMBER;
+        }
+        DNA_ALL_DAY_WIDTH = effectiveWidth / numDays - 2 * DNA_SIDE_PADDING;
+        mDNAAllDayPaint.setStrokeWidth(DNA_ALL_DAY_WIDTH);
+        if (mDayXs == null || mDayXs.length != numDays) {
+            mDayXs = new int[numDays];
+        }
+        for (int day = 0; day < numDays; day++) {
+            mDayXs[day] = computeDayLeftPosition(day) + DNA_WIDTH / 2 + DNA_SIDE_PADDING;
+
         }
     }
 
@@ -489,17 +606,17 @@ public class MonthWeekEventsView extends SimpleWeekView {
     }
 
     @Override
-    public void setWeekParams(HashMap<String, Integer> params, String tz) {
+    public void setWeekParams(WeekParams params, String tz) {
         super.setWeekParams(params, tz);
 
-        if (params.containsKey(VIEW_PARAMS_ORIENTATION)) {
-            mOrientation = params.get(VIEW_PARAMS_ORIENTATION);
+        if (params.orientation != WeekParams.UNSET) {
+            mOrientation = params.orientation;
         }
 
         updateToday(tz);
         mNumCells = mNumDays + 1;
 
-        if (params.containsKey(VIEW_PARAMS_ANIMATE_TODAY) && mHasToday) {
+        if (params.animateToday && mHasToday) {
             synchronized (mAnimatorListener) {
                 if (mTodayAnimator != null) {
                     mTodayAnimator.removeAllListeners();
@@ -542,6 +659,25 @@ public class MonthWeekEventsView extends SimpleWeekView {
 
     @Override
     protected void onDraw(Canvas canvas) {
+        if (!mShowDetailsInMonth) {
+            if (mDna == null && mUnsortedEvents != null) {
+                createDna(mUnsortedEvents);
+            } else if (mDna == null && mUnsortedEventTable != null) {
+                createDna(mUnsortedEventTable);
+            }
+        }
+        if ((mHasToday && mAnimateToday) || mWidth <= 0 || mHeight <= 0
+                || mOddMonth == null) {
+            // The today highlight animates between the background and the
+            // events, so draw directly until it's done
+            drawWeek(canvas);
+        } else {
+            drawRenderCache(canvas);
+        }
+        drawClick(canvas);
+    }
+
+    private void drawWeek(Canvas canvas) {
         drawBackground(canvas);
         drawWeekNums(canvas);
         drawDaySeparators(canvas);
@@ -551,12 +687,96 @@ public class MonthWeekEventsView extends SimpleWeekView {
         if (mShowDetailsInMonth) {
             drawEvents(canvas);
         } else {
-            if (mDna == null && mUnsortedEvents != null) {
-                createDna(mUnsortedEvents);
-            }
             drawDNA(canvas);
         }
-        drawClick(canvas);
+    }
+
+    /**
+     * Blits the week from the render cache, redrawing the cache first if the
+     * week, its events or dna, today, the focus month, the orientation or
+     * the week number and lunar settings changed since it was drawn.
+     */
+    private void drawRenderCache(Canvas canvas) {
+        if (mRenderCache == null || mRenderCache.getWidth() != mWidth
+                || mRenderCache.getHeight() != mHeight) {
+            mRenderCache = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+            mRenderCacheValid = false;
+        }
+
+        int monthMask = 0;
+        for (int i = 0; i < mOddMonth.length; i++) {
+            monthMask |= (mOddMonth[i] ? 1 : 0) << (2 * i);
+            monthMask |= (mFocusDay[i] ? 2 : 0) << (2 * i);
+        }
+        boolean showLunar = LunarUtils.showLunar(getContext());
+        int lunarGeneration = showLunar ? LunarUtils.getGeneration() : 0;
+        boolean valid = mRenderCacheValid
+                && mRenderFirstJulianDay == mFirstJulianDay
+                && mRenderOrientation == mOrientation
+                && mRenderTodayIndex == mTodayIndex
+                && mRenderMonthMask == monthMask
+                && mRenderShowWeekNum == mShowWeekNum
+                && mRenderShowLunar == showLunar
+                && mRenderLunarGeneration == lunarGeneration;
+        if (valid) {
+            valid = mShowDetailsInMonth ? sameEventDays() : mRenderDna == mDna;
+        }
+
+        if (!valid) {
+            mRenderCache.eraseColor(Color.TRANSPARENT);
+            mRenderCanvas.setBitmap(mRenderCache);
+            drawWeek(mRenderCanvas);
+
+            mRenderCacheValid = true;
+            mRenderFirstJulianDay = mFirstJulianDay;
+            mRenderOrientation = mOrientation;
+            mRenderTodayIndex = mTodayIndex;
+            mRenderMonthMask = monthMask;
+            mRenderShowWeekNum = mShowWeekNum;
+            mRenderShowLunar = showLunar;
+            mRenderLunarGeneration = lunarGeneration;
+            mRenderDna = mDna;
+            if (mEvents == null) {
+                mRenderEventDays = null;
+            } else {
+                int size = mEvents.size();
+                if (mRenderEventDays == null || mRenderEventDays.length != size) {
+                    mRenderEventDays = new ArrayList<?>[size];
+                }
+                for (int i = 0; i < size; i++) {
+                    mRenderEventDays[i] = mEvents.get(i);
+                }
+            }
+        }
+        canvas.drawBitmap(mRenderCache, 0, 0, null);
+    }
+
+    /**
+     * Returns true if the per-day event lists are the ones the render cache
+     * was drawn from. The adapter hands out new lists whenever a day's
+     * events change, so comparing references is enough.
+     */
+    private boolean sameEventDays() {
+        if (mEvents == null || mRenderEventDays == null) {
+            return mEvents == null && mRenderEventDays == null;
+        }
+        if (mEvents.size() != mRenderEventDays.length) {
+            return false;
+        }
+        for (int i = 0; i < mRenderEventDays.length; i++) {
+            if (mEvents.get(i) != mRenderEventDays[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mRenderCache = null;
+        mRenderEventDays = null;
+        mRenderDna = null;
     }
 
     protected void drawToday(Canvas canvas) {
@@ -1033,7 +1253,7 @@ public class MonthWeekEventsView extends SimpleWeekView {
     protected void drawDNA(Canvas canvas) {
         // Draw event and conflict times
         if (mDna != null) {
-            for (Utils.DNAStrand strand : mDna.values()) {
+            for (DNAStrand strand : mDna.values()) {
                 if (strand.color == CONFLICT_COLOR || strand.points == null
                         || strand.points.length == 0) {
                     continue;
@@ -1042,7 +1262,7 @@ public class MonthWeekEventsView extends SimpleWeekView {
                 canvas.drawLines(strand.points, mDNATimePaint);
             }
             // Draw black last to make sure it's on top
-            Utils.DNAStrand strand = mDna.get(CONFLICT_COLOR);
+            DNAStrand strand = mDna.get(CONFLICT_COLOR);
             if (strand != null && strand.points != null && strand.points.length != 0) {
                 mDNATimePaint.setColor(strand.color);
                 canvas.drawLines(strand.points, mDNATimePaint);
@@ -98,6 +98,10 @@ public class SimpleWeekView extends View {
 
     protected static int DAY_SEPARATOR_WIDTH = 1;
 
+    // Day of month and week of year strings, made on first use. Only
+    // touched on the UI thread.
+    private static final String[] NUMBER_STRINGS = new String[54];
+
     protected static int MINI_DAY_NUMBER_TEXT_SIZE = 14;
     protected static int MINI_WK_NUMBER_TEXT_SIZE = 12;
     protected static int MINI_TODAY_NUMBER_TEXT_SIZE = 18;
@@ -158,6 +162,11 @@ public class SimpleWeekView extends View {
     // is)
     protected String mTimeZone = Time.getCurrentTimezone();
 
+    // Reused by every bind of this view
+    private final WeekParams mWeekParams = new WeekParams();
+    private final Time mWeekTime = new Time();
+    private final Time mWeekToday = new Time();
+
     protected int mBGColor;
     protected int mSelectedWeekBGColor;
     protected int mFocusMonthColor;
@@ -214,48 +223,69 @@ public class SimpleWeekView extends View {
             throw new InvalidParameterException("You must specify the week number for this view");
         }
         setTag(params);
+        mWeekParams.set(params);
+        setWeekParams(mWeekParams, tz);
+    }
+
+    /**
+     * Returns the params object owned by this view. Adapters fill it in and
+     * pass it back to {@link #setWeekParams(WeekParams, String)} so that
+     * binding a recycled view doesn't allocate.
+     */
+    public WeekParams getWeekParams() {
+        return mWeekParams;
+    }
+
+    /**
+     * Same as {@link #setWeekParams(HashMap, String)} with typed params.
+     * Fields left at {@link WeekParams#UNSET} keep their current value.
+     */
+    public void setWeekParams(WeekParams params, String tz) {
+        if (params.week == WeekParams.UNSET) {
+            throw new InvalidParameterException("You must specify the week number for this view");
+        }
         mTimeZone = tz;
         // We keep the current value for any params not present
-        if (params.containsKey(VIEW_PARAMS_HEIGHT)) {
-            mHeight = params.get(VIEW_PARAMS_HEIGHT);
+        if (params.height != WeekParams.UNSET) {
+            mHeight = params.height;
             if (mHeight < MIN_HEIGHT) {
                 mHeight = MIN_HEIGHT;
             }
         }
-        if (params.containsKey(VIEW_PARAMS_SELECTED_DAY)) {
-            mSelectedDay = params.get(VIEW_PARAMS_SELECTED_DAY);
+        if (params.selectedDay != WeekParams.UNSET) {
+            mSelectedDay = params.selectedDay;
         }
         mHasSelectedDay = mSelectedDay != -1;
-        if (params.containsKey(VIEW_PARAMS_NUM_DAYS)) {
-            mNumDays = params.get(VIEW_PARAMS_NUM_DAYS);
+        if (params.numDays != WeekParams.UNSET) {
+            mNumDays = params.numDays;
         }
-        if (params.containsKey(VIEW_PARAMS_SHOW_WK_NUM)) {
-            if (params.get(VIEW_PARAMS_SHOW_WK_NUM) != 0) {
-                mShowWeekNum = true;
-            } else {
-                mShowWeekNum = false;
-            }
+        if (params.showWeekNum != WeekParams.UNSET) {
+            mShowWeekNum = params.showWeekNum != 0;
         }
         mNumCells = mShowWeekNum ? mNumDays + 1 : mNumDays;
 
-        // Allocate space for caching the day numbers and focus values
-        mDayNumbers = new String[mNumCells];
-        mFocusDay = new boolean[mNumCells];
-        mOddMonth = new boolean[mNumCells];
-        mWeek = params.get(VIEW_PARAMS_WEEK);
+        // Allocate space for caching the day numbers and focus values, unless
+        // this view was already bound with as many cells
+        if (mDayNumbers == null || mDayNumbers.length != mNumCells) {
+            mDayNumbers = new String[mNumCells];
+            mFocusDay = new boolean[mNumCells];
+            mOddMonth = new boolean[mNumCells];
+        }
+        mWeek = params.week;
         int julianMonday = Utils.getJulianMondayFromWeeksSinceEpoch(mWeek);
-        Time time = new Time(tz);
+        Time time = mWeekTime;
+        time.timezone = tz;
         time.setJulianDay(julianMonday);
 
         // If we're showing the week number calculate it based on Monday
         int i = 0;
         if (mShowWeekNum) {
-            mDayNumbers[0] = Integer.toString(time.getWeekNumber());
+            mDayNumbers[0] = getNumberString(time.getWeekNumber());
             i++;
         }
 
-        if (params.containsKey(VIEW_PARAMS_WEEK_START)) {
-            mWeekStart = params.get(VIEW_PARAMS_WEEK_START);
+        if (params.weekStart != WeekParams.UNSET) {
+            mWeekStart = params.weekStart;
         }
 
         // Now adjust our starting day based on the start day of the week
@@ -274,13 +304,13 @@ public class SimpleWeekView extends View {
         mFirstMonth = time.month;
 
         // Figure out what day today is
-        Time today = new Time(tz);
+        Time today = mWeekToday;
+        today.timezone = tz;
         today.setToNow();
         mHasToday = false;
         mToday = -1;
 
-        int focusMonth = params.containsKey(VIEW_PARAMS_FOCUS_MONTH) ? params.get(
-                VIEW_PARAMS_FOCUS_MONTH)
+        int focusMonth = params.focusMonth != WeekParams.UNSET ? params.focusMonth
                 : DEFAULT_FOCUS_MONTH;
 
         for (; i < mNumCells; i++) {
@@ -297,7 +327,7 @@ public class SimpleWeekView extends View {
                 mHasToday = true;
                 mToday = i;
             }
-            mDayNumbers[i] = Integer.toString(time.monthDay++);
+            mDayNumbers[i] = getNumberString(time.monthDay++);
             time.normalize(true);
         }
         // We do one extra add at the end of the loop, if that pushed us to a
@@ -311,6 +341,22 @@ public class SimpleWeekView extends View {
         updateSelectionPositions();
     }
 
+    /**
+     * Returns the decimal string for a day or week number, shared by all
+     * the views.
+     */
+    private static String getNumberString(int number) {
+        if (number < 0 || number >= NUMBER_STRINGS.length) {
+            return Integer.toString(number);
+        }
+        String s = NUMBER_STRINGS[number];
+        if (s == null) {
+            s = Integer.toString(number);
+            NUMBER_STRINGS[number] = s;
+        }
+        return s;
+    }
+
     /**
      * Sets up the text and style properties for painting. Override this if you
      * want to use a different paint.
@@ -201,15 +201,11 @@ public class SimpleWeeksAdapter extends BaseAdapter implements OnTouchListener {
         return position;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
         SimpleWeekView v;
-        HashMap<String, Integer> drawingParams = null;
         if (convertView != null) {
             v = (SimpleWeekView) convertView;
-            // We store the drawing parameters in the view so it can be recycled
-            drawingParams = (HashMap<String, Integer>) v.getTag();
         } else {
             v = new SimpleWeekView(mContext);
             // Set up the new view
@@ -219,9 +215,8 @@ public class SimpleWeeksAdapter extends BaseAdapter implements OnTouchListener {
             v.setClickable(true);
             v.setOnTouchListener(this);
         }
-        if (drawingParams == null) {
-            drawingParams = new HashMap<String, Integer>();
-        }
+        // We reuse the drawing parameters stored in the view
+        WeekParams drawingParams = v.getWeekParams();
         drawingParams.clear();
 
         int selectedDay = -1;
@@ -230,14 +225,13 @@ public class SimpleWeeksAdapter extends BaseAdapter implements OnTouchListener {
         }
 
         // pass in all the view parameters
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_HEIGHT,
-                (parent.getHeight() - WEEK_7_OVERHANG_HEIGHT) / mNumWeeks);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_SELECTED_DAY, selectedDay);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_SHOW_WK_NUM, mShowWeekNumber ? 1 : 0);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_WEEK_START, mFirstDayOfWeek);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_NUM_DAYS, mDaysPerWeek);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_WEEK, position);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_FOCUS_MONTH, mFocusMonth);
+        drawingParams.height = (parent.getHeight() - WEEK_7_OVERHANG_HEIGHT) / mNumWeeks;
+        drawingParams.selectedDay = selectedDay;
+        drawingParams.showWeekNum = mShowWeekNumber ? 1 : 0;
+        drawingParams.weekStart = mFirstDayOfWeek;
+        drawingParams.numDays = mDaysPerWeek;
+        drawingParams.week = position;
+        drawingParams.focusMonth = mFocusMonth;
         v.setWeekParams(drawingParams, mSelectedDay.timezone);
         v.invalidate();
 
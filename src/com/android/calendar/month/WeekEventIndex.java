@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.month;
+
+import com.android.calendar.Event;
+import com.android.calendar.InstanceDelta;
+
+import java.util.ArrayList;
+
+/**
+ * The events of a range of days bucketed by day, the way the month weeks
+ * draw them. Along with the per-day lists the index keeps the id and a hash
+ * of every entry in one flat array per field, so that two indexes of the
+ * same days can be compared to find the days whose events changed.
+ *
+ * An index is built once, usually off the UI thread, and never modified
+ * after that.
+ */
+/* package */ class WeekEventIndex {
+    final int firstJulianDay;
+    final int numDays;
+    final ArrayList<Event> events;
+    final ArrayList<ArrayList<Event>> days;
+
+    // The entries of day d are [mDayStart[d], mDayStart[d + 1])
+    private final int[] mDayStart;
+    private final long[] mIds;
+    private final int[] mHashes;
+
+    private WeekEventIndex(int firstJulianDay, int numDays, ArrayList<Event> events,
+            ArrayList<ArrayList<Event>> days, int[] dayStart, long[] ids, int[] hashes) {
+        this.firstJulianDay = firstJulianDay;
+        this.numDays = numDays;
+        this.events = events;
+        this.days = days;
+        mDayStart = dayStart;
+        mIds = ids;
+        mHashes = hashes;
+    }
+
+    /**
+     * Buckets events, which may be null, into the days [firstJulianDay,
+     * firstJulianDay + numDays).
+     */
+    static WeekEventIndex build(int firstJulianDay, int numDays, ArrayList<Event> events) {
+        ArrayList<ArrayList<Event>> days = new ArrayList<ArrayList<Event>>(numDays);
+        for (int i = 0; i < numDays; i++) {
+            days.add(new ArrayList<Event>());
+        }
+
+        int entries = 0;
+        if (events != null) {
+            for (Event event : events) {
+                int startDay = Math.max(event.startDay - firstJulianDay, 0);
+                int endDay = Math.min(event.endDay - firstJulianDay + 1, numDays);
+                for (int j = startDay; j < endDay; j++) {
+                    days.get(j).add(event);
+                    entries++;
+                }
+            }
+        }
+
+        int[] dayStart = new int[numDays + 1];
+        long[] ids = new long[entries];
+        int[] hashes = new int[entries];
+        int entry = 0;
+        for (int i = 0; i < numDays; i++) {
+            dayStart[i] = entry;
+            for (Event event : days.get(i)) {
+                ids[entry] = event.id;
+                hashes[entry] = InstanceDelta.hashEvent(event);
+                entry++;
+            }
+        }
+        dayStart[numDays] = entry;
+        return new WeekEventIndex(firstJulianDay, numDays, events, days, dayStart, ids, hashes);
+    }
+
+    /**
+     * Returns which days have different events than in old, or null if old
+     * is null or covers different days.
+     */
+    boolean[] findChangedDays(WeekEventIndex old) {
+        if (old == null || old.firstJulianDay != firstJulianDay || old.numDays != numDays) {
+            return null;
+        }
+        boolean[] changed = new boolean[numDays];
+        for (int i = 0; i < numDays; i++) {
+            int start = mDayStart[i];
+            int count = mDayStart[i + 1] - start;
+            int oldStart = old.mDayStart[i];
+            if (count != old.mDayStart[i + 1] - oldStart) {
+                changed[i] = true;
+                continue;
+            }
+            for (int j = 0; j < count; j++) {
+                if (mIds[start + j] != old.mIds[oldStart + j]
+                        || mHashes[start + j] != old.mHashes[oldStart + j]) {
+                    changed[i] = true;
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.month;
+
+import java.util.HashMap;
+
+/**
+ * The parameters a week view is bound with, as plain fields. Each week view
+ * owns one, returned by {@link SimpleWeekView#getWeekParams()}, which the
+ * adapters fill in and hand back on every bind instead of building a map
+ * of boxed values.
+ *
+ * Any field left at {@link #UNSET} keeps the view's current value, the same
+ * as a key missing from the map passed to
+ * {@link SimpleWeekView#setWeekParams(HashMap, String)}, except for
+ * {@link #focusMonth} which defaults to no focus month.
+ */
+public class WeekParams {
+    public static final int UNSET = Integer.MIN_VALUE;
+
+    /** See {@link SimpleWeekView#VIEW_PARAMS_HEIGHT} */
+    public int height;
+    /** See {@link SimpleWeekView#VIEW_PARAMS_SELECTED_DAY} */
+    public int selectedDay;
+    /** See {@link SimpleWeekView#VIEW_PARAMS_SHOW_WK_NUM} */
+    public int showWeekNum;
+    /** See {@link SimpleWeekView#VIEW_PARAMS_WEEK_START} */
+    public int weekStart;
+    /** See {@link SimpleWeekView#VIEW_PARAMS_NUM_DAYS} */
+    public int numDays;
+    /** See {@link SimpleWeekView#VIEW_PARAMS_WEEK}, required */
+    public int week;
+    /** See {@link SimpleWeekView#VIEW_PARAMS_FOCUS_MONTH} */
+    public int focusMonth;
+    /** See {@link MonthWeekEventsView#VIEW_PARAMS_ORIENTATION} */
+    public int orientation;
+    /** See {@link MonthWeekEventsView#VIEW_PARAMS_ANIMATE_TODAY} */
+    public boolean animateToday;
+
+    public WeekParams() {
+        clear();
+    }
+
+    /**
+     * Resets every field to {@link #UNSET}.
+     */
+    public void clear() {
+        height = UNSET;
+        selectedDay = UNSET;
+        showWeekNum = UNSET;
+        weekStart = UNSET;
+        numDays = UNSET;
+        week = UNSET;
+        focusMonth = UNSET;
+        orientation = UNSET;
+        animateToday = false;
+    }
+
+    /**
+     * Replaces the fields with the values in params, leaving the ones it
+     * doesn't contain {@link #UNSET}.
+     */
+    void set(HashMap<String, Integer> params) {
+        clear();
+        height = get(params, SimpleWeekView.VIEW_PARAMS_HEIGHT);
+        selectedDay = get(params, SimpleWeekView.VIEW_PARAMS_SELECTED_DAY);
+        showWeekNum = get(params, SimpleWeekView.VIEW_PARAMS_SHOW_WK_NUM);
+        weekStart = get(params, SimpleWeekView.VIEW_PARAMS_WEEK_START);
+        numDays = get(params, SimpleWeekView.VIEW_PARAMS_NUM_DAYS);
+        week = get(params, SimpleWeekView.VIEW_PARAMS_WEEK);
+        focusMonth = get(params, SimpleWeekView.VIEW_PARAMS_FOCUS_MONTH);
+        orientation = get(params, MonthWeekEventsView.VIEW_PARAMS_ORIENTATION);
+        animateToday = params.containsKey(MonthWeekEventsView.VIEW_PARAMS_ANIMATE_TODAY);
+    }
+
+    private static int get(HashMap<String, Integer> params, String key) {
+        Integer value = params.get(key);
+        return value != null ? value : UNSET;
+    }
+}
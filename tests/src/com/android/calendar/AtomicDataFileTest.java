@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Unit tests for {@link AtomicDataFile}.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.AtomicDataFileTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class AtomicDataFileTest extends TestCase {
+    private File mFile;
+    private int mValue;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("atomic_data", ".bin");
+        mFile.delete();
+        mValue = -1;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        new AtomicDataFile(mFile).delete();
+        super.tearDown();
+    }
+
+    private AtomicDataFile.Writer makeWriter(final int value, final boolean fail) {
+        return new AtomicDataFile.Writer() {
+            @Override
+            public void write(DataOutputStream out) throws IOException {
+                out.writeInt(value);
+                if (fail) {
+                    throw new IOException("Disk full");
+                }
+            }
+        };
+    }
+
+    private final AtomicDataFile.Reader mReader = new AtomicDataFile.Reader() {
+        @Override
+        public void read(DataInputStream in) throws IOException {
+            mValue = in.readInt();
+            if (mValue < 0) {
+                throw new IOException("Bad value");
+            }
+        }
+    };
+
+    @SmallTest
+    public void testNothingSaved() {
+        assertFalse(new AtomicDataFile(mFile).read(mReader));
+        assertEquals(-1, mValue);
+    }
+
+    @SmallTest
+    public void testWriteReplaces() {
+        AtomicDataFile file = new AtomicDataFile(mFile);
+        assertTrue(file.write(makeWriter(1, false)));
+        assertTrue(file.write(makeWriter(2, false)));
+        assertTrue(new AtomicDataFile(mFile).read(mReader));
+        assertEquals(2, mValue);
+    }
+
+    @SmallTest
+    public void testFailedWriteKeepsContents() {
+        AtomicDataFile file = new AtomicDataFile(mFile);
+        assertTrue(file.write(makeWriter(1, false)));
+        assertFalse(file.write(makeWriter(2, true)));
+        assertTrue(file.read(mReader));
+        assertEquals(1, mValue);
+    }
+
+    @SmallTest
+    public void testBadContents() {
+        AtomicDataFile file = new AtomicDataFile(mFile);
+        assertTrue(file.write(makeWriter(-2, false)));
+        assertFalse(file.read(mReader));
+
+        assertTrue(file.write(new AtomicDataFile.Writer() {
+            @Override
+            public void write(DataOutputStream out) throws IOException {
+                out.writeShort(1);
+            }
+        }));
+        // Too short
+        assertFalse(file.read(mReader));
+    }
+
+    @SmallTest
+    public void testDelete() {
+        AtomicDataFile file = new AtomicDataFile(mFile);
+        assertNull(file.getReadableFile());
+        assertTrue(file.write(makeWriter(1, false)));
+        assertEquals(mFile, file.getReadableFile());
+        file.delete();
+        assertFalse(mFile.exists());
+        assertNull(file.getReadableFile());
+        assertFalse(file.read(mReader));
+    }
+}
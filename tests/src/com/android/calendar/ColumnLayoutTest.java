@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.DateUtils;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link ColumnLayout}.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.ColumnLayoutTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class ColumnLayoutTest extends TestCase {
+    private static final long MINUTE = DateUtils.MINUTE_IN_MILLIS;
+    private static final long HOUR = DateUtils.HOUR_IN_MILLIS;
+
+    /**
+     * The column mask algorithm ColumnLayout replaced, kept here to check
+     * that nothing changed for days with fewer than 64 overlaps.
+     */
+    private static void maskLayout(long[] starts, long[] ends, int[] columns, int[] maxColumns) {
+        ArrayList<Integer> active = new ArrayList<Integer>();
+        ArrayList<Integer> group = new ArrayList<Integer>();
+        long colMask = 0;
+        int maxCols = 0;
+        for (int i = 0; i < starts.length; i++) {
+            for (int j = active.size() - 1; j >= 0; j--) {
+                int a = active.get(j);
+                if (ends[a] <= starts[i]) {
+                    colMask &= ~(1L << columns[a]);
+                    active.remove(j);
+                }
+            }
+            if (active.isEmpty()) {
+                for (int g : group) {
+                    maxColumns[g] = maxCols;
+                }
+                maxCols = 0;
+                colMask = 0;
+                group.clear();
+            }
+            int col = Event.findFirstZeroBit(colMask);
+            if (col == 64) {
+                col = 63;
+            }
+            colMask |= (1L << col);
+            columns[i] = col;
+            active.add(i);
+            group.add(i);
+            maxCols = Math.max(maxCols, active.size());
+        }
+        for (int g : group) {
+            maxColumns[g] = maxCols;
+        }
+    }
+
+    /**
+     * Makes a day of events sorted by start time. Starts fall on quarter
+     * hours so that there are plenty of ties.
+     */
+    private static void makeDay(Random random, int count, long spanMillis, long[] starts,
+            long[] ends) {
+        for (int i = 0; i < count; i++) {
+            starts[i] = (random.nextInt((int) (spanMillis / (15 * MINUTE)))) * 15 * MINUTE;
+        }
+        Arrays.sort(starts, 0, count);
+        for (int i = 0; i < count; i++) {
+            ends[i] = starts[i] + (1 + random.nextInt(8)) * 15 * MINUTE;
+        }
+    }
+
+    private static ColumnLayout makeLayout(long[] starts, long[] ends) {
+        ColumnLayout layout = new ColumnLayout(starts.length);
+        for (int i = 0; i < starts.length; i++) {
+            layout.add(starts[i], ends[i]);
+        }
+        return layout;
+    }
+
+    private static void assertNoSharedColumns(long[] starts, long[] ends, int[] columns,
+            int[] maxColumns) {
+        for (int i = 0; i < starts.length; i++) {
+            assertTrue(columns[i] < maxColumns[i]);
+            for (int j = i + 1; j < starts.length; j++) {
+                boolean overlap = starts[i] < ends[j] && starts[j] < ends[i];
+                if (overlap) {
+                    assertTrue("events " + i + " and " + j, columns[i] != columns[j]);
+                    assertEquals(maxColumns[i], maxColumns[j]);
+                }
+            }
+        }
+    }
+
+    @SmallTest
+    public void testMatchesColumnMask() {
+        Random random = new Random(7);
+        for (int run = 0; run < 50; run++) {
+            int count = 1 + random.nextInt(40);
+            long[] starts = new long[count];
+            long[] ends = new long[count];
+            makeDay(random, count, 24 * HOUR, starts, ends);
+
+            int[] expectedColumns = new int[count];
+            int[] expectedMaxColumns = new int[count];
+            maskLayout(starts, ends, expectedColumns, expectedMaxColumns);
+
+            int[] columns = new int[count];
+            int[] maxColumns = new int[count];
+            makeLayout(starts, ends).layout(columns, maxColumns);
+
+            assertTrue("run " + run, Arrays.equals(expectedColumns, columns));
+            assertTrue("run " + run, Arrays.equals(expectedMaxColumns, maxColumns));
+        }
+    }
+
+    @SmallTest
+    public void testUnsortedInputAndZeroLength() {
+        // Added out of order, with a zero length interval at the same start
+        long[] starts = new long[] { 2 * HOUR, 0, 0, HOUR };
+        long[] ends = new long[] { 3 * HOUR, 0, 2 * HOUR, 2 * HOUR };
+        int[] columns = new int[4];
+        int[] maxColumns = new int[4];
+        makeLayout(starts, ends).layout(columns, maxColumns);
+
+        // The zero length interval is placed first and gone by the time the
+        // next interval starts, so it is a group of its own.
+        assertEquals(0, columns[1]);
+        assertEquals(1, maxColumns[1]);
+        assertEquals(0, columns[2]);
+        assertEquals(1, columns[3]);
+        assertEquals(2, maxColumns[2]);
+        assertEquals(2, maxColumns[3]);
+        // Starts as the others end, so it is a group of its own too
+        assertEquals(0, columns[0]);
+        assertEquals(1, maxColumns[0]);
+    }
+
+    @SmallTest
+    public void testMoreThan64Overlaps() {
+        int count = 100;
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = i * MINUTE;
+            ends[i] = 4 * HOUR;
+        }
+        int[] columns = new int[count];
+        int[] maxColumns = new int[count];
+        makeLayout(starts, ends).layout(columns, maxColumns);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, columns[i]);
+            assertEquals(count, maxColumns[i]);
+        }
+    }
+
+    @SmallTest
+    public void testEventTableMatchesEventList() {
+        Random random = new Random(11);
+        int count = 80;
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        makeDay(random, count, 12 * HOUR, starts, ends);
+
+        ArrayList<Event> events = new ArrayList<Event>();
+        EventTable table = new EventTable();
+        for (int i = 0; i < count; i++) {
+            Event e = Event.newInstance();
+            e.id = i;
+            e.startMillis = starts[i];
+            e.endMillis = ends[i];
+            events.add(e);
+            table.add(i, 0, 0, 0, 0, 0, starts[i], ends[i], false);
+        }
+        Event.computePositions(events, 30 * MINUTE);
+        Event.computePositions(table, 30 * MINUTE);
+        for (int i = 0; i < count; i++) {
+            assertEquals(events.get(i).getColumn(), table.column[i]);
+            assertEquals(events.get(i).getMaxColumns(), table.maxColumns[i]);
+        }
+    }
+
+    @SmallTest
+    public void testComputePositions() {
+        // Two timed events that only overlap once stretched to the minimum
+        // duration, and an all-day event at the same time as both
+        long[] startMillis = { 0, 10 * MINUTE, 0 };
+        long[] endMillis = { 5 * MINUTE, 20 * MINUTE, DateUtils.DAY_IN_MILLIS };
+        int[] startDay = { 0, 0, 0 };
+        int[] endDay = { 0, 0, 0 };
+        boolean[] drawAsAllday = { false, false, true };
+        int[] columns = new int[3];
+        int[] maxColumns = new int[3];
+
+        ColumnLayout.computePositions(3, startMillis, endMillis, startDay, endDay,
+                drawAsAllday, 15 * MINUTE, columns, maxColumns);
+        assertTrue(Arrays.equals(new int[] { 0, 1, 0 }, columns));
+        assertTrue(Arrays.equals(new int[] { 2, 2, 1 }, maxColumns));
+
+        ColumnLayout.computePositions(3, startMillis, endMillis, startDay, endDay,
+                drawAsAllday, 0, columns, maxColumns);
+        assertTrue(Arrays.equals(new int[] { 0, 0, 0 }, columns));
+        assertTrue(Arrays.equals(new int[] { 1, 1, 1 }, maxColumns));
+    }
+
+    /**
+     * Lays out a conference style day, where hundreds of sessions overlap.
+     */
+    @SmallTest
+    public void testConferenceDay() {
+        final int count = 1000;
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        // Everything within a ten hour conference day
+        makeDay(new Random(42), count, 10 * HOUR, starts, ends);
+        int[] columns = new int[count];
+        int[] maxColumns = new int[count];
+        makeLayout(starts, ends).layout(columns, maxColumns);
+        assertNoSharedColumns(starts, ends, columns, maxColumns);
+    }
+}
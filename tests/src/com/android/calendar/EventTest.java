@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.database.MatrixCursor;
+import android.provider.CalendarContract.Attendees;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Unit tests for building the event list in {@link Event}.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.EventTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class EventTest extends AndroidTestCase {
+    // Monday, Jan 6th, 2014 00:00 UTC
+    private static final long BASE_MILLIS = 1388966400000L;
+    private static final long HOUR = DateUtils.HOUR_IN_MILLIS;
+    private static final long DAY = DateUtils.DAY_IN_MILLIS;
+
+    private static final int START_DAY = Time.getJulianDay(BASE_MILLIS, 0);
+    private static final int END_DAY = START_DAY + 6;
+
+    // Column indices in Event.EVENT_PROJECTION
+    private static final int TITLE = 0;
+    private static final int BEGIN = 6;
+    private static final int END = 7;
+    private static final int START_DAY_COLUMN = 9;
+    private static final int END_DAY_COLUMN = 10;
+    private static final int DISPLAY_AS_ALLDAY = 19;
+
+    /**
+     * Sorts rows like the provider does for "begin ASC, end DESC, title ASC".
+     */
+    private static final Comparator<Object[]> SORT_EVENTS_BY = new Comparator<Object[]>() {
+        @Override
+        public int compare(Object[] lhs, Object[] rhs) {
+            int result = ((Long) lhs[BEGIN]).compareTo((Long) rhs[BEGIN]);
+            if (result == 0) {
+                result = ((Long) rhs[END]).compareTo((Long) lhs[END]);
+            }
+            if (result == 0) {
+                result = ((String) lhs[TITLE]).compareTo((String) rhs[TITLE]);
+            }
+            return result;
+        }
+    };
+
+    /**
+     * Sorts rows like the provider does for "startDay ASC, endDay DESC, title ASC".
+     */
+    private static final Comparator<Object[]> SORT_ALLDAY_BY = new Comparator<Object[]>() {
+        @Override
+        public int compare(Object[] lhs, Object[] rhs) {
+            int result = ((Integer) lhs[START_DAY_COLUMN]).compareTo(
+                    (Integer) rhs[START_DAY_COLUMN]);
+            if (result == 0) {
+                result = ((Integer) rhs[END_DAY_COLUMN]).compareTo((Integer) lhs[END_DAY_COLUMN]);
+            }
+            if (result == 0) {
+                result = ((String) lhs[TITLE]).compareTo((String) rhs[TITLE]);
+            }
+            return result;
+        }
+    };
+
+    private static Object[] makeRow(long id, String title, boolean allDay, long begin, long end) {
+        int startDay = Time.getJulianDay(begin, 0);
+        int endDay = Time.getJulianDay(Math.max(begin, end - 1), 0);
+        boolean displayAsAllDay = allDay || end - begin >= DAY;
+        return new Object[] {
+                title,                                      // title
+                null,                                       // eventLocation
+                allDay ? 1 : 0,                             // allDay
+                0xff0000ff,                                 // displayColor
+                Time.TIMEZONE_UTC,                          // eventTimezone
+                id,                                         // event_id
+                begin,                                      // begin
+                end,                                        // end
+                id,                                         // _id
+                startDay,                                   // startDay
+                endDay,                                     // endDay
+                (int) ((begin % DAY) / DateUtils.MINUTE_IN_MILLIS), // startMinute
+                (int) ((end % DAY) / DateUtils.MINUTE_IN_MILLIS),   // endMinute
+                0,                                          // hasAlarm
+                null,                                       // rrule
+                null,                                       // rdate
+                Attendees.ATTENDEE_STATUS_ACCEPTED,         // selfAttendeeStatus
+                "organizer@example.com",                    // organizer
+                0,                                          // guestsCanModify
+                displayAsAllDay ? 1 : 0,                    // dispAllday
+        };
+    }
+
+    private static ArrayList<Object[]> makeRows() {
+        ArrayList<Object[]> rows = new ArrayList<Object[]>();
+        long id = 1;
+        // Timed events that tie on start and end and need the title
+        rows.add(makeRow(id++, "b standup", false, BASE_MILLIS + 9 * HOUR,
+                BASE_MILLIS + 10 * HOUR));
+        rows.add(makeRow(id++, "a standup", false, BASE_MILLIS + 9 * HOUR,
+                BASE_MILLIS + 10 * HOUR));
+        // Same start, later end goes first
+        rows.add(makeRow(id++, "review", false, BASE_MILLIS + 9 * HOUR,
+                BASE_MILLIS + 12 * HOUR));
+        // All-day events, including one spanning several days
+        rows.add(makeRow(id++, "holiday", true, BASE_MILLIS + DAY, BASE_MILLIS + 2 * DAY));
+        rows.add(makeRow(id++, "offsite", true, BASE_MILLIS + DAY, BASE_MILLIS + 4 * DAY));
+        rows.add(makeRow(id++, "birthday", true, BASE_MILLIS, BASE_MILLIS + DAY));
+        // A timed event longer than a day is displayed as all-day, and starts
+        // later than an all-day event on the same day
+        rows.add(makeRow(id++, "conference", false, BASE_MILLIS + DAY + 20 * HOUR,
+                BASE_MILLIS + 4 * DAY + 2 * HOUR));
+        // Timed events across the week
+        for (int day = 0; day < 7; day++) {
+            for (int hour = 8; hour < 18; hour += 3) {
+                long begin = BASE_MILLIS + day * DAY + hour * HOUR;
+                rows.add(makeRow(id++, "meeting " + hour, false, begin, begin + HOUR));
+            }
+        }
+        // Outside of the loaded range
+        rows.add(makeRow(id++, "next week", false, BASE_MILLIS + 8 * DAY,
+                BASE_MILLIS + 8 * DAY + HOUR));
+        Collections.shuffle(rows, new Random(42));
+        return rows;
+    }
+
+    private static MatrixCursor makeCursor(ArrayList<Object[]> rows) {
+        MatrixCursor cursor = new MatrixCursor(Event.EVENT_PROJECTION);
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static void assertSameOrder(ArrayList<Event> expected, ArrayList<Event> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Event e = expected.get(i);
+            Event a = actual.get(i);
+            assertEquals("event " + i, e.id, a.id);
+            assertEquals("event " + i, e.title, a.title);
+            assertEquals("event " + i, e.startMillis, a.startMillis);
+            assertEquals("event " + i, e.endMillis, a.endMillis);
+        }
+    }
+
+    @SmallTest
+    public void testCombinedCursorMatchesSeparateQueries() {
+        ArrayList<Object[]> rows = makeRows();
+
+        // The old way: one query for timed and one for all-day instances
+        ArrayList<Object[]> timedRows = new ArrayList<Object[]>();
+        ArrayList<Object[]> allDayRows = new ArrayList<Object[]>();
+        for (Object[] row : rows) {
+            if ((Integer) row[DISPLAY_AS_ALLDAY] != 0) {
+                allDayRows.add(row);
+            } else {
+                timedRows.add(row);
+            }
+        }
+        Collections.sort(timedRows, SORT_EVENTS_BY);
+        Collections.sort(allDayRows, SORT_ALLDAY_BY);
+        ArrayList<Event> expected = new ArrayList<Event>();
+        Event.buildEventsFromCursor(expected, makeCursor(timedRows), getContext(), START_DAY,
+                END_DAY);
+        Event.buildEventsFromCursor(expected, makeCursor(allDayRows), getContext(), START_DAY,
+                END_DAY);
+
+        // The new way: a single query sorted by start time
+        ArrayList<Object[]> combinedRows = new ArrayList<Object[]>(rows);
+        Collections.sort(combinedRows, SORT_EVENTS_BY);
+        ArrayList<Event> actual = new ArrayList<Event>();
+        Event.buildEventsFromCombinedCursor(actual, makeCursor(combinedRows), getContext(),
+                START_DAY, END_DAY);
+
+        assertSameOrder(expected, actual);
+    }
+
+    @SmallTest
+    public void testCombinedCursorEmpty() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        Event.buildEventsFromCombinedCursor(events, makeCursor(new ArrayList<Object[]>()),
+                getContext(), START_DAY, END_DAY);
+        assertTrue(events.isEmpty());
+    }
+}
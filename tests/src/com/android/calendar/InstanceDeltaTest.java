@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.database.MatrixCursor;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link InstanceDelta}.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.InstanceDeltaTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class InstanceDeltaTest extends TestCase {
+
+    private static Event makeEvent(long id, long begin, String title) {
+        Event e = Event.newInstance();
+        e.id = id;
+        e.title = title;
+        e.startMillis = begin;
+        e.endMillis = begin + 1000;
+        return e;
+    }
+
+    private static ArrayList<Event> makeEvents() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(makeEvent(1, 100, "one"));
+        events.add(makeEvent(2, 200, "two"));
+        // Two instances of a recurring event
+        events.add(makeEvent(3, 300, "three"));
+        events.add(makeEvent(3, 400, "three"));
+        return events;
+    }
+
+    @SmallTest
+    public void testSameEvents() {
+        InstanceDelta delta = InstanceDelta.compute(makeEvents(), makeEvents());
+        assertTrue(delta.isEmpty());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(delta.isUnchanged(i));
+            assertEquals(i, delta.getOldPosition(i));
+        }
+    }
+
+    @SmallTest
+    public void testReorderedEventsAreUnchanged() {
+        ArrayList<Event> newEvents = makeEvents();
+        newEvents.add(newEvents.remove(0));
+        InstanceDelta delta = InstanceDelta.compute(makeEvents(), newEvents);
+        assertTrue(delta.isEmpty());
+        assertEquals(0, delta.getOldPosition(3));
+        assertEquals(1, delta.getOldPosition(0));
+    }
+
+    @SmallTest
+    public void testAddedRemovedAndChanged() {
+        ArrayList<Event> newEvents = makeEvents();
+        // Change the title of one instance of the recurring event
+        newEvents.get(3).title = "four";
+        // Remove the first event and add a new one at the end
+        newEvents.remove(0);
+        newEvents.add(makeEvent(5, 500, "five"));
+
+        InstanceDelta delta = InstanceDelta.compute(makeEvents(), newEvents);
+        assertFalse(delta.isEmpty());
+        assertTrue(Arrays.equals(new int[] { 3 }, delta.getAdded()));
+        assertTrue(Arrays.equals(new int[] { 0 }, delta.getRemoved()));
+        assertTrue(Arrays.equals(new int[] { 2 }, delta.getChanged()));
+
+        assertTrue(delta.isUnchanged(0));
+        assertTrue(delta.isUnchanged(1));
+        assertFalse(delta.isUnchanged(2));
+        assertEquals(3, delta.getOldPosition(2));
+        assertEquals(-1, delta.getOldPosition(3));
+    }
+
+    @SmallTest
+    public void testEmptyLists() {
+        assertTrue(InstanceDelta.compute(new ArrayList<Event>(), new ArrayList<Event>())
+                .isEmpty());
+        InstanceDelta delta = InstanceDelta.compute(new ArrayList<Event>(), makeEvents());
+        assertEquals(4, delta.getAdded().length);
+        delta = InstanceDelta.compute(makeEvents(), new ArrayList<Event>());
+        assertEquals(4, delta.getRemoved().length);
+    }
+
+    @SmallTest
+    public void testCursorDuplicatesAcrossCursors() {
+        String[] columns = new String[] { "event_id", "begin", "title" };
+        // A multi-day instance shows up in the queries for both ranges
+        MatrixCursor first = new MatrixCursor(columns);
+        first.addRow(new Object[] { 1L, 100L, "one" });
+        first.addRow(new Object[] { 2L, 200L, "long" });
+        MatrixCursor second = new MatrixCursor(columns);
+        second.addRow(new Object[] { 2L, 200L, "long" });
+        second.addRow(new Object[] { 3L, 300L, "three" });
+
+        MatrixCursor reload = new MatrixCursor(columns);
+        reload.addRow(new Object[] { 1L, 100L, "one" });
+        reload.addRow(new Object[] { 2L, 200L, "long" });
+        reload.addRow(new Object[] { 3L, 300L, "three" });
+
+        InstanceDelta delta = InstanceDelta.compute(
+                InstanceDelta.Snapshot.of(Arrays.asList(first, second), 0, 1),
+                InstanceDelta.Snapshot.of(Arrays.asList(reload), 0, 1),
+                reload.getCount());
+        assertTrue(delta.isEmpty());
+
+        MatrixCursor changed = new MatrixCursor(columns);
+        changed.addRow(new Object[] { 1L, 100L, "one" });
+        changed.addRow(new Object[] { 2L, 200L, "longer" });
+        changed.addRow(new Object[] { 3L, 300L, "three" });
+        delta = InstanceDelta.compute(
+                InstanceDelta.Snapshot.of(Arrays.asList(first, second), 0, 1),
+                InstanceDelta.Snapshot.of(Arrays.asList(changed), 0, 1),
+                changed.getCount());
+        assertTrue(Arrays.equals(new int[] { 1 }, delta.getChanged()));
+        assertEquals(0, delta.getAdded().length);
+        assertEquals(0, delta.getRemoved().length);
+    }
+}
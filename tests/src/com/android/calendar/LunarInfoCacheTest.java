@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.Time;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Unit tests for {@link LunarInfoCache}.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.LunarInfoCacheTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class LunarInfoCacheTest extends TestCase {
+    private static final int YEAR = 2014;
+
+    private static String[] makeFields(String label, String festival) {
+        String[] fields = new String[LunarInfoCache.NUM_FIELDS];
+        fields[LunarInfoCache.FIELD_LABEL_LONG] = label + " long";
+        fields[LunarInfoCache.FIELD_LABEL_SHORT] = label;
+        fields[LunarInfoCache.FIELD_ANIMAL] = "horse";
+        fields[LunarInfoCache.FIELD_FESTIVAL_1] = festival;
+        return fields;
+    }
+
+    private static LunarInfoCache makeYear() {
+        LunarInfoCache cache = new LunarInfoCache();
+        int first = LunarInfoCache.getJulianDay(YEAR, 0, 1);
+        int last = LunarInfoCache.getJulianDay(YEAR, 11, 31);
+        cache.ensureRange(first, last);
+        for (int day = first; day <= last; day++) {
+            cache.put(day, makeFields("day " + (day - first) % 30,
+                    day == first ? "new year" : null));
+        }
+        return cache;
+    }
+
+    @SmallTest
+    public void testJulianDay() {
+        Time time = new Time(Time.TIMEZONE_UTC);
+        int[][] dates = { { 1970, 0, 1 }, { 2000, 1, 29 }, { 2014, 11, 31 }, { 2100, 2, 1 } };
+        for (int[] date : dates) {
+            time.set(date[2], date[1], date[0]);
+            long millis = time.normalize(true);
+            assertEquals(Time.getJulianDay(millis, 0),
+                    LunarInfoCache.getJulianDay(date[0], date[1], date[2]));
+        }
+    }
+
+    @SmallTest
+    public void testGet() {
+        LunarInfoCache cache = makeYear();
+        int first = LunarInfoCache.getJulianDay(YEAR, 0, 1);
+        assertTrue(cache.containsYear(YEAR));
+        assertFalse(cache.containsYear(YEAR + 1));
+        assertFalse(cache.contains(first - 1));
+        assertEquals("day 0", cache.get(first, LunarInfoCache.FIELD_LABEL_SHORT));
+        assertEquals("new year", cache.get(first, LunarInfoCache.FIELD_FESTIVAL_1));
+        assertNull(cache.get(first + 1, LunarInfoCache.FIELD_FESTIVAL_1));
+        assertNull(cache.get(first, LunarInfoCache.FIELD_FESTIVAL_2));
+        assertNull(cache.get(first - 1, LunarInfoCache.FIELD_LABEL_SHORT));
+    }
+
+    @SmallTest
+    public void testGrowKeepsDays() {
+        LunarInfoCache cache = makeYear();
+        int first = LunarInfoCache.getJulianDay(YEAR, 0, 1);
+        int generation = cache.getGeneration();
+        cache.put(first - 400, makeFields("earlier", null));
+        assertTrue(cache.getGeneration() != generation);
+        assertEquals("earlier", cache.get(first - 400, LunarInfoCache.FIELD_LABEL_SHORT));
+        assertFalse(cache.contains(first - 399));
+        assertEquals("day 0", cache.get(first, LunarInfoCache.FIELD_LABEL_SHORT));
+        assertTrue(cache.containsYear(YEAR));
+    }
+
+    @SmallTest
+    public void testReadOnce() throws IOException {
+        File file = File.createTempFile("lunar_info", ".bin");
+        try {
+            makeYear().write(new AtomicDataFile(file));
+            // Thirty distinct labels, each stored once
+            assertTrue(file.length() < 366 * LunarInfoCache.NUM_FIELDS * 2 + 1024);
+
+            LunarInfoCache cache = new LunarInfoCache();
+            cache.readIfNeeded(new AtomicDataFile(file));
+            assertTrue(cache.containsYear(YEAR));
+            int first = LunarInfoCache.getJulianDay(YEAR, 0, 1);
+            assertEquals("new year", cache.get(first, LunarInfoCache.FIELD_FESTIVAL_1));
+
+            // Days loaded since aren't replaced by the saved ones
+            cache.put(first, makeFields("loaded", null));
+            cache.readIfNeeded(new AtomicDataFile(file));
+            assertEquals("loaded", cache.get(first, LunarInfoCache.FIELD_LABEL_SHORT));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @SmallTest
+    public void testOtherLocaleNotRead() throws IOException {
+        Locale defaultLocale = Locale.getDefault();
+        File file = File.createTempFile("lunar_info", ".bin");
+        try {
+            Locale.setDefault(Locale.SIMPLIFIED_CHINESE);
+            LunarInfoCache cache = makeYear();
+
+            // Written in the locale the strings were loaded in, not the current one
+            Locale.setDefault(Locale.US);
+            assertFalse(cache.isLocale(Locale.US));
+            cache.write(new AtomicDataFile(file));
+            // The next load drops the strings
+            cache.readIfNeeded(new AtomicDataFile(file));
+            assertTrue(cache.isLocale(Locale.US));
+            assertFalse(cache.containsYear(YEAR));
+
+            LunarInfoCache read = new LunarInfoCache();
+            read.readIfNeeded(new AtomicDataFile(file));
+            assertFalse(read.containsYear(YEAR));
+
+            // Read again once back in the locale of the file
+            Locale.setDefault(Locale.SIMPLIFIED_CHINESE);
+            read.readIfNeeded(new AtomicDataFile(file));
+            assertTrue(read.containsYear(YEAR));
+        } finally {
+            Locale.setDefault(defaultLocale);
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.calendar.AtomicDataFile;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link AgendaDensityModel}.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.agenda.AgendaDensityModelTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class AgendaDensityModelTest extends TestCase {
+    private static final int TODAY = 2456900;
+    private static final int TARGET = 50;
+
+    private static int[] fill(int days, int instancesPerDay) {
+        int[] counts = new int[days];
+        Arrays.fill(counts, instancesPerDay);
+        return counts;
+    }
+
+    @SmallTest
+    public void testNothingLearned() {
+        AgendaDensityModel model = new AgendaDensityModel();
+        model.setCalendarSet("a,1");
+        assertEquals(-1, model.getQueryDuration(TODAY, true, TODAY, TARGET, 7, 120));
+    }
+
+    @SmallTest
+    public void testDenseAndSparse() {
+        AgendaDensityModel model = new AgendaDensityModel();
+        model.setCalendarSet("a,1");
+        // Ten a day in the coming weeks, nothing in the past
+        model.learn(TODAY + 7, fill(28, 10), TODAY);
+        model.learn(TODAY - 200, fill(193, 0), TODAY);
+
+        // Five days of ten, but never less than the minimum
+        assertEquals(7, model.getQueryDuration(TODAY + 7, true, TODAY, TARGET, 7, 120));
+        assertEquals(5, model.getQueryDuration(TODAY + 7, true, TODAY, TARGET, 1, 120));
+        // Nothing going back, so the longest query
+        assertEquals(120, model.getQueryDuration(TODAY - 8, false, TODAY, TARGET, 7, 120));
+    }
+
+    @SmallTest
+    public void testCalendarSetsKeptApart() {
+        AgendaDensityModel model = new AgendaDensityModel();
+        model.setCalendarSet("a,1");
+        model.learn(TODAY, fill(28, 10), TODAY);
+        model.setCalendarSet("a,1,2");
+        assertEquals(-1, model.getQueryDuration(TODAY, true, TODAY, TARGET, 1, 120));
+    }
+
+    @SmallTest
+    public void testHitsAndMisses() {
+        AgendaDensityModel model = new AgendaDensityModel();
+        model.recordResult(TARGET, TARGET);
+        model.recordResult(3, TARGET);
+        model.recordResult(TARGET * 3, TARGET);
+        assertEquals(1, model.getHits());
+        assertEquals(2, model.getMisses());
+    }
+
+    @SmallTest
+    public void testReadKeepsNewerResults() throws IOException {
+        File file = File.createTempFile("agenda_density", ".bin");
+        try {
+            AgendaDensityModel saved = new AgendaDensityModel();
+            saved.setCalendarSet("a,1");
+            saved.learn(TODAY, fill(28, 1), TODAY);
+            saved.setCalendarSet("a,2");
+            saved.learn(TODAY, fill(28, 10), TODAY);
+            saved.writeIfNeeded(new AtomicDataFile(file), true);
+
+            // Learned before the saved histograms were read
+            AgendaDensityModel model = new AgendaDensityModel();
+            model.setCalendarSet("a,1");
+            model.learn(TODAY, fill(28, 25), TODAY);
+            model.readIfNeeded(new AtomicDataFile(file));
+            assertEquals(2, model.getQueryDuration(TODAY, true, TODAY, TARGET, 1, 120));
+            model.setCalendarSet("a,2");
+            assertEquals(5, model.getQueryDuration(TODAY, true, TODAY, TARGET, 1, 120));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @SmallTest
+    public void testWritesThrottled() throws IOException {
+        File file = File.createTempFile("agenda_density", ".bin");
+        try {
+            AgendaDensityModel model = new AgendaDensityModel();
+            model.setCalendarSet("a,1");
+            model.learn(TODAY, fill(28, 10), TODAY);
+            model.writeIfNeeded(new AtomicDataFile(file), false);
+            // Saved a moment ago
+            model.learn(TODAY, fill(28, 1000), TODAY);
+            model.writeIfNeeded(new AtomicDataFile(file), false);
+
+            AgendaDensityModel read = new AgendaDensityModel();
+            read.readIfNeeded(new AtomicDataFile(file));
+            read.setCalendarSet("a,1");
+            assertEquals(5, read.getQueryDuration(TODAY, true, TODAY, TARGET, 1, 120));
+
+            model.writeIfNeeded(new AtomicDataFile(file), true);
+            read = new AgendaDensityModel();
+            read.readIfNeeded(new AtomicDataFile(file));
+            read.setCalendarSet("a,1");
+            assertEquals(1, read.getQueryDuration(TODAY, true, TODAY, TARGET, 1, 120));
+        } finally {
+            file.delete();
+        }
+    }
+}
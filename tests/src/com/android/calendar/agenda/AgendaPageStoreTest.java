@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.calendar.agenda.AgendaRows.RowInfo;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+/**
+ * Unit tests for {@link AgendaPage} and {@link AgendaPageStore}.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.agenda.AgendaPageStoreTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class AgendaPageStoreTest extends TestCase {
+    private static final String[] COLUMNS = { "_id", "title", "begin" };
+    private static final boolean[] TEXT_COLUMNS = { false, true, false };
+
+    private static AgendaPage makePage(int start, int end, int rows) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[] { i + 1, i % 2 == 0 ? "standup" : null, 1000L * i });
+        }
+        AgendaPage page = AgendaPage.copyOf(start, end, cursor, TEXT_COLUMNS);
+        cursor.close();
+        return page;
+    }
+
+    @SmallTest
+    public void testCopy() {
+        AgendaPage page = makePage(100, 106, 3);
+        assertEquals(3, page.getCount());
+
+        Cursor cursor = page.newCursor();
+        assertEquals(3, cursor.getCount());
+        assertEquals(1, cursor.getColumnIndex("title"));
+        assertTrue(cursor.moveToPosition(2));
+        assertEquals(3, cursor.getLong(0));
+        assertEquals("standup", cursor.getString(1));
+        assertEquals(2000L, cursor.getLong(2));
+        assertTrue(cursor.moveToPosition(1));
+        assertTrue(cursor.isNull(1));
+        cursor.close();
+
+        // Closing one cursor leaves the page readable
+        Cursor other = page.newCursor();
+        assertTrue(other.moveToFirst());
+        assertEquals("standup", other.getString(1));
+    }
+
+    @SmallTest
+    public void testRowsKeptPerTimeZone() {
+        AgendaPage page = makePage(100, 106, 1);
+        assertNull(page.getRows("UTC"));
+        ArrayList<RowInfo> rows = new ArrayList<RowInfo>();
+        rows.add(new RowInfo(AgendaRows.TYPE_DAY, 100));
+        page.setRows(rows, "UTC");
+        assertSame(rows, page.getRows("UTC"));
+        assertNull(page.getRows("America/New_York"));
+    }
+
+    @SmallTest
+    public void testTakeAdjacent() {
+        AgendaPageStore store = new AgendaPageStore();
+        AgendaPage older = makePage(100, 106, 2);
+        AgendaPage newer = makePage(121, 127, 2);
+        store.put(older);
+        store.put(newer);
+
+        assertNull(store.takeEndingBefore(110));
+        assertSame(older, store.takeEndingBefore(107));
+        assertNull(store.takeEndingBefore(107));
+        assertSame(newer, store.takeStartingAfter(120));
+        assertEquals(0, store.getPageCount());
+        assertEquals(0, store.getSizeBytes());
+        assertEquals(2, store.getHits());
+        assertEquals(2, store.getMisses());
+    }
+
+    @SmallTest
+    public void testPutReplacesOverlap() {
+        AgendaPageStore store = new AgendaPageStore();
+        store.put(makePage(100, 106, 2));
+        AgendaPage replacement = makePage(104, 110, 2);
+        store.put(replacement);
+        assertEquals(1, store.getPageCount());
+        assertEquals(replacement.getSizeBytes(), store.getSizeBytes());
+    }
+
+    @SmallTest
+    public void testTrimDropsFarthest() {
+        AgendaPageStore store = new AgendaPageStore();
+        AgendaPage near = makePage(100, 106, 4);
+        AgendaPage far = makePage(200, 206, 4);
+        store.put(far);
+        store.put(near);
+
+        store.trimToSize(store.getSizeBytes() - 1, 110);
+        assertEquals(1, store.getPageCount());
+        assertSame(near, store.takeEndingBefore(107));
+
+        store.put(near);
+        store.trimToSize(0, 110);
+        assertEquals(0, store.getPageCount());
+    }
+}
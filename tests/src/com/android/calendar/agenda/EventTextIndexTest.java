@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.calendar.AtomicDataFile;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Unit tests for {@link EventTextIndex}.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.agenda.EventTextIndexTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class EventTextIndexTest extends TestCase {
+
+    private static EventTextIndex.EventText makeText(String main, String other) {
+        EventTextIndex.EventText text = new EventTextIndex.EventText();
+        text.main.append(main);
+        text.other.append(other);
+        return text;
+    }
+
+    private static HashMap<Long, EventTextIndex.EventText> makeTexts() {
+        HashMap<Long, EventTextIndex.EventText> texts =
+                new HashMap<Long, EventTextIndex.EventText>();
+        texts.put(1L, makeText("Weekly team meeting\nRoom 42", ""));
+        texts.put(2L, makeText("Dentist\nMain St.", "Bring forms"));
+        texts.put(3L, makeText("Team lunch", "bob@example.com"));
+        return texts;
+    }
+
+    private static EventTextIndex makeIndex() {
+        EventTextIndex index = new EventTextIndex();
+        index.apply(makeTexts());
+        return index;
+    }
+
+    @SmallTest
+    public void testTokenize() {
+        ArrayList<String> words = new ArrayList<String>();
+        assertEquals(0, EventTextIndex.tokenize("Team-Lunch, 12:30 @Cafe", 0, words));
+        assertEquals(Arrays.asList("team", "lunch", "12", "30", "cafe"), words);
+
+        words.clear();
+        assertEquals(2, EventTextIndex.tokenize("会议室", 10, words));
+        assertEquals(Arrays.asList("会议室", "议室", "室"), words);
+
+        words.clear();
+        assertEquals(2, EventTextIndex.tokenize("会议室", 1, words));
+        assertEquals(Arrays.asList("会议室", "议室"), words);
+    }
+
+    @SmallTest
+    public void testFind() {
+        EventTextIndex index = makeIndex();
+        assertTrue(Arrays.equals(new long[] { 1, 3 }, index.findEventIds("team")));
+        // Prefixes of words, and every word must match
+        assertTrue(Arrays.equals(new long[] { 1 }, index.findEventIds("Tea MEET")));
+        assertTrue(Arrays.equals(new long[] { 3 }, index.findEventIds("bob")));
+        assertTrue(Arrays.equals(new long[] { 2 }, index.findEventIds("form")));
+        assertEquals(0, index.findEventIds("dinner").length);
+        assertNull(index.findEventIds("  "));
+    }
+
+    @SmallTest
+    public void testNotLoaded() {
+        assertNull(new EventTextIndex().findEventIds("team"));
+    }
+
+    @SmallTest
+    public void testApplyOnlyChanges() {
+        EventTextIndex index = makeIndex();
+        assertFalse(index.apply(makeTexts()));
+
+        HashMap<Long, EventTextIndex.EventText> texts = makeTexts();
+        texts.put(1L, makeText("Planning", ""));
+        texts.remove(3L);
+        assertTrue(index.apply(texts));
+        assertEquals(2, index.size());
+        assertEquals(0, index.findEventIds("team").length);
+        assertTrue(Arrays.equals(new long[] { 1 }, index.findEventIds("plan")));
+
+        texts.remove(2L);
+        assertTrue(index.apply(texts));
+        assertEquals(0, index.findEventIds("dentist").length);
+    }
+
+    @SmallTest
+    public void testIdeographSuffixes() {
+        EventTextIndex index = new EventTextIndex();
+        HashMap<Long, EventTextIndex.EventText> texts = makeTexts();
+        texts.put(4L, makeText("项目会议室", ""));
+        index.apply(texts);
+        assertTrue(Arrays.equals(new long[] { 4 }, index.findEventIds("会议")));
+
+        // Too many suffixes in a description to index them all, so searches
+        // for ideographs go to the provider
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i <= EventTextIndex.MAX_OTHER_SUFFIXES; i++) {
+            description.append('会');
+        }
+        description.append('议');
+        texts.put(5L, makeText("", description.toString()));
+        index.apply(texts);
+        assertNull(index.findEventIds("会议"));
+        assertTrue(Arrays.equals(new long[] { 1, 3 }, index.findEventIds("team")));
+    }
+
+    @SmallTest
+    public void testOtherLocaleNotRead() throws IOException {
+        EventTextIndex index = makeIndex();
+        File file = File.createTempFile("event_text_index", ".bin");
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            index.write(new AtomicDataFile(file));
+            // Lower cases I differently
+            Locale.setDefault(new Locale("tr", "TR"));
+            EventTextIndex read = new EventTextIndex();
+            read.read(new AtomicDataFile(file));
+            assertNull(read.findEventIds("team"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+            file.delete();
+        }
+    }
+
+    @SmallTest
+    public void testSavedIndexReused() throws IOException {
+        File file = File.createTempFile("event_text_index", ".bin");
+        try {
+            makeIndex().write(new AtomicDataFile(file));
+
+            EventTextIndex read = new EventTextIndex();
+            read.read(new AtomicDataFile(file));
+            assertEquals(3, read.size());
+            assertTrue(Arrays.equals(new long[] { 1, 3 }, read.findEventIds("team")));
+            // Unchanged events aren't indexed again
+            assertFalse(read.apply(makeTexts()));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -52,6 +52,7 @@ public class AlarmSchedulerTest extends AndroidTestCase {
         private ArrayList<EventInfo> mEvents = new ArrayList<EventInfo>();
         private ArrayList<String> mExpectedRemindersQueries = new ArrayList<String>();
         private int mCurrentReminderQueryIndex = 0;
+        private int mInstancesQueryCount = 0;
 
         /**
          * Contains info for a test event and its reminder.
@@ -115,6 +116,7 @@ public class AlarmSchedulerTest extends AndroidTestCase {
         public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                 String sortOrder) {
             if (uri.toString().startsWith(Instances.CONTENT_URI.toString())) {
+                mInstancesQueryCount++;
                 return getInstancesCursor();
             } else if (Reminders.CONTENT_URI.equals(uri)) {
                 if (mExpectedRemindersQueries.size() > 0) {
@@ -316,4 +318,33 @@ public class AlarmSchedulerTest extends AndroidTestCase {
         AlarmScheduler.scheduleNextAlarm(mIsolatedContext, mMockAlarmManager, batchSize,
                 currentMillis);
     }
+
+    public void testTimelineReused() {
+        long currentMillis = System.currentTimeMillis();
+        mMockProvider.addEventInfo(1, false, currentMillis + DateUtils.HOUR_IN_MILLIS, 10);
+        mMockProvider.addEventInfo(2, false, currentMillis + DateUtils.HOUR_IN_MILLIS * 2, 10);
+        ReminderTimeline timeline = new ReminderTimeline(null);
+        expectAlarmAt(currentMillis + DateUtils.MINUTE_IN_MILLIS * 50);
+        AlarmScheduler.scheduleNextAlarm(mIsolatedContext, mMockAlarmManager, BATCH_SIZE,
+                currentMillis, timeline);
+        assertTrue(mMockAlarmManager.isAlarmSet());
+        assertEquals(1, mMockProvider.mInstancesQueryCount);
+
+        // Once the first alarm went by, the next one comes from the timeline
+        long afterFirstAlarm = currentMillis + DateUtils.MINUTE_IN_MILLIS * 51;
+        mMockAlarmManager = new MockAlarmManager(mContext);
+        expectAlarmAt(currentMillis + DateUtils.MINUTE_IN_MILLIS * 110);
+        AlarmScheduler.scheduleNextAlarm(mIsolatedContext, mMockAlarmManager, BATCH_SIZE,
+                afterFirstAlarm, timeline);
+        assertTrue(mMockAlarmManager.isAlarmSet());
+        assertEquals(1, mMockProvider.mInstancesQueryCount);
+
+        // After the events change it is built again
+        timeline.invalidate();
+        mMockAlarmManager = new MockAlarmManager(mContext);
+        expectAlarmAt(currentMillis + DateUtils.MINUTE_IN_MILLIS * 110);
+        AlarmScheduler.scheduleNextAlarm(mIsolatedContext, mMockAlarmManager, BATCH_SIZE,
+                afterFirstAlarm, timeline);
+        assertEquals(2, mMockProvider.mInstancesQueryCount);
+    }
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.calendar.alerts;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.CalendarContract.CalendarAlerts;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Unit tests for {@link AlertBucketCache}.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.alerts.AlertBucketCacheTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class AlertBucketCacheTest extends TestCase {
+    private static final String TZ = "America/Los_Angeles";
+    private static final long NOW = 1400000000000L;
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private static MatrixCursor makeCursor() {
+        return new MatrixCursor(AlertService.ALERT_PROJECTION);
+    }
+
+    private static void addAlert(MatrixCursor cursor, long alertId, long begin) {
+        cursor.addRow(new Object[] {
+                alertId, alertId * 10, CalendarAlerts.STATE_FIRED, "title " + alertId, null, 0,
+                0, begin - HOUR / 4, 15, begin, begin + HOUR, null
+        });
+    }
+
+    /**
+     * Caches alerts 1 and 2, in the high and low buckets.
+     */
+    private static AlertBucketCache makeCache() {
+        return makeCache(null);
+    }
+
+    private static AlertBucketCache makeCache(File file) {
+        AlertBucketCache cache = new AlertBucketCache(file);
+        MatrixCursor cursor = makeCursor();
+        addAlert(cursor, 1, NOW + HOUR);
+        addAlert(cursor, 2, NOW - 2 * HOUR);
+        cache.beginUpdate();
+        while (cursor.moveToNext()) {
+            cache.keep(cursor, CalendarAlerts.STATE_FIRED);
+        }
+        cache.setBucket(1, AlertBucketCache.BUCKET_HIGH, NOW + HOUR + HOUR / 4);
+        cache.setBucket(2, AlertBucketCache.BUCKET_LOW, Long.MAX_VALUE);
+        cache.endUpdate(TZ, "", NOW);
+        return cache;
+    }
+
+    @SmallTest
+    public void testValid() {
+        AlertBucketCache cache = new AlertBucketCache(null);
+        assertFalse(cache.isValid(TZ, ""));
+
+        cache = makeCache();
+        assertTrue(cache.isValid(TZ, ""));
+        assertFalse(cache.isValid("UTC", ""));
+        assertFalse(cache.isValid(TZ, "1"));
+        assertEquals(NOW, cache.getHighWaterMark());
+
+        cache.invalidate();
+        assertFalse(cache.isValid(TZ, ""));
+        assertEquals(0, cache.size());
+    }
+
+    @SmallTest
+    public void testInvalidatedDuringUpdate() {
+        AlertBucketCache cache = makeCache();
+        cache.beginUpdate();
+        cache.invalidate();
+        cache.endUpdate(TZ, "", NOW + HOUR);
+        assertFalse(cache.isValid(TZ, ""));
+        assertEquals(0, cache.size());
+    }
+
+    @SmallTest
+    public void testBucketKeptUntilItChanges() {
+        AlertBucketCache cache = makeCache();
+        assertTrue(cache.contains(1));
+        assertFalse(cache.contains(3));
+        assertEquals(NOW + HOUR + HOUR / 4, cache.getNextBucketChange());
+        assertEquals(AlertBucketCache.BUCKET_HIGH, cache.getBucket(1, NOW));
+        assertEquals(AlertBucketCache.BUCKET_NONE, cache.getBucket(1, NOW + 2 * HOUR));
+        assertEquals(AlertBucketCache.BUCKET_LOW, cache.getBucket(2, NOW + 2 * HOUR));
+        assertEquals(AlertBucketCache.BUCKET_NONE, cache.getBucket(3, NOW));
+    }
+
+    @SmallTest
+    public void testMergeSortsByBegin() {
+        AlertBucketCache cache = makeCache();
+        MatrixCursor newAlerts = makeCursor();
+        addAlert(newAlerts, 3, NOW);
+        // Already cached
+        addAlert(newAlerts, 1, NOW + HOUR);
+
+        Cursor merged = cache.mergeWith(newAlerts);
+        assertTrue(newAlerts.isClosed());
+        assertEquals(3, merged.getCount());
+        long[] expected = { 1, 3, 2 };
+        for (long alertId : expected) {
+            assertTrue(merged.moveToNext());
+            assertEquals(alertId, merged.getLong(AlertService.ALERT_INDEX_ID));
+        }
+        merged.close();
+    }
+
+    @SmallTest
+    public void testSavedByUpdate() throws IOException {
+        File file = File.createTempFile("alert_buckets", ".bin");
+        file.delete();
+        try {
+            makeCache(file);
+
+            // Read when first used
+            AlertBucketCache read = new AlertBucketCache(file);
+            assertTrue(read.isValid(TZ, ""));
+            assertEquals(2, read.size());
+            assertEquals(AlertBucketCache.BUCKET_HIGH, read.getBucket(1, NOW));
+
+            Cursor merged = read.mergeWith(makeCursor());
+            assertTrue(merged.moveToFirst());
+            assertEquals("title 1", merged.getString(AlertService.ALERT_INDEX_TITLE));
+            assertTrue(merged.isNull(AlertService.ALERT_INDEX_DESCRIPTION));
+            merged.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @SmallTest
+    public void testInvalidateBeforeRead() throws IOException {
+        File file = File.createTempFile("alert_buckets", ".bin");
+        file.delete();
+        try {
+            makeCache(file);
+            AlertBucketCache saved = new AlertBucketCache(file);
+            assertTrue(saved.isValid(TZ, ""));
+            assertEquals(2, saved.size());
+
+            // The saved alerts changed before they were read
+            AlertBucketCache invalidated = new AlertBucketCache(file);
+            invalidated.invalidate();
+            assertFalse(invalidated.isValid(TZ, ""));
+            assertEquals(0, invalidated.size());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.calendar.alerts;
+
+import android.database.MatrixCursor;
+import android.provider.CalendarContract.Attendees;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.calendar.alerts.AlertEventDetails.EventDetails;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link AlertEventDetails}.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.alerts.AlertEventDetailsTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class AlertEventDetailsTest extends TestCase {
+
+    private static AlertEventDetails makeDetails() {
+        AlertEventDetails details = new AlertEventDetails(null, new long[] { 1, 2, 3 });
+        MatrixCursor events = new MatrixCursor(AlertEventDetails.EVENT_PROJECTION);
+        events.addRow(new Object[] {
+                1, "owner@example.com", "me@example.com", "standup", "boss@example.com",
+                "Room 1"
+        });
+        events.addRow(new Object[] { 2, "owner@example.com", "me@example.com", "lunch", null,
+                null });
+        details.addEvents(events);
+
+        MatrixCursor attendees = new MatrixCursor(AlertEventDetails.ATTENDEES_PROJECTION);
+        attendees.addRow(new Object[] { 1, "a@example.com", Attendees.ATTENDEE_STATUS_ACCEPTED });
+        attendees.addRow(new Object[] { 1, "b@example.com", Attendees.ATTENDEE_STATUS_DECLINED });
+        // Not one of the events
+        attendees.addRow(new Object[] { 4, "c@example.com", Attendees.ATTENDEE_STATUS_NONE });
+        details.addAttendees(attendees);
+        return details;
+    }
+
+    @SmallTest
+    public void testDetails() {
+        AlertEventDetails details = makeDetails();
+        EventDetails standup = details.get(1);
+        assertEquals("owner@example.com", standup.ownerAccount);
+        assertEquals("me@example.com", standup.accountName);
+        assertEquals("standup", standup.title);
+        assertEquals("boss@example.com", standup.organizer);
+        assertEquals("Room 1", standup.location);
+        assertEquals("[a@example.com, b@example.com]", standup.attendeeEmails.toString());
+        assertEquals(Attendees.ATTENDEE_STATUS_DECLINED,
+                (int) standup.attendeeStatuses.get(1));
+
+        EventDetails lunch = details.get(2);
+        assertTrue(lunch.attendeeEmails.isEmpty());
+        assertEquals(0, lunch.getURLSpans().length);
+    }
+
+    @SmallTest
+    public void testMissingEvents() {
+        AlertEventDetails details = makeDetails();
+        assertNull(details.get(3));
+        assertNull(details.get(4));
+    }
+
+    @SmallTest
+    public void testInSelection() {
+        long[] eventIds = { 5, 6, 7, 8 };
+        assertEquals("_id IN (6,7)", AlertEventDetails.makeInSelection("_id", eventIds, 1, 3));
+        assertEquals("event_id IN (5)",
+                AlertEventDetails.makeInSelection("event_id", eventIds, 0, 1));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.calendar.alerts;
+
+import android.os.SystemClock;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.calendar.alerts.AlertService.NotificationWrapper;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+/**
+ * Unit tests for {@link BatchingNotificationMgr}.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.alerts.BatchingNotificationMgrTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class BatchingNotificationMgrTest extends TestCase {
+
+    private static class RecordingNotificationMgr extends NotificationMgr {
+        final ArrayList<String> mCalls = new ArrayList<String>();
+
+        @Override
+        public void notify(int id, NotificationWrapper notification) {
+            mCalls.add("notify " + id);
+        }
+
+        @Override
+        public void cancel(int id) {
+            mCalls.add("cancel " + id);
+        }
+    }
+
+    private RecordingNotificationMgr mTarget;
+    private BatchingNotificationMgr mMgr;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTarget = new RecordingNotificationMgr();
+        mMgr = new BatchingNotificationMgr(mTarget);
+    }
+
+    private static NotificationWrapper makeNotification() {
+        return new NotificationWrapper(null);
+    }
+
+    @SmallTest
+    public void testChangesWaitForFlush() {
+        mMgr.notify(1, makeNotification(), 10);
+        mMgr.cancel(2);
+        assertTrue(mTarget.mCalls.isEmpty());
+        mMgr.flush();
+        assertEquals("[notify 1, cancel 2]", mTarget.mCalls.toString());
+        mMgr.flush();
+        assertEquals(2, mTarget.mCalls.size());
+    }
+
+    @SmallTest
+    public void testLastChangeWins() {
+        mMgr.cancelAll();
+        mMgr.notify(1, makeNotification(), 10);
+        mMgr.notify(1, makeNotification(), 11);
+        mMgr.flush();
+        assertEquals(AlertService.MAX_NOTIFICATIONS + 1, mTarget.mCalls.size());
+        assertEquals("notify 1", mTarget.mCalls.get(mTarget.mCalls.size() - 1));
+        assertFalse(mTarget.mCalls.contains("cancel 1"));
+        assertTrue(mMgr.isPosted(1, 11));
+        assertFalse(mMgr.isPosted(1, 10));
+    }
+
+    @SmallTest
+    public void testFlushDue() {
+        long now = SystemClock.elapsedRealtime();
+        assertFalse(mMgr.isFlushDue(now + BatchingNotificationMgr.MAX_BATCH_DELAY_MILLIS));
+
+        mMgr.notify(1, makeNotification(), 10);
+        assertFalse(mMgr.isFlushDue(now));
+        // Waited too long
+        assertTrue(mMgr.isFlushDue(now + BatchingNotificationMgr.MAX_BATCH_DELAY_MILLIS));
+        mMgr.flush();
+        assertFalse(mMgr.isFlushDue(now + BatchingNotificationMgr.MAX_BATCH_DELAY_MILLIS));
+
+        // Alerts the user
+        NotificationWrapper alerting = makeNotification();
+        alerting.mAlerting = true;
+        mMgr.notify(2, alerting, 10);
+        assertTrue(mMgr.isFlushDue(SystemClock.elapsedRealtime()));
+        mMgr.flush();
+        mMgr.cancel(2);
+        assertFalse(mMgr.isFlushDue(SystemClock.elapsedRealtime()));
+    }
+
+    @SmallTest
+    public void testCancelSkippedWhenNotPosted() {
+        mMgr.cancel(3);
+        mMgr.flush();
+        mMgr.cancel(3);
+        mMgr.flush();
+        assertEquals("[cancel 3]", mTarget.mCalls.toString());
+        assertFalse(mMgr.isPosted(3, 0));
+    }
+
+    @SmallTest
+    public void testUnknownContents() {
+        mMgr.notify(4, makeNotification(), 10);
+        mMgr.notify(4, makeNotification());
+        assertFalse(mMgr.isPosted(4, 10));
+
+        mMgr.notify(5, makeNotification(), 10);
+        mMgr.forget(5);
+        assertFalse(mMgr.isPosted(5, 10));
+        mMgr.cancel(5);
+        mMgr.flush();
+        assertTrue(mTarget.mCalls.contains("cancel 5"));
+    }
+
+    @SmallTest
+    public void testFingerprint() {
+        long empty = BatchingNotificationMgr.fingerprint();
+        long a = BatchingNotificationMgr.fingerprint(empty, "standup");
+        assertEquals(a, BatchingNotificationMgr.fingerprint(empty, "standup"));
+        assertTrue(a != BatchingNotificationMgr.fingerprint(empty, "standup "));
+        assertTrue(BatchingNotificationMgr.fingerprint(empty, (String) null)
+                != BatchingNotificationMgr.fingerprint(empty, ""));
+        assertTrue(BatchingNotificationMgr.fingerprint(a, 1)
+                != BatchingNotificationMgr.fingerprint(a, 2));
+    }
+}
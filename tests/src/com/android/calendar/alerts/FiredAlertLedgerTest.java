@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.calendar.alerts;
+
+import android.support.v4.util.AtomicFile;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+/**
+ * Unit tests for {@link FiredAlertLedger}.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.alerts.FiredAlertLedgerTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class FiredAlertLedgerTest extends AndroidTestCase {
+    private static final long NOW = 1400000000000L;
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "fired_alerts_test.bin");
+        new AtomicFile(mFile).delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        new AtomicFile(mFile).delete();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testAddAndContains() {
+        FiredAlertLedger ledger = new FiredAlertLedger(null);
+        ledger.add(1, NOW, NOW - HOUR);
+        ledger.add(1, NOW, NOW - HOUR);
+        assertEquals(1, ledger.size());
+        assertTrue(ledger.contains(1, NOW, NOW - HOUR));
+        assertFalse(ledger.contains(1, NOW, NOW - 2 * HOUR));
+        assertFalse(ledger.contains(2, NOW, NOW - HOUR));
+        assertFalse(ledger.contains(1, NOW + HOUR, NOW - HOUR));
+    }
+
+    @SmallTest
+    public void testGrows() {
+        FiredAlertLedger ledger = new FiredAlertLedger(null);
+        int count = FiredAlertLedger.MIN_CAPACITY * 3;
+        for (int i = 0; i < count; i++) {
+            ledger.add(i, NOW + i * HOUR, NOW + i * HOUR - 10 * 60 * 1000);
+        }
+        assertEquals(count, ledger.size());
+        assertTrue(ledger.getCapacity() >= count * 2);
+        for (int i = 0; i < count; i++) {
+            assertTrue(ledger.contains(i, NOW + i * HOUR, NOW + i * HOUR - 10 * 60 * 1000));
+        }
+    }
+
+    @SmallTest
+    public void testExpire() {
+        FiredAlertLedger ledger = new FiredAlertLedger(null);
+        assertEquals(0, ledger.getLastExpireTime());
+        ledger.add(1, NOW, NOW - 3 * HOUR);
+        ledger.add(2, NOW, NOW - 2 * HOUR);
+        ledger.add(3, NOW, NOW - HOUR);
+
+        assertEquals(2, ledger.expire(NOW - HOUR, NOW));
+        assertEquals(NOW, ledger.getLastExpireTime());
+        assertEquals(1, ledger.size());
+        assertFalse(ledger.contains(1, NOW, NOW - 3 * HOUR));
+        assertFalse(ledger.contains(2, NOW, NOW - 2 * HOUR));
+        assertTrue(ledger.contains(3, NOW, NOW - HOUR));
+    }
+
+    @SmallTest
+    public void testReopen() {
+        FiredAlertLedger ledger = new FiredAlertLedger(mFile);
+        ledger.add(1, NOW, NOW - HOUR);
+        ledger.expire(NOW - 2 * HOUR, NOW);
+        ledger.add(2, NOW, NOW - HOUR);
+
+        FiredAlertLedger reopened = new FiredAlertLedger(mFile);
+        assertEquals(2, reopened.size());
+        assertEquals(NOW, reopened.getLastExpireTime());
+        assertTrue(reopened.contains(1, NOW, NOW - HOUR));
+        assertTrue(reopened.contains(2, NOW, NOW - HOUR));
+    }
+
+    @SmallTest
+    public void testBadFileIgnored() throws Exception {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18,
+                19, 20, 21, 22, 23, 24, 25 });
+        out.close();
+
+        FiredAlertLedger ledger = new FiredAlertLedger(mFile);
+        assertEquals(0, ledger.size());
+        ledger.add(1, NOW, NOW - HOUR);
+        assertTrue(new FiredAlertLedger(mFile).contains(1, NOW, NOW - HOUR));
+    }
+
+    @SmallTest
+    public void testInterruptedRebuild() throws Exception {
+        FiredAlertLedger ledger = new FiredAlertLedger(mFile);
+        ledger.add(1, NOW, NOW - HOUR);
+
+        // Killed while writing a rebuilt table
+        FileOutputStream out = new AtomicFile(mFile).startWrite();
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+
+        FiredAlertLedger reopened = new FiredAlertLedger(mFile);
+        assertEquals(1, reopened.size());
+        assertTrue(reopened.contains(1, NOW, NOW - HOUR));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.calendar.alerts;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.calendar.AtomicDataFile;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Unit tests for {@link ReminderTimeline}.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.alerts.ReminderTimelineTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class ReminderTimelineTest extends TestCase {
+    private static final String TZ = "America/Los_Angeles";
+    private static final long NOW = 1400000000000L;
+    private static final long WINDOW_END = NOW + 1000000;
+
+    private static ReminderTimeline makeTimeline(int numAlarms) {
+        ReminderTimeline timeline = new ReminderTimeline(null);
+        timeline.reset(NOW, TZ);
+        // Added out of order
+        for (int i = numAlarms; i > 0; i--) {
+            timeline.add(NOW + i * 100, i, NOW + i * 100 + 600);
+        }
+        timeline.setWindowEnd(WINDOW_END);
+        return timeline;
+    }
+
+    @SmallTest
+    public void testValid() {
+        ReminderTimeline timeline = makeTimeline(3);
+        assertTrue(timeline.isValid(NOW, TZ));
+        assertFalse(timeline.isValid(NOW, "UTC"));
+        assertFalse(timeline.isValid(NOW - 1, TZ));
+        assertFalse(timeline.isValid(WINDOW_END + 1, TZ));
+        timeline.invalidate();
+        assertFalse(timeline.isValid(NOW, TZ));
+        assertFalse(new ReminderTimeline(null).isValid(NOW, TZ));
+    }
+
+    @SmallTest
+    public void testPopInOrder() {
+        ReminderTimeline timeline = makeTimeline(40);
+        assertEquals(40, timeline.size());
+        assertTrue(timeline.popUntil(NOW));
+        assertEquals(NOW + 100, timeline.getNextAlarmTime());
+        assertEquals(1, timeline.getNextEventId());
+        assertEquals(NOW + 700, timeline.getNextBegin());
+
+        // An alarm at exactly now has gone by
+        assertTrue(timeline.popUntil(NOW + 1500));
+        assertEquals(NOW + 1600, timeline.getNextAlarmTime());
+        assertEquals(25, timeline.size());
+
+        // Alarms added after some were popped still sort in
+        timeline.add(NOW + 1550, 99, NOW + 2000);
+        timeline.add(NOW + 1510, 98, NOW + 2000);
+        assertTrue(timeline.popUntil(NOW + 1500));
+        assertEquals(98, timeline.getNextEventId());
+
+        assertFalse(timeline.popUntil(NOW + 4000));
+        assertEquals(0, timeline.size());
+    }
+
+    @SmallTest
+    public void testSavedWhenChanged() throws IOException {
+        File file = File.createTempFile("reminder_timeline", ".bin");
+        file.delete();
+        try {
+            ReminderTimeline timeline = new ReminderTimeline(new AtomicDataFile(file));
+            timeline.saveIfNeeded();
+            assertFalse(file.exists());
+
+            timeline.reset(NOW, TZ);
+            for (int i = 20; i > 0; i--) {
+                timeline.add(NOW + i * 100, i, NOW + i * 100 + 600);
+            }
+            timeline.setWindowEnd(WINDOW_END);
+            // The alarms that went by aren't saved
+            timeline.popUntil(NOW + 500);
+            timeline.saveIfNeeded();
+
+            ReminderTimeline read = new ReminderTimeline(new AtomicDataFile(file));
+            read.readFile();
+            assertTrue(read.isValid(NOW, TZ));
+            assertEquals(WINDOW_END, read.getWindowEnd());
+            assertEquals(15, read.size());
+            assertTrue(read.popUntil(NOW));
+            assertEquals(NOW + 600, read.getNextAlarmTime());
+            assertEquals(6, read.getNextEventId());
+
+            // Nothing changed since it was read
+            file.delete();
+            read.saveIfNeeded();
+            assertFalse(file.exists());
+
+            // Still invalid after a restart
+            read.invalidate();
+            read.saveIfNeeded();
+            ReminderTimeline restarted = new ReminderTimeline(new AtomicDataFile(file));
+            restarted.readFile();
+            assertFalse(restarted.isValid(NOW, TZ));
+        } finally {
+            file.delete();
+        }
+    }
+}
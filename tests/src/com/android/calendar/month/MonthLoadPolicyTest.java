@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.month;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link MonthLoadPolicy}.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.month.MonthLoadPolicyTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class MonthLoadPolicyTest extends TestCase {
+    private static final int FIRST_DAY = 2456664;
+
+    /**
+     * Scrolls at a steady speed, one sample per frame.
+     */
+    private static void scroll(MonthLoadPolicy policy, float weeksPerSecond, int frames) {
+        for (int i = 0; i <= frames; i++) {
+            policy.onScroll(weeksPerSecond * i * 16 / 1000f, i * 16);
+        }
+    }
+
+    @SmallTest
+    public void testAtRest() {
+        MonthLoadPolicy policy = new MonthLoadPolicy();
+        assertFalse(policy.isFling());
+        assertEquals(MonthLoadPolicy.MIN_WEEKS_BUFFER, policy.getWeeksBefore());
+        assertEquals(MonthLoadPolicy.MIN_WEEKS_BUFFER, policy.getWeeksAfter());
+        assertFalse(policy.shouldLoadAhead(FIRST_DAY, FIRST_DAY + 41, FIRST_DAY, FIRST_DAY + 41));
+    }
+
+    @SmallTest
+    public void testSlowScrollLoadsAhead() {
+        MonthLoadPolicy policy = new MonthLoadPolicy();
+        scroll(policy, 3, 30);
+        assertFalse(policy.isFling());
+        assertEquals(MonthLoadPolicy.MIN_WEEKS_BUFFER, policy.getWeeksBefore());
+        assertTrue(policy.getWeeksAfter() > MonthLoadPolicy.MIN_WEEKS_BUFFER);
+        // Near the end of the loaded days
+        assertTrue(policy.shouldLoadAhead(FIRST_DAY, FIRST_DAY + 41, FIRST_DAY - 7,
+                FIRST_DAY + 45));
+        // Well inside them
+        assertFalse(policy.shouldLoadAhead(FIRST_DAY, FIRST_DAY + 41, FIRST_DAY - 7,
+                FIRST_DAY + 70));
+    }
+
+    @SmallTest
+    public void testBackwardScroll() {
+        MonthLoadPolicy policy = new MonthLoadPolicy();
+        scroll(policy, -3, 30);
+        assertTrue(policy.getWeeksBefore() > MonthLoadPolicy.MIN_WEEKS_BUFFER);
+        assertEquals(MonthLoadPolicy.MIN_WEEKS_BUFFER, policy.getWeeksAfter());
+        assertTrue(policy.shouldLoadAhead(FIRST_DAY, FIRST_DAY + 41, FIRST_DAY - 3,
+                FIRST_DAY + 60));
+    }
+
+    @SmallTest
+    public void testFlingDoesntLoad() {
+        MonthLoadPolicy policy = new MonthLoadPolicy();
+        scroll(policy, 40, 30);
+        assertTrue(policy.isFling());
+        assertFalse(policy.shouldLoadAhead(FIRST_DAY, FIRST_DAY + 41, FIRST_DAY, FIRST_DAY + 41));
+        assertTrue(policy.getWeeksAfter() <= MonthLoadPolicy.MAX_WEEKS_AHEAD);
+
+        policy.onScrollIdle();
+        assertFalse(policy.isFling());
+        assertEquals(MonthLoadPolicy.MIN_WEEKS_BUFFER, policy.getWeeksAfter());
+    }
+
+    @SmallTest
+    public void testMissRate() {
+        MonthLoadPolicy policy = new MonthLoadPolicy();
+        assertEquals(0f, policy.getMissRate());
+        assertFalse(policy.onSettled(FIRST_DAY, FIRST_DAY + 41, FIRST_DAY - 7, FIRST_DAY + 48));
+        assertTrue(policy.onSettled(FIRST_DAY, FIRST_DAY + 41, FIRST_DAY + 7, FIRST_DAY + 48));
+        assertTrue(policy.onSettled(FIRST_DAY, FIRST_DAY + 41, FIRST_DAY - 7, FIRST_DAY + 40));
+        assertFalse(policy.onSettled(FIRST_DAY, FIRST_DAY + 41, FIRST_DAY, FIRST_DAY + 41));
+        assertEquals(0.5f, policy.getMissRate());
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.month;
+
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+
+import com.android.calendar.Event;
+import com.android.calendar.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that rebinding a recycled {@link MonthWeekEventsView} to weeks it
+ * has shown before, the way {@link MonthByWeekAdapter#getView} does while
+ * scrolling, doesn't allocate.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.month.MonthWeekBindAllocationTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class MonthWeekBindAllocationTest extends AndroidTestCase {
+    private static final int FIRST_DAY = 2456664;
+    private static final int NUM_WEEKS = 4;
+    private static final int WIDTH = 700;
+    private static final int HEIGHT = 120;
+    // How many times to bind all the weeks while the dna is computed
+    private static final int MAX_WARM_UP_ROUNDS = 50;
+
+    private MonthWeekEventsView mView;
+    private ArrayList<Event> mEvents;
+    private List<ArrayList<Event>>[] mWeekDays;
+    private int mFirstWeek;
+    private boolean mAllDnaLoaded;
+    private long mAllocations;
+    private boolean mShowDetailsWas;
+    private boolean mRestoreShowDetails;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        int firstJulianDay = Utils.getJulianMondayFromWeeksSinceEpoch(
+                Utils.getWeeksSinceEpochFromJulianDay(FIRST_DAY, Time.MONDAY));
+        mFirstWeek = Utils.getWeeksSinceEpochFromJulianDay(firstJulianDay, Time.MONDAY);
+
+        mEvents = new ArrayList<Event>();
+        for (int day = 0; day < NUM_WEEKS * 7; day++) {
+            Event e = Event.newInstance();
+            e.id = day + 1;
+            e.title = "event " + day;
+            e.startDay = e.endDay = firstJulianDay + day;
+            e.startTime = 9 * 60;
+            e.endTime = 10 * 60;
+            e.startMillis = 0;
+            e.endMillis = DateUtils.HOUR_IN_MILLIS;
+            mEvents.add(e);
+        }
+        ArrayList<ArrayList<Event>> days =
+                WeekEventIndex.build(firstJulianDay, NUM_WEEKS * 7, mEvents).days;
+        mWeekDays = new List[NUM_WEEKS];
+        for (int week = 0; week < NUM_WEEKS; week++) {
+            mWeekDays[week] = days.subList(week * 7, week * 7 + 7);
+        }
+    }
+
+    /**
+     * Creates the view with the weeks showing event details or dna. Which one
+     * the month view uses depends on the screen size, so each test picks its own.
+     */
+    private void setUpView(final boolean showDetails) throws Exception {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mView = new MonthWeekEventsView(getContext());
+                mShowDetailsWas = MonthWeekEventsView.setShowDetailsInMonth(showDetails);
+                mRestoreShowDetails = true;
+                bind(0);
+                mView.layout(0, 0, WIDTH, HEIGHT);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mRestoreShowDetails) {
+            MonthWeekEventsView.setShowDetailsInMonth(mShowDetailsWas);
+        }
+        super.tearDown();
+    }
+
+    private void bind(int week) {
+        WeekParams params = mView.getWeekParams();
+        params.clear();
+        params.height = HEIGHT;
+        params.selectedDay = -1;
+        params.showWeekNum = 1;
+        params.weekStart = Time.MONDAY;
+        params.numDays = 7;
+        params.week = mFirstWeek + week;
+        params.focusMonth = 0;
+        params.orientation = 1;
+        mView.setWeekParams(params, Time.TIMEZONE_UTC);
+        mView.setEvents(mWeekDays[week], mEvents);
+    }
+
+    private void bindAllWeeks() {
+        mAllDnaLoaded = true;
+        for (int week = 0; week < NUM_WEEKS; week++) {
+            bind(week);
+            if (mView.mDna == null) {
+                mAllDnaLoaded = false;
+            }
+        }
+    }
+
+    private static void runOnMainThread(Runnable r) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Runnable task = r;
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                task.run();
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private void assertRebindDoesntAllocate() throws Exception {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                bindAllWeeks();
+                Debug.stopAllocCounting();
+                mAllocations = Debug.getThreadAllocCount();
+            }
+        });
+        assertEquals(0, mAllocations);
+    }
+
+    @SmallTest
+    public void testRebindDoesntAllocate() throws Exception {
+        setUpView(false);
+        // The first binds compute the dna of each week in the background
+        for (int i = 0; i < MAX_WARM_UP_ROUNDS; i++) {
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    bindAllWeeks();
+                }
+            });
+            if (mAllDnaLoaded) {
+                break;
+            }
+            Thread.sleep(20);
+        }
+        assertTrue("dna never loaded", mAllDnaLoaded);
+        assertRebindDoesntAllocate();
+    }
+
+    @SmallTest
+    public void testRebindWithDetailsDoesntAllocate() throws Exception {
+        setUpView(true);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                bindAllWeeks();
+            }
+        });
+        // No dna is computed when the events are shown
+        assertFalse(mAllDnaLoaded);
+        assertRebindDoesntAllocate();
+    }
+}
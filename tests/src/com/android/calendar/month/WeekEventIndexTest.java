@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.month;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.calendar.Event;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+/**
+ * Unit tests for {@link WeekEventIndex}.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.month.WeekEventIndexTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class WeekEventIndexTest extends TestCase {
+    private static final int FIRST_DAY = 2456664;
+    private static final int NUM_DAYS = 14;
+
+    private static Event makeEvent(long id, int startDay, int endDay, String title) {
+        Event e = Event.newInstance();
+        e.id = id;
+        e.title = title;
+        e.startDay = startDay;
+        e.endDay = endDay;
+        return e;
+    }
+
+    private static ArrayList<Event> makeEvents() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        // Starts before the range
+        events.add(makeEvent(1, FIRST_DAY - 2, FIRST_DAY, "one"));
+        events.add(makeEvent(2, FIRST_DAY + 3, FIRST_DAY + 3, "two"));
+        // Spans the two weeks
+        events.add(makeEvent(3, FIRST_DAY + 6, FIRST_DAY + 8, "three"));
+        // Ends after the range
+        events.add(makeEvent(4, FIRST_DAY + 13, FIRST_DAY + 20, "four"));
+        return events;
+    }
+
+    @SmallTest
+    public void testBuckets() {
+        WeekEventIndex index = WeekEventIndex.build(FIRST_DAY, NUM_DAYS, makeEvents());
+        assertEquals(NUM_DAYS, index.days.size());
+        assertEquals(1, index.days.get(0).size());
+        assertEquals(1, index.days.get(0).get(0).id);
+        assertEquals(0, index.days.get(1).size());
+        assertEquals(2, index.days.get(3).get(0).id);
+        for (int day = 6; day <= 8; day++) {
+            assertEquals(1, index.days.get(day).size());
+            assertEquals(3, index.days.get(day).get(0).id);
+        }
+        assertEquals(4, index.days.get(13).get(0).id);
+    }
+
+    @SmallTest
+    public void testNoEvents() {
+        WeekEventIndex index = WeekEventIndex.build(FIRST_DAY, NUM_DAYS, null);
+        assertEquals(NUM_DAYS, index.days.size());
+        for (ArrayList<Event> day : index.days) {
+            assertTrue(day.isEmpty());
+        }
+    }
+
+    @SmallTest
+    public void testSameEventsChangeNoDays() {
+        WeekEventIndex old = WeekEventIndex.build(FIRST_DAY, NUM_DAYS, makeEvents());
+        WeekEventIndex index = WeekEventIndex.build(FIRST_DAY, NUM_DAYS, makeEvents());
+        boolean[] changed = index.findChangedDays(old);
+        assertNotNull(changed);
+        for (boolean dayChanged : changed) {
+            assertFalse(dayChanged);
+        }
+    }
+
+    @SmallTest
+    public void testChangedDays() {
+        WeekEventIndex old = WeekEventIndex.build(FIRST_DAY, NUM_DAYS, makeEvents());
+        ArrayList<Event> events = makeEvents();
+        // Retitle the event spanning the weeks and remove the one on day 3
+        events.get(2).title = "changed";
+        events.remove(1);
+        boolean[] changed = WeekEventIndex.build(FIRST_DAY, NUM_DAYS, events)
+                .findChangedDays(old);
+        for (int day = 0; day < NUM_DAYS; day++) {
+            assertEquals("day " + day, day == 3 || (day >= 6 && day <= 8), changed[day]);
+        }
+    }
+
+    @SmallTest
+    public void testDifferentDaysCantBeCompared() {
+        WeekEventIndex old = WeekEventIndex.build(FIRST_DAY, NUM_DAYS, makeEvents());
+        assertNull(WeekEventIndex.build(FIRST_DAY + 7, NUM_DAYS, makeEvents())
+                .findChangedDays(old));
+        assertNull(WeekEventIndex.build(FIRST_DAY, NUM_DAYS, makeEvents())
+                .findChangedDays(null));
+    }
+}